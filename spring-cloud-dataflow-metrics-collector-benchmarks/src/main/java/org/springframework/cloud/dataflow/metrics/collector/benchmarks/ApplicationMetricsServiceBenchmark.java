@@ -0,0 +1,85 @@
+/*
+ * Copyright 2018 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.springframework.cloud.dataflow.metrics.collector.benchmarks;
+
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+
+import com.github.benmanes.caffeine.cache.Caffeine;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Threads;
+import org.openjdk.jmh.annotations.Warmup;
+
+import org.springframework.cloud.dataflow.metrics.collector.decoder.ApplicationMetricsReader;
+import org.springframework.cloud.dataflow.metrics.collector.model.ApplicationMetricsReading;
+import org.springframework.cloud.dataflow.metrics.collector.services.ApplicationMetricsService;
+
+/**
+ * Concurrent storage of decoded readings. With a single instance all the threads contend
+ * on the same key, with more instances mostly on the stream index.
+ *
+ * @author Christian Tzolov
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class ApplicationMetricsServiceBenchmark {
+
+	@Param({ Fixtures.BOOT_1X, Fixtures.MICROMETER_2X })
+	public String fixture;
+
+	@Param({ "1", "16", "1024" })
+	public int instances;
+
+	private ApplicationMetricsReading[] readings;
+
+	private ApplicationMetricsService service;
+
+	@Setup
+	public void setup() {
+		this.service = new ApplicationMetricsService(Caffeine.newBuilder().build());
+		ApplicationMetricsReader reader = new ApplicationMetricsReader();
+		this.readings = new ApplicationMetricsReading[this.instances];
+		for (int i = 0; i < this.instances; i++) {
+			this.readings[i] = Fixtures.reading(reader, this.fixture, "stream" + (i % 10), "guid" + i);
+		}
+	}
+
+	@Benchmark
+	@Threads(1)
+	public void add() {
+		this.service.add(this.readings[ThreadLocalRandom.current().nextInt(this.instances)]);
+	}
+
+	@Benchmark
+	@Threads(4)
+	public void addContended() {
+		this.service.add(this.readings[ThreadLocalRandom.current().nextInt(this.instances)]);
+	}
+}
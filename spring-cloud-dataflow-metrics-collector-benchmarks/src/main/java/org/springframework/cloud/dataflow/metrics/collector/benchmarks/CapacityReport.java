@@ -0,0 +1,124 @@
+/*
+ * Copyright 2018 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.springframework.cloud.dataflow.metrics.collector.benchmarks;
+
+import java.util.Arrays;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Outcome of a fleet simulation.
+ *
+ * @author Christian Tzolov
+ */
+public class CapacityReport {
+
+	private final FleetProperties fleet;
+
+	private final long elapsedNanos;
+
+	private final long messages;
+
+	private final long failedMessages;
+
+	private final long[] queryNanos;
+
+	private final long failedQueries;
+
+	private final long heapAfterGc;
+
+	private final long cacheSize;
+
+	/**
+	 * @param fleet the simulated fleet
+	 * @param elapsedNanos the duration of the simulation
+	 * @param messages the number of readings stored
+	 * @param failedMessages the number of readings rejected by the collector
+	 * @param queryNanos the latencies of the successful queries
+	 * @param failedQueries the number of failed queries
+	 * @param heapAfterGc the used heap (in bytes) after a full collection
+	 * @param cacheSize the number of instances in the storage
+	 */
+	public CapacityReport(FleetProperties fleet, long elapsedNanos, long messages, long failedMessages,
+			long[] queryNanos, long failedQueries, long heapAfterGc, long cacheSize) {
+		this.fleet = fleet;
+		this.elapsedNanos = elapsedNanos;
+		this.messages = messages;
+		this.failedMessages = failedMessages;
+		this.queryNanos = queryNanos.clone();
+		Arrays.sort(this.queryNanos);
+		this.failedQueries = failedQueries;
+		this.heapAfterGc = heapAfterGc;
+		this.cacheSize = cacheSize;
+	}
+
+	/**
+	 * @return the readings stored per second
+	 */
+	public double getIngestRate() {
+		return this.messages / seconds(this.elapsedNanos);
+	}
+
+	/**
+	 * @return the readings per second the fleet tried to send, 0 if unbounded
+	 */
+	public double getTargetIngestRate() {
+		return this.fleet.getInterval() > 0 ? this.fleet.getTotalInstances() * 1000d / this.fleet.getInterval() : 0;
+	}
+
+	/**
+	 * @param percentile between 0 and 100
+	 * @return the query latency (in milliseconds) at the percentile, 0 without queries
+	 */
+	public double getQueryLatency(double percentile) {
+		if (this.queryNanos.length == 0) {
+			return 0;
+		}
+		int rank = (int) Math.ceil(percentile / 100 * this.queryNanos.length) - 1;
+		return this.queryNanos[Math.max(0, Math.min(rank, this.queryNanos.length - 1))] / 1e6;
+	}
+
+	public long getHeapAfterGc() {
+		return heapAfterGc;
+	}
+
+	public long getCacheSize() {
+		return cacheSize;
+	}
+
+	@Override
+	public String toString() {
+		StringBuilder report = new StringBuilder();
+		report.append(String.format("Fleet:   %d streams x %d apps x %d instances = %d instances, %.0f%% 2.x, %s%n",
+				this.fleet.getStreams(), this.fleet.getApps(), this.fleet.getInstances(),
+				this.fleet.getTotalInstances(), this.fleet.getMicrometerRatio() * 100,
+				this.fleet.getInterval() > 0 ? "every " + this.fleet.getInterval() + " ms" : "unthrottled"));
+		report.append(String.format("Ingest:  %d readings in %.1f s, %.1f msg/s sustained%s, %d failed%n",
+				this.messages, seconds(this.elapsedNanos), getIngestRate(),
+				getTargetIngestRate() > 0 ? String.format(" (target %.1f msg/s)", getTargetIngestRate()) : "",
+				this.failedMessages));
+		report.append(String.format("Queries: %d readers, %d queries, p50 %.2f ms, p99 %.2f ms, max %.2f ms, %d failed%n",
+				this.fleet.getReaders(), this.queryNanos.length, getQueryLatency(50), getQueryLatency(99),
+				getQueryLatency(100), this.failedQueries));
+		report.append(String.format("Heap:    %.1f MB used after GC%n", this.heapAfterGc / (1024d * 1024d)));
+		report.append(String.format("Cache:   %d instances%n", this.cacheSize));
+		return report.toString();
+	}
+
+	private static double seconds(long nanos) {
+		return nanos / (double) TimeUnit.SECONDS.toNanos(1);
+	}
+}
@@ -0,0 +1,111 @@
+/*
+ * Copyright 2018 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.springframework.cloud.dataflow.metrics.collector.benchmarks;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.UncheckedIOException;
+import java.nio.charset.StandardCharsets;
+
+import org.springframework.cloud.dataflow.metrics.collector.decoder.ApplicationMetricsReader;
+import org.springframework.cloud.dataflow.metrics.collector.model.ApplicationMetricsReading;
+import org.springframework.util.StreamUtils;
+
+/**
+ * Payload fixtures of the benchmarks, as emitted by a Spring Cloud Stream log sink. The
+ * {@code boot-1x} payload holds the Spring Boot 1.x actuator metrics of a Spring Cloud
+ * Stream 1.x application, the {@code micrometer-2x} one the Micrometer meters of a 2.x
+ * application. The instance guid of a fixture is the {@link #GUID} placeholder.
+ *
+ * @author Christian Tzolov
+ */
+public final class Fixtures {
+
+	public static final String BOOT_1X = "boot-1x";
+
+	public static final String MICROMETER_2X = "micrometer-2x";
+
+	public static final String GUID = "GUID";
+
+	private Fixtures() {
+	}
+
+	/**
+	 * @param fixture the fixture name
+	 * @return the payload of the fixture
+	 */
+	public static String payload(String fixture) {
+		try (InputStream in = Fixtures.class.getResourceAsStream("/payloads/" + fixture + ".json")) {
+			if (in == null) {
+				throw new IllegalArgumentException("Unknown fixture " + fixture);
+			}
+			return StreamUtils.copyToString(in, StandardCharsets.UTF_8);
+		}
+		catch (IOException e) {
+			throw new UncheckedIOException(e);
+		}
+	}
+
+	/**
+	 * @param fixture the fixture name
+	 * @param stream the stream name
+	 * @param guid the instance guid
+	 * @return the payload of the fixture for an instance of the stream
+	 */
+	public static String payload(String fixture, String stream, String guid) {
+		return payload(fixture).replace("ticktock", stream).replace(GUID, guid);
+	}
+
+	/**
+	 * @param fixture the fixture name
+	 * @param stream the stream name
+	 * @param app the application name
+	 * @param guid the instance guid
+	 * @return the payload of the fixture for an instance of the application
+	 */
+	public static String payload(String fixture, String stream, String app, String guid) {
+		return payload(fixture).replace("ticktock.log.", stream + "." + app + ".").replace("\"log\"", "\"" + app + "\"")
+				.replace("ticktock", stream).replace(GUID, guid);
+	}
+
+	/**
+	 * @param fixture the fixture name
+	 * @param stream the stream name
+	 * @param app the application name
+	 * @param guid the instance guid
+	 * @return the template of the fixture payloads of an instance of the application
+	 */
+	public static PayloadTemplate template(String fixture, String stream, String app, String guid) {
+		return new PayloadTemplate(payload(fixture, stream, app, guid));
+	}
+
+	/**
+	 * @param fixture the fixture name
+	 * @param stream the stream name
+	 * @param guid the instance guid
+	 * @return the decoded reading of the fixture for an instance of the stream
+	 */
+	public static ApplicationMetricsReading reading(ApplicationMetricsReader reader, String fixture, String stream,
+			String guid) {
+		try {
+			return reader.read(payload(fixture, stream, guid), null);
+		}
+		catch (IOException e) {
+			throw new UncheckedIOException(e);
+		}
+	}
+}
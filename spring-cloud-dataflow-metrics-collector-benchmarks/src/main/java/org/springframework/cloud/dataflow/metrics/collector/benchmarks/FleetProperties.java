@@ -0,0 +1,146 @@
+/*
+ * Copyright 2018 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.springframework.cloud.dataflow.metrics.collector.benchmarks;
+
+import org.springframework.boot.context.properties.ConfigurationProperties;
+
+/**
+ * Size and load of the fleet simulated by the {@link FleetSimulatorApplication}.
+ *
+ * @author Christian Tzolov
+ */
+@ConfigurationProperties(prefix = "fleet")
+public class FleetProperties {
+
+	private Integer streams = 10;
+
+	private Integer apps = 3;
+
+	private Integer instances = 2;
+
+	private Long interval = 1000L;
+
+	private Double micrometerRatio = 0.5;
+
+	private Integer producers = 4;
+
+	private Integer readers = 4;
+
+	private Integer duration = 60;
+
+	/**
+	 * Number of simulated streams.  Default value is 10
+	 * @return the number of streams
+	 */
+	public Integer getStreams() {
+		return streams;
+	}
+
+	public void setStreams(Integer streams) {
+		this.streams = streams;
+	}
+
+	/**
+	 * Number of applications per stream.  Default value is 3
+	 * @return the number of applications per stream
+	 */
+	public Integer getApps() {
+		return apps;
+	}
+
+	public void setApps(Integer apps) {
+		this.apps = apps;
+	}
+
+	/**
+	 * Number of instances per application.  Default value is 2
+	 * @return the number of instances per application
+	 */
+	public Integer getInstances() {
+		return instances;
+	}
+
+	public void setInstances(Integer instances) {
+		this.instances = instances;
+	}
+
+	/**
+	 * Time (in milliseconds) between two readings of an instance, 0 to send the readings as
+	 * fast as the collector takes them.  Default value is 1000 milliseconds
+	 * @return the reporting interval of the instances
+	 */
+	public Long getInterval() {
+		return interval;
+	}
+
+	public void setInterval(Long interval) {
+		this.interval = interval;
+	}
+
+	/**
+	 * Share of the streams emitting Spring Cloud Stream 2.x (Micrometer) metrics, the others
+	 * emitting 1.x metrics.  Default value is 0.5
+	 * @return the share of 2.x streams
+	 */
+	public Double getMicrometerRatio() {
+		return micrometerRatio;
+	}
+
+	public void setMicrometerRatio(Double micrometerRatio) {
+		this.micrometerRatio = micrometerRatio;
+	}
+
+	/**
+	 * Number of threads sending the readings.  Default value is 4
+	 * @return the number of producer threads
+	 */
+	public Integer getProducers() {
+		return producers;
+	}
+
+	public void setProducers(Integer producers) {
+		this.producers = producers;
+	}
+
+	/**
+	 * Number of threads polling the REST endpoint, 0 for none.  Default value is 4
+	 * @return the number of reader threads
+	 */
+	public Integer getReaders() {
+		return readers;
+	}
+
+	public void setReaders(Integer readers) {
+		this.readers = readers;
+	}
+
+	/**
+	 * Duration (in seconds) of the simulation.  Default value is 60 seconds
+	 * @return the simulation duration
+	 */
+	public Integer getDuration() {
+		return duration;
+	}
+
+	public void setDuration(Integer duration) {
+		this.duration = duration;
+	}
+
+	public int getTotalInstances() {
+		return streams * apps * instances;
+	}
+}
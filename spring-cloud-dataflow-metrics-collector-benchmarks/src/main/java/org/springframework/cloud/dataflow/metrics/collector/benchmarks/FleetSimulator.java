@@ -0,0 +1,200 @@
+/*
+ * Copyright 2018 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.springframework.cloud.dataflow.metrics.collector.benchmarks;
+
+import java.lang.management.ManagementFactory;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+import com.github.benmanes.caffeine.cache.Cache;
+
+import org.springframework.cloud.dataflow.metrics.collector.services.ApplicationMetricsHistory;
+import org.springframework.messaging.MessageChannel;
+import org.springframework.messaging.support.MessageBuilder;
+import org.springframework.web.client.RestTemplate;
+
+/**
+ * Sends the readings of a simulated fleet to the collector input while reader threads
+ * poll the stream metrics endpoint, then reports the capacity observed.
+ *
+ * Each producer thread owns a share of the instances and sends one reading per instance
+ * and per interval, or as fast as the collector takes them with no interval. The readings
+ * are the {@link Fixtures} payloads, 1.x or 2.x depending on the stream, timestamped when
+ * sent and with their 1.x send counters advanced by {@link #SENDS_PER_ROUND} every round.
+ *
+ * @author Christian Tzolov
+ */
+public class FleetSimulator {
+
+	/**
+	 * Messages sent by each channel of an instance between two of its readings.
+	 */
+	static final int SENDS_PER_ROUND = 1000;
+
+	private final FleetProperties fleet;
+
+	private final MessageChannel input;
+
+	private final Cache<String, ApplicationMetricsHistory> storage;
+
+	private final RestTemplate restTemplate = new RestTemplate();
+
+	private final AtomicLong messages = new AtomicLong();
+
+	private final AtomicLong failedMessages = new AtomicLong();
+
+	private final AtomicLong failedQueries = new AtomicLong();
+
+	/**
+	 * @param fleet the fleet to simulate
+	 * @param input the collector input channel
+	 * @param storage the collector storage
+	 */
+	public FleetSimulator(FleetProperties fleet, MessageChannel input,
+			Cache<String, ApplicationMetricsHistory> storage) {
+		this.fleet = fleet;
+		this.input = input;
+		this.storage = storage;
+	}
+
+	/**
+	 * Runs the simulation for the configured duration.
+	 * @param url the stream metrics endpoint polled by the readers
+	 * @return the capacity report
+	 * @throws InterruptedException if interrupted while waiting for the simulation
+	 */
+	public CapacityReport run(String url) throws InterruptedException {
+		List<PayloadTemplate> payloads = payloads();
+		long start = System.nanoTime();
+		long deadline = start + TimeUnit.SECONDS.toNanos(this.fleet.getDuration());
+
+		ExecutorService executor = Executors.newFixedThreadPool(this.fleet.getProducers() + this.fleet.getReaders());
+		for (int producer = 0; producer < this.fleet.getProducers(); producer++) {
+			int first = producer;
+			executor.execute(() -> produce(payloads, first, deadline));
+		}
+		List<Future<long[]>> readers = new ArrayList<>();
+		for (int reader = 0; reader < this.fleet.getReaders(); reader++) {
+			readers.add(executor.submit(() -> read(url, deadline)));
+		}
+		executor.shutdown();
+		executor.awaitTermination(this.fleet.getDuration() + 60, TimeUnit.SECONDS);
+		long elapsed = System.nanoTime() - start;
+
+		long[] queryNanos = new long[0];
+		for (Future<long[]> reader : readers) {
+			long[] latencies = get(reader);
+			int offset = queryNanos.length;
+			queryNanos = Arrays.copyOf(queryNanos, offset + latencies.length);
+			System.arraycopy(latencies, 0, queryNanos, offset, latencies.length);
+		}
+
+		System.gc();
+		long heapAfterGc = ManagementFactory.getMemoryMXBean().getHeapMemoryUsage().getUsed();
+		this.storage.cleanUp();
+		return new CapacityReport(this.fleet, elapsed, this.messages.get(), this.failedMessages.get(), queryNanos,
+				this.failedQueries.get(), heapAfterGc, this.storage.estimatedSize());
+	}
+
+	/**
+	 * One payload per instance, the first streams emitting 2.x metrics.
+	 */
+	private List<PayloadTemplate> payloads() {
+		int micrometerStreams = (int) Math.round(this.fleet.getStreams() * this.fleet.getMicrometerRatio());
+		List<PayloadTemplate> payloads = new ArrayList<>(this.fleet.getTotalInstances());
+		for (int stream = 0; stream < this.fleet.getStreams(); stream++) {
+			String fixture = (stream < micrometerStreams) ? Fixtures.MICROMETER_2X : Fixtures.BOOT_1X;
+			for (int app = 0; app < this.fleet.getApps(); app++) {
+				for (int instance = 0; instance < this.fleet.getInstances(); instance++) {
+					payloads.add(Fixtures.template(fixture, "stream" + stream, "app" + app,
+							"guid-" + stream + "-" + app + "-" + instance));
+				}
+			}
+		}
+		return payloads;
+	}
+
+	private void produce(List<PayloadTemplate> payloads, int first, long deadline) {
+		long intervalNanos = TimeUnit.MILLISECONDS.toNanos(this.fleet.getInterval());
+		long round = System.nanoTime();
+		long timestamp = 0;
+		for (long sent = 0; System.nanoTime() < deadline; sent += SENDS_PER_ROUND) {
+			// the readings of an instance never share a timestamp, even with no interval
+			timestamp = Math.max(System.currentTimeMillis(), timestamp + 1);
+			for (int i = first; i < payloads.size(); i += this.fleet.getProducers()) {
+				try {
+					this.input.send(MessageBuilder.withPayload(payloads.get(i).render(timestamp, sent)).build());
+					this.messages.incrementAndGet();
+				}
+				catch (RuntimeException e) {
+					this.failedMessages.incrementAndGet();
+				}
+			}
+			if (intervalNanos > 0) {
+				round += intervalNanos;
+				long sleep = Math.min(round, deadline) - System.nanoTime();
+				try {
+					TimeUnit.NANOSECONDS.sleep(Math.max(0, sleep));
+				}
+				catch (InterruptedException e) {
+					Thread.currentThread().interrupt();
+					return;
+				}
+			}
+		}
+	}
+
+	/**
+	 * Polls the endpoint until the deadline.
+	 * @return the latencies of the successful queries
+	 */
+	private long[] read(String url, long deadline) {
+		long[] latencies = new long[1024];
+		int count = 0;
+		while (System.nanoTime() < deadline) {
+			long start = System.nanoTime();
+			try {
+				this.restTemplate.getForEntity(url, byte[].class);
+			}
+			catch (RuntimeException e) {
+				this.failedQueries.incrementAndGet();
+				continue;
+			}
+			if (count == latencies.length) {
+				latencies = Arrays.copyOf(latencies, count * 2);
+			}
+			latencies[count++] = System.nanoTime() - start;
+		}
+		return Arrays.copyOf(latencies, count);
+	}
+
+	private static long[] get(Future<long[]> reader) throws InterruptedException {
+		try {
+			return reader.get();
+		}
+		catch (ExecutionException e) {
+			throw new IllegalStateException("Reader failed", e.getCause());
+		}
+	}
+}
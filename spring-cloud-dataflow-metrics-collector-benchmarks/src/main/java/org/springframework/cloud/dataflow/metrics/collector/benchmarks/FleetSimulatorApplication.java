@@ -0,0 +1,70 @@
+/*
+ * Copyright 2018 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.springframework.cloud.dataflow.metrics.collector.benchmarks;
+
+import java.util.HashMap;
+import java.util.Map;
+
+import com.github.benmanes.caffeine.cache.Cache;
+
+import org.springframework.boot.SpringApplication;
+import org.springframework.boot.autoconfigure.SpringBootApplication;
+import org.springframework.boot.context.properties.EnableConfigurationProperties;
+import org.springframework.cloud.dataflow.metrics.collector.MetricsCollectorConfiguration;
+import org.springframework.cloud.dataflow.metrics.collector.services.ApplicationMetricsHistory;
+import org.springframework.cloud.stream.messaging.Sink;
+import org.springframework.context.ConfigurableApplicationContext;
+import org.springframework.context.annotation.Bean;
+import org.springframework.context.annotation.Import;
+
+/**
+ * Boots the collector on a random port with the Spring Cloud Stream test binder, runs a
+ * {@link FleetSimulator} against it and prints the {@link CapacityReport}. The fleet is
+ * configured with the {@link FleetProperties}, e.g.
+ * {@code --fleet.streams=100 --fleet.interval=5000 --fleet.duration=120}, and the
+ * collector with its usual properties.
+ *
+ * @author Christian Tzolov
+ */
+@SpringBootApplication
+@Import(MetricsCollectorConfiguration.class)
+@EnableConfigurationProperties(FleetProperties.class)
+public class FleetSimulatorApplication {
+
+	@Bean
+	public FleetSimulator fleetSimulator(FleetProperties fleetProperties, Sink sink,
+			Cache<String, ApplicationMetricsHistory> metricsStorage) {
+		return new FleetSimulator(fleetProperties, sink.input(), metricsStorage);
+	}
+
+	public static void main(String[] args) throws InterruptedException {
+		Map<String, Object> defaults = new HashMap<>();
+		defaults.put("server.port", 0);
+		defaults.put("logging.level.root", "WARN");
+		SpringApplication application = new SpringApplication(FleetSimulatorApplication.class);
+		application.setDefaultProperties(defaults);
+		ConfigurableApplicationContext context = application.run(args);
+		try {
+			String url = "http://localhost:" + context.getEnvironment().getProperty("local.server.port")
+					+ "/collector/metrics/streams";
+			System.out.println(context.getBean(FleetSimulator.class).run(url));
+		}
+		finally {
+			System.exit(SpringApplication.exit(context));
+		}
+	}
+}
@@ -0,0 +1,101 @@
+/*
+ * Copyright 2018 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.springframework.cloud.dataflow.metrics.collector.benchmarks;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Date;
+import java.util.List;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+
+import com.fasterxml.jackson.core.JsonProcessingException;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.module.SimpleModule;
+import com.github.benmanes.caffeine.cache.Caffeine;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import org.springframework.cloud.dataflow.metrics.collector.decoder.ApplicationMetricsReader;
+import org.springframework.cloud.dataflow.metrics.collector.model.Metric;
+import org.springframework.cloud.dataflow.metrics.collector.model.StreamMetrics;
+import org.springframework.cloud.dataflow.metrics.collector.services.ApplicationMetricsService;
+import org.springframework.cloud.dataflow.metrics.collector.support.MetricJsonSerializer;
+
+/**
+ * Serialization of the endpoint responses with the {@link MetricJsonSerializer}, for
+ * single metrics and whole stream views.
+ *
+ * @author Christian Tzolov
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class MetricJsonSerializerBenchmark {
+
+	@Param({ "10", "1000" })
+	public int instances;
+
+	private ObjectMapper mapper;
+
+	private List<Metric<Double>> metrics;
+
+	private Collection<StreamMetrics> streamMetrics;
+
+	@Setup
+	public void setup() {
+		SimpleModule module = new SimpleModule();
+		module.addSerializer(Metric.class, new MetricJsonSerializer.Serializer());
+		this.mapper = new ObjectMapper().registerModule(module);
+
+		this.metrics = new ArrayList<>();
+		ThreadLocalRandom random = ThreadLocalRandom.current();
+		for (int i = 0; i < 100; i++) {
+			this.metrics.add(new Metric<>("integration.channel.output.send.mean", random.nextDouble() * 1000,
+					new Date(System.currentTimeMillis() - random.nextInt(1000000))));
+		}
+
+		ApplicationMetricsService service = new ApplicationMetricsService(Caffeine.newBuilder().build());
+		ApplicationMetricsReader reader = new ApplicationMetricsReader();
+		for (int i = 0; i < this.instances; i++) {
+			service.add(Fixtures.reading(reader, Fixtures.BOOT_1X, "stream" + (i / 10), "guid" + i));
+		}
+		this.streamMetrics = service.toStreamMetrics("");
+	}
+
+	@Benchmark
+	public byte[] metrics() throws JsonProcessingException {
+		return this.mapper.writeValueAsBytes(this.metrics);
+	}
+
+	@Benchmark
+	public byte[] streamMetrics() throws JsonProcessingException {
+		return this.mapper.writeValueAsBytes(this.streamMetrics);
+	}
+}
@@ -0,0 +1,99 @@
+/*
+ * Copyright 2018 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.springframework.cloud.dataflow.metrics.collector.benchmarks;
+
+import java.util.concurrent.TimeUnit;
+import java.util.regex.Pattern;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import org.springframework.cloud.dataflow.metrics.collector.decoder.ApplicationMetricsReader;
+import org.springframework.cloud.dataflow.metrics.collector.model.ApplicationMetricsReading;
+import org.springframework.cloud.dataflow.metrics.collector.utils.MetricNames;
+
+/**
+ * Classification of the metric names of a Spring Boot 1.x payload by {@link MetricNames},
+ * compared with the regular expressions it replaced.
+ *
+ * @author Christian Tzolov
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class MetricNamesBenchmark {
+
+	private static final String SEND_MEAN_REGEX = "integration\\.channel\\.(\\w*)\\.send\\.mean";
+
+	private static final Pattern SEND_MEAN_PATTERN = Pattern.compile(SEND_MEAN_REGEX);
+
+	private String[] names;
+
+	@Setup
+	public void setup() {
+		ApplicationMetricsReading reading = Fixtures.reading(new ApplicationMetricsReader(), Fixtures.BOOT_1X,
+				"ticktock", "guid");
+		this.names = new String[reading.size()];
+		for (int i = 0; i < reading.size(); i++) {
+			this.names[i] = reading.getMetricName(i);
+		}
+	}
+
+	@Benchmark
+	public int metricNames() {
+		int matches = 0;
+		for (String name : this.names) {
+			if (MetricNames.isChannelSendMean(name)) {
+				matches++;
+			}
+		}
+		return matches;
+	}
+
+	@Benchmark
+	public int stringMatches() {
+		int matches = 0;
+		for (String name : this.names) {
+			if (name.matches(SEND_MEAN_REGEX)) {
+				matches++;
+			}
+		}
+		return matches;
+	}
+
+	@Benchmark
+	public int compiledPattern() {
+		int matches = 0;
+		for (String name : this.names) {
+			if (SEND_MEAN_PATTERN.matcher(name).matches()) {
+				matches++;
+			}
+		}
+		return matches;
+	}
+}
@@ -0,0 +1,129 @@
+/*
+ * Copyright 2018 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.springframework.cloud.dataflow.metrics.collector.benchmarks;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.concurrent.TimeUnit;
+
+import com.github.benmanes.caffeine.cache.Cache;
+import com.github.benmanes.caffeine.cache.Caffeine;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import org.springframework.cloud.dataflow.metrics.collector.MetricsAggregator;
+import org.springframework.cloud.dataflow.metrics.collector.services.ApplicationMetricsHistory;
+import org.springframework.cloud.dataflow.metrics.collector.services.ApplicationMetricsJournal;
+import org.springframework.cloud.dataflow.metrics.collector.services.ApplicationMetricsService;
+
+/**
+ * Ingestion of a payload, from the raw message to the updated storage, cycling over the
+ * instances of a few streams, optionally journaling the readings.
+ *
+ * @author Christian Tzolov
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class MetricsAggregatorBenchmark {
+
+	@Param({ Fixtures.BOOT_1X, Fixtures.MICROMETER_2X })
+	public String fixture;
+
+	@Param({ "1000" })
+	public int instances;
+
+	@Param({ "false", "true" })
+	public boolean journal;
+
+	private String[] stringPayloads;
+
+	private byte[][] bytePayloads;
+
+	private MetricsAggregator aggregator;
+
+	private ApplicationMetricsJournal metricsJournal;
+
+	private Path journalDirectory;
+
+	private int next;
+
+	@Setup
+	public void setup() throws IOException {
+		Cache<String, ApplicationMetricsHistory> storage = Caffeine.newBuilder().build();
+		ApplicationMetricsService service = new ApplicationMetricsService(storage);
+		this.aggregator = new MetricsAggregator(service);
+		if (this.journal) {
+			this.journalDirectory = Files.createTempDirectory("journal");
+			this.metricsJournal = new ApplicationMetricsJournal(storage, service, this.journalDirectory,
+					16 * 1024 * 1024, 128 * 1024 * 1024, 90000);
+			this.metricsJournal.start();
+			this.aggregator.setJournal(this.metricsJournal);
+		}
+		this.stringPayloads = new String[this.instances];
+		this.bytePayloads = new byte[this.instances][];
+		for (int i = 0; i < this.instances; i++) {
+			this.stringPayloads[i] = Fixtures.payload(this.fixture, "stream" + (i % 10), "guid" + i);
+			this.bytePayloads[i] = this.stringPayloads[i].getBytes(StandardCharsets.UTF_8);
+		}
+	}
+
+	@TearDown
+	public void tearDown() throws IOException {
+		if (this.metricsJournal != null) {
+			this.metricsJournal.stop();
+			try (DirectoryStream<Path> segments = Files.newDirectoryStream(this.journalDirectory)) {
+				for (Path segment : segments) {
+					Files.delete(segment);
+				}
+			}
+			Files.delete(this.journalDirectory);
+		}
+	}
+
+	@Benchmark
+	public void receiveString() {
+		this.aggregator.receive(this.stringPayloads[nextInstance()]);
+	}
+
+	@Benchmark
+	public void receiveBytes() {
+		this.aggregator.receive(this.bytePayloads[nextInstance()]);
+	}
+
+	private int nextInstance() {
+		int instance = this.next;
+		this.next = (instance + 1 == this.instances) ? 0 : instance + 1;
+		return instance;
+	}
+}
@@ -0,0 +1,118 @@
+/*
+ * Copyright 2018 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.springframework.cloud.dataflow.metrics.collector.benchmarks;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import org.springframework.cloud.dataflow.metrics.collector.model.MicrometerMetric;
+
+/**
+ * Lookup of the type, result and name tags of Micrometer meter ids carrying a realistic
+ * number of tags, compared with the linear scan of the tags list it replaced.
+ *
+ * @author Christian Tzolov
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class MicrometerMetricBenchmark {
+
+	private static final String[] KEYS = { "type", "result", "name" };
+
+	private static final String[] EXTRA_KEYS = { "application", "application.guid", "area", "exception",
+			"host", "id", "instance.index", "region", "stream" };
+
+	private static final int METERS = 1000;
+
+	/**
+	 * Number of tags of each meter id.
+	 */
+	@Param({ "3", "8", "10" })
+	public int tags;
+
+	private MicrometerMetric.Id[] ids;
+
+	@Setup
+	public void setup() {
+		this.ids = new MicrometerMetric.Id[METERS];
+		for (int i = 0; i < METERS; i++) {
+			List<MicrometerMetric.Tag> tags = new ArrayList<>();
+			for (int t = 0; t < this.tags - KEYS.length; t++) {
+				tags.add(tag(EXTRA_KEYS[t], "value" + i));
+			}
+			tags.add(tag("name", "channel" + i));
+			tags.add(tag("type", "channel"));
+			tags.add(tag("result", "success"));
+			this.ids[i] = new MicrometerMetric.Id();
+			this.ids[i].setName("spring.integration.send");
+			this.ids[i].setTags(tags);
+		}
+	}
+
+	@Benchmark
+	public int getTag() {
+		int found = 0;
+		for (MicrometerMetric.Id id : this.ids) {
+			for (String key : KEYS) {
+				if (id.getTag(key) != null) {
+					found++;
+				}
+			}
+		}
+		return found;
+	}
+
+	@Benchmark
+	public int linearScan() {
+		int found = 0;
+		for (MicrometerMetric.Id id : this.ids) {
+			for (String key : KEYS) {
+				for (MicrometerMetric.Tag tag : id.getTags()) {
+					if (tag.getKey().equals(key)) {
+						found++;
+						break;
+					}
+				}
+			}
+		}
+		return found;
+	}
+
+	private static MicrometerMetric.Tag tag(String key, String value) {
+		MicrometerMetric.Tag tag = new MicrometerMetric.Tag();
+		tag.setKey(key);
+		tag.setValue(value);
+		return tag;
+	}
+}
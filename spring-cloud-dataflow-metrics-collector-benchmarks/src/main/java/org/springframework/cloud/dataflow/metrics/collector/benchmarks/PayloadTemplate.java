@@ -0,0 +1,85 @@
+/*
+ * Copyright 2018 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.springframework.cloud.dataflow.metrics.collector.benchmarks;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+/**
+ * A payload whose metric timestamps and Spring Boot 1.x send counters are rendered for
+ * each reading, so the collector computes real rates rather than the ones of a frozen
+ * reading. The payload is split once around those values.
+ *
+ * @author Christian Tzolov
+ */
+public final class PayloadTemplate {
+
+	/**
+	 * A metric timestamp, or the value of a 1.x send counter.
+	 */
+	private static final Pattern VALUES = Pattern.compile(
+			"\"timestamp\": (\\d+)|\\.sendCount\",\\s+\"value\": (\\d+)");
+
+	private final String[] parts;
+
+	private final int length;
+
+	/**
+	 * Initial value of each counter slot, -1 for the timestamp slots.
+	 */
+	private final long[] counters;
+
+	/**
+	 * @param payload the payload to render
+	 */
+	public PayloadTemplate(String payload) {
+		List<String> parts = new ArrayList<>();
+		List<Long> counters = new ArrayList<>();
+		Matcher matcher = VALUES.matcher(payload);
+		int start = 0;
+		while (matcher.find()) {
+			int group = (matcher.group(1) != null) ? 1 : 2;
+			parts.add(payload.substring(start, matcher.start(group)));
+			counters.add((group == 1) ? -1L : Long.parseLong(matcher.group(group)));
+			start = matcher.end(group);
+		}
+		parts.add(payload.substring(start));
+		this.parts = parts.toArray(new String[0]);
+		this.length = payload.length() + counters.size() * 8;
+		this.counters = new long[counters.size()];
+		for (int i = 0; i < this.counters.length; i++) {
+			this.counters[i] = counters.get(i);
+		}
+	}
+
+	/**
+	 * @param timestamp the time (in milliseconds) of the metrics
+	 * @param sent the number of messages sent by each channel since the first reading
+	 * @return the payload of the reading
+	 */
+	public String render(long timestamp, long sent) {
+		StringBuilder payload = new StringBuilder(this.length);
+		payload.append(this.parts[0]);
+		for (int i = 0; i < this.counters.length; i++) {
+			payload.append(this.counters[i] < 0 ? timestamp : this.counters[i] + sent);
+			payload.append(this.parts[i + 1]);
+		}
+		return payload.toString();
+	}
+}
@@ -0,0 +1,101 @@
+/*
+ * Copyright 2018 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.springframework.cloud.dataflow.metrics.collector.benchmarks;
+
+import java.util.Collection;
+import java.util.concurrent.TimeUnit;
+
+import com.github.benmanes.caffeine.cache.Caffeine;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import org.springframework.cloud.dataflow.metrics.collector.decoder.ApplicationMetricsReader;
+import org.springframework.cloud.dataflow.metrics.collector.model.ApplicationMetricsReading;
+import org.springframework.cloud.dataflow.metrics.collector.model.StreamMetrics;
+import org.springframework.cloud.dataflow.metrics.collector.services.ApplicationMetricsService;
+
+/**
+ * Queries of the stream metrics, over streams of 10 instances. {@link #unchanged()} serves
+ * the stream views built by a previous query, {@link #afterUpdate()} rebuilds the view of
+ * the stream updated before each query and {@link #version()} computes the ETag version.
+ *
+ * @author Christian Tzolov
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class StreamMetricsBenchmark {
+
+	private static final int INSTANCES_PER_STREAM = 10;
+
+	@Param({ Fixtures.BOOT_1X, Fixtures.MICROMETER_2X })
+	public String fixture;
+
+	@Param({ "10", "100", "1000", "10000" })
+	public int instances;
+
+	private ApplicationMetricsReading[] readings;
+
+	private ApplicationMetricsService service;
+
+	private int next;
+
+	@Setup
+	public void setup() {
+		this.service = new ApplicationMetricsService(Caffeine.newBuilder().build());
+		ApplicationMetricsReader reader = new ApplicationMetricsReader();
+		this.readings = new ApplicationMetricsReading[this.instances];
+		for (int i = 0; i < this.instances; i++) {
+			this.readings[i] = Fixtures.reading(reader, this.fixture, "stream" + (i / INSTANCES_PER_STREAM),
+					"guid" + i);
+			// two readings, so the rates are computed
+			this.service.add(this.readings[i]);
+			this.service.add(this.readings[i]);
+		}
+		this.service.toStreamMetrics("");
+	}
+
+	@Benchmark
+	public Collection<StreamMetrics> unchanged() {
+		return this.service.toStreamMetrics("");
+	}
+
+	@Benchmark
+	public Collection<StreamMetrics> afterUpdate() {
+		int instance = this.next;
+		this.next = (instance + 1 == this.instances) ? 0 : instance + 1;
+		this.service.add(this.readings[instance]);
+		return this.service.toStreamMetrics("");
+	}
+
+	@Benchmark
+	public long version() {
+		return this.service.getVersion("");
+	}
+}
@@ -16,6 +16,10 @@
 
 package org.springframework.cloud.dataflow.metrics.collector;
 
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
 import org.springframework.boot.context.properties.ConfigurationProperties;
 
 /**
@@ -25,6 +29,24 @@ import org.springframework.boot.context.properties.ConfigurationProperties;
 public class MetricCollectorProperties {
 	private Integer evictionTimeout = 90;
 
+	private Integer historyDepth = 2;
+
+	private Long maximumWeight;
+
+	private PayloadType payloadType = PayloadType.STRING;
+
+	private final Batch batch = new Batch();
+
+	private final Events events = new Events();
+
+	private final Rollups rollups = new Rollups();
+
+	private final Meters meters = new Meters();
+
+	private final Snapshot snapshot = new Snapshot();
+
+	private final Journal journal = new Journal();
+
 	/**
 	 * Timeout (in seconds) before metric entry is removed from cache.  Default value is 90 seconds
 	 * @return Timeout (in seconds)
@@ -36,4 +58,438 @@ public class MetricCollectorProperties {
 	public void setEvictionTimeout(Integer evictionTimeout) {
 		this.evictionTimeout = evictionTimeout;
 	}
+
+	/**
+	 * Number of readings retained per application instance, at least 2.  Default value is 2
+	 * @return the number of readings retained per instance
+	 */
+	public Integer getHistoryDepth() {
+		return historyDepth;
+	}
+
+	public void setHistoryDepth(Integer historyDepth) {
+		this.historyDepth = historyDepth;
+	}
+
+	/**
+	 * Maximum estimated size (in bytes) of the retained metrics, the least recently used
+	 * instances being evicted beyond it.  Unbounded by default, the instances being only
+	 * removed after the eviction timeout
+	 * @return the maximum weight of the metrics storage, null if unbounded
+	 */
+	public Long getMaximumWeight() {
+		return maximumWeight;
+	}
+
+	public void setMaximumWeight(Long maximumWeight) {
+		this.maximumWeight = maximumWeight;
+	}
+
+	/**
+	 * How the metrics payloads are handed over by the binder. With {@link PayloadType#BYTES} the
+	 * raw message body is parsed directly, skipping the String conversion. Default value is
+	 * {@link PayloadType#STRING}
+	 * @return the payload type consumed by the metrics listener
+	 */
+	public PayloadType getPayloadType() {
+		return payloadType;
+	}
+
+	public void setPayloadType(PayloadType payloadType) {
+		this.payloadType = payloadType;
+	}
+
+	public Batch getBatch() {
+		return batch;
+	}
+
+	public Events getEvents() {
+		return events;
+	}
+
+	public Rollups getRollups() {
+		return rollups;
+	}
+
+	public Meters getMeters() {
+		return meters;
+	}
+
+	public Snapshot getSnapshot() {
+		return snapshot;
+	}
+
+	public Journal getJournal() {
+		return journal;
+	}
+
+	public enum PayloadType {
+		STRING, BYTES
+	}
+
+	public static class Batch {
+
+		private boolean enabled = false;
+
+		private Integer size = 100;
+
+		private Long timeout = 100L;
+
+		/**
+		 * Whether the readings are coalesced and stored in batches. Default value is false
+		 * @return true if batching is enabled
+		 */
+		public boolean isEnabled() {
+			return enabled;
+		}
+
+		public void setEnabled(boolean enabled) {
+			this.enabled = enabled;
+		}
+
+		/**
+		 * Maximum number of readings per batch.  Default value is 100
+		 * @return the batch size
+		 */
+		public Integer getSize() {
+			return size;
+		}
+
+		public void setSize(Integer size) {
+			this.size = size;
+		}
+
+		/**
+		 * Maximum time (in milliseconds) a reading waits for its batch to fill up.  Default value is 100 milliseconds
+		 * @return the batch timeout
+		 */
+		public Long getTimeout() {
+			return timeout;
+		}
+
+		public void setTimeout(Long timeout) {
+			this.timeout = timeout;
+		}
+	}
+
+	public static class Events {
+
+		private boolean enabled = false;
+
+		private Long interval = 1000L;
+
+		private Integer bufferSize = 1000;
+
+		private Long timeout = 1800000L;
+
+		private Long sendTimeout = 10000L;
+
+		private Integer maxSubscribers = 100;
+
+		private Integer threads = 4;
+
+		/**
+		 * Whether the stream metrics updates are pushed to the event subscribers. Default value is
+		 * false
+		 * @return true if the events are enabled
+		 */
+		public boolean isEnabled() {
+			return enabled;
+		}
+
+		public void setEnabled(boolean enabled) {
+			this.enabled = enabled;
+		}
+
+		/**
+		 * Minimum time (in milliseconds) between two pushes to a subscriber, the updates in between
+		 * being coalesced.  Default value is 1000 milliseconds
+		 * @return the push interval
+		 */
+		public Long getInterval() {
+			return interval;
+		}
+
+		public void setInterval(Long interval) {
+			this.interval = interval;
+		}
+
+		/**
+		 * Maximum number of updated instances buffered per subscriber.  Default value is 1000
+		 * @return the subscriber buffer size
+		 */
+		public Integer getBufferSize() {
+			return bufferSize;
+		}
+
+		public void setBufferSize(Integer bufferSize) {
+			this.bufferSize = bufferSize;
+		}
+
+		/**
+		 * Time (in milliseconds) before a subscription is closed, the client being expected to
+		 * reconnect.  Default value is 30 minutes
+		 * @return the subscription timeout
+		 */
+		public Long getTimeout() {
+			return timeout;
+		}
+
+		public void setTimeout(Long timeout) {
+			this.timeout = timeout;
+		}
+
+		/**
+		 * Maximum time (in milliseconds) of a push to a subscriber, slower subscribers being
+		 * closed with an error.  Default value is 10000 milliseconds
+		 * @return the send timeout
+		 */
+		public Long getSendTimeout() {
+			return sendTimeout;
+		}
+
+		public void setSendTimeout(Long sendTimeout) {
+			this.sendTimeout = sendTimeout;
+		}
+
+		/**
+		 * Maximum number of concurrent subscribers, further subscriptions being refused.  Default
+		 * value is 100
+		 * @return the maximum number of subscribers
+		 */
+		public Integer getMaxSubscribers() {
+			return maxSubscribers;
+		}
+
+		public void setMaxSubscribers(Integer maxSubscribers) {
+			this.maxSubscribers = maxSubscribers;
+		}
+
+		/**
+		 * Number of threads pushing the updates to the subscribers.  Default value is 4
+		 * @return the number of push threads
+		 */
+		public Integer getThreads() {
+			return threads;
+		}
+
+		public void setThreads(Integer threads) {
+			this.threads = threads;
+		}
+	}
+
+	public static class Rollups {
+
+		private boolean enabled = false;
+
+		private List<Level> levels = new ArrayList<>(Arrays.asList(new Level(1000L, 300000L),
+				new Level(10000L, 3600000L), new Level(60000L, 86400000L)));
+
+		/**
+		 * Whether the channel send rates of the instances are rolled up. Default value is false
+		 * @return true if the rollups are enabled
+		 */
+		public boolean isEnabled() {
+			return enabled;
+		}
+
+		public void setEnabled(boolean enabled) {
+			this.enabled = enabled;
+		}
+
+		/**
+		 * Resolutions of the rollups, from the finest to the coarsest.  Default values are 1
+		 * second for 5 minutes, 10 seconds for 1 hour and 1 minute for 24 hours
+		 * @return the rollup levels
+		 */
+		public List<Level> getLevels() {
+			return levels;
+		}
+
+		public void setLevels(List<Level> levels) {
+			this.levels = levels;
+		}
+	}
+
+	public static class Meters {
+
+		private boolean enabled = false;
+
+		private int dictionarySize = 100000;
+
+		/**
+		 * Whether all the Micrometer meters of the Spring Cloud Stream 2.x applications are
+		 * stored, not only their channel sends. Default value is false
+		 * @return true if the meters are stored
+		 */
+		public boolean isEnabled() {
+			return enabled;
+		}
+
+		public void setEnabled(boolean enabled) {
+			this.enabled = enabled;
+		}
+
+		/**
+		 * Maximum number of distinct meter names and tag keys and values stored, the meters
+		 * with new ones being skipped once reached.  Default value is 100000
+		 * @return the maximum number of meter strings
+		 */
+		public int getDictionarySize() {
+			return dictionarySize;
+		}
+
+		public void setDictionarySize(int dictionarySize) {
+			this.dictionarySize = dictionarySize;
+		}
+	}
+
+	public static class Snapshot {
+
+		private boolean enabled = false;
+
+		private String path = "metrics-collector.snapshot";
+
+		private Long interval = 60000L;
+
+		/**
+		 * Whether the storage is written to a local file and loaded from it on start. Default
+		 * value is false
+		 * @return true if the snapshots are enabled
+		 */
+		public boolean isEnabled() {
+			return enabled;
+		}
+
+		public void setEnabled(boolean enabled) {
+			this.enabled = enabled;
+		}
+
+		/**
+		 * Path of the snapshot file.  Default value is metrics-collector.snapshot, in the
+		 * working directory
+		 * @return the snapshot file path
+		 */
+		public String getPath() {
+			return path;
+		}
+
+		public void setPath(String path) {
+			this.path = path;
+		}
+
+		/**
+		 * Time (in milliseconds) between two snapshots, 0 to only write it on shutdown.
+		 * Default value is 60000 milliseconds
+		 * @return the snapshot interval
+		 */
+		public Long getInterval() {
+			return interval;
+		}
+
+		public void setInterval(Long interval) {
+			this.interval = interval;
+		}
+	}
+
+	public static class Journal {
+
+		private boolean enabled = false;
+
+		private String path = "metrics-collector-journal";
+
+		private Integer segmentSize = 16 * 1024 * 1024;
+
+		private Long retention = 128L * 1024 * 1024;
+
+		/**
+		 * Whether the received readings are journaled and replayed on start. Default value is
+		 * false
+		 * @return true if the journal is enabled
+		 */
+		public boolean isEnabled() {
+			return enabled;
+		}
+
+		public void setEnabled(boolean enabled) {
+			this.enabled = enabled;
+		}
+
+		/**
+		 * Directory of the journal segment files.  Default value is metrics-collector-journal,
+		 * in the working directory
+		 * @return the journal directory
+		 */
+		public String getPath() {
+			return path;
+		}
+
+		public void setPath(String path) {
+			this.path = path;
+		}
+
+		/**
+		 * Size (in bytes) of a journal segment file.  Default value is 16 MB
+		 * @return the segment size
+		 */
+		public Integer getSegmentSize() {
+			return segmentSize;
+		}
+
+		public void setSegmentSize(Integer segmentSize) {
+			this.segmentSize = segmentSize;
+		}
+
+		/**
+		 * Maximum size (in bytes) of the retained segment files, the oldest being deleted.
+		 * Default value is 128 MB
+		 * @return the journal retention
+		 */
+		public Long getRetention() {
+			return retention;
+		}
+
+		public void setRetention(Long retention) {
+			this.retention = retention;
+		}
+	}
+
+	public static class Level {
+
+		private Long resolution;
+
+		private Long retention;
+
+		public Level() {
+		}
+
+		public Level(Long resolution, Long retention) {
+			this.resolution = resolution;
+			this.retention = retention;
+		}
+
+		/**
+		 * Interval (in milliseconds) of the rollup buckets
+		 * @return the resolution
+		 */
+		public Long getResolution() {
+			return resolution;
+		}
+
+		public void setResolution(Long resolution) {
+			this.resolution = resolution;
+		}
+
+		/**
+		 * Time (in milliseconds) retained at this resolution
+		 * @return the retention
+		 */
+		public Long getRetention() {
+			return retention;
+		}
+
+		public void setRetention(Long retention) {
+			this.retention = retention;
+		}
+	}
 }
@@ -17,26 +17,24 @@
 package org.springframework.cloud.dataflow.metrics.collector;
 
 import java.io.IOException;
-import java.util.List;
-import java.util.stream.Collectors;
 
-import com.fasterxml.jackson.core.type.TypeReference;
-import com.fasterxml.jackson.databind.ObjectMapper;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
+import org.springframework.cloud.dataflow.metrics.collector.decoder.ApplicationMetricsReader;
 import org.springframework.cloud.dataflow.metrics.collector.model.ApplicationMetrics;
-import org.springframework.cloud.dataflow.metrics.collector.model.Metric;
-import org.springframework.cloud.dataflow.metrics.collector.model.MicrometerMetric;
+import org.springframework.cloud.dataflow.metrics.collector.model.ApplicationMetricsReading;
+import org.springframework.cloud.dataflow.metrics.collector.services.ApplicationMetricsBatcher;
+import org.springframework.cloud.dataflow.metrics.collector.services.ApplicationMetricsJournal;
 import org.springframework.cloud.dataflow.metrics.collector.services.ApplicationMetricsService;
-import org.springframework.cloud.stream.annotation.StreamListener;
-import org.springframework.cloud.stream.messaging.Sink;
+import org.springframework.cloud.dataflow.metrics.collector.services.MeterStore;
+import org.springframework.cloud.dataflow.metrics.collector.support.CollectorMeters;
 import org.springframework.stereotype.Component;
-import org.springframework.util.StringUtils;
 
 /**
  * Adds the incoming {@link ApplicationMetrics} payload into the in memory cache.
- * Supports metrics sent from Spring Cloud Stream 1.x and 2.x applications
+ * Supports metrics sent from Spring Cloud Stream 1.x and 2.x applications, received either
+ * as {@link String} or as raw UTF-8 encoded bytes.
  *
  * @author Vinicius Carvalho
  * @author Christian Tzolov
@@ -45,87 +43,124 @@ import org.springframework.util.StringUtils;
 public class MetricsAggregator {
 	private Logger logger = LoggerFactory.getLogger(MetricsAggregator.class);
 
-	private ObjectMapper mapper;
+	private ApplicationMetricsReader reader;
 	private ApplicationMetricsService service;
+	private ApplicationMetricsBatcher batcher;
+	private CollectorMeters meters = CollectorMeters.NOOP;
+	private MeterStore meterStore;
+	private ApplicationMetricsJournal journal;
 
 
 	public MetricsAggregator(ApplicationMetricsService service) {
+		this(service, new ApplicationMetricsReader());
+	}
+
+	public MetricsAggregator(ApplicationMetricsService service, ApplicationMetricsReader reader) {
+		this(service, reader, null);
+	}
+
+	/**
+	 * @param service the metrics storage
+	 * @param reader the metrics payload decoder
+	 * @param batcher if not null the readings are stored in batches through the batcher
+	 */
+	public MetricsAggregator(ApplicationMetricsService service, ApplicationMetricsReader reader,
+			ApplicationMetricsBatcher batcher) {
 		this.service = service;
-		this.mapper = new ObjectMapper();
+		this.reader = reader;
+		this.batcher = batcher;
 	}
 
-	private final static class Metric1TypeReference extends TypeReference<ApplicationMetrics<Metric<Number>>> {}
+	/**
+	 * @param meters records the payload decoding, nothing by default
+	 */
+	public void setMeters(CollectorMeters meters) {
+		this.meters = meters;
+	}
 
-	private final static class Metric2TypeReference extends TypeReference<ApplicationMetrics<MicrometerMetric<Number>>> {}
+	/**
+	 * @param meterStore stores all the decoded Micrometer meters, null if disabled
+	 */
+	public void setMeterStore(MeterStore meterStore) {
+		this.meterStore = meterStore;
+	}
+
+	/**
+	 * @param journal journals the readings to store, null if disabled
+	 */
+	public void setJournal(ApplicationMetricsJournal journal) {
+		this.journal = journal;
+	}
 
-	@StreamListener(Sink.INPUT)
 	public void receive(String metrics) {
+		receive(metrics, null);
+	}
 
-		ApplicationMetrics<Metric<Double>> applicationMetrics;
+	/**
+	 * @param metrics the metrics Json payload
+	 * @param metricsVersion the {@link ApplicationMetrics#STREAM_METRICS_VERSION} message header
+	 * if any, the format is detected from the payload otherwise
+	 */
+	public void receive(String metrics, String metricsVersion) {
+		long start = System.nanoTime();
+		ApplicationMetricsReading reading;
 		try {
-			// Use the "spring.integration.send" metric name as a version discriminator for old and new metrics
-			if (StringUtils.hasText(metrics) && metrics.contains("spring.integration.send")) {
-				ApplicationMetrics<MicrometerMetric<Number>> applicationMetrics2 = mapper.readValue(metrics, new Metric2TypeReference());
-				applicationMetrics = convertMetric2ToMetric(applicationMetrics2);
-				applicationMetrics.getProperties().put(ApplicationMetrics.STREAM_METRICS_VERSION, ApplicationMetrics.METRICS_VERSION_2);
-			}
-			else {
-				applicationMetrics = mapper.readValue(metrics, new Metric1TypeReference());
-				applicationMetrics.getProperties().put(ApplicationMetrics.STREAM_METRICS_VERSION, ApplicationMetrics.METRICS_VERSION_1);
-			}
-
-			this.processApplicationMetrics(applicationMetrics);
+			// Only the metrics retained by the collector are materialized, the rest is skipped while parsing
+			reading = this.reader.read(metrics, metricsVersion);
 		}
 		catch (IOException e) {
+			this.meters.recordInvalidPayload();
 			logger.warn("Invalid metrics Json", e);
+			return;
 		}
-
+		this.meters.recordPayload(System.nanoTime() - start, metrics.length(), version(reading));
+		this.processApplicationMetrics(reading);
 	}
 
-	/**
-	 * Converts the new Micrometer metrics into the previous {@link Metric}
-	 * format (e.g. to the Spring Boot 1.x actuator metrics)
-	 * Only the successful Spring Integration channel metrics are filtered in. All other metrics are discarded!
-	 * @param applicationMetrics2 {@link ApplicationMetrics} with Micrometer Metrics collection
-	 * @return Returns {@link ApplicationMetrics} with SpringBoot1.5's Metric collection.
-	 */
-	private ApplicationMetrics<Metric<Double>> convertMetric2ToMetric(ApplicationMetrics<MicrometerMetric<Number>> applicationMetrics2) {
-		List<Metric<Double>> metrics = applicationMetrics2.getMetrics().stream()
-				.filter(metric -> metric.getId().getName().matches("spring\\.integration\\.send"))
-				.filter(metric -> metric.getId().getTag("type").equals("channel"))
-				.filter(metric -> metric.getId().getTag("result").equals("success"))
-				.map(m2 -> new Metric<>(
-						generateOldMetricName(m2),
-						m2.getCount().doubleValue() / (applicationMetrics2.getInterval() / 1000), // normalize rate
-						m2.getTimestamp()))
-				.collect(Collectors.toList());
-		ApplicationMetrics<Metric<Double>> applicationMetrics = new ApplicationMetrics(applicationMetrics2.getName(), metrics);
-		applicationMetrics.setCreatedTime(applicationMetrics2.getCreatedTime());
-		applicationMetrics.setProperties(applicationMetrics2.getProperties());
-		return applicationMetrics;
+	public void receive(byte[] metrics) {
+		receive(metrics, null);
 	}
 
 	/**
-	 * Build an hierarchical Metric Ver.1 name from the the multi-dimension (e.g. multi-tag) micrometer Metric
-	 * @param metric2 Micrometer based metrics
-	 * @return Returns an hierarchical name compatible with the Metric ver.1 name convention.
+	 * @param metrics the UTF-8 encoded metrics Json payload
+	 * @param metricsVersion the {@link ApplicationMetrics#STREAM_METRICS_VERSION} message header
+	 * if any, the format is detected from the payload otherwise
 	 */
-	private String generateOldMetricName(MicrometerMetric<Number> metric2) {
-		String oldMetricName = metric2.getId().getName();
-		if (metric2.getId().getName().startsWith("spring.integration.")) {
-			String channelName = metric2.getId().getTag("name");
-			String metricResult = metric2.getId().getTag("result");
-			String successSuffix = "success".equals(metricResult) ? "" : "." + metricResult;
-			oldMetricName = "integration.channel." + channelName + ".send.mean" + successSuffix;
+	public void receive(byte[] metrics, String metricsVersion) {
+		long start = System.nanoTime();
+		ApplicationMetricsReading reading;
+		try {
+			reading = this.reader.read(metrics, metricsVersion);
+		}
+		catch (IOException e) {
+			this.meters.recordInvalidPayload();
+			logger.warn("Invalid metrics Json", e);
+			return;
 		}
-		return oldMetricName;
+		this.meters.recordPayload(System.nanoTime() - start, metrics.length, version(reading));
+		this.processApplicationMetrics(reading);
 	}
 
-	private void processApplicationMetrics(ApplicationMetrics<Metric<Double>> metrics) {
+	private static String version(ApplicationMetricsReading reading) {
+		return (String) reading.getProperties().get(ApplicationMetrics.STREAM_METRICS_VERSION);
+	}
+
+	private void processApplicationMetrics(ApplicationMetricsReading metrics) {
 		if (metrics.getProperties().get(ApplicationMetrics.APPLICATION_GUID) != null
 				&& metrics.getProperties().get(ApplicationMetrics.APPLICATION_NAME) != null
 				&& metrics.getProperties().get(ApplicationMetrics.STREAM_NAME) != null) {
-			this.service.add(metrics);
+			if (this.meterStore != null) {
+				this.meterStore.add(metrics);
+			}
+			if (this.journal != null) {
+				this.journal.append(metrics);
+			}
+			if (this.batcher != null) {
+				this.batcher.add(metrics);
+			}
+			else {
+				this.service.add(metrics);
+			}
 		}
 		else {
 			if (logger.isDebugEnabled()) {
@@ -16,26 +16,56 @@
 
 package org.springframework.cloud.dataflow.metrics.collector;
 
-import java.util.LinkedList;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Paths;
+import java.util.List;
 import java.util.concurrent.TimeUnit;
+import java.util.stream.Collectors;
 
 import com.github.benmanes.caffeine.cache.Cache;
 import com.github.benmanes.caffeine.cache.Caffeine;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.binder.cache.CaffeineCacheMetrics;
 
+import org.springframework.beans.factory.ObjectProvider;
 import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
 import org.springframework.boot.context.properties.EnableConfigurationProperties;
+import org.springframework.boot.web.servlet.FilterRegistrationBean;
+import org.springframework.cloud.dataflow.metrics.collector.decoder.ApplicationMetricsReader;
+import org.springframework.cloud.dataflow.metrics.collector.decoder.MetricsDecoder;
+import org.springframework.cloud.dataflow.metrics.collector.decoder.MicrometerMetricsDecoder;
+import org.springframework.cloud.dataflow.metrics.collector.decoder.SpringBootMetricsDecoder;
+import org.springframework.cloud.dataflow.metrics.collector.endpoint.MetersEndpoint;
 import org.springframework.cloud.dataflow.metrics.collector.endpoint.MetricsCollectorEndpoint;
+import org.springframework.cloud.dataflow.metrics.collector.endpoint.MetricsEventsEndpoint;
+import org.springframework.cloud.dataflow.metrics.collector.endpoint.MetricsRollupsEndpoint;
 import org.springframework.cloud.dataflow.metrics.collector.endpoint.RootEndpoint;
 import org.springframework.cloud.dataflow.metrics.collector.model.ApplicationMetrics;
-import org.springframework.cloud.dataflow.metrics.collector.model.Metric;
+import org.springframework.cloud.dataflow.metrics.collector.services.ApplicationMetricsBatcher;
+import org.springframework.cloud.dataflow.metrics.collector.services.ApplicationMetricsExpiry;
+import org.springframework.cloud.dataflow.metrics.collector.services.ApplicationMetricsHistory;
+import org.springframework.cloud.dataflow.metrics.collector.services.ApplicationMetricsIndex;
+import org.springframework.cloud.dataflow.metrics.collector.services.ApplicationMetricsJournal;
+import org.springframework.cloud.dataflow.metrics.collector.services.ApplicationMetricsRollups;
 import org.springframework.cloud.dataflow.metrics.collector.services.ApplicationMetricsService;
+import org.springframework.cloud.dataflow.metrics.collector.services.ApplicationMetricsSnapshots;
+import org.springframework.cloud.dataflow.metrics.collector.services.MeterStore;
+import org.springframework.cloud.dataflow.metrics.collector.services.MetricRollup;
+import org.springframework.cloud.dataflow.metrics.collector.services.StreamMetricsPublisher;
 import org.springframework.cloud.dataflow.metrics.collector.support.CaffeineHealthIndicator;
+import org.springframework.cloud.dataflow.metrics.collector.support.CollectorMeters;
 import org.springframework.cloud.dataflow.metrics.collector.support.MetricJsonSerializer;
+import org.springframework.cloud.dataflow.metrics.collector.support.ResponseMetricsFilter;
+import org.springframework.cloud.dataflow.metrics.collector.utils.StringDictionary;
 import org.springframework.cloud.stream.annotation.EnableBinding;
+import org.springframework.cloud.stream.annotation.StreamListener;
 import org.springframework.cloud.stream.messaging.Sink;
 import org.springframework.context.annotation.Bean;
 import org.springframework.context.annotation.Configuration;
 import org.springframework.hateoas.EntityLinks;
+import org.springframework.messaging.Message;
+import org.springframework.messaging.MessageHeaders;
 
 /**
  * @author Mark Pollack
@@ -56,20 +86,119 @@ public class MetricsCollectorConfiguration {
 	}
 
 	@Bean
-	public Cache<String, LinkedList<ApplicationMetrics<Metric<Double>>>> metricsStorage() {
-		return Caffeine.<String, ApplicationMetrics<Metric<Double>>>newBuilder()
-				.expireAfterWrite(properties.getEvictionTimeout(), TimeUnit.SECONDS).recordStats().build();
+	public ApplicationMetricsIndex applicationMetricsIndex() {
+		return new ApplicationMetricsIndex();
+	}
+
+	@Bean
+	public Cache<String, ApplicationMetricsHistory> metricsStorage(ApplicationMetricsIndex applicationMetricsIndex) {
+		Caffeine<String, ApplicationMetricsHistory> builder = Caffeine.newBuilder()
+				.expireAfter(new ApplicationMetricsExpiry(TimeUnit.SECONDS.toMillis(properties.getEvictionTimeout())))
+				.removalListener(applicationMetricsIndex);
+		if (properties.getMaximumWeight() != null) {
+			// the histories grow in place, they are weighed again by every compute
+			builder = builder.maximumWeight(properties.getMaximumWeight())
+					.weigher((String name, ApplicationMetricsHistory history) -> history.getEstimatedSize());
+		}
+		return builder.recordStats().build();
+	}
+
+	@Bean
+	public CollectorMeters collectorMeters(ObjectProvider<MeterRegistry> meterRegistry,
+			Cache<String, ApplicationMetricsHistory> metricsStorage) {
+		MeterRegistry registry = meterRegistry.getIfAvailable();
+		if (registry == null) {
+			return CollectorMeters.NOOP;
+		}
+		CaffeineCacheMetrics.monitor(registry, metricsStorage, "collector.storage");
+		return new CollectorMeters(registry);
 	}
 
 	@Bean
 	public ApplicationMetricsService applicationMetricsService(
-			Cache<String, LinkedList<ApplicationMetrics<Metric<Double>>>> metricsStorage) {
-		return new ApplicationMetricsService(metricsStorage);
+			Cache<String, ApplicationMetricsHistory> metricsStorage, ApplicationMetricsIndex applicationMetricsIndex,
+			CollectorMeters collectorMeters) {
+		ApplicationMetricsService applicationMetricsService = new ApplicationMetricsService(metricsStorage,
+				properties.getHistoryDepth(), applicationMetricsIndex);
+		applicationMetricsService.setMeters(collectorMeters);
+		return applicationMetricsService;
+	}
+
+	@Bean
+	@ConditionalOnProperty(prefix = "spring.cloud.dataflow.metrics.collector.snapshot", name = "enabled", havingValue = "true")
+	public ApplicationMetricsSnapshots applicationMetricsSnapshots(Cache<String, ApplicationMetricsHistory> metricsStorage,
+			ApplicationMetricsService applicationMetricsService) {
+		return new ApplicationMetricsSnapshots(metricsStorage, applicationMetricsService,
+				Paths.get(properties.getSnapshot().getPath()), properties.getSnapshot().getInterval(),
+				TimeUnit.SECONDS.toMillis(properties.getEvictionTimeout()));
+	}
+
+	@Bean
+	@ConditionalOnProperty(prefix = "spring.cloud.dataflow.metrics.collector.journal", name = "enabled", havingValue = "true")
+	public ApplicationMetricsJournal applicationMetricsJournal(Cache<String, ApplicationMetricsHistory> metricsStorage,
+			ApplicationMetricsService applicationMetricsService,
+			ObjectProvider<ApplicationMetricsSnapshots> applicationMetricsSnapshots, CollectorMeters collectorMeters) {
+		ApplicationMetricsJournal journal = new ApplicationMetricsJournal(metricsStorage, applicationMetricsService,
+				Paths.get(properties.getJournal().getPath()), properties.getJournal().getSegmentSize(),
+				properties.getJournal().getRetention(), TimeUnit.SECONDS.toMillis(properties.getEvictionTimeout()));
+		journal.setSnapshots(applicationMetricsSnapshots.getIfAvailable());
+		collectorMeters.monitor(journal);
+		return journal;
+	}
+
+	@Bean
+	public SpringBootMetricsDecoder springBootMetricsDecoder() {
+		return new SpringBootMetricsDecoder();
+	}
+
+	@Bean
+	public MicrometerMetricsDecoder micrometerMetricsDecoder(ObjectProvider<StringDictionary> meterDictionary) {
+		return new MicrometerMetricsDecoder(meterDictionary.getIfAvailable());
+	}
+
+	@Bean
+	@ConditionalOnProperty(prefix = "spring.cloud.dataflow.metrics.collector.meters", name = "enabled", havingValue = "true")
+	public StringDictionary meterDictionary(CollectorMeters collectorMeters) {
+		StringDictionary dictionary = new StringDictionary(properties.getMeters().getDictionarySize());
+		collectorMeters.monitor(dictionary);
+		return dictionary;
+	}
+
+	@Bean
+	@ConditionalOnProperty(prefix = "spring.cloud.dataflow.metrics.collector.meters", name = "enabled", havingValue = "true")
+	public MeterStore meterStore(StringDictionary meterDictionary) {
+		return new MeterStore(meterDictionary, TimeUnit.SECONDS.toMillis(properties.getEvictionTimeout()));
+	}
+
+	@Bean
+	@ConditionalOnProperty(prefix = "spring.cloud.dataflow.metrics.collector.meters", name = "enabled", havingValue = "true")
+	public MetersEndpoint metersEndpoint(MeterStore meterStore) {
+		return new MetersEndpoint(meterStore);
+	}
+
+	@Bean
+	public ApplicationMetricsReader applicationMetricsReader(List<MetricsDecoder> metricsDecoders) {
+		return new ApplicationMetricsReader(metricsDecoders);
+	}
+
+	@Bean
+	@ConditionalOnProperty(prefix = "spring.cloud.dataflow.metrics.collector.batch", name = "enabled", havingValue = "true")
+	public ApplicationMetricsBatcher applicationMetricsBatcher(ApplicationMetricsService applicationMetricsService) {
+		return new ApplicationMetricsBatcher(applicationMetricsService, properties.getBatch().getSize(),
+				properties.getBatch().getTimeout());
 	}
 
 	@Bean
-	public MetricsAggregator metricsAggregator(ApplicationMetricsService applicationMetricsService) {
-		return new MetricsAggregator(applicationMetricsService);
+	public MetricsAggregator metricsAggregator(ApplicationMetricsService applicationMetricsService,
+			ApplicationMetricsReader applicationMetricsReader,
+			ObjectProvider<ApplicationMetricsBatcher> applicationMetricsBatcher, CollectorMeters collectorMeters,
+			ObjectProvider<MeterStore> meterStore, ObjectProvider<ApplicationMetricsJournal> applicationMetricsJournal) {
+		MetricsAggregator metricsAggregator = new MetricsAggregator(applicationMetricsService,
+				applicationMetricsReader, applicationMetricsBatcher.getIfAvailable());
+		metricsAggregator.setMeters(collectorMeters);
+		metricsAggregator.setMeterStore(meterStore.getIfAvailable());
+		metricsAggregator.setJournal(applicationMetricsJournal.getIfAvailable());
+		return metricsAggregator;
 	}
 
 	@Bean
@@ -77,6 +206,48 @@ public class MetricsCollectorConfiguration {
 		return new MetricsCollectorEndpoint(applicationMetricsService);
 	}
 
+	@Bean
+	public FilterRegistrationBean<ResponseMetricsFilter> responseMetricsFilter(CollectorMeters collectorMeters) {
+		FilterRegistrationBean<ResponseMetricsFilter> registration = new FilterRegistrationBean<>(
+				new ResponseMetricsFilter(collectorMeters));
+		registration.addUrlPatterns("/collector/metrics/streams");
+		return registration;
+	}
+
+	@Bean
+	@ConditionalOnProperty(prefix = "spring.cloud.dataflow.metrics.collector.events", name = "enabled", havingValue = "true")
+	public StreamMetricsPublisher streamMetricsPublisher(ApplicationMetricsService applicationMetricsService) {
+		StreamMetricsPublisher publisher = new StreamMetricsPublisher(applicationMetricsService,
+				properties.getEvents().getInterval(), properties.getEvents().getBufferSize(),
+				properties.getEvents().getSendTimeout(), properties.getEvents().getMaxSubscribers(),
+				properties.getEvents().getThreads());
+		applicationMetricsService.addListener(publisher);
+		return publisher;
+	}
+
+	@Bean
+	@ConditionalOnProperty(prefix = "spring.cloud.dataflow.metrics.collector.events", name = "enabled", havingValue = "true")
+	public MetricsEventsEndpoint metricsEventsEndpoint(StreamMetricsPublisher streamMetricsPublisher) {
+		return new MetricsEventsEndpoint(streamMetricsPublisher, properties.getEvents().getTimeout());
+	}
+
+	@Bean
+	@ConditionalOnProperty(prefix = "spring.cloud.dataflow.metrics.collector.rollups", name = "enabled", havingValue = "true")
+	public ApplicationMetricsRollups applicationMetricsRollups(ApplicationMetricsService applicationMetricsService) {
+		ApplicationMetricsRollups rollups = new ApplicationMetricsRollups(applicationMetricsService,
+				properties.getRollups().getLevels().stream()
+						.map(level -> new MetricRollup.Level(level.getResolution(), level.getRetention()))
+						.collect(Collectors.toList()));
+		applicationMetricsService.addListener(rollups);
+		return rollups;
+	}
+
+	@Bean
+	@ConditionalOnProperty(prefix = "spring.cloud.dataflow.metrics.collector.rollups", name = "enabled", havingValue = "true")
+	public MetricsRollupsEndpoint metricsRollupsEndpoint(ApplicationMetricsRollups applicationMetricsRollups) {
+		return new MetricsRollupsEndpoint(applicationMetricsRollups);
+	}
+
 	@Bean
 	public RootEndpoint rootEndpoint(EntityLinks entityLinks) {
 		return new RootEndpoint(entityLinks);
@@ -84,7 +255,49 @@ public class MetricsCollectorConfiguration {
 
 	@Bean
 	public CaffeineHealthIndicator caffeineHealthIndicator(
-			Cache<String, LinkedList<ApplicationMetrics<Metric<Double>>>> metricsStorage) {
+			Cache<String, ApplicationMetricsHistory> metricsStorage) {
 		return new CaffeineHealthIndicator(metricsStorage);
 	}
+
+	/**
+	 * Reads the metrics version header, which some binders deliver as bytes rather than as a
+	 * String.
+	 * @param headers the headers of a received message
+	 * @return the metrics version, null if the header is missing
+	 */
+	static String metricsVersion(MessageHeaders headers) {
+		Object version = headers.get(ApplicationMetrics.STREAM_METRICS_VERSION);
+		if (version instanceof byte[]) {
+			return new String((byte[]) version, StandardCharsets.UTF_8);
+		}
+		return (version != null) ? version.toString() : null;
+	}
+
+	@Configuration
+	@ConditionalOnProperty(prefix = "spring.cloud.dataflow.metrics.collector", name = "payload-type", havingValue = "string", matchIfMissing = true)
+	static class StringPayloadListenerConfiguration {
+
+		@Autowired
+		private MetricsAggregator metricsAggregator;
+
+		@StreamListener(Sink.INPUT)
+		public void receive(Message<String> metrics) {
+			this.metricsAggregator.receive(metrics.getPayload(),
+					metricsVersion(metrics.getHeaders()));
+		}
+	}
+
+	@Configuration
+	@ConditionalOnProperty(prefix = "spring.cloud.dataflow.metrics.collector", name = "payload-type", havingValue = "bytes")
+	static class BytesPayloadListenerConfiguration {
+
+		@Autowired
+		private MetricsAggregator metricsAggregator;
+
+		@StreamListener(Sink.INPUT)
+		public void receive(Message<byte[]> metrics) {
+			this.metricsAggregator.receive(metrics.getPayload(),
+					metricsVersion(metrics.getHeaders()));
+		}
+	}
 }
@@ -0,0 +1,272 @@
+/*
+ * Copyright 2018 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.springframework.cloud.dataflow.metrics.collector.decoder;
+
+import java.io.IOException;
+import java.text.ParseException;
+import java.time.Instant;
+import java.time.format.DateTimeParseException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+import com.fasterxml.jackson.core.JsonFactory;
+import com.fasterxml.jackson.core.JsonParseException;
+import com.fasterxml.jackson.core.JsonParser;
+import com.fasterxml.jackson.core.JsonToken;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.util.StdDateFormat;
+import com.fasterxml.jackson.databind.util.TokenBuffer;
+
+import org.springframework.cloud.dataflow.metrics.collector.model.ApplicationMetrics;
+import org.springframework.cloud.dataflow.metrics.collector.model.ApplicationMetricsReading;
+import org.springframework.core.OrderComparator;
+import org.springframework.util.Assert;
+
+/**
+ * Token streaming decoder for the {@link ApplicationMetrics} payloads emitted by Spring Cloud
+ * Stream applications, decoded into {@link ApplicationMetricsReading}s.
+ *
+ * The payload is walked once with a {@link JsonParser}. The envelope fields are read here
+ * while the metrics are delegated to the {@link MetricsDecoder} of the payload format, which
+ * materializes only the metrics retained by the collector and skips everything else at the
+ * token level.
+ *
+ * The decoder is selected from the metrics version message header when present. Otherwise
+ * the field names of the first metric object are offered to the decoders until one claims
+ * the payload, so the detection cost does not depend on the payload size. Payloads without
+ * any metric are detected from their metrics version property, falling back to the first
+ * decoder in {@link org.springframework.core.Ordered} order.
+ *
+ * Instances are thread safe.
+ *
+ * @author Christian Tzolov
+ */
+public class ApplicationMetricsReader {
+
+	private final JsonFactory jsonFactory;
+
+	private final List<MetricsDecoder> decoders;
+
+	public ApplicationMetricsReader() {
+		this(Arrays.asList(new SpringBootMetricsDecoder(), new MicrometerMetricsDecoder()));
+	}
+
+	public ApplicationMetricsReader(List<MetricsDecoder> decoders) {
+		this(new ObjectMapper(), decoders);
+	}
+
+	/**
+	 * @param mapper used as codec for the rare non scalar property values
+	 * @param decoders the supported metrics formats, the first one in order being the default
+	 */
+	public ApplicationMetricsReader(ObjectMapper mapper, List<MetricsDecoder> decoders) {
+		Assert.notEmpty(decoders, "At least one MetricsDecoder is required");
+		this.jsonFactory = mapper.getFactory();
+		this.decoders = new ArrayList<>(decoders);
+		OrderComparator.sort(this.decoders);
+	}
+
+	/**
+	 * Decodes a Json payload into {@link ApplicationMetrics}.
+	 * @param json the raw metrics payload
+	 * @param metricsVersion the metrics version header if any, null to detect the format from
+	 * the payload
+	 * @return the decoded reading holding only the retained metrics
+	 * @throws IOException if the payload is not a valid metrics Json document
+	 */
+	public ApplicationMetricsReading read(String json, String metricsVersion) throws IOException {
+		try (JsonParser parser = this.jsonFactory.createParser(json)) {
+			return read(parser, metricsVersion);
+		}
+	}
+
+	/**
+	 * Decodes a UTF-8 encoded Json payload into {@link ApplicationMetrics}, parsing straight
+	 * from the bytes without an intermediate {@link String}.
+	 * @param json the raw metrics payload
+	 * @param metricsVersion the metrics version header if any, null to detect the format from
+	 * the payload
+	 * @return the decoded reading holding only the retained metrics
+	 * @throws IOException if the payload is not a valid metrics Json document
+	 */
+	public ApplicationMetricsReading read(byte[] json, String metricsVersion) throws IOException {
+		try (JsonParser parser = this.jsonFactory.createParser(json)) {
+			return read(parser, metricsVersion);
+		}
+	}
+
+	private ApplicationMetricsReading read(JsonParser parser, String metricsVersion) throws IOException {
+		if (parser.nextToken() != JsonToken.START_OBJECT) {
+			throw new JsonParseException(parser, "Expected metrics Json object");
+		}
+		MetricsDecoder decoder = findDecoder(metricsVersion);
+
+		ApplicationMetricsReading reading = new ApplicationMetricsReading(null);
+		Map<String, Object> properties = null;
+
+		while (parser.nextToken() == JsonToken.FIELD_NAME) {
+			String field = parser.getCurrentName();
+			JsonToken token = parser.nextToken();
+			switch (field) {
+			case "name":
+				reading.setName(parser.getValueAsString());
+				break;
+			case "createdTime":
+				reading.setCreatedTime(readTimestamp(parser, token, reading.getCreatedTime()));
+				break;
+			case "interval":
+				reading.setInterval(parser.getValueAsLong(reading.getInterval()));
+				break;
+			case "properties":
+				properties = readProperties(parser, token);
+				break;
+			case "metrics":
+				if (token != JsonToken.START_ARRAY) {
+					parser.skipChildren();
+					break;
+				}
+				if (parser.nextToken() == JsonToken.START_OBJECT) {
+					if (decoder == null) {
+						// Buffer the first metric only, to detect the format from its fields
+						TokenBuffer first = new TokenBuffer(parser);
+						first.copyCurrentStructure(parser);
+						decoder = detectDecoder(first.asParser());
+						JsonParser firstParser = first.asParser();
+						firstParser.nextToken();
+						decoder.readMetric(firstParser, reading);
+					}
+					else {
+						decoder.readMetric(parser, reading);
+					}
+					while (parser.nextToken() == JsonToken.START_OBJECT) {
+						decoder.readMetric(parser, reading);
+					}
+				}
+				break;
+			default:
+				parser.skipChildren();
+			}
+		}
+		if (decoder == null) {
+			decoder = findDecoder(properties);
+		}
+		if (decoder == null) {
+			decoder = this.decoders.get(0);
+		}
+
+		reading.setProperties(properties != null ? properties : new LinkedHashMap<>());
+		reading.getProperties().put(ApplicationMetrics.STREAM_METRICS_VERSION, decoder.getMetricsVersion());
+		decoder.complete(reading);
+		return reading;
+	}
+
+	private MetricsDecoder findDecoder(String metricsVersion) {
+		if (metricsVersion != null) {
+			for (MetricsDecoder decoder : this.decoders) {
+				if (decoder.getMetricsVersion().equals(metricsVersion)) {
+					return decoder;
+				}
+			}
+		}
+		return null;
+	}
+
+	private MetricsDecoder findDecoder(Map<String, Object> properties) {
+		Object metricsVersion = (properties != null) ? properties.get(ApplicationMetrics.STREAM_METRICS_VERSION)
+				: null;
+		return (metricsVersion != null) ? findDecoder(metricsVersion.toString()) : null;
+	}
+
+	private MetricsDecoder detectDecoder(JsonParser metric) throws IOException {
+		metric.nextToken();
+		while (metric.nextToken() == JsonToken.FIELD_NAME) {
+			String field = metric.getCurrentName();
+			for (MetricsDecoder decoder : this.decoders) {
+				if (decoder.supports(field)) {
+					return decoder;
+				}
+			}
+			metric.nextToken();
+			metric.skipChildren();
+		}
+		return this.decoders.get(0);
+	}
+
+	private Map<String, Object> readProperties(JsonParser parser, JsonToken token) throws IOException {
+		if (token != JsonToken.START_OBJECT) {
+			parser.skipChildren();
+			return null;
+		}
+		Map<String, Object> properties = new LinkedHashMap<>();
+		while (parser.nextToken() == JsonToken.FIELD_NAME) {
+			String key = parser.getCurrentName();
+			JsonToken valueToken = parser.nextToken();
+			switch (valueToken) {
+			case VALUE_STRING:
+				properties.put(key, parser.getText());
+				break;
+			case VALUE_NUMBER_INT:
+			case VALUE_NUMBER_FLOAT:
+				properties.put(key, parser.getNumberValue());
+				break;
+			case VALUE_TRUE:
+			case VALUE_FALSE:
+				properties.put(key, parser.getBooleanValue());
+				break;
+			case VALUE_NULL:
+				properties.put(key, null);
+				break;
+			default:
+				properties.put(key, parser.readValueAs(Object.class));
+			}
+		}
+		return properties;
+	}
+
+	/**
+	 * Reads a date written either as epoch milliseconds or as an ISO-8601 string.
+	 * @param parser the payload parser
+	 * @param token the current token
+	 * @param defaultValue returned if the value is neither a number nor a string
+	 * @return the date in epoch milliseconds
+	 * @throws IOException if the date string can not be parsed
+	 */
+	static long readTimestamp(JsonParser parser, JsonToken token, long defaultValue) throws IOException {
+		if (token == JsonToken.VALUE_NUMBER_INT) {
+			return parser.getLongValue();
+		}
+		if (token != JsonToken.VALUE_STRING) {
+			parser.skipChildren();
+			return defaultValue;
+		}
+		String text = parser.getText();
+		try {
+			return Instant.parse(text).toEpochMilli();
+		}
+		catch (DateTimeParseException e) {
+			try {
+				return new StdDateFormat().parse(text).getTime();
+			}
+			catch (ParseException pe) {
+				throw new JsonParseException(parser, "Invalid date: " + text, pe);
+			}
+		}
+	}
+}
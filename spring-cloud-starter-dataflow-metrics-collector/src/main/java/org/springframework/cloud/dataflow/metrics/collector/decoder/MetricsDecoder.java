@@ -0,0 +1,71 @@
+/*
+ * Copyright 2018 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.springframework.cloud.dataflow.metrics.collector.decoder;
+
+import java.io.IOException;
+
+import com.fasterxml.jackson.core.JsonParser;
+
+import org.springframework.cloud.dataflow.metrics.collector.model.ApplicationMetrics;
+import org.springframework.cloud.dataflow.metrics.collector.model.ApplicationMetricsReading;
+import org.springframework.core.Ordered;
+
+/**
+ * Strategy for decoding the elements of the {@link ApplicationMetrics} metrics array of one
+ * metrics format into the primitive {@link ApplicationMetricsReading} representation used by
+ * the collector. The envelope (name, properties, ...) is common to all formats and handled
+ * by the {@link ApplicationMetricsReader}.
+ *
+ * The decoders are tried in {@link Ordered} order when detecting the format of a payload,
+ * the first one being the default of the payloads that do not tell their format.
+ *
+ * @author Christian Tzolov
+ */
+public interface MetricsDecoder extends Ordered {
+
+	/**
+	 * @return the metrics version handled by this decoder, stored under
+	 * {@link ApplicationMetrics#STREAM_METRICS_VERSION} and matched against the message
+	 * header of the same name
+	 */
+	String getMetricsVersion();
+
+	/**
+	 * Called with the field names of the first metric object of a payload, until a decoder
+	 * claims the payload.
+	 * @param fieldName a field name of a metric object
+	 * @return true if the field identifies this format
+	 */
+	boolean supports(String fieldName);
+
+	/**
+	 * Reads a single metric. The parser is positioned on the START_OBJECT token of the metric
+	 * and must be left on its matching END_OBJECT.
+	 * @param parser the payload parser
+	 * @param reading the reading the metric is added to, unless discarded by the collector
+	 * @throws IOException if the metric can not be read
+	 */
+	void readMetric(JsonParser parser, ApplicationMetricsReading reading) throws IOException;
+
+	/**
+	 * Post processes the decoded metrics once the whole payload has been read, e.g. when
+	 * values depend on envelope fields that may come after the metrics.
+	 * @param reading the decoded metrics
+	 */
+	default void complete(ApplicationMetricsReading reading) {
+	}
+}
@@ -0,0 +1,281 @@
+/*
+ * Copyright 2018 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.springframework.cloud.dataflow.metrics.collector.decoder;
+
+import java.io.IOException;
+import java.util.Arrays;
+
+import com.fasterxml.jackson.core.JsonParser;
+import com.fasterxml.jackson.core.JsonToken;
+
+import org.springframework.cloud.dataflow.metrics.collector.model.ApplicationMetrics;
+import org.springframework.cloud.dataflow.metrics.collector.model.ApplicationMetricsReading;
+import org.springframework.cloud.dataflow.metrics.collector.model.MeterReading;
+import org.springframework.cloud.dataflow.metrics.collector.model.Metric;
+import org.springframework.cloud.dataflow.metrics.collector.model.MicrometerMetric;
+import org.springframework.cloud.dataflow.metrics.collector.utils.MetricNames;
+import org.springframework.cloud.dataflow.metrics.collector.utils.StringDictionary;
+
+/**
+ * Decodes the {@link MicrometerMetric} format emitted by Spring Cloud Stream 2.x
+ * applications.
+ *
+ * Only the successful Spring Integration channel send meters are retained. They are
+ * converted into the previous {@link Metric} format (e.g. the Spring Boot 1.x actuator
+ * metrics) with a hierarchical name and the send rate as value, along with the mean and
+ * maximum send latency of the timer, in the milliseconds of the exporting registry. The
+ * payload carries no histogram, so no percentile is available. The remaining tokens of any
+ * other meter are skipped as soon as its id has been read.
+ *
+ * When created with a {@link StringDictionary}, every meter is also decoded into the
+ * {@link MeterReading} of the reading, its name and tags being dictionary encoded. The
+ * meters with a string refused by a full dictionary are left out.
+ *
+ * @author Oleg Zhurakousky
+ * @author Christian Tzolov
+ */
+public class MicrometerMetricsDecoder implements MetricsDecoder {
+
+	/**
+	 * Detected after the {@link SpringBootMetricsDecoder}.
+	 */
+	public static final int ORDER = SpringBootMetricsDecoder.ORDER + 100;
+
+	static final String INTEGRATION_SEND_METER = "spring.integration.send";
+
+	private final StringDictionary dictionary;
+
+	public MicrometerMetricsDecoder() {
+		this(null);
+	}
+
+	/**
+	 * @param dictionary encodes the ids of all the meters into the {@link MeterReading} of
+	 * the readings, null to only retain the channel sends
+	 */
+	public MicrometerMetricsDecoder(StringDictionary dictionary) {
+		this.dictionary = dictionary;
+	}
+
+	@Override
+	public String getMetricsVersion() {
+		return ApplicationMetrics.METRICS_VERSION_2;
+	}
+
+	@Override
+	public int getOrder() {
+		return ORDER;
+	}
+
+	@Override
+	public boolean supports(String fieldName) {
+		switch (fieldName) {
+		case "id":
+		case "sum":
+		case "count":
+		case "mean":
+		case "upper":
+		case "total":
+			return true;
+		default:
+			return false;
+		}
+	}
+
+	/**
+	 * Reads the meter with its raw count as value, yet to be normalized by the reporting
+	 * interval in {@link #complete(ApplicationMetricsReading)}.
+	 */
+	@Override
+	public void readMetric(JsonParser parser, ApplicationMetricsReading reading) throws IOException {
+		String channelName = null;
+		boolean idRead = false;
+		MeterId meterId = (this.dictionary != null) ? new MeterId() : null;
+		double sum = Double.NaN;
+		double count = 0d;
+		double mean = Double.NaN;
+		double upper = Double.NaN;
+		double total = Double.NaN;
+		long timestamp = 0;
+		while (parser.nextToken() == JsonToken.FIELD_NAME) {
+			String field = parser.getCurrentName();
+			JsonToken token = parser.nextToken();
+			if (idRead && channelName == null && meterId == null) {
+				parser.skipChildren();
+				continue;
+			}
+			switch (field) {
+			case "id":
+				channelName = readChannelName(parser, token, meterId);
+				idRead = true;
+				break;
+			case "sum":
+				sum = token.isNumeric() ? parser.getDoubleValue() : Double.NaN;
+				break;
+			case "count":
+				count = token.isNumeric() ? parser.getDoubleValue() : 0d;
+				break;
+			case "total":
+				total = token.isNumeric() ? parser.getDoubleValue() : Double.NaN;
+				break;
+			case "mean":
+				mean = token.isNumeric() ? parser.getDoubleValue() : Double.NaN;
+				break;
+			case "upper":
+				upper = token.isNumeric() ? parser.getDoubleValue() : Double.NaN;
+				break;
+			case "timestamp":
+				timestamp = ApplicationMetricsReader.readTimestamp(parser, token, 0);
+				break;
+			default:
+				parser.skipChildren();
+			}
+		}
+		if (channelName != null) {
+			reading.addMetric(MetricNames.channelSendMean(channelName), count, timestamp);
+			if (!Double.isNaN(mean)) {
+				reading.addMetric(MetricNames.channelSendDurationMean(channelName), mean, timestamp);
+			}
+			if (!Double.isNaN(upper)) {
+				reading.addMetric(MetricNames.channelSendDurationMax(channelName), upper, timestamp);
+			}
+		}
+		if (meterId != null && meterId.name != StringDictionary.NONE && !meterId.refused) {
+			if (reading.getMeters() == null) {
+				reading.setMeters(new MeterReading());
+			}
+			reading.getMeters().add(meterId.toArray(), timestamp, sum, count, mean, upper, total);
+		}
+	}
+
+	/**
+	 * Normalizes the channel send counts into rates. The interval may come after the
+	 * metrics in the payload.
+	 */
+	@Override
+	public void complete(ApplicationMetricsReading reading) {
+		for (int i = 0; i < reading.size(); i++) {
+			if (MetricNames.isChannelSendMean(reading.getMetricName(i))) {
+				reading.setValue(i, reading.getValue(i) / (reading.getInterval() / 1000));
+			}
+		}
+	}
+
+	/**
+	 * Reads the meter id and returns the channel name if the meter is a successful Spring
+	 * Integration channel send, null otherwise.
+	 * @param meterId the encoded meter id to fill in, null if not needed
+	 */
+	private String readChannelName(JsonParser parser, JsonToken token, MeterId meterId) throws IOException {
+		if (token != JsonToken.START_OBJECT) {
+			parser.skipChildren();
+			return null;
+		}
+		String meterName = null;
+		String channelName = null;
+		String type = null;
+		String result = null;
+		while (parser.nextToken() == JsonToken.FIELD_NAME) {
+			String field = parser.getCurrentName();
+			JsonToken valueToken = parser.nextToken();
+			if ("name".equals(field)) {
+				meterName = parser.getValueAsString();
+			}
+			else if ("tags".equals(field) && valueToken == JsonToken.START_ARRAY) {
+				while (parser.nextToken() == JsonToken.START_OBJECT) {
+					String key = null;
+					String value = null;
+					while (parser.nextToken() == JsonToken.FIELD_NAME) {
+						String tagField = parser.getCurrentName();
+						parser.nextToken();
+						if ("key".equals(tagField)) {
+							key = parser.getValueAsString();
+						}
+						else if ("value".equals(tagField)) {
+							value = parser.getValueAsString();
+						}
+						else {
+							parser.skipChildren();
+						}
+					}
+					if (meterId != null && key != null && value != null) {
+						meterId.addTag(this.dictionary.encode(key), this.dictionary.encode(value));
+					}
+					if ("name".equals(key)) {
+						channelName = value;
+					}
+					else if ("type".equals(key)) {
+						type = value;
+					}
+					else if ("result".equals(key)) {
+						result = value;
+					}
+				}
+			}
+			else {
+				parser.skipChildren();
+			}
+		}
+		if (meterId != null && meterName != null) {
+			meterId.name = this.dictionary.encode(meterName);
+		}
+		boolean retained = INTEGRATION_SEND_METER.equals(meterName) && "channel".equals(type)
+				&& "success".equals(result);
+		return retained ? String.valueOf(channelName) : null;
+	}
+
+	/**
+	 * Encoded meter id being read, its tags pairs being sorted by key id once complete.
+	 */
+	private static final class MeterId {
+
+		private int name = StringDictionary.NONE;
+
+		private int[] tags = new int[8];
+
+		private int size;
+
+		private boolean refused;
+
+		void addTag(int key, int value) {
+			if (key == StringDictionary.NONE || value == StringDictionary.NONE) {
+				this.refused = true;
+				return;
+			}
+			if (this.size + 2 > this.tags.length) {
+				this.tags = Arrays.copyOf(this.tags, this.tags.length * 2);
+			}
+			// insertion by key, meters have a handful of tags
+			int position = this.size;
+			while (position > 0 && this.tags[position - 2] > key) {
+				this.tags[position] = this.tags[position - 2];
+				this.tags[position + 1] = this.tags[position - 1];
+				position -= 2;
+			}
+			this.tags[position] = key;
+			this.tags[position + 1] = value;
+			this.size += 2;
+		}
+
+		int[] toArray() {
+			int[] id = new int[this.size + 1];
+			id[0] = this.name;
+			System.arraycopy(this.tags, 0, id, 1, this.size);
+			return id;
+		}
+	}
+}
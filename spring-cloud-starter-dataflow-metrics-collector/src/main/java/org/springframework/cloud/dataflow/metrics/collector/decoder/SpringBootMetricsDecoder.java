@@ -0,0 +1,82 @@
+/*
+ * Copyright 2018 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.springframework.cloud.dataflow.metrics.collector.decoder;
+
+import java.io.IOException;
+
+import com.fasterxml.jackson.core.JsonParser;
+import com.fasterxml.jackson.core.JsonToken;
+
+import org.springframework.cloud.dataflow.metrics.collector.model.ApplicationMetrics;
+import org.springframework.cloud.dataflow.metrics.collector.model.ApplicationMetricsReading;
+import org.springframework.cloud.dataflow.metrics.collector.model.Metric;
+
+/**
+ * Decodes the Spring Boot 1.x {@link Metric} format emitted by Spring Cloud Stream 1.x
+ * applications.
+ *
+ * @author Christian Tzolov
+ */
+public class SpringBootMetricsDecoder implements MetricsDecoder {
+
+	/**
+	 * The default format, emitted by the applications that predate the metrics version.
+	 */
+	public static final int ORDER = 100;
+
+	@Override
+	public String getMetricsVersion() {
+		return ApplicationMetrics.METRICS_VERSION_1;
+	}
+
+	@Override
+	public int getOrder() {
+		return ORDER;
+	}
+
+	@Override
+	public boolean supports(String fieldName) {
+		return "name".equals(fieldName) || "value".equals(fieldName);
+	}
+
+	@Override
+	public void readMetric(JsonParser parser, ApplicationMetricsReading reading) throws IOException {
+		String name = null;
+		double value = Double.NaN;
+		long timestamp = 0;
+		while (parser.nextToken() == JsonToken.FIELD_NAME) {
+			String field = parser.getCurrentName();
+			JsonToken token = parser.nextToken();
+			switch (field) {
+			case "name":
+				name = parser.getValueAsString();
+				break;
+			case "value":
+				value = token.isNumeric() ? parser.getDoubleValue() : Double.NaN;
+				break;
+			case "timestamp":
+				timestamp = ApplicationMetricsReader.readTimestamp(parser, token, 0);
+				break;
+			default:
+				parser.skipChildren();
+			}
+		}
+		if (name != null) {
+			reading.addMetric(name, value, timestamp);
+		}
+	}
+}
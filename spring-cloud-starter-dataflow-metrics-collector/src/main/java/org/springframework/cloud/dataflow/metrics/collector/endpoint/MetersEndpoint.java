@@ -0,0 +1,72 @@
+/*
+ * Copyright 2018 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package org.springframework.cloud.dataflow.metrics.collector.endpoint;
+
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+import org.springframework.cloud.dataflow.metrics.collector.model.MeterSample;
+import org.springframework.cloud.dataflow.metrics.collector.services.MeterStore;
+import org.springframework.http.ResponseEntity;
+import org.springframework.web.bind.annotation.GetMapping;
+import org.springframework.web.bind.annotation.RequestMapping;
+import org.springframework.web.bind.annotation.RequestParam;
+import org.springframework.web.bind.annotation.RestController;
+
+/**
+ * Latest statistics of the Micrometer meters of the application instances, selected by
+ * any combination of meter name, stream, application and tags.
+ *
+ * @author Christian Tzolov
+ */
+@RestController
+@RequestMapping("/collector/metrics/meters")
+public class MetersEndpoint {
+
+	private final MeterStore meterStore;
+
+	public MetersEndpoint(MeterStore meterStore) {
+		this.meterStore = meterStore;
+	}
+
+	/**
+	 * @param name the meter name, any meter if empty
+	 * @param stream the stream name, any stream if empty
+	 * @param application the application name, any application if empty
+	 * @param tags the tags the meters must have, each as {@code key:value}
+	 * @return the matching meters, or a 400 response if a tag is not a key value pair
+	 */
+	@GetMapping
+	public ResponseEntity<List<MeterSample>> fetchMeters(
+			@RequestParam(value = "name", defaultValue = "") String name,
+			@RequestParam(value = "stream", defaultValue = "") String stream,
+			@RequestParam(value = "application", defaultValue = "") String application,
+			@RequestParam(value = "tag", required = false) List<String> tags) {
+		Map<String, String> tagValues = new LinkedHashMap<>();
+		for (String tag : (tags != null) ? tags : Collections.<String>emptyList()) {
+			int separator = tag.indexOf(':');
+			if (separator < 1) {
+				return ResponseEntity.badRequest().build();
+			}
+			tagValues.put(tag.substring(0, separator), tag.substring(separator + 1));
+		}
+		return ResponseEntity.ok(this.meterStore.query(name, stream, application, tagValues));
+	}
+}
@@ -16,7 +16,7 @@
 
 package org.springframework.cloud.dataflow.metrics.collector.endpoint;
 
-import java.util.Collection;
+import java.util.List;
 
 import org.springframework.cloud.dataflow.metrics.collector.model.StreamMetrics;
 import org.springframework.cloud.dataflow.metrics.collector.services.ApplicationMetricsService;
@@ -25,40 +25,152 @@ import org.springframework.hateoas.Link;
 import org.springframework.hateoas.MediaTypes;
 import org.springframework.hateoas.PagedResources;
 import org.springframework.hateoas.mvc.ControllerLinkBuilder;
+import org.springframework.http.HttpHeaders;
 import org.springframework.http.HttpStatus;
 import org.springframework.http.MediaType;
 import org.springframework.http.ResponseEntity;
+import org.springframework.util.StringUtils;
+import org.springframework.web.bind.annotation.RequestHeader;
 import org.springframework.web.bind.annotation.RequestMapping;
 import org.springframework.web.bind.annotation.RequestParam;
 import org.springframework.web.bind.annotation.RestController;
+import org.springframework.web.util.UriComponentsBuilder;
 
 /**
  * @author Vinicius Carvalho
+ * @author Christian Tzolov
  */
 @RestController
 @RequestMapping("/collector/metrics/streams")
 @ExposesResourceFor(StreamMetrics.class)
 public class MetricsCollectorEndpoint {
 
+	private static final String SORT_PROPERTY = "name";
+
 	private ApplicationMetricsService service;
 
 	public MetricsCollectorEndpoint(ApplicationMetricsService service) {
 		this.service = service;
 	}
 
+	public ResponseEntity<PagedResources<StreamMetrics>> fetchMetrics(String name) {
+		return fetchMetrics(name, null);
+	}
+
+	public ResponseEntity<PagedResources<StreamMetrics>> fetchMetrics(String name, String ifNoneMatch) {
+		return fetchMetrics(name, 0, null, null, ifNoneMatch);
+	}
+
+	/**
+	 * Returns a page of the stream metrics sorted by stream name, with an ETag derived from
+	 * the version of the streams. Only the streams of the requested page are converted. A
+	 * request whose If-None-Match header matches the current ETag gets a 304 response,
+	 * without any conversion or serialization of the metrics.
+	 * @param name Comma delimited list of stream names to be filtered on, all streams if
+	 * empty
+	 * @param page the zero based page number
+	 * @param size the page size, all the streams in a single page if not set
+	 * @param sort {@code name}, {@code name,asc} or {@code name,desc}, ascending by default
+	 * @param ifNoneMatch the If-None-Match header
+	 */
 	@RequestMapping(produces = {MediaTypes.HAL_JSON_VALUE, MediaType.APPLICATION_JSON_VALUE})
 	public ResponseEntity<PagedResources<StreamMetrics>> fetchMetrics(
-			@RequestParam(value = "name", defaultValue = "") String name) {
+			@RequestParam(value = "name", defaultValue = "") String name,
+			@RequestParam(value = "page", defaultValue = "0") int page,
+			@RequestParam(value = "size", required = false) Integer size,
+			@RequestParam(value = "sort", required = false) String sort,
+			@RequestHeader(value = HttpHeaders.IF_NONE_MATCH, required = false) String ifNoneMatch) {
+
+		Boolean descending = isDescending(sort);
+		if (page < 0 || (size != null && size < 1) || descending == null) {
+			return ResponseEntity.badRequest().build();
+		}
+
+		String eTag = "\"" + Long.toHexString(service.getVersion(name)) + "\"";
+		if (matches(ifNoneMatch, eTag)) {
+			return ResponseEntity.status(HttpStatus.NOT_MODIFIED).eTag(eTag).build();
+		}
+
+		List<String> streamNames = service.getStreamNames(name, descending);
+		int totalElements = streamNames.size();
+		int pageSize = (size != null) ? size : totalElements;
+		int totalPages = (totalElements == 0) ? 0 : (size != null) ? (totalElements + pageSize - 1) / pageSize : 1;
 
-		Collection<StreamMetrics> entries = service.toStreamMetrics(name);
+		List<StreamMetrics> entries = service.toStreamMetrics(pageOf(streamNames, page, pageSize));
 
-		int totalPages = (entries.size() == 0) ? 0 : entries.size() / entries.size();
-		PagedResources.PageMetadata pageMetadata = new PagedResources.PageMetadata(entries.size(), 0, entries.size(),
+		PagedResources.PageMetadata pageMetadata = new PagedResources.PageMetadata(pageSize, page, totalElements,
 				totalPages);
 		PagedResources<StreamMetrics> pagedResources = new PagedResources<>(entries, pageMetadata,
-				ControllerLinkBuilder.linkTo(MetricsCollectorEndpoint.class).withRel(Link.REL_SELF));
+				link(name, page, size, sort, Link.REL_SELF));
+		if (page + 1 < totalPages) {
+			pagedResources.add(link(name, page + 1, size, sort, Link.REL_NEXT));
+		}
+		if (page > 0 && totalPages > 0) {
+			pagedResources.add(link(name, Math.min(page - 1, totalPages - 1), size, sort, Link.REL_PREVIOUS));
+		}
+
+		return ResponseEntity.ok().eTag(eTag).body(pagedResources);
+	}
+
+	private static List<String> pageOf(List<String> streamNames, int page, int pageSize) {
+		long from = (long) page * pageSize;
+		if (from >= streamNames.size()) {
+			return streamNames.subList(0, 0);
+		}
+		return streamNames.subList((int) from, (int) Math.min(from + pageSize, streamNames.size()));
+	}
+
+	/**
+	 * @return true for a descending sort, false for an ascending or missing sort, null if
+	 * the sort is invalid
+	 */
+	private static Boolean isDescending(String sort) {
+		if (!StringUtils.hasText(sort)) {
+			return false;
+		}
+		String[] parts = StringUtils.commaDelimitedListToStringArray(sort);
+		if (parts.length > 2 || !SORT_PROPERTY.equals(parts[0].trim())) {
+			return null;
+		}
+		if (parts.length == 1 || "asc".equalsIgnoreCase(parts[1].trim())) {
+			return false;
+		}
+		return "desc".equalsIgnoreCase(parts[1].trim()) ? true : null;
+	}
+
+	private static Link link(String name, int page, Integer size, String sort, String rel) {
+		UriComponentsBuilder builder = ControllerLinkBuilder.linkTo(MetricsCollectorEndpoint.class)
+				.toUriComponentsBuilder();
+		if (StringUtils.hasText(name)) {
+			builder.replaceQueryParam("name", name);
+		}
+		builder.replaceQueryParam("page", page);
+		if (size != null) {
+			builder.replaceQueryParam("size", size);
+		}
+		if (StringUtils.hasText(sort)) {
+			builder.replaceQueryParam("sort", sort);
+		}
+		return new Link(builder.build().toUriString(), rel);
+	}
 
-		return new ResponseEntity<>(pagedResources, HttpStatus.OK);
+	/**
+	 * Weak comparison of an If-None-Match header, a comma delimited list of entity tags or *.
+	 */
+	private static boolean matches(String ifNoneMatch, String eTag) {
+		if (ifNoneMatch == null) {
+			return false;
+		}
+		for (String candidate : StringUtils.commaDelimitedListToStringArray(ifNoneMatch)) {
+			candidate = candidate.trim();
+			if (candidate.startsWith("W/")) {
+				candidate = candidate.substring(2);
+			}
+			if (candidate.equals("*") || candidate.equals(eTag)) {
+				return true;
+			}
+		}
+		return false;
 	}
 
 }
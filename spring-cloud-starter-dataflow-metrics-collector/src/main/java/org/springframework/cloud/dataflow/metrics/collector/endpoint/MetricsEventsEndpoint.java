@@ -0,0 +1,95 @@
+/*
+ * Copyright 2018 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.springframework.cloud.dataflow.metrics.collector.endpoint;
+
+import java.io.IOException;
+import java.util.Set;
+import java.util.concurrent.TimeoutException;
+
+import org.springframework.cloud.dataflow.metrics.collector.model.StreamMetrics;
+import org.springframework.cloud.dataflow.metrics.collector.services.StreamMetricsPublisher;
+import org.springframework.http.HttpStatus;
+import org.springframework.http.MediaType;
+import org.springframework.http.ResponseEntity;
+import org.springframework.util.StringUtils;
+import org.springframework.web.bind.annotation.GetMapping;
+import org.springframework.web.bind.annotation.RequestMapping;
+import org.springframework.web.bind.annotation.RequestParam;
+import org.springframework.web.bind.annotation.RestController;
+import org.springframework.web.servlet.mvc.method.annotation.SseEmitter;
+
+/**
+ * Server-Sent Events of the stream metrics. Each {@code metrics} event is a
+ * {@link StreamMetrics} holding only the instances updated since the previous event.
+ *
+ * @author Christian Tzolov
+ */
+@RestController
+@RequestMapping("/collector/metrics/streams")
+public class MetricsEventsEndpoint {
+
+	public static final String EVENT_NAME = "metrics";
+
+	private final StreamMetricsPublisher publisher;
+
+	private final long timeout;
+
+	/**
+	 * @param publisher the publisher of the updated instances
+	 * @param timeout time (in milliseconds) before a subscription is closed
+	 */
+	public MetricsEventsEndpoint(StreamMetricsPublisher publisher, long timeout) {
+		this.publisher = publisher;
+		this.timeout = timeout;
+	}
+
+	/**
+	 * @param name Comma delimited list of the stream names to subscribe to
+	 * @return the event stream, a 400 response if no stream name is given or a 503 response
+	 * if the maximum number of subscribers is reached
+	 */
+	@GetMapping(path = "/events", produces = MediaType.TEXT_EVENT_STREAM_VALUE)
+	public ResponseEntity<SseEmitter> subscribe(@RequestParam(value = "name", defaultValue = "") String name) {
+		Set<String> streamNames = StringUtils.commaDelimitedListToSet(name);
+		streamNames.remove("");
+		if (streamNames.isEmpty()) {
+			return ResponseEntity.badRequest().build();
+		}
+		SseEmitter emitter = new SseEmitter(this.timeout);
+		StreamMetricsPublisher.Subscription subscription = this.publisher.subscribe(streamNames,
+				new StreamMetricsPublisher.Subscriber() {
+
+					@Override
+					public void send(StreamMetrics streamMetrics) throws IOException {
+						emitter.send(SseEmitter.event().name(EVENT_NAME).data(streamMetrics,
+								MediaType.APPLICATION_JSON));
+					}
+
+					@Override
+					public void sendTimedOut() {
+						emitter.completeWithError(new TimeoutException("Stream metrics event send timed out"));
+					}
+				});
+		if (subscription == null) {
+			return ResponseEntity.status(HttpStatus.SERVICE_UNAVAILABLE).build();
+		}
+		emitter.onCompletion(subscription::cancel);
+		emitter.onTimeout(subscription::cancel);
+		emitter.onError(error -> subscription.cancel());
+		return ResponseEntity.ok(emitter);
+	}
+}
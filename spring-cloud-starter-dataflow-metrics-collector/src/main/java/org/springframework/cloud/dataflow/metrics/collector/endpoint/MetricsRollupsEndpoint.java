@@ -0,0 +1,62 @@
+/*
+ * Copyright 2018 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package org.springframework.cloud.dataflow.metrics.collector.endpoint;
+
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import org.springframework.cloud.dataflow.metrics.collector.model.MetricSeries;
+import org.springframework.cloud.dataflow.metrics.collector.services.ApplicationMetricsRollups;
+import org.springframework.http.ResponseEntity;
+import org.springframework.web.bind.annotation.GetMapping;
+import org.springframework.web.bind.annotation.RequestMapping;
+import org.springframework.web.bind.annotation.RequestParam;
+import org.springframework.web.bind.annotation.RestController;
+
+/**
+ * Downsampled channel send rates of the stream instances over a time window.
+ *
+ * @author Christian Tzolov
+ */
+@RestController
+@RequestMapping("/collector/metrics/streams")
+public class MetricsRollupsEndpoint {
+
+	private final ApplicationMetricsRollups rollups;
+
+	public MetricsRollupsEndpoint(ApplicationMetricsRollups rollups) {
+		this.rollups = rollups;
+	}
+
+	/**
+	 * @param name Comma delimited list of stream names to be filtered on, all streams if
+	 * empty
+	 * @param window the time window (in seconds) up to now, 5 minutes by default
+	 * @return the series of every channel of every instance, at the finest resolution
+	 * retaining the window, or a 400 response if the window is not positive
+	 */
+	@GetMapping("/rollups")
+	public ResponseEntity<List<MetricSeries>> fetchRollups(
+			@RequestParam(value = "name", defaultValue = "") String name,
+			@RequestParam(value = "window", defaultValue = "300") long window) {
+		if (window <= 0) {
+			return ResponseEntity.badRequest().build();
+		}
+		return ResponseEntity.ok(this.rollups.query(name, TimeUnit.SECONDS.toMillis(window)));
+	}
+}
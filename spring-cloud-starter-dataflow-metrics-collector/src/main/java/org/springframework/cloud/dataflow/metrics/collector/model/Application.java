@@ -20,12 +20,18 @@ import java.util.Collection;
 import java.util.Date;
 import java.util.LinkedList;
 import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
 import java.util.stream.Collectors;
 
 import com.fasterxml.jackson.annotation.JsonCreator;
+import com.fasterxml.jackson.annotation.JsonIgnore;
+
+import org.springframework.cloud.dataflow.metrics.collector.utils.MetricNames;
 
 /**
  * @author Vinicius Carvalho
+ * @author Christian Tzolov
  */
 public class Application {
 
@@ -33,7 +39,7 @@ public class Application {
 
 	private List<Instance> instances = new LinkedList<>();
 
-	private Collection<Metric<Double>> aggregateMetrics = new LinkedList<>();
+	private Collection<Metric<Double>> aggregateMetrics;
 
 	@JsonCreator
 	public Application(String name) {
@@ -56,12 +62,45 @@ public class Application {
 		this.instances = instances;
 	}
 
+	/**
+	 * @return the send rates of each channel summed over the instances, and their send
+	 * latencies merged, computed from the instances unless set
+	 */
 	public Collection<Metric<Double>> getAggregateMetrics() {
-		return getInstances().stream().map(instance -> instance.getMetrics()).flatMap(metrics -> metrics.stream())
-				.filter(metric -> metric.getName().matches("integration\\.channel\\.(\\w*)\\.send\\.mean"))
+		if (this.aggregateMetrics != null) {
+			return this.aggregateMetrics;
+		}
+		Date timestamp = new Date();
+		List<Metric<Double>> aggregateMetrics = getInstances().stream().map(instance -> instance.getMetrics())
+				.flatMap(metrics -> metrics.stream())
+				.filter(metric -> MetricNames.isChannelSendMean(metric.getName()))
 				.collect(Collectors.groupingBy(Metric::getName, Collectors.summingDouble(Metric::getValue))).entrySet()
-				.stream().map(entry -> new Metric<Double>(entry.getKey(), entry.getValue(), new Date()))
+				.stream().map(entry -> new Metric<Double>(entry.getKey(), entry.getValue(), timestamp))
 				.collect(Collectors.toList());
+		SendLatency.toMetrics(getSendLatencies(), timestamp, aggregateMetrics);
+		return aggregateMetrics;
+	}
+
+	/**
+	 * @param aggregateMetrics the aggregates maintained by the collector as the instances
+	 * are updated
+	 */
+	public void setAggregateMetrics(Collection<Metric<Double>> aggregateMetrics) {
+		this.aggregateMetrics = aggregateMetrics;
+	}
+
+	/**
+	 * @return the send latencies of each channel name merged over the instances
+	 */
+	@JsonIgnore
+	public Map<String, SendLatency> getSendLatencies() {
+		Map<String, SendLatency> latencies = new TreeMap<>();
+		for (Instance instance : getInstances()) {
+			if (instance.getMetrics() != null) {
+				SendLatency.addAll(latencies, instance.getMetrics());
+			}
+		}
+		return latencies;
 	}
 
 	@Override
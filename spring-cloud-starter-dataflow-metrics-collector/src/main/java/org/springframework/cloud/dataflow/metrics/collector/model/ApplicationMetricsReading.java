@@ -0,0 +1,194 @@
+/*
+ * Copyright 2018 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.springframework.cloud.dataflow.metrics.collector.model;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Date;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Internal representation of a decoded {@link ApplicationMetrics} payload. The metrics are
+ * held in parallel arrays of names, primitive values and epoch milliseconds timestamps, so
+ * a reading costs a few arrays instead of a {@link Metric}, a boxed value and a
+ * {@link Date} per metric.
+ *
+ * @author Christian Tzolov
+ */
+public class ApplicationMetricsReading {
+
+	private static final int INITIAL_CAPACITY = 8;
+
+	private String name;
+
+	private long createdTime;
+
+	private long interval = 1000; //[ms]
+
+	private Map<String, Object> properties;
+
+	private String[] metricNames = new String[INITIAL_CAPACITY];
+
+	private double[] values = new double[INITIAL_CAPACITY];
+
+	private long[] timestamps = new long[INITIAL_CAPACITY];
+
+	private int size;
+
+	private MeterReading meters;
+
+	public ApplicationMetricsReading(String name) {
+		this.name = name;
+		this.createdTime = System.currentTimeMillis();
+	}
+
+	/**
+	 * Converts the public model, e.g. for readings not received as Json.
+	 * @param applicationMetrics the metrics to convert
+	 * @return the equivalent reading, with {@link Double#NaN} for missing values and 0 for
+	 * missing timestamps
+	 */
+	public static ApplicationMetricsReading of(ApplicationMetrics<Metric<Double>> applicationMetrics) {
+		ApplicationMetricsReading reading = new ApplicationMetricsReading(applicationMetrics.getName());
+		if (applicationMetrics.getCreatedTime() != null) {
+			reading.setCreatedTime(applicationMetrics.getCreatedTime().getTime());
+		}
+		reading.setInterval(applicationMetrics.getInterval());
+		reading.setProperties(applicationMetrics.getProperties());
+		for (Metric<Double> metric : applicationMetrics.getMetrics()) {
+			reading.addMetric(metric.getName(), metric.getValue() == null ? Double.NaN : metric.getValue(),
+					metric.getTimestamp() == null ? 0 : metric.getTimestamp().getTime());
+		}
+		return reading;
+	}
+
+	/**
+	 * Converts the reading into the public model, e.g. at the REST boundary.
+	 * @return the equivalent {@link ApplicationMetrics}
+	 */
+	public ApplicationMetrics<Metric<Double>> toApplicationMetrics() {
+		List<Metric<Double>> metrics = new ArrayList<>(this.size);
+		for (int i = 0; i < this.size; i++) {
+			metrics.add(new Metric<>(this.metricNames[i], Double.isNaN(this.values[i]) ? null : this.values[i],
+					new Date(this.timestamps[i])));
+		}
+		ApplicationMetrics<Metric<Double>> applicationMetrics = new ApplicationMetrics<>(this.name, metrics);
+		applicationMetrics.setCreatedTime(new Date(this.createdTime));
+		applicationMetrics.setInterval(this.interval);
+		applicationMetrics.setProperties(this.properties);
+		return applicationMetrics;
+	}
+
+	/**
+	 * @param metricName the metric name
+	 * @param value the value, {@link Double#NaN} if missing
+	 * @param timestamp the epoch milliseconds timestamp
+	 */
+	public void addMetric(String metricName, double value, long timestamp) {
+		if (this.size == this.metricNames.length) {
+			int capacity = this.size * 2;
+			this.metricNames = Arrays.copyOf(this.metricNames, capacity);
+			this.values = Arrays.copyOf(this.values, capacity);
+			this.timestamps = Arrays.copyOf(this.timestamps, capacity);
+		}
+		this.metricNames[this.size] = metricName;
+		this.values[this.size] = value;
+		this.timestamps[this.size] = timestamp;
+		this.size++;
+	}
+
+	/**
+	 * @return the number of metrics
+	 */
+	public int size() {
+		return size;
+	}
+
+	public String getMetricName(int index) {
+		return this.metricNames[checkIndex(index)];
+	}
+
+	public double getValue(int index) {
+		return this.values[checkIndex(index)];
+	}
+
+	public void setValue(int index, double value) {
+		this.values[checkIndex(index)] = value;
+	}
+
+	public long getTimestamp(int index) {
+		return this.timestamps[checkIndex(index)];
+	}
+
+	public String getName() {
+		return name;
+	}
+
+	public void setName(String name) {
+		this.name = name;
+	}
+
+	/**
+	 * @return the creation time in epoch milliseconds
+	 */
+	public long getCreatedTime() {
+		return createdTime;
+	}
+
+	public void setCreatedTime(long createdTime) {
+		this.createdTime = createdTime;
+	}
+
+	/**
+	 * @return the reporting interval in milliseconds
+	 */
+	public long getInterval() {
+		return interval;
+	}
+
+	public void setInterval(long interval) {
+		this.interval = interval;
+	}
+
+	public Map<String, Object> getProperties() {
+		return properties;
+	}
+
+	public void setProperties(Map<String, Object> properties) {
+		this.properties = properties;
+	}
+
+	/**
+	 * @return all the decoded Micrometer meters, null unless the dimensional storage is
+	 * enabled
+	 */
+	public MeterReading getMeters() {
+		return meters;
+	}
+
+	public void setMeters(MeterReading meters) {
+		this.meters = meters;
+	}
+
+	private int checkIndex(int index) {
+		if (index >= this.size) {
+			throw new IndexOutOfBoundsException("Index: " + index + ", Size: " + this.size);
+		}
+		return index;
+	}
+}
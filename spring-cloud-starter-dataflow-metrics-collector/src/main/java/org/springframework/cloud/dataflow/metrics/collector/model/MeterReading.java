@@ -0,0 +1,115 @@
+/*
+ * Copyright 2018 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package org.springframework.cloud.dataflow.metrics.collector.model;
+
+import java.util.Arrays;
+
+/**
+ * The Micrometer meters of a decoded payload, each identified by a dictionary encoded tag
+ * tuple: the meter name id followed by the key and value ids of its tags, ordered by key
+ * id. The statistics of the meters are held in parallel primitive arrays.
+ *
+ * @author Christian Tzolov
+ */
+public class MeterReading {
+
+	private static final int INITIAL_CAPACITY = 16;
+
+	private int[][] ids = new int[INITIAL_CAPACITY][];
+
+	private long[] timestamps = new long[INITIAL_CAPACITY];
+
+	private double[] sums = new double[INITIAL_CAPACITY];
+
+	private double[] counts = new double[INITIAL_CAPACITY];
+
+	private double[] means = new double[INITIAL_CAPACITY];
+
+	private double[] uppers = new double[INITIAL_CAPACITY];
+
+	private double[] totals = new double[INITIAL_CAPACITY];
+
+	private int size;
+
+	/**
+	 * @param id the meter name id followed by its tag key and value ids, ordered by key id
+	 * @param timestamp the epoch milliseconds timestamp
+	 */
+	public void add(int[] id, long timestamp, double sum, double count, double mean, double upper, double total) {
+		if (this.size == this.ids.length) {
+			int capacity = this.size * 2;
+			this.ids = Arrays.copyOf(this.ids, capacity);
+			this.timestamps = Arrays.copyOf(this.timestamps, capacity);
+			this.sums = Arrays.copyOf(this.sums, capacity);
+			this.counts = Arrays.copyOf(this.counts, capacity);
+			this.means = Arrays.copyOf(this.means, capacity);
+			this.uppers = Arrays.copyOf(this.uppers, capacity);
+			this.totals = Arrays.copyOf(this.totals, capacity);
+		}
+		this.ids[this.size] = id;
+		this.timestamps[this.size] = timestamp;
+		this.sums[this.size] = sum;
+		this.counts[this.size] = count;
+		this.means[this.size] = mean;
+		this.uppers[this.size] = upper;
+		this.totals[this.size] = total;
+		this.size++;
+	}
+
+	/**
+	 * @return the number of meters
+	 */
+	public int size() {
+		return size;
+	}
+
+	public int[] getId(int index) {
+		return this.ids[checkIndex(index)];
+	}
+
+	public long getTimestamp(int index) {
+		return this.timestamps[checkIndex(index)];
+	}
+
+	public double getSum(int index) {
+		return this.sums[checkIndex(index)];
+	}
+
+	public double getCount(int index) {
+		return this.counts[checkIndex(index)];
+	}
+
+	public double getMean(int index) {
+		return this.means[checkIndex(index)];
+	}
+
+	public double getUpper(int index) {
+		return this.uppers[checkIndex(index)];
+	}
+
+	public double getTotal(int index) {
+		return this.totals[checkIndex(index)];
+	}
+
+	private int checkIndex(int index) {
+		if (index >= this.size) {
+			throw new IndexOutOfBoundsException("Index: " + index + ", Size: " + this.size);
+		}
+		return index;
+	}
+}
@@ -0,0 +1,147 @@
+/*
+ * Copyright 2018 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package org.springframework.cloud.dataflow.metrics.collector.model;
+
+import java.util.Date;
+import java.util.Map;
+
+/**
+ * Latest statistics of a Micrometer meter of an application instance.
+ *
+ * @author Christian Tzolov
+ */
+public class MeterSample {
+
+	private String name;
+
+	private Map<String, String> tags;
+
+	private String stream;
+
+	private String application;
+
+	private String instance;
+
+	private Date timestamp;
+
+	private Double sum;
+
+	private Double count;
+
+	private Double mean;
+
+	private Double upper;
+
+	private Double total;
+
+	public MeterSample(String name, Map<String, String> tags) {
+		this.name = name;
+		this.tags = tags;
+	}
+
+	public String getName() {
+		return name;
+	}
+
+	public void setName(String name) {
+		this.name = name;
+	}
+
+	public Map<String, String> getTags() {
+		return tags;
+	}
+
+	public void setTags(Map<String, String> tags) {
+		this.tags = tags;
+	}
+
+	public String getStream() {
+		return stream;
+	}
+
+	public void setStream(String stream) {
+		this.stream = stream;
+	}
+
+	public String getApplication() {
+		return application;
+	}
+
+	public void setApplication(String application) {
+		this.application = application;
+	}
+
+	/**
+	 * @return the guid of the application instance
+	 */
+	public String getInstance() {
+		return instance;
+	}
+
+	public void setInstance(String instance) {
+		this.instance = instance;
+	}
+
+	public Date getTimestamp() {
+		return timestamp;
+	}
+
+	public void setTimestamp(Date timestamp) {
+		this.timestamp = timestamp;
+	}
+
+	public Double getSum() {
+		return sum;
+	}
+
+	public void setSum(Double sum) {
+		this.sum = sum;
+	}
+
+	public Double getCount() {
+		return count;
+	}
+
+	public void setCount(Double count) {
+		this.count = count;
+	}
+
+	public Double getMean() {
+		return mean;
+	}
+
+	public void setMean(Double mean) {
+		this.mean = mean;
+	}
+
+	public Double getUpper() {
+		return upper;
+	}
+
+	public void setUpper(Double upper) {
+		this.upper = upper;
+	}
+
+	public Double getTotal() {
+		return total;
+	}
+
+	public void setTotal(Double total) {
+		this.total = total;
+	}
+}
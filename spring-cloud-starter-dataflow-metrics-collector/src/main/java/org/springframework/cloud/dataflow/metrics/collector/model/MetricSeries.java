@@ -0,0 +1,121 @@
+/*
+ * Copyright 2018 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package org.springframework.cloud.dataflow.metrics.collector.model;
+
+/**
+ * Downsampled series of an application instance metric. The values of a time interval are
+ * reduced to their mean and maximum, the intervals without values being skipped.
+ *
+ * @author Christian Tzolov
+ */
+public class MetricSeries {
+
+	private String stream;
+
+	private String application;
+
+	private String instance;
+
+	private String name;
+
+	private long resolution;
+
+	private long[] timestamps;
+
+	private double[] mean;
+
+	private double[] max;
+
+	public MetricSeries(String name, long resolution) {
+		this.name = name;
+		this.resolution = resolution;
+	}
+
+	public String getStream() {
+		return stream;
+	}
+
+	public void setStream(String stream) {
+		this.stream = stream;
+	}
+
+	public String getApplication() {
+		return application;
+	}
+
+	public void setApplication(String application) {
+		this.application = application;
+	}
+
+	/**
+	 * @return the guid of the application instance
+	 */
+	public String getInstance() {
+		return instance;
+	}
+
+	public void setInstance(String instance) {
+		this.instance = instance;
+	}
+
+	public String getName() {
+		return name;
+	}
+
+	public void setName(String name) {
+		this.name = name;
+	}
+
+	/**
+	 * @return the interval of the buckets in milliseconds
+	 */
+	public long getResolution() {
+		return resolution;
+	}
+
+	public void setResolution(long resolution) {
+		this.resolution = resolution;
+	}
+
+	/**
+	 * @return the epoch milliseconds start of each bucket
+	 */
+	public long[] getTimestamps() {
+		return timestamps;
+	}
+
+	public void setTimestamps(long[] timestamps) {
+		this.timestamps = timestamps;
+	}
+
+	public double[] getMean() {
+		return mean;
+	}
+
+	public void setMean(double[] mean) {
+		this.mean = mean;
+	}
+
+	public double[] getMax() {
+		return max;
+	}
+
+	public void setMax(double[] max) {
+		this.max = max;
+	}
+}
@@ -16,6 +16,9 @@
 
 package org.springframework.cloud.dataflow.metrics.collector.model;
 
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Comparator;
 import java.util.Date;
 import java.util.List;
 
@@ -85,6 +88,8 @@ public class MicrometerMetric<T extends Number> {
 		@Nullable
 		private String baseUnit;
 
+		private TagIndex tagIndex;
+
 		public String getName() {
 			return name;
 		}
@@ -99,6 +104,7 @@ public class MicrometerMetric<T extends Number> {
 
 		public void setTags(List<Tag> tags) {
 			this.tags = tags;
+			this.tagIndex = null;
 		}
 
 		public Meter.Type getType() {
@@ -121,12 +127,63 @@ public class MicrometerMetric<T extends Number> {
 			this.baseUnit = baseUnit;
 		}
 
+		/**
+		 * Looks the tag up by binary search in the tags sorted once by key. Tags added to
+		 * the list afterwards are indexed again, the keys of the indexed tags must not change.
+		 * @param key the tag key
+		 * @return the value of the first tag with this key, null if none
+		 */
 		public String getTag(String key) {
+			if (tags == null || key == null) {
+				return null;
+			}
+			TagIndex index = this.tagIndex;
+			if (index == null || index.size != tags.size()) {
+				index = new TagIndex(tags);
+				this.tagIndex = index;
+			}
+			return index.get(key);
+		}
+	}
+
+	/**
+	 * Tags of an {@link Id} sorted by key, equal keys keeping their list order.
+	 */
+	private static final class TagIndex {
+
+		private static final Comparator<Tag> BY_KEY = Comparator.comparing(Tag::getKey);
+
+		private final int size;
+
+		private final String[] keys;
+
+		private final Tag[] tags;
+
+		TagIndex(List<Tag> tags) {
+			this.size = tags.size();
+			List<Tag> keyed = new ArrayList<>(this.size);
 			for (Tag tag : tags) {
-				if (tag.getKey().equals(key))
-					return tag.getValue();
+				if (tag.getKey() != null) {
+					keyed.add(tag);
+				}
+			}
+			this.tags = keyed.toArray(new Tag[0]);
+			Arrays.sort(this.tags, BY_KEY);
+			this.keys = new String[this.tags.length];
+			for (int i = 0; i < this.tags.length; i++) {
+				this.keys[i] = this.tags[i].getKey();
+			}
+		}
+
+		String get(String key) {
+			int i = Arrays.binarySearch(this.keys, key);
+			if (i < 0) {
+				return null;
+			}
+			while (i > 0 && this.keys[i - 1].equals(key)) {
+				i--;
 			}
-			return null;
+			return this.tags[i].getValue();
 		}
 	}
 
@@ -0,0 +1,153 @@
+/*
+ * Copyright 2018 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package org.springframework.cloud.dataflow.metrics.collector.model;
+
+import java.util.Collection;
+import java.util.Date;
+import java.util.Map;
+
+import org.springframework.cloud.dataflow.metrics.collector.utils.MetricNames;
+
+/**
+ * Mergeable send latency statistics of a channel: the mean latency weighted by the send
+ * rate and the maximum latency. The rates are proportional to the send counts as long as
+ * the instances report over the same interval, so merging the instances of an application
+ * and then the applications of a stream gives the mean of all their sends without going
+ * back to the readings.
+ *
+ * @author Christian Tzolov
+ */
+public final class SendLatency {
+
+	private double weightedMeans;
+
+	private double weights;
+
+	private double means;
+
+	private int meanCount;
+
+	private double max = Double.NaN;
+
+	/**
+	 * Adds the send latencies of the channels of an instance.
+	 * @param latencies the latencies per channel name, updated
+	 * @param metrics the metrics of an {@link Instance}, with the send rates and latencies
+	 * of its channels
+	 */
+	public static void addAll(Map<String, SendLatency> latencies, Collection<Metric<Double>> metrics) {
+		for (Metric<Double> metric : metrics) {
+			if (metric.getValue() == null) {
+				continue;
+			}
+			String channel = MetricNames.channelOf(metric.getName(), MetricNames.SEND_DURATION_MEAN_SUFFIX);
+			if (channel != null) {
+				latencies.computeIfAbsent(channel, name -> new SendLatency()).addMean(metric.getValue(),
+						rateOf(metrics, channel));
+				continue;
+			}
+			channel = MetricNames.channelOf(metric.getName(), MetricNames.SEND_DURATION_MAX_SUFFIX);
+			if (channel != null) {
+				latencies.computeIfAbsent(channel, name -> new SendLatency()).addMax(metric.getValue());
+			}
+		}
+	}
+
+	/**
+	 * @param latencies the latencies per channel name, updated
+	 * @param others the latencies per channel name to merge
+	 */
+	public static void mergeAll(Map<String, SendLatency> latencies, Map<String, SendLatency> others) {
+		for (Map.Entry<String, SendLatency> entry : others.entrySet()) {
+			latencies.computeIfAbsent(entry.getKey(), name -> new SendLatency()).merge(entry.getValue());
+		}
+	}
+
+	/**
+	 * @param latencies the latencies per channel name
+	 * @param timestamp the timestamp of the metrics
+	 * @param metrics the send latency mean and max metrics of each channel, updated
+	 */
+	public static void toMetrics(Map<String, SendLatency> latencies, Date timestamp,
+			Collection<Metric<Double>> metrics) {
+		for (Map.Entry<String, SendLatency> entry : latencies.entrySet()) {
+			double mean = entry.getValue().getMean();
+			if (!Double.isNaN(mean)) {
+				metrics.add(new Metric<>(MetricNames.channelSendDurationMean(entry.getKey()), mean, timestamp));
+			}
+			if (!Double.isNaN(entry.getValue().getMax())) {
+				metrics.add(new Metric<>(MetricNames.channelSendDurationMax(entry.getKey()), entry.getValue().getMax(),
+						timestamp));
+			}
+		}
+	}
+
+	private static double rateOf(Collection<Metric<Double>> metrics, String channel) {
+		String sendMean = MetricNames.channelSendMean(channel);
+		for (Metric<Double> metric : metrics) {
+			if (sendMean.equals(metric.getName()) && metric.getValue() != null) {
+				return metric.getValue();
+			}
+		}
+		return 0;
+	}
+
+	/**
+	 * @param mean a mean latency
+	 * @param rate the send rate the mean was observed over
+	 */
+	public void addMean(double mean, double rate) {
+		double weight = (rate > 0) ? rate : 0;
+		this.weightedMeans += mean * weight;
+		this.weights += weight;
+		this.means += mean;
+		this.meanCount++;
+	}
+
+	public void addMax(double max) {
+		this.max = Double.isNaN(this.max) ? max : Math.max(this.max, max);
+	}
+
+	public void merge(SendLatency other) {
+		this.weightedMeans += other.weightedMeans;
+		this.weights += other.weights;
+		this.means += other.means;
+		this.meanCount += other.meanCount;
+		if (!Double.isNaN(other.max)) {
+			addMax(other.max);
+		}
+	}
+
+	/**
+	 * @return the mean weighted by the send rates, the plain mean of the means if nothing
+	 * was sent, NaN if no mean was added
+	 */
+	public double getMean() {
+		if (this.weights > 0) {
+			return this.weightedMeans / this.weights;
+		}
+		return (this.meanCount > 0) ? this.means / this.meanCount : Double.NaN;
+	}
+
+	/**
+	 * @return the maximum latency, NaN if no maximum was added
+	 */
+	public double getMax() {
+		return max;
+	}
+}
@@ -16,19 +16,28 @@
 
 package org.springframework.cloud.dataflow.metrics.collector.model;
 
+import java.util.Collection;
+import java.util.Date;
 import java.util.LinkedList;
 import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
 
 import com.fasterxml.jackson.annotation.JsonCreator;
 
+import org.springframework.cloud.dataflow.metrics.collector.utils.MetricNames;
+
 /**
  * @author Vinicius Carvalho
+ * @author Christian Tzolov
  */
 public class StreamMetrics {
 	private String name;
 
 	private List<Application> applications = new LinkedList<>();
 
+	private Collection<Metric<Double>> aggregateMetrics;
+
 	@JsonCreator
 	public StreamMetrics(String name) {
 		this.name = name;
@@ -49,4 +58,37 @@ public class StreamMetrics {
 	public void setApplications(List<Application> applications) {
 		this.applications = applications;
 	}
+
+	/**
+	 * @return the send rates of each channel name summed over the applications, and their
+	 * send latencies merged, computed from the applications unless set
+	 */
+	public Collection<Metric<Double>> getAggregateMetrics() {
+		if (this.aggregateMetrics != null) {
+			return this.aggregateMetrics;
+		}
+		Date timestamp = new Date();
+		Map<String, Double> rates = new TreeMap<>();
+		Map<String, SendLatency> latencies = new TreeMap<>();
+		for (Application application : getApplications()) {
+			for (Metric<Double> metric : application.getAggregateMetrics()) {
+				if (MetricNames.isChannelSendMean(metric.getName())) {
+					rates.merge(metric.getName(), metric.getValue(), Double::sum);
+				}
+			}
+			SendLatency.mergeAll(latencies, application.getSendLatencies());
+		}
+		List<Metric<Double>> aggregateMetrics = new LinkedList<>();
+		rates.forEach((name, rate) -> aggregateMetrics.add(new Metric<>(name, rate, timestamp)));
+		SendLatency.toMetrics(latencies, timestamp, aggregateMetrics);
+		return aggregateMetrics;
+	}
+
+	/**
+	 * @param aggregateMetrics the aggregates maintained by the collector as the instances
+	 * are updated
+	 */
+	public void setAggregateMetrics(Collection<Metric<Double>> aggregateMetrics) {
+		this.aggregateMetrics = aggregateMetrics;
+	}
 }
@@ -0,0 +1,223 @@
+/*
+ * Copyright 2018 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.springframework.cloud.dataflow.metrics.collector.services;
+
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.LinkedList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.TimeUnit;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import org.springframework.cloud.dataflow.metrics.collector.model.ApplicationMetrics;
+import org.springframework.cloud.dataflow.metrics.collector.model.ApplicationMetricsReading;
+import org.springframework.context.SmartLifecycle;
+import org.springframework.util.Assert;
+
+/**
+ * Buffers the incoming {@link ApplicationMetrics} and applies them to the
+ * {@link ApplicationMetricsService} in batches. A batch is closed when it reaches the
+ * configured size or when the configured timeout elapsed since its first reading. The
+ * readings of a batch are coalesced per {@link ApplicationMetrics} name, so that only the
+ * readings the storage retains for each instance reach it.
+ *
+ * The buffer is bounded to a few batches, producers block when the storage falls behind.
+ * The readings are stored synchronously while the batcher is not running, e.g. when
+ * received during shutdown.
+ *
+ * @author Christian Tzolov
+ */
+public class ApplicationMetricsBatcher implements SmartLifecycle {
+
+	private static final int QUEUED_BATCHES = 4;
+
+	private final Logger logger = LoggerFactory.getLogger(ApplicationMetricsBatcher.class);
+
+	private final ApplicationMetricsService service;
+
+	private final int batchSize;
+
+	private final long batchTimeoutNanos;
+
+	private final BlockingQueue<ApplicationMetricsReading> queue;
+
+	private volatile boolean running;
+
+	private Thread drainer;
+
+	/**
+	 * @param service the storage the batches are applied to
+	 * @param batchSize maximum number of readings per batch
+	 * @param batchTimeout maximum time (in milliseconds) a reading waits for its batch to fill up
+	 */
+	public ApplicationMetricsBatcher(ApplicationMetricsService service, int batchSize, long batchTimeout) {
+		Assert.isTrue(batchSize > 0, "The batch size must be positive");
+		Assert.isTrue(batchTimeout > 0, "The batch timeout must be positive");
+		this.service = service;
+		this.batchSize = batchSize;
+		this.batchTimeoutNanos = TimeUnit.MILLISECONDS.toNanos(batchTimeout);
+		this.queue = new ArrayBlockingQueue<>(batchSize * QUEUED_BATCHES);
+	}
+
+	/**
+	 * Queues a reading for the next batch, blocking while the buffer is full, or stores it
+	 * right away when the batcher is not running.
+	 * @param reading the reading to store
+	 */
+	public void add(ApplicationMetricsReading reading) {
+		try {
+			while (this.running) {
+				if (this.queue.offer(reading, this.batchTimeoutNanos, TimeUnit.NANOSECONDS)) {
+					// stopped meanwhile, the drainer may be gone already
+					if (!this.running && this.queue.remove(reading)) {
+						this.service.add(reading);
+					}
+					return;
+				}
+			}
+		}
+		catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+			logger.warn("Interrupted while queuing metrics {}", reading.getName());
+			return;
+		}
+		this.service.add(reading);
+	}
+
+	@Override
+	public synchronized void start() {
+		if (!this.running) {
+			this.running = true;
+			this.drainer = new Thread(this::drain, "metrics-collector-batcher");
+			this.drainer.setDaemon(true);
+			this.drainer.start();
+		}
+	}
+
+	/**
+	 * Stops the batching thread once the readings queued so far have been stored.
+	 */
+	@Override
+	public synchronized void stop() {
+		if (this.running) {
+			this.running = false;
+			try {
+				this.drainer.join();
+			}
+			catch (InterruptedException e) {
+				Thread.currentThread().interrupt();
+			}
+			this.drainer = null;
+		}
+	}
+
+	@Override
+	public void stop(Runnable callback) {
+		stop();
+		callback.run();
+	}
+
+	@Override
+	public boolean isRunning() {
+		return this.running;
+	}
+
+	@Override
+	public boolean isAutoStartup() {
+		return true;
+	}
+
+	@Override
+	public int getPhase() {
+		return 0;
+	}
+
+	private void drain() {
+		List<ApplicationMetricsReading> batch = new ArrayList<>(this.batchSize);
+		try {
+			while (this.running || !this.queue.isEmpty()) {
+				try {
+					nextBatch(batch);
+					if (!batch.isEmpty()) {
+						this.service.addAll(coalesce(batch, this.service.getHistoryDepth()));
+					}
+				}
+				catch (InterruptedException e) {
+					Thread.currentThread().interrupt();
+					return;
+				}
+				catch (RuntimeException e) {
+					logger.warn("Failed to store a batch of " + batch.size() + " metrics", e);
+				}
+				finally {
+					batch.clear();
+				}
+			}
+		}
+		finally {
+			if (this.running) {
+				// let the producers store their readings instead of waiting on a dead thread
+				this.running = false;
+				logger.error("The metrics batching thread stopped, the metrics are stored synchronously");
+			}
+		}
+	}
+
+	private void nextBatch(List<ApplicationMetricsReading> batch) throws InterruptedException {
+		ApplicationMetricsReading first = this.queue.poll(this.batchTimeoutNanos, TimeUnit.NANOSECONDS);
+		if (first == null) {
+			return;
+		}
+		batch.add(first);
+		long deadline = System.nanoTime() + this.batchTimeoutNanos;
+		while (batch.size() < this.batchSize) {
+			this.queue.drainTo(batch, this.batchSize - batch.size());
+			long remaining = deadline - System.nanoTime();
+			if (batch.size() >= this.batchSize || remaining <= 0) {
+				return;
+			}
+			ApplicationMetricsReading next = this.queue.poll(remaining, TimeUnit.NANOSECONDS);
+			if (next == null) {
+				return;
+			}
+			batch.add(next);
+		}
+	}
+
+	/**
+	 * Groups the batch per {@link ApplicationMetrics} name into lists holding at most the
+	 * last depth readings, oldest first.
+	 */
+	static Map<String, LinkedList<ApplicationMetricsReading>> coalesce(
+			List<ApplicationMetricsReading> batch, int depth) {
+		Map<String, LinkedList<ApplicationMetricsReading>> readings = new LinkedHashMap<>();
+		for (ApplicationMetricsReading reading : batch) {
+			LinkedList<ApplicationMetricsReading> values = readings
+					.computeIfAbsent(reading.getName(), name -> new LinkedList<>());
+			values.addLast(reading);
+			if (values.size() > depth) {
+				values.removeFirst();
+			}
+		}
+		return readings;
+	}
+}
@@ -0,0 +1,72 @@
+/*
+ * Copyright 2018 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.springframework.cloud.dataflow.metrics.collector.services;
+
+import java.time.Clock;
+import java.util.concurrent.TimeUnit;
+
+import com.github.benmanes.caffeine.cache.Expiry;
+
+/**
+ * Expires the histories a timeout after their last update rather than after their last
+ * write to the storage, so the histories replayed on start keep their original age.
+ *
+ * @author Christian Tzolov
+ */
+public class ApplicationMetricsExpiry implements Expiry<String, ApplicationMetricsHistory> {
+
+	private final long timeout;
+
+	private final Clock clock;
+
+	/**
+	 * @param timeout time (in milliseconds) after the last update of a history it expires
+	 */
+	public ApplicationMetricsExpiry(long timeout) {
+		this(timeout, Clock.systemUTC());
+	}
+
+	public ApplicationMetricsExpiry(long timeout, Clock clock) {
+		this.timeout = timeout;
+		this.clock = clock;
+	}
+
+	@Override
+	public long expireAfterCreate(String name, ApplicationMetricsHistory history, long currentTime) {
+		return remaining(history);
+	}
+
+	@Override
+	public long expireAfterUpdate(String name, ApplicationMetricsHistory history, long currentTime,
+			long currentDuration) {
+		return remaining(history);
+	}
+
+	@Override
+	public long expireAfterRead(String name, ApplicationMetricsHistory history, long currentTime,
+			long currentDuration) {
+		return currentDuration;
+	}
+
+	/**
+	 * @return the time (in nanoseconds) left before the history expires
+	 */
+	private long remaining(ApplicationMetricsHistory history) {
+		long age = this.clock.millis() - history.getUpdated();
+		return TimeUnit.MILLISECONDS.toNanos(Math.max(0, this.timeout - age));
+	}
+}
@@ -0,0 +1,444 @@
+/*
+ * Copyright 2018 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.springframework.cloud.dataflow.metrics.collector.services;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Date;
+import java.util.List;
+import java.util.Map;
+
+import org.springframework.cloud.dataflow.metrics.collector.model.ApplicationMetrics;
+import org.springframework.cloud.dataflow.metrics.collector.model.ApplicationMetricsReading;
+import org.springframework.cloud.dataflow.metrics.collector.model.Metric;
+import org.springframework.util.Assert;
+
+/**
+ * Fixed capacity history of the last readings of an application instance.
+ *
+ * Each metric name owns a slot holding a ring buffer of primitive timestamps and values,
+ * all slots sharing the same head. A metric missing from a reading is recorded as
+ * {@link Double#NaN}. Only the properties of the latest reading are retained.
+ *
+ * Updates and reads are synchronized on the instance, readers that need several values of
+ * a consistent reading should hold the monitor while reading them. Each update also
+ * publishes an immutable {@link Recent} copy of the latest two readings, so the readers
+ * converting the latest reading do not block the updates.
+ *
+ * @author Christian Tzolov
+ */
+public final class ApplicationMetricsHistory {
+
+	private static final String[] NO_SLOTS = new String[0];
+
+	/**
+	 * Estimated size of the history object and its three array headers.
+	 */
+	private static final int OVERHEAD = 104;
+
+	/**
+	 * Estimated size of a String object and its char array header.
+	 */
+	private static final int STRING_OVERHEAD = 40;
+
+	/**
+	 * Estimated size of a properties map and its table header.
+	 */
+	private static final int MAP_OVERHEAD = 72;
+
+	/**
+	 * Estimated size of a properties map entry and its table slots.
+	 */
+	private static final int ENTRY_SIZE = 48;
+
+	/**
+	 * Estimated size of a property value that is neither a String nor a boxed primitive.
+	 */
+	private static final int VALUE_SIZE = 64;
+
+	private final String name;
+
+	private final int depth;
+
+	private String[] slots = NO_SLOTS;
+
+	private long[] timestamps = new long[0];
+
+	private double[] values = new double[0];
+
+	private int head = -1;
+
+	private long count;
+
+	private long updated;
+
+	private volatile Map<String, Object> properties = Collections.emptyMap();
+
+	private int slotNamesSize;
+
+	private int propertiesSize;
+
+	private volatile Recent recent;
+
+	/**
+	 * @param name the {@link ApplicationMetrics} name of the instance
+	 * @param depth the number of readings retained, at least 1
+	 */
+	public ApplicationMetricsHistory(String name, int depth) {
+		Assert.isTrue(depth > 0, "The history depth must be positive");
+		this.name = name;
+		this.depth = depth;
+	}
+
+	/**
+	 * Records a reading, overwriting the oldest one once the history is full.
+	 * @param reading the newest reading
+	 */
+	public void add(ApplicationMetricsReading reading) {
+		add(reading, System.currentTimeMillis());
+	}
+
+	/**
+	 * Records a reading, e.g. replayed from a file, updated at the given time.
+	 * @param reading the newest reading
+	 * @param updated the time (in milliseconds) the reading was received
+	 */
+	public synchronized void add(ApplicationMetricsReading reading, long updated) {
+		this.head = (this.head + 1) % this.depth;
+		for (int slot = 0; slot < this.slots.length; slot++) {
+			this.values[slot * this.depth + this.head] = Double.NaN;
+		}
+		int hint = 0;
+		for (int i = 0; i < reading.size(); i++) {
+			int slot = slotOf(reading.getMetricName(i), hint);
+			int index = slot * this.depth + this.head;
+			this.values[index] = reading.getValue(i);
+			this.timestamps[index] = reading.getTimestamp(i);
+			hint = slot + 1;
+		}
+		if (this.properties != reading.getProperties()) {
+			this.properties = reading.getProperties();
+			this.propertiesSize = sizeOf(this.properties);
+		}
+		this.count++;
+		this.updated = updated;
+		this.recent = new Recent(this);
+	}
+
+	public String getName() {
+		return name;
+	}
+
+	public int getDepth() {
+		return depth;
+	}
+
+	/**
+	 * @return the properties of the latest reading
+	 */
+	public Map<String, Object> getProperties() {
+		return properties;
+	}
+
+	/**
+	 * @return the latest two readings, null if none was recorded
+	 */
+	public Recent getRecent() {
+		return recent;
+	}
+
+	/**
+	 * @return the number of readings recorded since the history was created
+	 */
+	public synchronized long getCount() {
+		return count;
+	}
+
+	/**
+	 * @return the time (in milliseconds) of the last reading, 0 if none was recorded
+	 */
+	public synchronized long getUpdated() {
+		return updated;
+	}
+
+	/**
+	 * @return the number of readings currently retained
+	 */
+	public synchronized int size() {
+		return (int) Math.min(this.count, this.depth);
+	}
+
+	/**
+	 * @return the number of metric slots
+	 */
+	public synchronized int getSlotCount() {
+		return this.slots.length;
+	}
+
+	public synchronized String getSlotName(int slot) {
+		return this.slots[slot];
+	}
+
+	/**
+	 * Estimates the heap retained by the history, e.g. to bound the size of the storage. The
+	 * name, the metric names and the property values are accounted for as if they were not
+	 * shared, only the property keys being interned by the JSON parser.
+	 * @return the estimated size in bytes
+	 */
+	public synchronized int getEstimatedSize() {
+		return OVERHEAD + sizeOf(this.name) + this.slotNamesSize
+				+ this.slots.length * (Integer.BYTES + this.depth * (Long.BYTES + Double.BYTES))
+				+ this.propertiesSize;
+	}
+
+	/**
+	 * @param slot the metric slot
+	 * @param age 0 for the latest reading, 1 for the one before and so on
+	 * @return the value, {@link Double#NaN} if the metric was missing from that reading
+	 */
+	public synchronized double getValue(int slot, int age) {
+		return this.values[index(slot, age)];
+	}
+
+	/**
+	 * @param slot the metric slot
+	 * @param age 0 for the latest reading, 1 for the one before and so on
+	 * @return the timestamp in milliseconds
+	 */
+	public synchronized long getTimestamp(int slot, int age) {
+		return this.timestamps[index(slot, age)];
+	}
+
+	/**
+	 * @return the latest reading, null if none was recorded
+	 */
+	public synchronized ApplicationMetrics<Metric<Double>> getLatest() {
+		return getReading(0);
+	}
+
+	/**
+	 * @return the reading before the latest one, null if fewer readings were recorded
+	 */
+	public synchronized ApplicationMetrics<Metric<Double>> getPrevious() {
+		return getReading(1);
+	}
+
+	/**
+	 * Materializes a retained reading. Only the latest reading carries its properties.
+	 * @param age 0 for the latest reading, 1 for the one before and so on
+	 * @return the reading, null if fewer readings were recorded
+	 */
+	public synchronized ApplicationMetrics<Metric<Double>> getReading(int age) {
+		if (age >= size()) {
+			return null;
+		}
+		List<Metric<Double>> metrics = new ArrayList<>(this.slots.length);
+		for (int slot = 0; slot < this.slots.length; slot++) {
+			int index = index(slot, age);
+			if (!Double.isNaN(this.values[index])) {
+				metrics.add(new Metric<>(this.slots[slot], this.values[index], new Date(this.timestamps[index])));
+			}
+		}
+		ApplicationMetrics<Metric<Double>> reading = new ApplicationMetrics<>(this.name, metrics);
+		reading.setProperties(age == 0 ? this.properties : Collections.emptyMap());
+		return reading;
+	}
+
+	private int index(int slot, int age) {
+		Assert.isTrue(age >= 0 && age < this.depth, "Invalid history age " + age);
+		return slot * this.depth + Math.floorMod(this.head - age, this.depth);
+	}
+
+	/**
+	 * Finds the slot of a metric, trying the hint first as readings usually list their
+	 * metrics in the same order. Unknown metrics reuse the slots of metrics absent from
+	 * the whole history before new slots are allocated.
+	 */
+	private int slotOf(String metricName, int hint) {
+		if (hint < this.slots.length && this.slots[hint].equals(metricName)) {
+			return hint;
+		}
+		for (int slot = 0; slot < this.slots.length; slot++) {
+			if (this.slots[slot].equals(metricName)) {
+				return slot;
+			}
+		}
+		for (int slot = 0; slot < this.slots.length; slot++) {
+			if (isStale(slot)) {
+				this.slotNamesSize += sizeOf(metricName) - sizeOf(this.slots[slot]);
+				// copied as the published recent readings share the slot names
+				this.slots = this.slots.clone();
+				this.slots[slot] = metricName;
+				return slot;
+			}
+		}
+		int slot = this.slots.length;
+		this.slots = Arrays.copyOf(this.slots, slot + 1);
+		this.slots[slot] = metricName;
+		this.slotNamesSize += sizeOf(metricName);
+		this.values = Arrays.copyOf(this.values, (slot + 1) * this.depth);
+		this.timestamps = Arrays.copyOf(this.timestamps, (slot + 1) * this.depth);
+		Arrays.fill(this.values, slot * this.depth, (slot + 1) * this.depth, Double.NaN);
+		return slot;
+	}
+
+	private boolean isStale(int slot) {
+		for (int i = slot * this.depth; i < (slot + 1) * this.depth; i++) {
+			if (!Double.isNaN(this.values[i])) {
+				return false;
+			}
+		}
+		return true;
+	}
+
+	private static int sizeOf(Map<String, Object> properties) {
+		if (properties.isEmpty()) {
+			return 0;
+		}
+		int size = MAP_OVERHEAD;
+		for (Object value : properties.values()) {
+			size += ENTRY_SIZE + sizeOf(value);
+		}
+		return size;
+	}
+
+	private static int sizeOf(Object value) {
+		if (value == null || value instanceof Boolean) {
+			return 0;
+		}
+		if (value instanceof String) {
+			return sizeOf((String) value);
+		}
+		if (value instanceof Long || value instanceof Double) {
+			return 24;
+		}
+		if (value instanceof Number || value instanceof Character) {
+			return 16;
+		}
+		return VALUE_SIZE;
+	}
+
+	private static int sizeOf(String value) {
+		return STRING_OVERHEAD + ((value.length() * Character.BYTES + 7) & ~7);
+	}
+
+	/**
+	 * Immutable copy of the latest reading of a history and of the one before, read without
+	 * locking.
+	 */
+	public static final class Recent {
+
+		private final String name;
+
+		private final String[] slots;
+
+		/**
+		 * The latest value of each slot followed by its previous one.
+		 */
+		private final double[] values;
+
+		private final long[] timestamps;
+
+		private final int size;
+
+		private final Map<String, Object> properties;
+
+		private Recent(ApplicationMetricsHistory history) {
+			this.name = history.name;
+			this.slots = history.slots;
+			this.size = (int) Math.min(history.count, Math.min(history.depth, 2));
+			this.values = new double[this.slots.length * 2];
+			this.timestamps = new long[this.slots.length * 2];
+			Arrays.fill(this.values, Double.NaN);
+			for (int slot = 0; slot < this.slots.length; slot++) {
+				for (int age = 0; age < this.size; age++) {
+					int index = history.index(slot, age);
+					this.values[slot * 2 + age] = history.values[index];
+					this.timestamps[slot * 2 + age] = history.timestamps[index];
+				}
+			}
+			this.properties = history.properties;
+		}
+
+		public String getName() {
+			return name;
+		}
+
+		/**
+		 * @return the number of readings held, 1 or 2
+		 */
+		public int size() {
+			return size;
+		}
+
+		public int getSlotCount() {
+			return this.slots.length;
+		}
+
+		public String getSlotName(int slot) {
+			return this.slots[slot];
+		}
+
+		/**
+		 * @param slot the metric slot
+		 * @param age 0 for the latest reading, 1 for the one before
+		 * @return the value, {@link Double#NaN} if the metric was missing from that reading
+		 */
+		public double getValue(int slot, int age) {
+			return this.values[index(slot, age)];
+		}
+
+		/**
+		 * @param slot the metric slot
+		 * @param age 0 for the latest reading, 1 for the one before
+		 * @return the timestamp in milliseconds
+		 */
+		public long getTimestamp(int slot, int age) {
+			return this.timestamps[index(slot, age)];
+		}
+
+		/**
+		 * @return the properties of the latest reading
+		 */
+		public Map<String, Object> getProperties() {
+			return properties;
+		}
+
+		/**
+		 * @return the latest reading, as {@link ApplicationMetricsHistory#getLatest()}
+		 * materializes it
+		 */
+		public ApplicationMetrics<Metric<Double>> getLatest() {
+			List<Metric<Double>> metrics = new ArrayList<>(this.slots.length);
+			for (int slot = 0; slot < this.slots.length; slot++) {
+				if (!Double.isNaN(this.values[slot * 2])) {
+					metrics.add(new Metric<>(this.slots[slot], this.values[slot * 2],
+							new Date(this.timestamps[slot * 2])));
+				}
+			}
+			ApplicationMetrics<Metric<Double>> reading = new ApplicationMetrics<>(this.name, metrics);
+			reading.setProperties(this.properties);
+			return reading;
+		}
+
+		private int index(int slot, int age) {
+			Assert.isTrue(age >= 0 && age < 2, "Invalid recent reading age " + age);
+			return slot * 2 + age;
+		}
+	}
+}
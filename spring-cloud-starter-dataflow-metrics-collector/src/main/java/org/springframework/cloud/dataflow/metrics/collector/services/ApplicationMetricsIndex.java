@@ -0,0 +1,226 @@
+/*
+ * Copyright 2018 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.springframework.cloud.dataflow.metrics.collector.services;
+
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.NavigableSet;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.ConcurrentNavigableMap;
+import java.util.concurrent.ConcurrentSkipListMap;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicLong;
+
+import com.github.benmanes.caffeine.cache.RemovalCause;
+import com.github.benmanes.caffeine.cache.RemovalListener;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import org.springframework.cloud.dataflow.metrics.collector.model.ApplicationMetrics;
+
+/**
+ * Secondary index of the metrics storage, grouping the {@link ApplicationMetricsHistory}
+ * entries by stream name and application name so queries only visit the streams they
+ * return.
+ *
+ * Entries are registered by the {@link ApplicationMetricsService} on each update, a plain
+ * lookup once indexed, and unregistered when Caffeine evicts them, provided the index is set as the removal listener
+ * of the storage. Unregistering is conditional on the history instance, so the late
+ * notification of an evicted history never drops its replacement. Readers should still
+ * check the entries against the storage, which is the source of truth. Streams are kept
+ * sorted by name, so paged queries do not sort the whole index, and maintain the
+ * {@link StreamAggregates} of their channel send rates along with their histories. The
+ * {@link ApplicationMetricsListener}s registered on the index are notified of the
+ * unregistered histories.
+ *
+ * @author Christian Tzolov
+ */
+public class ApplicationMetricsIndex implements RemovalListener<String, ApplicationMetricsHistory> {
+
+	private final Logger logger = LoggerFactory.getLogger(ApplicationMetricsIndex.class);
+
+	private final ConcurrentNavigableMap<String, IndexedStream> streams = new ConcurrentSkipListMap<>();
+
+	private final List<ApplicationMetricsListener> listeners = new CopyOnWriteArrayList<>();
+
+	/**
+	 * Randomly seeded, so stream ids differ across collector restarts.
+	 */
+	private final AtomicLong streamIds = new AtomicLong(ThreadLocalRandom.current().nextLong());
+
+	/**
+	 * Registers a history under the stream and application names of its latest reading,
+	 * replaces its channel send rates in the aggregates of the stream and bumps the
+	 * generation of the stream. Expected to be called after each update of the history.
+	 * @param history the history to index
+	 * @param rates the channel send rates of the latest reading, by metric name
+	 */
+	public void add(ApplicationMetricsHistory history, Map<String, Double> rates) {
+		String streamName = streamName(history);
+		String applicationName = applicationName(history);
+		IndexedStream stream = this.streams.get(streamName);
+		if (stream != null) {
+			Map<String, ApplicationMetricsHistory> instances = stream.applications.get(applicationName);
+			if (instances != null && instances.get(history.getName()) == history) {
+				stream.aggregates.update(history, applicationName, rates);
+				stream.generation.incrementAndGet();
+				return;
+			}
+		}
+		this.streams.compute(streamName, (name, current) -> {
+			IndexedStream target = (current == null) ? new IndexedStream(name, streamIds.incrementAndGet()) : current;
+			target.applications.computeIfAbsent(applicationName, key -> new ConcurrentHashMap<>())
+					.put(history.getName(), history);
+			target.aggregates.update(history, applicationName, rates);
+			target.generation.incrementAndGet();
+			return target;
+		});
+	}
+
+	/**
+	 * Unregisters a history if it is still the indexed one for its name.
+	 * @param history the history to remove
+	 */
+	public void remove(ApplicationMetricsHistory history) {
+		String applicationName = applicationName(history);
+		AtomicBoolean removed = new AtomicBoolean();
+		this.streams.computeIfPresent(streamName(history), (name, stream) -> {
+			stream.applications.computeIfPresent(applicationName, (key, instances) -> {
+				if (instances.remove(history.getName(), history)) {
+					stream.aggregates.remove(history);
+					stream.generation.incrementAndGet();
+					removed.set(true);
+				}
+				return instances.isEmpty() ? null : instances;
+			});
+			return stream.applications.isEmpty() ? null : stream;
+		});
+		if (removed.get()) {
+			for (ApplicationMetricsListener listener : this.listeners) {
+				try {
+					listener.onRemoval(history);
+				}
+				catch (RuntimeException e) {
+					logger.warn("Metrics listener failed for the removal of " + history.getName(), e);
+				}
+			}
+		}
+	}
+
+	/**
+	 * @param listener notified of the histories unregistered from the index
+	 */
+	public void addListener(ApplicationMetricsListener listener) {
+		this.listeners.add(listener);
+	}
+
+	public void removeListener(ApplicationMetricsListener listener) {
+		this.listeners.remove(listener);
+	}
+
+	@Override
+	public void onRemoval(String key, ApplicationMetricsHistory history, RemovalCause cause) {
+		if (history != null && cause != RemovalCause.REPLACED) {
+			remove(history);
+		}
+	}
+
+	/**
+	 * @return the names of the indexed streams, in ascending order
+	 */
+	public NavigableSet<String> getStreamNames() {
+		return this.streams.keySet();
+	}
+
+	/**
+	 * @param streamName the stream name
+	 * @return the indexed stream, null if the stream is unknown
+	 */
+	public IndexedStream getStream(String streamName) {
+		return this.streams.get(streamName);
+	}
+
+	/**
+	 * @param streamName the stream name
+	 * @return the indexed histories of the stream, grouped by application name, or an empty
+	 * map if the stream is unknown
+	 */
+	public Map<String, ? extends Map<String, ApplicationMetricsHistory>> getApplications(String streamName) {
+		IndexedStream stream = this.streams.get(streamName);
+		return (stream != null) ? stream.getApplications() : Collections.emptyMap();
+	}
+
+	private static String streamName(ApplicationMetricsHistory history) {
+		return String.valueOf(history.getProperties().get(ApplicationMetrics.STREAM_NAME));
+	}
+
+	private static String applicationName(ApplicationMetricsHistory history) {
+		return String.valueOf(history.getProperties().get(ApplicationMetrics.APPLICATION_NAME));
+	}
+
+	/**
+	 * The histories of a stream, with a generation bumped on every update, registration and
+	 * removal of its histories. A stream removed from the index once empty and registered
+	 * again gets a new instance, with a new id.
+	 */
+	public static final class IndexedStream {
+
+		private final String name;
+
+		private final long id;
+
+		private final ConcurrentMap<String, ConcurrentMap<String, ApplicationMetricsHistory>> applications = new ConcurrentHashMap<>();
+
+		private final AtomicLong generation = new AtomicLong();
+
+		final StreamAggregates aggregates = new StreamAggregates();
+
+		volatile StreamMetricsSnapshot snapshot;
+
+		IndexedStream(String name, long id) {
+			this.name = name;
+			this.id = id;
+		}
+
+		public String getName() {
+			return name;
+		}
+
+		/**
+		 * @return an id unique to this index node, the pair of id and generation identifying
+		 * the state of the stream
+		 */
+		public long getId() {
+			return id;
+		}
+
+		/**
+		 * @return the histories of the stream, grouped by application name
+		 */
+		public Map<String, ? extends Map<String, ApplicationMetricsHistory>> getApplications() {
+			return applications;
+		}
+
+		public long getGeneration() {
+			return generation.get();
+		}
+	}
+}
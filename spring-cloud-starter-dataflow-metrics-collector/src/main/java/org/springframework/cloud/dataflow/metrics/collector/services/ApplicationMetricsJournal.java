@@ -0,0 +1,575 @@
+/*
+ * Copyright 2018 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package org.springframework.cloud.dataflow.metrics.collector.services;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.time.Clock;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Deque;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.zip.CRC32;
+
+import com.github.benmanes.caffeine.cache.Cache;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import org.springframework.cloud.dataflow.metrics.collector.model.ApplicationMetricsReading;
+import org.springframework.context.SmartLifecycle;
+import org.springframework.util.Assert;
+
+/**
+ * Append only journal of the received readings, replayed on start to rebuild the storage
+ * of the {@link ApplicationMetricsService}.
+ *
+ * The readings are queued by the receiving threads and written in batches by a single
+ * thread into memory mapped segment files of a fixed size, a new segment being started
+ * once the current one is full and the oldest segments being deleted past the retention
+ * size. Each record is preceded by its length and its CRC32, a segment ending at the first
+ * empty or invalid record. The strings of a segment are written once, in string records
+ * numbered in order, and the reading records refer to them by number:
+ *
+ * <pre>
+ * record:  int length, int crc, byte type, payload
+ * string:  'S', UTF-8 bytes
+ * reading: 'R', long time, int name, int property count,
+ *          property count x (int key, byte type, long value),
+ *          int metric count, metric count x (int name, long timestamp, double value)
+ * </pre>
+ *
+ * The mapped segments survive a crash of the collector, not of its host, the segments
+ * being only forced to the disk once complete and on stop. Readings appended before the
+ * journal starts are written once it started, readings appended while the queue is full
+ * are dropped rather than blocking the receiving threads.
+ *
+ * @author Christian Tzolov
+ */
+public class ApplicationMetricsJournal implements SmartLifecycle {
+
+	private static final String SEGMENT_PREFIX = "journal-";
+
+	private static final String SEGMENT_SUFFIX = ".log";
+
+	private static final int DEFAULT_QUEUE_CAPACITY = 65536;
+
+	private static final int BATCH_SIZE = 1024;
+
+	private static final int RECORD_HEADER_SIZE = Integer.BYTES + Integer.BYTES;
+
+	private static final byte STRING = 'S';
+
+	private static final byte READING = 'R';
+
+	private final Logger logger = LoggerFactory.getLogger(ApplicationMetricsJournal.class);
+
+	private final Cache<String, ApplicationMetricsHistory> storage;
+
+	private final ApplicationMetricsService service;
+
+	private final Path directory;
+
+	private final int segmentSize;
+
+	private final long retention;
+
+	private final long timeout;
+
+	private final Clock clock;
+
+	private final BlockingQueue<Entry> queue;
+
+	private final AtomicLong dropped = new AtomicLong();
+
+	/**
+	 * Dropped readings count last logged by the writer.
+	 */
+	private long loggedDropped;
+
+	private final Deque<Path> segments = new ArrayDeque<>();
+
+	private final CRC32 crc = new CRC32();
+
+	private ByteBuffer scratch = ByteBuffer.allocate(4096);
+
+	private ApplicationMetricsSnapshots snapshots;
+
+	private Segment current;
+
+	private long nextSequence;
+
+	private volatile boolean running;
+
+	private volatile boolean closed;
+
+	private Thread writer;
+
+	/**
+	 * @param storage the storage, checked for the readings already stored when replaying
+	 * @param service the service the journal is replayed into
+	 * @param directory the directory of the segment files
+	 * @param segmentSize the size (in bytes) of a segment file
+	 * @param retention the maximum size (in bytes) of the retained segments
+	 * @param timeout age (in milliseconds) past which replayed readings are skipped
+	 */
+	public ApplicationMetricsJournal(Cache<String, ApplicationMetricsHistory> storage,
+			ApplicationMetricsService service, Path directory, int segmentSize, long retention, long timeout) {
+		this(storage, service, directory, segmentSize, retention, timeout, Clock.systemUTC());
+	}
+
+	public ApplicationMetricsJournal(Cache<String, ApplicationMetricsHistory> storage,
+			ApplicationMetricsService service, Path directory, int segmentSize, long retention, long timeout,
+			Clock clock) {
+		this(storage, service, directory, segmentSize, retention, timeout, DEFAULT_QUEUE_CAPACITY, clock);
+	}
+
+	/**
+	 * @param queueCapacity the number of readings queued for the writer, past which they are
+	 * dropped
+	 */
+	public ApplicationMetricsJournal(Cache<String, ApplicationMetricsHistory> storage,
+			ApplicationMetricsService service, Path directory, int segmentSize, long retention, long timeout,
+			int queueCapacity, Clock clock) {
+		Assert.isTrue(segmentSize > RECORD_HEADER_SIZE, "The segment size is too small");
+		Assert.isTrue(retention >= segmentSize, "The retention must hold at least a segment");
+		this.storage = storage;
+		this.service = service;
+		this.directory = directory;
+		this.segmentSize = segmentSize;
+		this.retention = retention;
+		this.timeout = timeout;
+		this.clock = clock;
+		this.queue = new ArrayBlockingQueue<>(queueCapacity);
+	}
+
+	/**
+	 * @param snapshots the snapshots loaded before the journal, its readings taken before
+	 * the loaded snapshot not being replayed, null if none
+	 */
+	public void setSnapshots(ApplicationMetricsSnapshots snapshots) {
+		this.snapshots = snapshots;
+	}
+
+	/**
+	 * Queues a reading for the journal without blocking, unless the journal is stopped or
+	 * failed to start. The reading must not be modified afterwards.
+	 * @param reading the received reading
+	 */
+	public void append(ApplicationMetricsReading reading) {
+		if (!this.closed && !this.queue.offer(new Entry(this.clock.millis(), reading))) {
+			this.dropped.incrementAndGet();
+		}
+	}
+
+	/**
+	 * @return the number of readings dropped as the queue was full
+	 */
+	public long getDropped() {
+		return this.dropped.get();
+	}
+
+	/**
+	 * Replays the retained segments into the service, with the time they were received.
+	 * Readings older than the timeout or than the loaded snapshot, and readings not newer
+	 * than the stored ones, are skipped.
+	 * @return the number of readings replayed
+	 * @throws IOException if the segments cannot be read
+	 */
+	public int replay() throws IOException {
+		long since = Math.max(this.clock.millis() - this.timeout,
+				(this.snapshots != null) ? this.snapshots.getLoadedTime() : 0);
+		int replayed = 0;
+		for (Path segment : listSegments()) {
+			try (FileChannel channel = FileChannel.open(segment, StandardOpenOption.READ)) {
+				replayed += replay(channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size()), since);
+			}
+		}
+		return replayed;
+	}
+
+	private int replay(ByteBuffer buffer, long since) {
+		List<String> strings = new ArrayList<>();
+		CRC32 checksum = new CRC32();
+		int replayed = 0;
+		while (buffer.remaining() >= RECORD_HEADER_SIZE) {
+			int length = buffer.getInt();
+			int crc = buffer.getInt();
+			if (length <= 0 || length > buffer.remaining()) {
+				break;
+			}
+			ByteBuffer record = buffer.slice();
+			record.limit(length);
+			checksum.reset();
+			checksum.update(record.duplicate());
+			if ((int) checksum.getValue() != crc) {
+				break;
+			}
+			buffer.position(buffer.position() + length);
+			byte type = record.get();
+			if (type == STRING) {
+				byte[] bytes = new byte[record.remaining()];
+				record.get(bytes);
+				strings.add(new String(bytes, StandardCharsets.UTF_8));
+			}
+			else if (type == READING) {
+				long time = record.getLong();
+				if (time >= since) {
+					ApplicationMetricsReading reading = readReading(record, strings);
+					if (!isStored(reading)) {
+						this.service.add(reading, time);
+						replayed++;
+					}
+				}
+			}
+		}
+		return replayed;
+	}
+
+	private static ApplicationMetricsReading readReading(ByteBuffer record, List<String> strings) {
+		ApplicationMetricsReading reading = new ApplicationMetricsReading(strings.get(record.getInt()));
+		Map<String, Object> properties = new HashMap<>();
+		for (int i = record.getInt(); i > 0; i--) {
+			String key = strings.get(record.getInt());
+			byte type = record.get();
+			properties.put(key, PropertyValues.valueOf(type, record.getLong(), strings::get));
+		}
+		reading.setProperties(properties);
+		for (int i = record.getInt(); i > 0; i--) {
+			String name = strings.get(record.getInt());
+			long timestamp = record.getLong();
+			reading.addMetric(name, record.getDouble(), timestamp);
+		}
+		return reading;
+	}
+
+	/**
+	 * Whether the storage holds a reading of the instance at least as recent, e.g. from the
+	 * loaded snapshot, judging by the timestamp of the first metric.
+	 */
+	private boolean isStored(ApplicationMetricsReading reading) {
+		ApplicationMetricsHistory history = this.storage.getIfPresent(reading.getName());
+		if (history == null || reading.size() == 0) {
+			return false;
+		}
+		synchronized (history) {
+			for (int slot = 0; slot < history.getSlotCount(); slot++) {
+				if (history.getSlotName(slot).equals(reading.getMetricName(0))) {
+					return !Double.isNaN(history.getValue(slot, 0))
+							&& history.getTimestamp(slot, 0) >= reading.getTimestamp(0);
+				}
+			}
+		}
+		return false;
+	}
+
+	/**
+	 * Replays the journal, before the binder starts delivering readings, and starts
+	 * appending to a new segment.
+	 */
+	@Override
+	public synchronized void start() {
+		if (this.running) {
+			return;
+		}
+		try {
+			Files.createDirectories(this.directory);
+			logger.info("Replayed {} metrics readings from {}", replay(), this.directory);
+			this.segments.addAll(listSegments());
+			this.nextSequence = this.segments.isEmpty() ? 0 : sequenceOf(this.segments.getLast()) + 1;
+		}
+		catch (IOException | RuntimeException e) {
+			logger.warn("Failed to open the metrics journal " + this.directory + ", the readings are not journaled", e);
+			this.closed = true;
+			this.queue.clear();
+			return;
+		}
+		this.closed = false;
+		this.running = true;
+		this.writer = new Thread(this::write, "metrics-collector-journal");
+		this.writer.setDaemon(true);
+		this.writer.start();
+	}
+
+	/**
+	 * Stops the writer once the readings queued so far have been written.
+	 */
+	@Override
+	public synchronized void stop() {
+		this.closed = true;
+		if (this.running) {
+			this.running = false;
+			try {
+				this.writer.join();
+			}
+			catch (InterruptedException e) {
+				Thread.currentThread().interrupt();
+			}
+			this.writer = null;
+		}
+	}
+
+	@Override
+	public void stop(Runnable callback) {
+		stop();
+		callback.run();
+	}
+
+	@Override
+	public boolean isRunning() {
+		return this.running;
+	}
+
+	@Override
+	public boolean isAutoStartup() {
+		return true;
+	}
+
+	/**
+	 * Started after the {@link ApplicationMetricsSnapshots} are loaded.
+	 */
+	@Override
+	public int getPhase() {
+		return 0;
+	}
+
+	private void write() {
+		List<Entry> batch = new ArrayList<>(BATCH_SIZE);
+		try {
+			while (this.running || !this.queue.isEmpty()) {
+				Entry first = this.queue.poll(100, TimeUnit.MILLISECONDS);
+				if (first == null) {
+					continue;
+				}
+				batch.add(first);
+				this.queue.drainTo(batch, BATCH_SIZE - 1);
+				for (Entry entry : batch) {
+					try {
+						write(entry);
+					}
+					catch (IOException | RuntimeException e) {
+						logger.warn("Failed to journal the metrics " + entry.reading.getName(), e);
+					}
+				}
+				batch.clear();
+				long dropped = this.dropped.get();
+				if (dropped > this.loggedDropped) {
+					logger.warn("Dropped {} metrics readings, the journal falls behind", dropped - this.loggedDropped);
+					this.loggedDropped = dropped;
+				}
+			}
+		}
+		catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+		}
+		finally {
+			closeSegment();
+		}
+	}
+
+	private void write(Entry entry) throws IOException {
+		if (this.current == null) {
+			openSegment();
+		}
+		int strings = this.current.strings.size();
+		int size = encode(entry, this.current);
+		if (size > this.current.buffer.remaining()) {
+			openSegment();
+			strings = 0;
+			size = encode(entry, this.current);
+			if (size > this.current.buffer.remaining()) {
+				this.current.truncate(strings);
+				logger.warn("Metrics {} too large for the journal segments", entry.reading.getName());
+				return;
+			}
+		}
+		for (int i = strings; i < this.current.strings.size(); i++) {
+			byte[] bytes = this.current.encoded.get(i);
+			this.crc.reset();
+			this.crc.update(STRING);
+			this.crc.update(bytes, 0, bytes.length);
+			this.current.buffer.putInt(1 + bytes.length);
+			this.current.buffer.putInt((int) this.crc.getValue());
+			this.current.buffer.put(STRING);
+			this.current.buffer.put(bytes);
+		}
+		this.crc.reset();
+		this.crc.update(this.scratch.array(), 0, this.scratch.position());
+		this.current.buffer.putInt(this.scratch.position());
+		this.current.buffer.putInt((int) this.crc.getValue());
+		this.current.buffer.put(this.scratch.array(), 0, this.scratch.position());
+	}
+
+	/**
+	 * Encodes the reading record into the scratch buffer, registering its new strings in
+	 * the segment.
+	 * @return the size of the records to append, the new strings included
+	 */
+	private int encode(Entry entry, Segment segment) {
+		ApplicationMetricsReading reading = entry.reading;
+		Map<String, Object> properties = reading.getProperties();
+		int length = 1 + Long.BYTES + Integer.BYTES + Integer.BYTES
+				+ properties.size() * (Integer.BYTES + PropertyValues.SIZE) + Integer.BYTES
+				+ reading.size() * (Integer.BYTES + Long.BYTES + Double.BYTES);
+		if (this.scratch.capacity() < length) {
+			this.scratch = ByteBuffer.allocate(Math.max(length, this.scratch.capacity() * 2));
+		}
+		int strings = segment.strings.size();
+		ByteBuffer buffer = this.scratch;
+		buffer.clear();
+		buffer.put(READING);
+		buffer.putLong(entry.time);
+		buffer.putInt(segment.index(reading.getName()));
+		buffer.putInt(properties.size());
+		for (Map.Entry<String, Object> property : properties.entrySet()) {
+			buffer.putInt(segment.index(property.getKey()));
+			buffer.put(PropertyValues.typeOf(property.getValue()));
+			buffer.putLong(PropertyValues.bitsOf(property.getValue(), segment::index));
+		}
+		buffer.putInt(reading.size());
+		for (int i = 0; i < reading.size(); i++) {
+			buffer.putInt(segment.index(reading.getMetricName(i)));
+			buffer.putLong(reading.getTimestamp(i));
+			buffer.putDouble(reading.getValue(i));
+		}
+		int size = RECORD_HEADER_SIZE + length;
+		for (int i = strings; i < segment.strings.size(); i++) {
+			size += RECORD_HEADER_SIZE + 1 + segment.encoded.get(i).length;
+		}
+		return size;
+	}
+
+	private void openSegment() throws IOException {
+		closeSegment();
+		Path path = this.directory.resolve(String.format("%s%020d%s", SEGMENT_PREFIX, this.nextSequence++,
+				SEGMENT_SUFFIX));
+		this.current = new Segment(path, this.segmentSize);
+		this.segments.addLast(path);
+		while (this.segments.size() > 1 && this.segments.size() * (long) this.segmentSize > this.retention) {
+			Files.deleteIfExists(this.segments.removeFirst());
+		}
+	}
+
+	private void closeSegment() {
+		if (this.current != null) {
+			try {
+				this.current.close();
+			}
+			catch (IOException e) {
+				logger.warn("Failed to close the journal segment " + this.current.path, e);
+			}
+			this.current = null;
+		}
+	}
+
+	private List<Path> listSegments() throws IOException {
+		List<Path> segments = new ArrayList<>();
+		if (Files.isDirectory(this.directory)) {
+			try (DirectoryStream<Path> files = Files.newDirectoryStream(this.directory,
+					SEGMENT_PREFIX + "*" + SEGMENT_SUFFIX)) {
+				for (Path file : files) {
+					segments.add(file);
+				}
+			}
+		}
+		// the sequence numbers are zero padded
+		segments.sort(null);
+		return segments;
+	}
+
+	private static long sequenceOf(Path segment) {
+		String name = segment.getFileName().toString();
+		return Long.parseLong(name.substring(SEGMENT_PREFIX.length(), name.length() - SEGMENT_SUFFIX.length()));
+	}
+
+	private static final class Entry {
+
+		private final long time;
+
+		private final ApplicationMetricsReading reading;
+
+		Entry(long time, ApplicationMetricsReading reading) {
+			this.time = time;
+			this.reading = reading;
+		}
+	}
+
+	/**
+	 * A segment file being appended to, with the numbers of the strings written to it.
+	 */
+	private static final class Segment {
+
+		private final Path path;
+
+		private final FileChannel channel;
+
+		private final MappedByteBuffer buffer;
+
+		private final Map<String, Integer> indexes = new HashMap<>();
+
+		private final List<String> strings = new ArrayList<>();
+
+		private final List<byte[]> encoded = new ArrayList<>();
+
+		Segment(Path path, int size) throws IOException {
+			this.path = path;
+			this.channel = FileChannel.open(path, StandardOpenOption.CREATE_NEW, StandardOpenOption.READ,
+					StandardOpenOption.WRITE);
+			this.buffer = this.channel.map(FileChannel.MapMode.READ_WRITE, 0, size);
+		}
+
+		int index(String string) {
+			Integer index = this.indexes.get(string);
+			if (index == null) {
+				index = this.strings.size();
+				this.indexes.put(string, index);
+				this.strings.add(string);
+				this.encoded.add(string.getBytes(StandardCharsets.UTF_8));
+			}
+			return index;
+		}
+
+		/**
+		 * Forgets the strings registered past the given number, as their records were not
+		 * written.
+		 */
+		void truncate(int size) {
+			while (this.strings.size() > size) {
+				this.indexes.remove(this.strings.remove(this.strings.size() - 1));
+				this.encoded.remove(this.encoded.size() - 1);
+			}
+		}
+
+		void close() throws IOException {
+			this.buffer.force();
+			this.channel.close();
+		}
+	}
+}
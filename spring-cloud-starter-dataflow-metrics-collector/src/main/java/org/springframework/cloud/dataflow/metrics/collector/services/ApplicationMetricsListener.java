@@ -0,0 +1,42 @@
+/*
+ * Copyright 2018 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.springframework.cloud.dataflow.metrics.collector.services;
+
+/**
+ * Notified by the {@link ApplicationMetricsService} after the history of an application
+ * instance has been updated or evicted.
+ *
+ * @author Christian Tzolov
+ */
+@FunctionalInterface
+public interface ApplicationMetricsListener {
+
+	/**
+	 * Called on the thread that stored the readings, once the storage has been updated.
+	 * Implementations should return quickly and not modify the history.
+	 * @param history the updated history
+	 */
+	void onUpdate(ApplicationMetricsHistory history);
+
+	/**
+	 * Called once a history has been evicted from the storage, provided the
+	 * {@link ApplicationMetricsIndex} of the service is the removal listener of the storage.
+	 * @param history the evicted history
+	 */
+	default void onRemoval(ApplicationMetricsHistory history) {
+	}
+}
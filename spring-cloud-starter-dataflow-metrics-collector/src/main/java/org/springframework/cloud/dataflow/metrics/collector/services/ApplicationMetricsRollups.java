@@ -0,0 +1,178 @@
+/*
+ * Copyright 2018 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package org.springframework.cloud.dataflow.metrics.collector.services;
+
+import java.time.Clock;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+
+import org.springframework.cloud.dataflow.metrics.collector.model.ApplicationMetrics;
+import org.springframework.cloud.dataflow.metrics.collector.model.MetricSeries;
+import org.springframework.util.Assert;
+import org.springframework.util.StringUtils;
+
+/**
+ * Rollups of the channel send rates of every stored application instance, updated each
+ * time an instance is stored with the rates read from the slots of its history.
+ *
+ * Each channel of an instance gets a {@link MetricRollup} of the configured levels. The
+ * rollups of an instance are dropped when the storage evicts it, and the remaining ones
+ * are checked against the storage on each query, e.g. when the index is not the removal
+ * listener of the storage.
+ *
+ * @author Christian Tzolov
+ */
+public class ApplicationMetricsRollups implements ApplicationMetricsListener {
+
+	private static final Comparator<MetricSeries> SERIES_ORDER = Comparator.comparing(MetricSeries::getStream)
+			.thenComparing(MetricSeries::getApplication).thenComparing(MetricSeries::getInstance)
+			.thenComparing(MetricSeries::getName);
+
+	private final ApplicationMetricsService service;
+
+	private final MetricRollup.Level[] levels;
+
+	private final Clock clock;
+
+	private final ConcurrentMap<String, InstanceRollups> instances = new ConcurrentHashMap<>();
+
+	/**
+	 * @param service the service notifying the updates
+	 * @param levels the resolutions, from the finest to the coarsest
+	 */
+	public ApplicationMetricsRollups(ApplicationMetricsService service, List<MetricRollup.Level> levels) {
+		this(service, levels, Clock.systemUTC());
+	}
+
+	/**
+	 * @param service the service notifying the updates
+	 * @param levels the resolutions, from the finest to the coarsest
+	 * @param clock the time of the updates and queries
+	 */
+	public ApplicationMetricsRollups(ApplicationMetricsService service, List<MetricRollup.Level> levels,
+			Clock clock) {
+		Assert.notEmpty(levels, "At least one rollup level is required");
+		this.service = service;
+		this.levels = levels.toArray(new MetricRollup.Level[levels.size()]);
+		this.clock = clock;
+	}
+
+	/**
+	 * @return the bytes retained by the buckets of a single series
+	 */
+	public long getSeriesSize() {
+		long buckets = 0;
+		for (MetricRollup.Level level : this.levels) {
+			buckets += level.getCapacity();
+		}
+		return buckets * MetricRollup.BUCKET_SIZE;
+	}
+
+	@Override
+	public void onUpdate(ApplicationMetricsHistory history) {
+		long now = this.clock.millis();
+		InstanceRollups rollups = this.instances.get(history.getName());
+		if (rollups == null || rollups.history != history) {
+			rollups = this.instances.compute(history.getName(), (name, current) ->
+					(current == null || current.history != history) ? new InstanceRollups(history) : current);
+		}
+		for (Map.Entry<String, Double> rate : this.service.channelRates(history).entrySet()) {
+			rollups.series.computeIfAbsent(rate.getKey(), name -> new MetricRollup(name, this.levels))
+					.add(now, rate.getValue());
+		}
+	}
+
+	@Override
+	public void onRemoval(ApplicationMetricsHistory history) {
+		this.instances.computeIfPresent(history.getName(),
+				(name, rollups) -> (rollups.history == history) ? null : rollups);
+	}
+
+	/**
+	 * @param filter Comma delimited list of stream names, all streams if empty
+	 * @param window the time window in milliseconds, up to now
+	 * @return the series of the channels of the instances of the streams, ordered by
+	 * stream, application, instance and metric names
+	 */
+	public List<MetricSeries> query(String filter, long window) {
+		Set<String> streamNames = StringUtils.commaDelimitedListToSet(filter);
+		streamNames.remove("");
+		long now = this.clock.millis();
+		purge();
+		List<MetricSeries> result = new ArrayList<>();
+		for (InstanceRollups rollups : this.instances.values()) {
+			if (!streamNames.isEmpty() && !streamNames.contains(rollups.stream)) {
+				continue;
+			}
+			for (MetricRollup rollup : rollups.series.values()) {
+				MetricSeries series = rollup.query(now - window, now);
+				series.setStream(rollups.stream);
+				series.setApplication(rollups.application);
+				series.setInstance(rollups.guid);
+				result.add(series);
+			}
+		}
+		result.sort(SERIES_ORDER);
+		return result;
+	}
+
+	/**
+	 * @return the number of instances rolled up
+	 */
+	public int size() {
+		return this.instances.size();
+	}
+
+	/**
+	 * Removes the rollups of the evicted histories, unless replaced in the meantime by the
+	 * rollups of a new history.
+	 */
+	private void purge() {
+		for (Map.Entry<String, InstanceRollups> entry : this.instances.entrySet()) {
+			if (!this.service.isStored(entry.getValue().history)) {
+				this.instances.remove(entry.getKey(), entry.getValue());
+			}
+		}
+	}
+
+	private static final class InstanceRollups {
+
+		private final ApplicationMetricsHistory history;
+
+		private final String stream;
+
+		private final String application;
+
+		private final String guid;
+
+		private final ConcurrentMap<String, MetricRollup> series = new ConcurrentHashMap<>();
+
+		InstanceRollups(ApplicationMetricsHistory history) {
+			Map<String, Object> properties = history.getProperties();
+			this.history = history;
+			this.stream = String.valueOf(properties.get(ApplicationMetrics.STREAM_NAME));
+			this.application = String.valueOf(properties.get(ApplicationMetrics.APPLICATION_NAME));
+			this.guid = String.valueOf(properties.get(ApplicationMetrics.APPLICATION_GUID));
+		}
+	}
+}
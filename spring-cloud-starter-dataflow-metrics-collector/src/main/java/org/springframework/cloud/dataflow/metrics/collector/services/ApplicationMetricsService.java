@@ -18,14 +18,16 @@ package org.springframework.cloud.dataflow.metrics.collector.services;
 
 import java.util.ArrayList;
 import java.util.Collection;
+import java.util.Collections;
+import java.util.Date;
+import java.util.HashMap;
 import java.util.LinkedList;
 import java.util.List;
-import java.util.Optional;
-import java.util.Set;
-import java.util.concurrent.locks.Lock;
-import java.util.concurrent.locks.ReentrantLock;
-import java.util.regex.Matcher;
-import java.util.regex.Pattern;
+import java.util.Map;
+import java.util.NavigableSet;
+import java.util.TreeMap;
+import java.util.TreeSet;
+import java.util.concurrent.CopyOnWriteArrayList;
 import java.util.stream.Collectors;
 
 import com.github.benmanes.caffeine.cache.Cache;
@@ -34,9 +36,13 @@ import org.slf4j.LoggerFactory;
 
 import org.springframework.cloud.dataflow.metrics.collector.model.Application;
 import org.springframework.cloud.dataflow.metrics.collector.model.ApplicationMetrics;
+import org.springframework.cloud.dataflow.metrics.collector.model.ApplicationMetricsReading;
 import org.springframework.cloud.dataflow.metrics.collector.model.Instance;
 import org.springframework.cloud.dataflow.metrics.collector.model.Metric;
+import org.springframework.cloud.dataflow.metrics.collector.model.SendLatency;
 import org.springframework.cloud.dataflow.metrics.collector.model.StreamMetrics;
+import org.springframework.cloud.dataflow.metrics.collector.support.CollectorMeters;
+import org.springframework.cloud.dataflow.metrics.collector.utils.MetricNames;
 import org.springframework.cloud.dataflow.metrics.collector.utils.YANUtils;
 import org.springframework.util.Assert;
 import org.springframework.util.StringUtils;
@@ -47,100 +53,417 @@ import org.springframework.util.StringUtils;
  */
 public class ApplicationMetricsService {
 
-	private final Pattern pattern = Pattern.compile("integration\\.channel\\.(\\w*)\\.sendCount");
+	public static final int DEFAULT_HISTORY_DEPTH = 2;
 
-	private Lock rwLock = new ReentrantLock();
+	private Cache<String, ApplicationMetricsHistory> storage;
 
-	private Cache<String, LinkedList<ApplicationMetrics<Metric<Double>>>> storage;
+	private final int historyDepth;
+
+	private final ApplicationMetricsIndex index;
+
+	private final List<ApplicationMetricsListener> listeners = new CopyOnWriteArrayList<>();
+
+	private CollectorMeters meters = CollectorMeters.NOOP;
 
 	private Logger logger = LoggerFactory.getLogger(ApplicationMetricsService.class);
 
-	public ApplicationMetricsService(Cache<String, LinkedList<ApplicationMetrics<Metric<Double>>>> storage) {
+	public ApplicationMetricsService(Cache<String, ApplicationMetricsHistory> storage) {
+		this(storage, DEFAULT_HISTORY_DEPTH);
+	}
+
+	/**
+	 * @param storage the readings of each application instance
+	 * @param historyDepth the number of readings retained per instance, at least 2 to compute
+	 * rates
+	 */
+	public ApplicationMetricsService(Cache<String, ApplicationMetricsHistory> storage, int historyDepth) {
+		this(storage, historyDepth, new ApplicationMetricsIndex());
+	}
+
+	/**
+	 * @param storage the readings of each application instance
+	 * @param historyDepth the number of readings retained per instance, at least 2 to compute
+	 * rates
+	 * @param index the stream index of the storage, expected to be its removal listener
+	 */
+	public ApplicationMetricsService(Cache<String, ApplicationMetricsHistory> storage, int historyDepth,
+			ApplicationMetricsIndex index) {
+		Assert.isTrue(historyDepth >= 2, "The history depth must be at least 2");
 		this.storage = storage;
+		this.historyDepth = historyDepth;
+		this.index = index;
 	}
 
 	/**
-	 * Appends an {@link ApplicationMetrics} to the underlying storage. Each key on the
-	 * storage holds the last two readings in a LIFO list
+	 * Appends an {@link ApplicationMetrics} to the underlying storage.
 	 * @param applicationMetrics
+	 * @see #add(ApplicationMetricsReading)
 	 */
 	public void add(ApplicationMetrics<Metric<Double>> applicationMetrics) {
-		try {
-			this.rwLock.lock();
-			LinkedList<ApplicationMetrics<Metric<Double>>> values = this.storage.getIfPresent(applicationMetrics.getName());
+		add(ApplicationMetricsReading.of(applicationMetrics));
+	}
 
-			if (values == null) {
-				values = new LinkedList<>();
-				values.addFirst(applicationMetrics);
-			}
-			else {
-				values.addFirst(applicationMetrics);
-				if (values.size() > 2) {
-					values.removeLast();
+	/**
+	 * Appends a reading to the underlying storage. Each key on the storage holds the last
+	 * readings in an {@link ApplicationMetricsHistory}, updated atomically per key so
+	 * concurrent writers only contend on the same instance.
+	 * @param reading
+	 */
+	public void add(ApplicationMetricsReading reading) {
+		add(reading, System.currentTimeMillis());
+	}
+
+	/**
+	 * Appends a reading received at the given time, e.g. replayed from a file, to the
+	 * underlying storage.
+	 * @param reading the reading
+	 * @param updated the time (in milliseconds) the reading was received
+	 * @see ApplicationMetricsExpiry
+	 */
+	public void add(ApplicationMetricsReading reading, long updated) {
+		long start = System.nanoTime();
+		ApplicationMetricsHistory stored = this.storage.asMap().compute(reading.getName(), (name, history) -> {
+			meters.recordStorageWait(System.nanoTime() - start);
+			ApplicationMetricsHistory target = (history == null) ? new ApplicationMetricsHistory(name, historyDepth)
+					: history;
+			target.add(reading, updated);
+			index.add(target, channelRates(target));
+			return target;
+		});
+		this.meters.recordStorageAdd(System.nanoTime() - start);
+		notifyListeners(stored);
+	}
+
+	/**
+	 * Applies a batch of readings to the underlying storage in a single pass, with one
+	 * atomic update per key.
+	 * @param readings the readings of each {@link ApplicationMetrics} name, oldest first
+	 */
+	public void addAll(Map<String, ? extends List<ApplicationMetricsReading>> readings) {
+		for (Map.Entry<String, ? extends List<ApplicationMetricsReading>> entry : readings.entrySet()) {
+			long start = System.nanoTime();
+			ApplicationMetricsHistory updated = this.storage.asMap().compute(entry.getKey(), (name, history) -> {
+				meters.recordStorageWait(System.nanoTime() - start);
+				ApplicationMetricsHistory target = (history == null)
+						? new ApplicationMetricsHistory(name, historyDepth) : history;
+				for (ApplicationMetricsReading reading : entry.getValue()) {
+					target.add(reading);
 				}
-			}
-			storage.put(applicationMetrics.getName(), values);
+				index.add(target, channelRates(target));
+				return target;
+			});
+			this.meters.recordStorageAdd(System.nanoTime() - start);
+			notifyListeners(updated);
 		}
-		finally {
-			this.rwLock.unlock();
+	}
+
+	/**
+	 * Registers a listener notified after each update of an instance history, outside of
+	 * the storage update, and of the histories removed from the index.
+	 * @param listener the listener to add
+	 */
+	public void addListener(ApplicationMetricsListener listener) {
+		this.listeners.add(listener);
+		this.index.addListener(listener);
+	}
+
+	public void removeListener(ApplicationMetricsListener listener) {
+		this.listeners.remove(listener);
+		this.index.removeListener(listener);
+	}
+
+	/**
+	 * @param meters records the storage updates and the queries, nothing by default
+	 */
+	public void setMeters(CollectorMeters meters) {
+		this.meters = meters;
+	}
+
+	private void notifyListeners(ApplicationMetricsHistory history) {
+		for (ApplicationMetricsListener listener : this.listeners) {
+			try {
+				listener.onUpdate(history);
+			}
+			catch (RuntimeException e) {
+				logger.warn("Metrics listener failed for " + history.getName(), e);
+			}
 		}
 	}
 
+	/**
+	 * @return the number of readings retained per instance
+	 */
+	public int getHistoryDepth() {
+		return historyDepth;
+	}
+
+	/**
+	 * @param history the history of an application instance
+	 * @return true if the history is still stored, false once evicted or replaced
+	 */
+	public boolean isStored(ApplicationMetricsHistory history) {
+		return this.storage.asMap().get(history.getName()) == history;
+	}
+
 	/**
 	 * Converts the plain model of {@link ApplicationMetrics} into a hierarchical
-	 * representation of {@link StreamMetrics}
+	 * representation of {@link StreamMetrics}. The streams are looked up in the
+	 * {@link ApplicationMetricsIndex}, and each stream view is rebuilt only when its
+	 * instances changed since the last query. The returned views are shared between callers
+	 * and must not be modified.
 	 * @param filter Comma delimited list of stream names to be filtered on. If null or
 	 * empty all streams are returned
 	 * @return A collection of filtered {@link StreamMetrics}
 	 */
 	public Collection<StreamMetrics> toStreamMetrics(String filter) {
+		long start = System.nanoTime();
 		Collection<StreamMetrics> entries = new LinkedList<>();
-		Set<String> streamNames = null;
-		try {
-			this.rwLock.lock();
-			if (StringUtils.isEmpty(filter)) {
-				streamNames = storage.asMap().values().stream()
-						.map(applicationMetrics -> String.valueOf(
-								applicationMetrics.getFirst().getProperties().get(ApplicationMetrics.STREAM_NAME)))
-						.collect(Collectors.toSet());
+		Collection<String> streamNames = null;
+		if (StringUtils.isEmpty(filter)) {
+			streamNames = index.getStreamNames();
+		}
+		else {
+			streamNames = StringUtils.commaDelimitedListToSet(filter);
+		}
+
+		for (String streamName : streamNames) {
+			StreamMetrics streamMetrics = toStreamMetrics(index.getStream(streamName));
+			if (streamMetrics != null) {
+				entries.add(streamMetrics);
 			}
-			else {
-				streamNames = StringUtils.commaDelimitedListToSet(filter);
+		}
+		recordQuery(start, entries);
+		return entries;
+	}
+
+	/**
+	 * Lists the names of the streams {@link #toStreamMetrics(String)} would return for the
+	 * same filter, sorted by name, without converting any metric. Streams whose instances
+	 * all expired are dropped from the index on the way, at the cost of a storage lookup
+	 * per instance.
+	 * @param filter Comma delimited list of stream names to be filtered on. If null or
+	 * empty all streams are listed
+	 * @param descending true to sort the names in descending order
+	 * @return the sorted names of the streams with live instances
+	 */
+	public List<String> getStreamNames(String filter, boolean descending) {
+		NavigableSet<String> streamNames = StringUtils.isEmpty(filter) ? index.getStreamNames()
+				: new TreeSet<>(StringUtils.commaDelimitedListToSet(filter));
+		List<String> result = new ArrayList<>();
+		for (String streamName : descending ? streamNames.descendingSet() : streamNames) {
+			if (purge(index.getStream(streamName)) != null) {
+				result.add(streamName);
+			}
+		}
+		return result;
+	}
+
+	/**
+	 * Converts the given streams only, e.g. a page of {@link #getStreamNames(String, boolean)}.
+	 * Streams that expired meanwhile are skipped.
+	 * @param streamNames the names of the streams to convert
+	 * @return the {@link StreamMetrics} of the streams, in the given order
+	 */
+	public List<StreamMetrics> toStreamMetrics(List<String> streamNames) {
+		long start = System.nanoTime();
+		List<StreamMetrics> entries = new ArrayList<>(streamNames.size());
+		for (String streamName : streamNames) {
+			StreamMetrics streamMetrics = toStreamMetrics(index.getStream(streamName));
+			if (streamMetrics != null) {
+				entries.add(streamMetrics);
+			}
+		}
+		recordQuery(start, entries);
+		return entries;
+	}
+
+	private void recordQuery(long start, Collection<StreamMetrics> entries) {
+		int instances = 0;
+		for (StreamMetrics streamMetrics : entries) {
+			for (Application application : streamMetrics.getApplications()) {
+				instances += application.getInstances().size();
+			}
+		}
+		this.meters.recordQuery(System.nanoTime() - start, instances);
+	}
+
+	/**
+	 * Returns a version of the streams {@link #toStreamMetrics(String)} would return for the
+	 * same filter. The version changes whenever an instance of these streams is updated,
+	 * added, evicted or expired, and across collector restarts. Computing it costs a storage
+	 * lookup per instance, without converting any metric.
+	 * @param filter Comma delimited list of stream names to be filtered on. If null or
+	 * empty all streams are considered
+	 * @return the version of the filtered streams
+	 */
+	public long getVersion(String filter) {
+		long version = 0;
+		if (StringUtils.isEmpty(filter)) {
+			// order independent, the index iteration order may change
+			for (String streamName : index.getStreamNames()) {
+				version += version(index.getStream(streamName));
 			}
+		}
+		else {
+			for (String streamName : StringUtils.commaDelimitedListToSet(filter)) {
+				version = 31 * version + version(index.getStream(streamName));
+			}
+		}
+		return version;
+	}
 
-			for (String streamName : streamNames) {
-				StreamMetrics streamMetrics = null;
-				List<List<ApplicationMetrics<Metric<Double>>>> filteredList = storage
-						.asMap().values().stream().filter(applicationMetrics -> applicationMetrics.getFirst()
-								.getProperties().get(ApplicationMetrics.STREAM_NAME).equals(streamName))
-						.collect(Collectors.toList());
-				for (List<ApplicationMetrics<Metric<Double>>> applicationMetricsList : filteredList) {
-					streamMetrics = convert(applicationMetricsList, streamMetrics);
+	private long version(ApplicationMetricsIndex.IndexedStream stream) {
+		ApplicationMetricsIndex.IndexedStream current = purge(stream);
+		return (current == null) ? 0 : mix(current.getId() * 31 + current.getGeneration());
+	}
+
+	/**
+	 * Unregisters the expired instances of a stream.
+	 * @return the current index node of the stream, null if no instance is left
+	 */
+	private ApplicationMetricsIndex.IndexedStream purge(ApplicationMetricsIndex.IndexedStream stream) {
+		if (stream == null) {
+			return null;
+		}
+		for (Map<String, ApplicationMetricsHistory> instances : stream.getApplications().values()) {
+			for (ApplicationMetricsHistory history : instances.values()) {
+				if (storage.asMap().get(history.getName()) != history) {
+					// expired, bumps the generation
+					index.remove(history);
 				}
-				if (streamMetrics != null) {
-					entries.add(streamMetrics);
+			}
+		}
+		// removed once empty, possibly registered again meanwhile
+		return index.getStream(stream.getName());
+	}
+
+	/**
+	 * SplitMix64 finalizer, spreading the stream versions over all bits.
+	 */
+	private static long mix(long value) {
+		long z = value + 0x9E3779B97F4A7C15L;
+		z = (z ^ (z >>> 30)) * 0xBF58476D1CE4E5B9L;
+		z = (z ^ (z >>> 27)) * 0x94D049BB133111EBL;
+		return z ^ (z >>> 31);
+	}
+
+	/**
+	 * Returns the current view of a stream, rebuilding it if the stream generation moved or
+	 * one of its instances expired.
+	 */
+	private StreamMetrics toStreamMetrics(ApplicationMetricsIndex.IndexedStream stream) {
+		if (stream == null) {
+			return null;
+		}
+		// read before the histories, a concurrent update makes the next query rebuild
+		long generation = stream.getGeneration();
+		StreamMetricsSnapshot snapshot = stream.snapshot;
+		if (snapshot != null && snapshot.getGeneration() == generation && snapshot.isLive(storage.asMap())) {
+			return snapshot.getStreamMetrics();
+		}
+
+		StreamMetrics streamMetrics = new StreamMetrics(stream.getName());
+		List<ApplicationMetricsHistory> members = new ArrayList<>();
+		Map<String, SendLatency> streamLatencies = new TreeMap<>();
+		Date timestamp = new Date();
+		for (Map.Entry<String, ? extends Map<String, ApplicationMetricsHistory>> entry : stream.getApplications()
+				.entrySet()) {
+			List<Instance> instances = new ArrayList<>(entry.getValue().size());
+			for (ApplicationMetricsHistory history : entry.getValue().values()) {
+				if (storage.asMap().get(history.getName()) != history) {
+					// evicted or expired, the storage may not notify the index
+					index.remove(history);
+					continue;
 				}
+				instances.add(toInstance(history));
+				members.add(history);
+			}
+			if (!instances.isEmpty()) {
+				Application application = new Application(entry.getKey());
+				application.setInstances(Collections.unmodifiableList(instances));
+				Map<String, SendLatency> latencies = application.getSendLatencies();
+				application.setAggregateMetrics(toAggregateMetrics(
+						stream.aggregates.getApplicationRates(entry.getKey()), latencies, timestamp));
+				SendLatency.mergeAll(streamLatencies, latencies);
+				streamMetrics.getApplications().add(application);
 			}
 		}
-		finally {
-			this.rwLock.unlock();
+		if (members.isEmpty()) {
+			return null;
 		}
-		return entries;
+		streamMetrics.setApplications(Collections.unmodifiableList(streamMetrics.getApplications()));
+		streamMetrics.setAggregateMetrics(
+				toAggregateMetrics(stream.aggregates.getStreamRates(), streamLatencies, timestamp));
+		stream.snapshot = new StreamMetricsSnapshot(generation, streamMetrics,
+				members.toArray(new ApplicationMetricsHistory[members.size()]));
+		return streamMetrics;
+	}
+
+	private static Collection<Metric<Double>> toAggregateMetrics(Map<String, Double> rates,
+			Map<String, SendLatency> latencies, Date timestamp) {
+		List<Metric<Double>> metrics = new ArrayList<>(rates.size() + 2 * latencies.size());
+		for (Map.Entry<String, Double> rate : rates.entrySet()) {
+			metrics.add(new Metric<>(rate.getKey(), rate.getValue(), timestamp));
+		}
+		SendLatency.toMetrics(latencies, timestamp, metrics);
+		return Collections.unmodifiableList(metrics);
+	}
+
+	/**
+	 * Channel send rates of the latest reading of a history, as {@link #convert} reports
+	 * them, reading the slots rather than converting the reading.
+	 * @param history the last readings of an application instance
+	 * @return the rates by metric name
+	 */
+	Map<String, Double> channelRates(ApplicationMetricsHistory history) {
+		Map<String, Double> rates = new HashMap<>();
+		ApplicationMetricsHistory.Recent recent = history.getRecent();
+		if (recent == null) {
+			return rates;
+		}
+		boolean version2 = ApplicationMetrics.METRICS_VERSION_2
+				.equals(recent.getProperties().get(ApplicationMetrics.STREAM_METRICS_VERSION));
+		for (int slot = 0; slot < recent.getSlotCount(); slot++) {
+			double value = recent.getValue(slot, 0);
+			if (Double.isNaN(value)) {
+				continue;
+			}
+			String name = recent.getSlotName(slot);
+			if (version2) {
+				if (MetricNames.isChannelSendMean(name)) {
+					rates.put(name, value);
+				}
+			}
+			else {
+				String sendMean = MetricNames.sendMeanOf(name);
+				if (sendMean != null) {
+					rates.put(sendMean, delta(recent, slot));
+				}
+			}
+		}
+		return rates;
+	}
+
+	/**
+	 * Converts the latest reading of a history from its recent readings, so the latest
+	 * reading and the rates come from the same update without blocking the updates.
+	 * @param history the last readings of an application instance
+	 * @return the {@link Instance} view of the latest reading
+	 */
+	Instance toInstance(ApplicationMetricsHistory history) {
+		return convert(history.getRecent());
 	}
 
 	/**
-	 * Converts a denormalized view of each application instance metric
-	 * ({@link ApplicationMetrics}) into a hierarchical model {@link StreamMetrics}
-	 * @param applicationMetricsList an LIFO list with the last two readings of an
-	 * {@link ApplicationMetrics} event
-	 * @param root The root object of the hierarchy - null if the first conversion
-	 * @return a hierarchical view of metrics using {@link StreamMetrics} as the root
-	 * object
+	 * Converts a denormalized view of an application instance metric
+	 * ({@link ApplicationMetrics}) into the {@link Instance} of the hierarchical model
+	 * @param recent the last two readings of an {@link ApplicationMetrics} event
+	 * @return the {@link Instance} view of the latest reading
 	 */
-	private StreamMetrics convert(List<ApplicationMetrics<Metric<Double>>> applicationMetricsList, StreamMetrics root) {
+	private Instance convert(ApplicationMetricsHistory.Recent recent) {
 
-		// For most properties, we should take the last inserted element on the list
-		ApplicationMetrics<Metric<Double>> applicationMetrics = applicationMetricsList.get(0);
+		// For most properties, we should take the latest reading
+		ApplicationMetrics<Metric<Double>> applicationMetrics = recent.getLatest();
 
 		Assert.notNull(applicationMetrics.getProperties().get(ApplicationMetrics.STREAM_NAME),
 				"Missing STREAM_NAME from metrics properties");
@@ -148,11 +471,6 @@ public class ApplicationMetricsService {
 				"Missing APPLICATION_NAME from metrics properties");
 		Assert.notNull(applicationMetrics.getProperties().get(ApplicationMetrics.APPLICATION_GUID),
 				"Missing APPLICATION_GUID from metrics properties");
-		StreamMetrics streamMetrics = (root == null)
-				? new StreamMetrics((String) applicationMetrics.getProperties().get(ApplicationMetrics.STREAM_NAME))
-				: root;
-		Application application = new Application(
-				(String) applicationMetrics.getProperties().get(ApplicationMetrics.APPLICATION_NAME));
 
 		Instance instance = new Instance(
 				applicationMetrics.getProperties().get(ApplicationMetrics.APPLICATION_GUID).toString());
@@ -163,67 +481,54 @@ public class ApplicationMetricsService {
 			instance.setIndex(instanceIndex);
 		}
 
-		instance.setMetrics(applicationMetrics.getMetrics().stream()
-				.filter(metric -> !metric.getName().matches("integration\\.channel\\.(\\w*)\\.send\\.mean"))
-				.collect(Collectors.toList()));
-
-		instance.setProperties(applicationMetrics.getProperties());
-		instance.setKey(applicationMetrics.getName());
-
+		List<Metric<Double>> metrics;
 		if (ApplicationMetrics.METRICS_VERSION_2.equals(getMetricsVersion(applicationMetrics))) {
-			instance.setMetrics(applicationMetrics.getMetrics().stream()
-					.filter(metric -> metric.getName().matches("integration\\.channel\\.(\\w*)\\.send\\.mean"))
-					.collect(Collectors.toList()));
+			metrics = applicationMetrics.getMetrics().stream()
+					.filter(metric -> MetricNames.isChannelSendMean(metric.getName())
+							|| MetricNames.isChannelSendDuration(metric.getName()))
+					.collect(Collectors.toList());
 		}
 		else {
-			instance.getMetrics().addAll(computeRate(applicationMetricsList));
+			metrics = applicationMetrics.getMetrics().stream()
+					.filter(metric -> !MetricNames.isChannelSendMean(metric.getName()))
+					.collect(Collectors.toList());
+			metrics.addAll(computeRate(recent));
 		}
-
-		int applicationIndex = streamMetrics.getApplications().indexOf(application);
-		if (applicationIndex < 0) {
-			application.getInstances().add(instance);
-			streamMetrics.getApplications().add(application);
-		}
-		else {
-			int idx = streamMetrics.getApplications().get(applicationIndex).getInstances().indexOf(instance);
-			if (idx < 0) {
-				streamMetrics.getApplications().get(applicationIndex).getInstances().add(instance);
-			}
-		}
-		return streamMetrics;
+		instance.setMetrics(Collections.unmodifiableList(metrics));
+		instance.setProperties(Collections.unmodifiableMap(applicationMetrics.getProperties()));
+		instance.setKey(applicationMetrics.getName());
+		return instance;
 	}
 
 	public String getMetricsVersion(ApplicationMetrics<Metric<Double>> applicationMetrics) {
 		return (String) applicationMetrics.getProperties().get(ApplicationMetrics.STREAM_METRICS_VERSION);
 	}
 
-	private List<Metric<Double>> computeRate(List<ApplicationMetrics<Metric<Double>>> applicationMetricsList) {
+	private List<Metric<Double>> computeRate(ApplicationMetricsHistory.Recent recent) {
 		List<Metric<Double>> result = new ArrayList<>();
-		ApplicationMetrics<Metric<Double>> applicationMetrics = applicationMetricsList.get(0);
-		for (Metric<Double> metric : applicationMetrics.getMetrics()) {
-			Matcher matcher = pattern.matcher(metric.getName());
-			if (matcher.matches()) {
-				Metric previous = applicationMetricsList.size() < 2 ? null
-						: findMetric(applicationMetricsList.get(1).getMetrics(), metric.getName());
-				result.add(new Metric<>("integration.channel." + matcher.group(1) + ".send.mean",
-						delta(metric, previous)));
+		for (int slot = 0; slot < recent.getSlotCount(); slot++) {
+			if (Double.isNaN(recent.getValue(slot, 0))) {
+				continue;
+			}
+			String sendMean = MetricNames.sendMeanOf(recent.getSlotName(slot));
+			if (sendMean != null) {
+				result.add(new Metric<>(sendMean, delta(recent, slot)));
 			}
 		}
 		return result;
 	}
 
-	private Double delta(Metric<Double> current, Metric<Double> previous) {
-		if (previous == null) {
+	/**
+	 * Rate per second between the latest reading of a slot and the previous one, 0 if the
+	 * metric is missing from the previous reading.
+	 */
+	private Double delta(ApplicationMetricsHistory.Recent recent, int slot) {
+		if (recent.size() < 2 || Double.isNaN(recent.getValue(slot, 1))) {
 			return 0.0;
 		}
 		else {
-			return (current.getValue() - previous.getValue())
-					/ (current.getTimestamp().getTime() - previous.getTimestamp().getTime()) * 1000;
+			return (recent.getValue(slot, 0) - recent.getValue(slot, 1))
+					/ (recent.getTimestamp(slot, 0) - recent.getTimestamp(slot, 1)) * 1000;
 		}
 	}
-
-	private Metric<Double> findMetric(Collection<Metric<Double>> metrics, String name) {
-		Optional<Metric<Double>> optional = metrics.stream().filter(metric -> metric.getName().equals(name)).findFirst();
-		return optional.isPresent() ? optional.get() : new Metric<>(name, 0.0);
-	}
 }
@@ -0,0 +1,598 @@
+/*
+ * Copyright 2018 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package org.springframework.cloud.dataflow.metrics.collector.services;
+
+import java.io.EOFException;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.time.Clock;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.zip.CRC32;
+
+import com.github.benmanes.caffeine.cache.Cache;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import org.springframework.cloud.dataflow.metrics.collector.model.ApplicationMetricsReading;
+import org.springframework.context.SmartLifecycle;
+import org.springframework.util.Assert;
+
+/**
+ * Persists the metrics storage to a local file, so a restarted collector serves the
+ * instances, and the rates of the Spring Boot 1.x ones, right away.
+ *
+ * The snapshot is loaded on start, the histories updated within the eviction timeout
+ * being replayed into the {@link ApplicationMetricsService} with their original update
+ * time. It is written every interval and on stop, to a temporary file forced to the disk
+ * and moved over the previous snapshot once complete. The file is written and read through
+ * a fixed size buffer, its body being limited to 2GB. The layout is a header, followed by
+ * a CRC32 checked body made of a table of the distinct strings and of the histories,
+ * referring to the strings by index:
+ *
+ * <pre>
+ * header:  int magic, int version, long time, int body length, int body crc
+ * strings: int count, count x (int length, UTF-8 bytes)
+ * entries: int count, count x (int name, long updated, int property count,
+ *          property count x (int key, byte type, long value), int slot count, slot count x int name,
+ *          int readings, readings x slot count x (long timestamp, double value))
+ * </pre>
+ *
+ * The readings of an entry are listed oldest first, a value being {@link Double#NaN} if
+ * the metric was missing from the reading.
+ *
+ * @author Christian Tzolov
+ */
+public class ApplicationMetricsSnapshots implements SmartLifecycle {
+
+	private static final int MAGIC = 0x53434D43;
+
+	private static final int VERSION = 1;
+
+	private static final int HEADER_SIZE = 24;
+
+	/**
+	 * Key index, type and value of a property.
+	 */
+	private static final int PROPERTY_SIZE = Integer.BYTES + PropertyValues.SIZE;
+
+	/**
+	 * Size of the buffer the file is written and read through.
+	 */
+	private static final int CHUNK_SIZE = 64 * 1024;
+
+	private final Logger logger = LoggerFactory.getLogger(ApplicationMetricsSnapshots.class);
+
+	private final Cache<String, ApplicationMetricsHistory> storage;
+
+	private final ApplicationMetricsService service;
+
+	private final Path path;
+
+	private final long interval;
+
+	private final long timeout;
+
+	private final Clock clock;
+
+	private ScheduledExecutorService scheduler;
+
+	private volatile boolean running;
+
+	private volatile long loadedTime;
+
+	/**
+	 * @param storage the storage to snapshot
+	 * @param service the service the loaded histories are replayed into
+	 * @param path the snapshot file
+	 * @param interval time (in milliseconds) between two snapshots, 0 to only write it on stop
+	 * @param timeout age (in milliseconds) past which loaded histories are skipped
+	 */
+	public ApplicationMetricsSnapshots(Cache<String, ApplicationMetricsHistory> storage,
+			ApplicationMetricsService service, Path path, long interval, long timeout) {
+		this(storage, service, path, interval, timeout, Clock.systemUTC());
+	}
+
+	public ApplicationMetricsSnapshots(Cache<String, ApplicationMetricsHistory> storage,
+			ApplicationMetricsService service, Path path, long interval, long timeout, Clock clock) {
+		Assert.isTrue(interval >= 0, "The snapshot interval must not be negative");
+		this.storage = storage;
+		this.service = service;
+		this.path = path;
+		this.interval = interval;
+		this.timeout = timeout;
+		this.clock = clock;
+	}
+
+	/**
+	 * Writes the histories of the storage to the snapshot file.
+	 * @return the number of histories written
+	 * @throws IOException if the file cannot be written
+	 */
+	public int write() throws IOException {
+		// before the copies, readings stored meanwhile may be in the snapshot or not
+		long time = this.clock.millis();
+		Map<String, Integer> strings = new LinkedHashMap<>();
+		List<Entry> entries = new ArrayList<>();
+		for (ApplicationMetricsHistory history : this.storage.asMap().values()) {
+			Entry entry = Entry.of(history, strings);
+			if (entry != null) {
+				entries.add(entry);
+			}
+		}
+		List<byte[]> encoded = new ArrayList<>(strings.size());
+		long size = HEADER_SIZE + Integer.BYTES + Integer.BYTES;
+		for (String string : strings.keySet()) {
+			byte[] bytes = string.getBytes(StandardCharsets.UTF_8);
+			encoded.add(bytes);
+			size += Integer.BYTES + bytes.length;
+		}
+		for (Entry entry : entries) {
+			size += entry.size();
+		}
+		Assert.state(size - HEADER_SIZE <= Integer.MAX_VALUE, "Snapshot too large: " + size + " bytes");
+
+		Path temporary = this.path.resolveSibling(this.path.getFileName() + ".tmp");
+		try (FileChannel channel = FileChannel.open(temporary, StandardOpenOption.CREATE,
+				StandardOpenOption.TRUNCATE_EXISTING, StandardOpenOption.WRITE)) {
+			channel.position(HEADER_SIZE);
+			Output body = new Output(channel);
+			body.putInt(encoded.size());
+			for (byte[] bytes : encoded) {
+				body.putInt(bytes.length);
+				body.put(bytes);
+			}
+			body.putInt(entries.size());
+			for (Entry entry : entries) {
+				entry.write(body);
+			}
+			body.flush();
+			Assert.state(channel.position() == size, "Snapshot size mismatch");
+
+			// the header is written last, once the body checksum is known
+			ByteBuffer header = ByteBuffer.allocate(HEADER_SIZE);
+			header.putInt(MAGIC).putInt(VERSION).putLong(time).putInt((int) (size - HEADER_SIZE))
+					.putInt(body.getChecksum());
+			header.flip();
+			while (header.hasRemaining()) {
+				channel.write(header, header.position());
+			}
+			channel.force(true);
+		}
+		Files.move(temporary, this.path, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+		return entries.size();
+	}
+
+	/**
+	 * Replays the histories of the snapshot file updated within the timeout into the
+	 * service, with the time they were last updated. A missing, truncated or corrupted file is ignored.
+	 * @return the number of histories loaded
+	 * @throws IOException if the file cannot be read
+	 */
+	public int load() throws IOException {
+		try (FileChannel channel = FileChannel.open(this.path, StandardOpenOption.READ)) {
+			long size = channel.size();
+			if (size < HEADER_SIZE || size - HEADER_SIZE > Integer.MAX_VALUE) {
+				logger.warn("Ignoring the metrics snapshot {} of {} bytes", this.path, size);
+				return 0;
+			}
+			ByteBuffer header = ByteBuffer.allocate(HEADER_SIZE);
+			while (header.hasRemaining() && channel.read(header) >= 0) {
+				// until the whole header is read
+			}
+			// checked as a whole before any history is replayed
+			if (header.getInt(0) != MAGIC || header.getInt(4) != VERSION
+					|| header.getInt(16) != size - HEADER_SIZE || header.getInt(20) != checksum(channel)) {
+				logger.warn("Ignoring the invalid metrics snapshot {}", this.path);
+				return 0;
+			}
+			channel.position(HEADER_SIZE);
+			int loaded = load(new Input(channel));
+			this.loadedTime = header.getLong(8);
+			return loaded;
+		}
+		catch (NoSuchFileException e) {
+			return 0;
+		}
+	}
+
+	/**
+	 * @return the time (in milliseconds) the loaded snapshot was taken, 0 if none was loaded
+	 */
+	public long getLoadedTime() {
+		return this.loadedTime;
+	}
+
+	private int load(Input buffer) throws IOException {
+		String[] strings = new String[buffer.getInt()];
+		for (int i = 0; i < strings.length; i++) {
+			byte[] bytes = new byte[buffer.getInt()];
+			buffer.get(bytes);
+			strings[i] = new String(bytes, StandardCharsets.UTF_8);
+		}
+		long oldest = this.clock.millis() - this.timeout;
+		int loaded = 0;
+		for (int entries = buffer.getInt(); entries > 0; entries--) {
+			String name = strings[buffer.getInt()];
+			long updated = buffer.getLong();
+			Map<String, Object> properties = new LinkedHashMap<>();
+			for (int i = buffer.getInt(); i > 0; i--) {
+				String key = strings[buffer.getInt()];
+				byte type = buffer.get();
+				properties.put(key, PropertyValues.valueOf(type, buffer.getLong(), index -> strings[index]));
+			}
+			String[] slots = new String[buffer.getInt()];
+			for (int slot = 0; slot < slots.length; slot++) {
+				slots[slot] = strings[buffer.getInt()];
+			}
+			int readings = buffer.getInt();
+			if (updated < oldest) {
+				buffer.skip((long) readings * slots.length * (Long.BYTES + Double.BYTES));
+				continue;
+			}
+			for (int i = 0; i < readings; i++) {
+				ApplicationMetricsReading reading = new ApplicationMetricsReading(name);
+				for (String slot : slots) {
+					long timestamp = buffer.getLong();
+					double value = buffer.getDouble();
+					if (!Double.isNaN(value)) {
+						reading.addMetric(slot, value, timestamp);
+					}
+				}
+				reading.setProperties(properties);
+				this.service.add(reading, updated);
+			}
+			loaded++;
+		}
+		return loaded;
+	}
+
+	private static int checksum(FileChannel channel) throws IOException {
+		ByteBuffer buffer = ByteBuffer.allocate(CHUNK_SIZE);
+		CRC32 crc = new CRC32();
+		long position = HEADER_SIZE;
+		for (int read = channel.read(buffer, position); read >= 0; read = channel.read(buffer, position)) {
+			buffer.flip();
+			crc.update(buffer);
+			buffer.clear();
+			position += read;
+		}
+		return (int) crc.getValue();
+	}
+
+	/**
+	 * Loads the snapshot, before the binder starts delivering readings, and schedules the
+	 * next ones.
+	 */
+	@Override
+	public synchronized void start() {
+		if (this.running) {
+			return;
+		}
+		try {
+			logger.info("Loaded {} metrics histories from {}", load(), this.path);
+		}
+		catch (IOException | RuntimeException e) {
+			logger.warn("Failed to load the metrics snapshot " + this.path, e);
+		}
+		if (this.interval > 0) {
+			this.scheduler = Executors.newSingleThreadScheduledExecutor(runnable -> {
+				Thread thread = new Thread(runnable, "metrics-collector-snapshot");
+				thread.setDaemon(true);
+				return thread;
+			});
+			this.scheduler.scheduleWithFixedDelay(this::writeSnapshot, this.interval, this.interval,
+					TimeUnit.MILLISECONDS);
+		}
+		this.running = true;
+	}
+
+	/**
+	 * Writes a last snapshot, once the binder and the batcher stopped updating the storage.
+	 */
+	@Override
+	public synchronized void stop() {
+		if (!this.running) {
+			return;
+		}
+		this.running = false;
+		if (this.scheduler != null) {
+			this.scheduler.shutdownNow();
+			try {
+				this.scheduler.awaitTermination(this.interval, TimeUnit.MILLISECONDS);
+			}
+			catch (InterruptedException e) {
+				Thread.currentThread().interrupt();
+			}
+			this.scheduler = null;
+		}
+		writeSnapshot();
+	}
+
+	private void writeSnapshot() {
+		try {
+			int written = write();
+			logger.debug("Wrote {} metrics histories to {}", written, this.path);
+		}
+		catch (IOException | RuntimeException e) {
+			logger.warn("Failed to write the metrics snapshot " + this.path, e);
+		}
+	}
+
+	@Override
+	public void stop(Runnable callback) {
+		stop();
+		callback.run();
+	}
+
+	@Override
+	public boolean isRunning() {
+		return this.running;
+	}
+
+	@Override
+	public boolean isAutoStartup() {
+		return true;
+	}
+
+	/**
+	 * Started before and stopped after the {@link ApplicationMetricsBatcher}.
+	 */
+	@Override
+	public int getPhase() {
+		return -1;
+	}
+
+	/**
+	 * A history copied under its monitor, with its strings registered in the string table.
+	 */
+	private static final class Entry {
+
+		private final int name;
+
+		private final long updated;
+
+		private final int[] propertyKeys;
+
+		private final byte[] propertyTypes;
+
+		private final long[] propertyValues;
+
+		private final int[] slots;
+
+		private final int readings;
+
+		private final long[] timestamps;
+
+		private final double[] values;
+
+		private Entry(int name, long updated, int properties, int slots, int readings) {
+			this.name = name;
+			this.updated = updated;
+			this.propertyKeys = new int[properties];
+			this.propertyTypes = new byte[properties];
+			this.propertyValues = new long[properties];
+			this.slots = new int[slots];
+			this.readings = readings;
+			this.timestamps = new long[slots * readings];
+			this.values = new double[slots * readings];
+		}
+
+		static Entry of(ApplicationMetricsHistory history, Map<String, Integer> strings) {
+			synchronized (history) {
+				int readings = history.size();
+				if (readings == 0) {
+					return null;
+				}
+				Map<String, Object> properties = history.getProperties();
+				Entry entry = new Entry(index(history.getName(), strings), history.getUpdated(), properties.size(),
+						history.getSlotCount(), readings);
+				int property = 0;
+				for (Map.Entry<String, Object> keyValue : properties.entrySet()) {
+					entry.propertyKeys[property] = index(keyValue.getKey(), strings);
+					entry.propertyTypes[property] = PropertyValues.typeOf(keyValue.getValue());
+					entry.propertyValues[property++] = PropertyValues.bitsOf(keyValue.getValue(),
+							string -> index(string, strings));
+				}
+				for (int slot = 0; slot < entry.slots.length; slot++) {
+					entry.slots[slot] = index(history.getSlotName(slot), strings);
+				}
+				int i = 0;
+				for (int age = readings - 1; age >= 0; age--) {
+					for (int slot = 0; slot < entry.slots.length; slot++) {
+						entry.timestamps[i] = history.getTimestamp(slot, age);
+						entry.values[i++] = history.getValue(slot, age);
+					}
+				}
+				return entry;
+			}
+		}
+
+		private static int index(String string, Map<String, Integer> strings) {
+			return strings.computeIfAbsent(string, key -> strings.size());
+		}
+
+		long size() {
+			return Integer.BYTES + Long.BYTES
+					+ Integer.BYTES + this.propertyKeys.length * PROPERTY_SIZE
+					+ Integer.BYTES + this.slots.length * Integer.BYTES
+					+ Integer.BYTES + (long) this.values.length * (Long.BYTES + Double.BYTES);
+		}
+
+		void write(Output buffer) throws IOException {
+			buffer.putInt(this.name);
+			buffer.putLong(this.updated);
+			buffer.putInt(this.propertyKeys.length);
+			for (int i = 0; i < this.propertyKeys.length; i++) {
+				buffer.putInt(this.propertyKeys[i]);
+				buffer.putByte(this.propertyTypes[i]);
+				buffer.putLong(this.propertyValues[i]);
+			}
+			buffer.putInt(this.slots.length);
+			for (int slot : this.slots) {
+				buffer.putInt(slot);
+			}
+			buffer.putInt(this.readings);
+			for (int i = 0; i < this.values.length; i++) {
+				buffer.putLong(this.timestamps[i]);
+				buffer.putDouble(this.values[i]);
+			}
+		}
+	}
+
+	/**
+	 * Writes the body of a snapshot through a fixed size buffer, computing its checksum.
+	 */
+	private static final class Output {
+
+		private final FileChannel channel;
+
+		private final ByteBuffer buffer = ByteBuffer.allocate(CHUNK_SIZE);
+
+		private final CRC32 crc = new CRC32();
+
+		private Output(FileChannel channel) {
+			this.channel = channel;
+		}
+
+		void putInt(int value) throws IOException {
+			ensure(Integer.BYTES);
+			this.buffer.putInt(value);
+		}
+
+		void putLong(long value) throws IOException {
+			ensure(Long.BYTES);
+			this.buffer.putLong(value);
+		}
+
+		void putDouble(double value) throws IOException {
+			ensure(Double.BYTES);
+			this.buffer.putDouble(value);
+		}
+
+		void putByte(byte value) throws IOException {
+			ensure(Byte.BYTES);
+			this.buffer.put(value);
+		}
+
+		void put(byte[] bytes) throws IOException {
+			for (int offset = 0; offset < bytes.length;) {
+				ensure(1);
+				int length = Math.min(bytes.length - offset, this.buffer.remaining());
+				this.buffer.put(bytes, offset, length);
+				offset += length;
+			}
+		}
+
+		void flush() throws IOException {
+			this.buffer.flip();
+			this.crc.update(this.buffer.duplicate());
+			while (this.buffer.hasRemaining()) {
+				this.channel.write(this.buffer);
+			}
+			this.buffer.clear();
+		}
+
+		int getChecksum() {
+			return (int) this.crc.getValue();
+		}
+
+		private void ensure(int size) throws IOException {
+			if (this.buffer.remaining() < size) {
+				flush();
+			}
+		}
+	}
+
+	/**
+	 * Reads the body of a snapshot through a fixed size buffer.
+	 */
+	private static final class Input {
+
+		private final FileChannel channel;
+
+		private final ByteBuffer buffer = ByteBuffer.allocate(CHUNK_SIZE);
+
+		private Input(FileChannel channel) {
+			this.channel = channel;
+			this.buffer.flip();
+		}
+
+		int getInt() throws IOException {
+			ensure(Integer.BYTES);
+			return this.buffer.getInt();
+		}
+
+		long getLong() throws IOException {
+			ensure(Long.BYTES);
+			return this.buffer.getLong();
+		}
+
+		double getDouble() throws IOException {
+			ensure(Double.BYTES);
+			return this.buffer.getDouble();
+		}
+
+		byte get() throws IOException {
+			ensure(Byte.BYTES);
+			return this.buffer.get();
+		}
+
+		void get(byte[] bytes) throws IOException {
+			for (int offset = 0; offset < bytes.length;) {
+				ensure(1);
+				int length = Math.min(bytes.length - offset, this.buffer.remaining());
+				this.buffer.get(bytes, offset, length);
+				offset += length;
+			}
+		}
+
+		void skip(long size) throws IOException {
+			int buffered = (int) Math.min(size, this.buffer.remaining());
+			this.buffer.position(this.buffer.position() + buffered);
+			if (size > buffered) {
+				this.channel.position(this.channel.position() + size - buffered);
+			}
+		}
+
+		private void ensure(int size) throws IOException {
+			if (this.buffer.remaining() >= size) {
+				return;
+			}
+			this.buffer.compact();
+			while (this.buffer.position() < size) {
+				if (this.channel.read(this.buffer) < 0) {
+					throw new EOFException("Truncated metrics snapshot");
+				}
+			}
+			this.buffer.flip();
+		}
+	}
+}
@@ -0,0 +1,435 @@
+/*
+ * Copyright 2018 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package org.springframework.cloud.dataflow.metrics.collector.services;
+
+import java.time.Clock;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.BitSet;
+import java.util.Date;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.ReadWriteLock;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+
+import org.springframework.cloud.dataflow.metrics.collector.model.ApplicationMetrics;
+import org.springframework.cloud.dataflow.metrics.collector.model.ApplicationMetricsReading;
+import org.springframework.cloud.dataflow.metrics.collector.model.MeterReading;
+import org.springframework.cloud.dataflow.metrics.collector.model.MeterSample;
+import org.springframework.cloud.dataflow.metrics.collector.utils.StringDictionary;
+
+/**
+ * Dimensional storage of the latest statistics of all the Micrometer meters of the
+ * application instances.
+ *
+ * The meter names and tag keys and values are encoded by a {@link StringDictionary}, so a
+ * series is identified by its instance and a tuple of ints. Each series gets a dense id,
+ * and an inverted index maps every meter name, tag key and value pair, stream name and
+ * application name to the {@link BitSet} of its series ids, a query intersecting the sets
+ * of its criteria instead of scanning the series. Each series retains the dictionary strings of its id, released
+ * when the series is dropped, and the meters whose strings were refused by the dictionary
+ * or released meanwhile are skipped. The instance guids are not encoded.
+ *
+ * New series and the index are guarded by a read write lock, while the statistics of
+ * existing series are updated under the monitor of their instance only. The series of an
+ * instance are dropped once it has not been updated for the eviction timeout, the
+ * instances being checked by a single caller at most every quarter of the timeout.
+ *
+ * @author Christian Tzolov
+ */
+public class MeterStore {
+
+	private final StringDictionary dictionary;
+
+	private final long timeout;
+
+	private final Clock clock;
+
+	private final ConcurrentMap<String, InstanceMeters> instances = new ConcurrentHashMap<>();
+
+	private final ReadWriteLock lock = new ReentrantReadWriteLock();
+
+	private final Map<Integer, BitSet> namePostings = new HashMap<>();
+
+	private final Map<Long, BitSet> tagPostings = new HashMap<>();
+
+	private final Map<String, BitSet> streamPostings = new HashMap<>();
+
+	private final Map<String, BitSet> applicationPostings = new HashMap<>();
+
+	private final BitSet liveIds = new BitSet();
+
+	private final BitSet freeIds = new BitSet();
+
+	private final long purgeInterval;
+
+	private final AtomicLong nextPurge = new AtomicLong(Long.MIN_VALUE);
+
+	private Series[] series = new Series[64];
+
+	private int seriesCount;
+
+	/**
+	 * @param dictionary the dictionary the meter ids were encoded with
+	 * @param timeout time (in milliseconds) after which the series of an instance not
+	 * updated are dropped
+	 */
+	public MeterStore(StringDictionary dictionary, long timeout) {
+		this(dictionary, timeout, Clock.systemUTC());
+	}
+
+	public MeterStore(StringDictionary dictionary, long timeout, Clock clock) {
+		this.dictionary = dictionary;
+		this.timeout = timeout;
+		this.clock = clock;
+		this.purgeInterval = timeout / 4;
+	}
+
+	/**
+	 * Stores the meters of a reading, if any, as the latest statistics of their series.
+	 * @param reading a decoded reading with its stream, application and instance properties
+	 */
+	public void add(ApplicationMetricsReading reading) {
+		MeterReading meters = reading.getMeters();
+		if (meters == null) {
+			return;
+		}
+		long now = this.clock.millis();
+		purgeIfDue(now);
+		InstanceMeters instance = this.instances.get(reading.getName());
+		if (instance == null) {
+			instance = this.instances.computeIfAbsent(reading.getName(),
+					name -> new InstanceMeters(reading.getProperties(), now));
+		}
+		synchronized (instance) {
+			if (instance.removed) {
+				// purged concurrently, the next reading registers the instance again
+				return;
+			}
+			instance.updated = now;
+			for (int i = 0; i < meters.size(); i++) {
+				SeriesKey key = new SeriesKey(meters.getId(i));
+				Series series = instance.series.get(key);
+				if (series == null) {
+					series = register(instance, key.id);
+					if (series == null) {
+						continue;
+					}
+					instance.series.put(key, series);
+				}
+				series.timestamp = meters.getTimestamp(i);
+				series.sum = meters.getSum(i);
+				series.count = meters.getCount(i);
+				series.mean = meters.getMean(i);
+				series.upper = meters.getUpper(i);
+				series.total = meters.getTotal(i);
+			}
+		}
+	}
+
+	/**
+	 * Returns the latest statistics of the series matching all the given criteria.
+	 * @param name the meter name, any meter if null or empty
+	 * @param stream the stream name, any stream if null or empty
+	 * @param application the application name, any application if null or empty
+	 * @param tags the tags the series must have, any tags if null
+	 * @return the matching series
+	 */
+	public List<MeterSample> query(String name, String stream, String application, Map<String, String> tags) {
+		purgeIfDue(this.clock.millis());
+		List<Series> matching = new ArrayList<>();
+		this.lock.readLock().lock();
+		try {
+			BitSet matches = null;
+			if (name != null && !name.isEmpty()) {
+				matches = intersect(matches, this.namePostings.get(this.dictionary.find(name)));
+			}
+			if (stream != null && !stream.isEmpty()) {
+				matches = intersect(matches, this.streamPostings.get(stream));
+			}
+			if (application != null && !application.isEmpty()) {
+				matches = intersect(matches, this.applicationPostings.get(application));
+			}
+			if (tags != null) {
+				for (Map.Entry<String, String> tag : tags.entrySet()) {
+					matches = intersect(matches, this.tagPostings.get(pair(this.dictionary.find(tag.getKey()),
+							this.dictionary.find(tag.getValue()))));
+				}
+			}
+			if (matches == null) {
+				matches = this.liveIds;
+			}
+			for (int id = matches.nextSetBit(0); id >= 0; id = matches.nextSetBit(id + 1)) {
+				matching.add(this.series[id]);
+			}
+		}
+		finally {
+			this.lock.readLock().unlock();
+		}
+		// outside of the lock, the updates holding an instance monitor may wait for it
+		List<MeterSample> samples = new ArrayList<>(matching.size());
+		for (Series series : matching) {
+			samples.add(toSample(series));
+		}
+		return samples;
+	}
+
+	/**
+	 * @return the number of stored series
+	 */
+	public int size() {
+		this.lock.readLock().lock();
+		try {
+			return this.liveIds.cardinality();
+		}
+		finally {
+			this.lock.readLock().unlock();
+		}
+	}
+
+	/**
+	 * @return the new series, null if a string of its id has been released
+	 */
+	private Series register(InstanceMeters instance, int[] id) {
+		for (int i = 0; i < id.length; i++) {
+			if (!this.dictionary.retain(id[i])) {
+				for (int j = 0; j < i; j++) {
+					this.dictionary.release(id[j]);
+				}
+				return null;
+			}
+		}
+		this.lock.writeLock().lock();
+		try {
+			int seriesId = this.freeIds.nextSetBit(0);
+			if (seriesId >= 0) {
+				this.freeIds.clear(seriesId);
+			}
+			else {
+				if (this.seriesCount == this.series.length) {
+					this.series = Arrays.copyOf(this.series, this.seriesCount * 2);
+				}
+				seriesId = this.seriesCount++;
+			}
+			Series series = new Series(instance, id);
+			this.series[seriesId] = series;
+			instance.ids.set(seriesId);
+			this.liveIds.set(seriesId);
+			this.namePostings.computeIfAbsent(id[0], key -> new BitSet()).set(seriesId);
+			for (int i = 1; i + 1 < id.length; i += 2) {
+				this.tagPostings.computeIfAbsent(pair(id[i], id[i + 1]), key -> new BitSet()).set(seriesId);
+			}
+			this.streamPostings.computeIfAbsent(instance.stream, key -> new BitSet()).set(seriesId);
+			this.applicationPostings.computeIfAbsent(instance.application, key -> new BitSet()).set(seriesId);
+			return series;
+		}
+		finally {
+			this.lock.writeLock().unlock();
+		}
+	}
+
+	/**
+	 * Purges the expired instances if the purge interval elapsed, on a single caller.
+	 */
+	private void purgeIfDue(long now) {
+		long next = this.nextPurge.get();
+		if (now >= next && this.nextPurge.compareAndSet(next, now + this.purgeInterval)) {
+			purge(now);
+		}
+	}
+
+	private void purge(long now) {
+		boolean purged = false;
+		for (Map.Entry<String, InstanceMeters> entry : this.instances.entrySet()) {
+			InstanceMeters instance = entry.getValue();
+			synchronized (instance) {
+				if (instance.removed || now - instance.updated <= this.timeout) {
+					continue;
+				}
+				instance.removed = true;
+				// not a new instance registered meanwhile under the same name
+				this.instances.remove(entry.getKey(), instance);
+			}
+			purged = true;
+			this.lock.writeLock().lock();
+			try {
+				BitSet ids = (BitSet) instance.ids.clone();
+				instance.ids.clear();
+				for (int id = ids.nextSetBit(0); id >= 0; id = ids.nextSetBit(id + 1)) {
+					Series series = this.series[id];
+					remove(this.namePostings, series.id[0], id);
+					for (int i = 1; i + 1 < series.id.length; i += 2) {
+						remove(this.tagPostings, pair(series.id[i], series.id[i + 1]), id);
+					}
+					remove(this.streamPostings, instance.stream, id);
+					remove(this.applicationPostings, instance.application, id);
+					this.liveIds.clear(id);
+					this.series[id] = null;
+					this.freeIds.set(id);
+					for (int part : series.id) {
+						this.dictionary.release(part);
+					}
+				}
+			}
+			finally {
+				this.lock.writeLock().unlock();
+			}
+		}
+		if (purged) {
+			// the strings of the readings never stored, long after they were decoded
+			this.dictionary.reclaim(this.timeout);
+		}
+	}
+
+	private static <K> void remove(Map<K, BitSet> postings, K key, int id) {
+		BitSet ids = postings.get(key);
+		if (ids != null) {
+			ids.clear(id);
+			if (ids.isEmpty()) {
+				postings.remove(key);
+			}
+		}
+	}
+
+	/**
+	 * @param matches the series matching the previous criteria, null if none was given
+	 * @param ids the series matching a criterion, null if none
+	 */
+	private static BitSet intersect(BitSet matches, BitSet ids) {
+		if (ids == null) {
+			return new BitSet();
+		}
+		if (matches == null) {
+			return (BitSet) ids.clone();
+		}
+		matches.and(ids);
+		return matches;
+	}
+
+	private static long pair(int key, int value) {
+		return ((long) key << 32) | (value & 0xFFFFFFFFL);
+	}
+
+	private MeterSample toSample(Series series) {
+		Map<String, String> tags = new LinkedHashMap<>();
+		for (int i = 1; i + 1 < series.id.length; i += 2) {
+			tags.put(this.dictionary.decode(series.id[i]), this.dictionary.decode(series.id[i + 1]));
+		}
+		MeterSample sample = new MeterSample(this.dictionary.decode(series.id[0]), tags);
+		sample.setStream(series.instance.stream);
+		sample.setApplication(series.instance.application);
+		sample.setInstance(series.instance.guid);
+		synchronized (series.instance) {
+			sample.setTimestamp(new Date(series.timestamp));
+			sample.setSum(value(series.sum));
+			sample.setCount(value(series.count));
+			sample.setMean(value(series.mean));
+			sample.setUpper(value(series.upper));
+			sample.setTotal(value(series.total));
+		}
+		return sample;
+	}
+
+	private static Double value(double value) {
+		return Double.isNaN(value) ? null : value;
+	}
+
+	private static final class InstanceMeters {
+
+		private final String stream;
+
+		private final String application;
+
+		private final String guid;
+
+		private final Map<SeriesKey, Series> series = new HashMap<>();
+
+		/**
+		 * Ids of the series of the instance, guarded by the store lock.
+		 */
+		private final BitSet ids = new BitSet();
+
+		private long updated;
+
+		private boolean removed;
+
+		InstanceMeters(Map<String, Object> properties, long updated) {
+			this.updated = updated;
+			this.stream = String.valueOf(properties.get(ApplicationMetrics.STREAM_NAME));
+			this.application = String.valueOf(properties.get(ApplicationMetrics.APPLICATION_NAME));
+			this.guid = String.valueOf(properties.get(ApplicationMetrics.APPLICATION_GUID));
+		}
+	}
+
+	/**
+	 * Latest statistics of a series, guarded by the monitor of its instance.
+	 */
+	private static final class Series {
+
+		private final InstanceMeters instance;
+
+		private final int[] id;
+
+		private long timestamp;
+
+		private double sum;
+
+		private double count;
+
+		private double mean;
+
+		private double upper;
+
+		private double total;
+
+		Series(InstanceMeters instance, int[] id) {
+			this.instance = instance;
+			this.id = id;
+		}
+	}
+
+	/**
+	 * Encoded meter id of a series within its instance.
+	 */
+	private static final class SeriesKey {
+
+		private final int[] id;
+
+		private final int hash;
+
+		SeriesKey(int[] id) {
+			this.id = id;
+			this.hash = Arrays.hashCode(id);
+		}
+
+		@Override
+		public boolean equals(Object o) {
+			return o instanceof SeriesKey && Arrays.equals(this.id, ((SeriesKey) o).id);
+		}
+
+		@Override
+		public int hashCode() {
+			return this.hash;
+		}
+	}
+}
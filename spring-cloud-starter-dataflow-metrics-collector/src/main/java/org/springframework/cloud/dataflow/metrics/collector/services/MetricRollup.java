@@ -0,0 +1,200 @@
+/*
+ * Copyright 2018 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package org.springframework.cloud.dataflow.metrics.collector.services;
+
+import java.util.Arrays;
+
+import org.springframework.cloud.dataflow.metrics.collector.model.MetricSeries;
+import org.springframework.util.Assert;
+
+/**
+ * Downsampled series of a metric, kept at several resolutions in fixed size primitive ring
+ * buffers updated on every value.
+ *
+ * Each bucket holds the sum, the maximum and the count of the values recorded in its time
+ * interval, 20 bytes per bucket. All the buckets of all the resolutions are allocated
+ * upfront, so a series retains a fixed {@code 20 * sum(retention / resolution)} bytes.
+ * Buckets skipped because the metric was not updated are cleared when the head moves past
+ * them.
+ *
+ * @author Christian Tzolov
+ */
+public final class MetricRollup {
+
+	/**
+	 * Bytes retained per bucket.
+	 */
+	public static final int BUCKET_SIZE = Double.BYTES + Double.BYTES + Integer.BYTES;
+
+	private static final long EMPTY = Long.MIN_VALUE;
+
+	private final String name;
+
+	private final long[] resolutions;
+
+	private final int[] capacities;
+
+	private final int[] offsets;
+
+	private final long[] heads;
+
+	private final double[] sums;
+
+	private final double[] maxs;
+
+	private final int[] counts;
+
+	/**
+	 * @param name the metric name
+	 * @param levels the resolutions, from the finest to the coarsest
+	 */
+	public MetricRollup(String name, Level... levels) {
+		Assert.notEmpty(levels, "At least one rollup level is required");
+		this.name = name;
+		this.resolutions = new long[levels.length];
+		this.capacities = new int[levels.length];
+		this.offsets = new int[levels.length];
+		this.heads = new long[levels.length];
+		int size = 0;
+		for (int level = 0; level < levels.length; level++) {
+			this.resolutions[level] = levels[level].getResolution();
+			this.capacities[level] = levels[level].getCapacity();
+			this.offsets[level] = size;
+			size += levels[level].getCapacity();
+		}
+		Arrays.fill(this.heads, EMPTY);
+		this.sums = new double[size];
+		this.maxs = new double[size];
+		this.counts = new int[size];
+	}
+
+	public String getName() {
+		return name;
+	}
+
+	/**
+	 * Adds a value to the bucket of its timestamp at every resolution. Values older than the
+	 * retention of a resolution are ignored at that resolution.
+	 * @param timestamp the epoch milliseconds of the value
+	 * @param value the value, ignored if NaN
+	 */
+	public synchronized void add(long timestamp, double value) {
+		if (Double.isNaN(value)) {
+			return;
+		}
+		for (int level = 0; level < this.resolutions.length; level++) {
+			long bucket = Math.floorDiv(timestamp, this.resolutions[level]);
+			long head = this.heads[level];
+			int capacity = this.capacities[level];
+			if (head == EMPTY || bucket > head) {
+				long cleared = (head == EMPTY) ? capacity : Math.min(bucket - head, capacity);
+				for (long skipped = bucket - cleared + 1; skipped <= bucket; skipped++) {
+					this.counts[index(level, skipped)] = 0;
+				}
+				this.heads[level] = bucket;
+			}
+			else if (bucket <= head - capacity) {
+				continue;
+			}
+			int index = index(level, bucket);
+			if (this.counts[index] == 0) {
+				this.sums[index] = value;
+				this.maxs[index] = value;
+			}
+			else {
+				this.sums[index] += value;
+				this.maxs[index] = Math.max(this.maxs[index], value);
+			}
+			this.counts[index]++;
+		}
+	}
+
+	/**
+	 * Returns the non empty buckets of a time window, at the finest resolution retaining
+	 * the whole window, the coarsest one if none does.
+	 * @param from the epoch milliseconds start of the window
+	 * @param to the epoch milliseconds end of the window
+	 * @return the series, its name being the metric name
+	 */
+	public synchronized MetricSeries query(long from, long to) {
+		int level = 0;
+		while (level < this.resolutions.length - 1
+				&& this.resolutions[level] * this.capacities[level] < to - from) {
+			level++;
+		}
+		long resolution = this.resolutions[level];
+		long head = this.heads[level];
+		long first = Math.max(Math.floorDiv(from, resolution), head - this.capacities[level] + 1);
+		long last = Math.min(Math.floorDiv(to, resolution), head);
+
+		int length = (head == EMPTY || last < first) ? 0 : (int) (last - first + 1);
+		long[] timestamps = new long[length];
+		double[] means = new double[length];
+		double[] maximums = new double[length];
+		int size = 0;
+		for (long bucket = first; size < length && bucket <= last; bucket++) {
+			int index = index(level, bucket);
+			if (this.counts[index] > 0) {
+				timestamps[size] = bucket * resolution;
+				means[size] = this.sums[index] / this.counts[index];
+				maximums[size] = this.maxs[index];
+				size++;
+			}
+		}
+		MetricSeries series = new MetricSeries(this.name, resolution);
+		series.setTimestamps(Arrays.copyOf(timestamps, size));
+		series.setMean(Arrays.copyOf(means, size));
+		series.setMax(Arrays.copyOf(maximums, size));
+		return series;
+	}
+
+	private int index(int level, long bucket) {
+		return this.offsets[level] + (int) Math.floorMod(bucket, (long) this.capacities[level]);
+	}
+
+	/**
+	 * A resolution of the series and the number of buckets it retains.
+	 */
+	public static final class Level {
+
+		private final long resolution;
+
+		private final int capacity;
+
+		/**
+		 * @param resolution the bucket interval in milliseconds
+		 * @param retention the time retained in milliseconds, rounded up to a whole bucket
+		 */
+		public Level(long resolution, long retention) {
+			Assert.isTrue(resolution > 0, "The rollup resolution must be positive");
+			Assert.isTrue(retention >= resolution, "The rollup retention must cover at least one bucket");
+			long capacity = (retention + resolution - 1) / resolution;
+			Assert.isTrue(capacity <= Integer.MAX_VALUE, "Too many rollup buckets");
+			this.resolution = resolution;
+			this.capacity = (int) capacity;
+		}
+
+		public long getResolution() {
+			return resolution;
+		}
+
+		public int getCapacity() {
+			return capacity;
+		}
+	}
+}
@@ -0,0 +1,110 @@
+/*
+ * Copyright 2018 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package org.springframework.cloud.dataflow.metrics.collector.services;
+
+import java.util.function.IntFunction;
+import java.util.function.ToIntFunction;
+
+/**
+ * Fixed width binary encoding of the property values of the readings: a type and 8 bytes
+ * holding a string index, a long or the bits of a double.
+ *
+ * @author Christian Tzolov
+ */
+final class PropertyValues {
+
+	/**
+	 * Encoded size of a value, its type and its bits.
+	 */
+	static final int SIZE = 1 + Long.BYTES;
+
+	private static final byte NULL = 'N';
+
+	private static final byte STRING = 'S';
+
+	private static final byte INTEGER = 'I';
+
+	private static final byte LONG = 'L';
+
+	private static final byte DOUBLE = 'D';
+
+	private static final byte BOOLEAN = 'Z';
+
+	private PropertyValues() {
+	}
+
+	static byte typeOf(Object value) {
+		if (value == null) {
+			return NULL;
+		}
+		if (value instanceof Integer) {
+			return INTEGER;
+		}
+		if (value instanceof Long || value instanceof Short || value instanceof Byte) {
+			return LONG;
+		}
+		if (value instanceof Number) {
+			return DOUBLE;
+		}
+		return (value instanceof Boolean) ? BOOLEAN : STRING;
+	}
+
+	/**
+	 * @param value the property value
+	 * @param strings returns the index of a string, other values being converted to strings
+	 * @return the bits of the value
+	 */
+	static long bitsOf(Object value, ToIntFunction<String> strings) {
+		switch (typeOf(value)) {
+		case NULL:
+			return 0;
+		case INTEGER:
+		case LONG:
+			return ((Number) value).longValue();
+		case DOUBLE:
+			return Double.doubleToRawLongBits(((Number) value).doubleValue());
+		case BOOLEAN:
+			return ((Boolean) value) ? 1 : 0;
+		default:
+			return strings.applyAsInt(value.toString());
+		}
+	}
+
+	/**
+	 * @param type the type of the value
+	 * @param bits the bits of the value
+	 * @param strings returns the string of an index
+	 * @return the decoded value
+	 */
+	static Object valueOf(byte type, long bits, IntFunction<String> strings) {
+		switch (type) {
+		case STRING:
+			return strings.apply((int) bits);
+		case INTEGER:
+			return (int) bits;
+		case LONG:
+			return bits;
+		case DOUBLE:
+			return Double.longBitsToDouble(bits);
+		case BOOLEAN:
+			return bits != 0;
+		default:
+			return null;
+		}
+	}
+}
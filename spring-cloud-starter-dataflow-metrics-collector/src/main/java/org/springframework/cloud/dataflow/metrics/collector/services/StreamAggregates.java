@@ -0,0 +1,152 @@
+/*
+ * Copyright 2018 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package org.springframework.cloud.dataflow.metrics.collector.services;
+
+import java.util.HashMap;
+import java.util.Map;
+import java.util.TreeMap;
+
+/**
+ * Channel send rates of a stream summed per application and over the whole stream. Each
+ * update of an instance adjusts the sums by the difference with the rates the instance
+ * contributed before, and its removal withdraws them, so reading the sums does not visit
+ * the instances.
+ *
+ * @author Christian Tzolov
+ */
+final class StreamAggregates {
+
+	private final Map<String, Contribution> contributions = new HashMap<>();
+
+	private final Map<String, Map<String, Sum>> applications = new HashMap<>();
+
+	private final Map<String, Sum> stream = new HashMap<>();
+
+	/**
+	 * Replaces the rates contributed by the instance of a history, including those of a
+	 * previous history with the same name.
+	 * @param history the updated history
+	 * @param application the application name of the history
+	 * @param rates the channel send rates of the latest reading, by metric name
+	 */
+	synchronized void update(ApplicationMetricsHistory history, String application, Map<String, Double> rates) {
+		Contribution previous = this.contributions.put(history.getName(),
+				new Contribution(history, application, rates));
+		if (previous != null) {
+			withdraw(previous);
+		}
+		Map<String, Sum> sums = this.applications.computeIfAbsent(application, key -> new HashMap<>());
+		for (Map.Entry<String, Double> rate : rates.entrySet()) {
+			sums.computeIfAbsent(rate.getKey(), key -> new Sum()).add(rate.getValue());
+			this.stream.computeIfAbsent(rate.getKey(), key -> new Sum()).add(rate.getValue());
+		}
+	}
+
+	/**
+	 * Withdraws the rates of a history, unless another history of the same name replaced it.
+	 * @param history the removed history
+	 */
+	synchronized void remove(ApplicationMetricsHistory history) {
+		Contribution contribution = this.contributions.get(history.getName());
+		if (contribution != null && contribution.history == history) {
+			this.contributions.remove(history.getName());
+			withdraw(contribution);
+		}
+	}
+
+	/**
+	 * @param application the application name
+	 * @return the channel send rates summed over the instances of the application, sorted by
+	 * metric name
+	 */
+	synchronized Map<String, Double> getApplicationRates(String application) {
+		return toRates(this.applications.get(application));
+	}
+
+	/**
+	 * @return the channel send rates summed over the applications of the stream, sorted by
+	 * metric name
+	 */
+	synchronized Map<String, Double> getStreamRates() {
+		return toRates(this.stream);
+	}
+
+	private void withdraw(Contribution contribution) {
+		Map<String, Sum> sums = this.applications.get(contribution.application);
+		for (Map.Entry<String, Double> rate : contribution.rates.entrySet()) {
+			subtract(sums, rate.getKey(), rate.getValue());
+			subtract(this.stream, rate.getKey(), rate.getValue());
+		}
+		if (sums != null && sums.isEmpty()) {
+			this.applications.remove(contribution.application);
+		}
+	}
+
+	/**
+	 * Drops the sum along with its last term, so the rounding errors of the differences do
+	 * not outlive the instances.
+	 */
+	private static void subtract(Map<String, Sum> sums, String name, double value) {
+		Sum sum = (sums != null) ? sums.get(name) : null;
+		if (sum != null && sum.subtract(value) == 0) {
+			sums.remove(name);
+		}
+	}
+
+	private static Map<String, Double> toRates(Map<String, Sum> sums) {
+		Map<String, Double> rates = new TreeMap<>();
+		if (sums != null) {
+			for (Map.Entry<String, Sum> sum : sums.entrySet()) {
+				rates.put(sum.getKey(), sum.getValue().value);
+			}
+		}
+		return rates;
+	}
+
+	private static final class Contribution {
+
+		private final ApplicationMetricsHistory history;
+
+		private final String application;
+
+		private final Map<String, Double> rates;
+
+		Contribution(ApplicationMetricsHistory history, String application, Map<String, Double> rates) {
+			this.history = history;
+			this.application = application;
+			this.rates = rates;
+		}
+	}
+
+	private static final class Sum {
+
+		private double value;
+
+		private int terms;
+
+		void add(double value) {
+			this.value += value;
+			this.terms++;
+		}
+
+		int subtract(double value) {
+			this.value -= value;
+			return --this.terms;
+		}
+	}
+}
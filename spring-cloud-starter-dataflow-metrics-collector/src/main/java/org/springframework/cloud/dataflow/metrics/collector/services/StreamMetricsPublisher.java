@@ -0,0 +1,367 @@
+/*
+ * Copyright 2018 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.springframework.cloud.dataflow.metrics.collector.services;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import org.springframework.beans.factory.DisposableBean;
+import org.springframework.cloud.dataflow.metrics.collector.model.Application;
+import org.springframework.cloud.dataflow.metrics.collector.model.ApplicationMetrics;
+import org.springframework.cloud.dataflow.metrics.collector.model.StreamMetrics;
+import org.springframework.util.Assert;
+
+/**
+ * Pushes the instances updated in the {@link ApplicationMetricsService} to the subscribers
+ * of their streams.
+ *
+ * Each subscription buffers the histories updated since its last push, keyed by instance,
+ * so the updates of an instance are coalesced into its latest state. A subscription is
+ * pushed at most once per interval, each push sending one {@link StreamMetrics} per
+ * stream holding only the updated instances. The buffer is bounded, the oldest instances
+ * being dropped when a subscriber falls behind.
+ *
+ * The pushes are scheduled on a single thread and run on a fixed pool of dispatch threads,
+ * one push at a time per subscription, so that a slow subscriber only holds a dispatch
+ * thread. A subscription whose push does not complete within the send timeout is
+ * cancelled, and the number of subscriptions is bounded.
+ *
+ * @author Christian Tzolov
+ */
+public class StreamMetricsPublisher implements ApplicationMetricsListener, DisposableBean {
+
+	private final Logger logger = LoggerFactory.getLogger(StreamMetricsPublisher.class);
+
+	private final ApplicationMetricsService service;
+
+	private final long interval;
+
+	private final int bufferSize;
+
+	private final long sendTimeout;
+
+	private final ScheduledExecutorService scheduler;
+
+	private final int maxSubscribers;
+
+	private final ExecutorService dispatcher;
+
+	/**
+	 * Notifies the timed out subscribers, which may block as long as their pushes, at most
+	 * one per dispatch thread.
+	 */
+	private final ExecutorService timeouts;
+
+	private final AtomicInteger subscribers = new AtomicInteger();
+
+	private final ConcurrentMap<String, Set<Subscription>> subscriptions = new ConcurrentHashMap<>();
+
+	public StreamMetricsPublisher(ApplicationMetricsService service, long interval, int bufferSize) {
+		this(service, interval, bufferSize, 10000, 100, 4);
+	}
+
+	/**
+	 * @param service the service converting the updated histories
+	 * @param interval minimum time (in milliseconds) between two pushes to a subscriber
+	 * @param bufferSize maximum number of updated instances buffered per subscriber
+	 * @param sendTimeout maximum time (in milliseconds) of a push before the subscription is
+	 * cancelled
+	 * @param maxSubscribers maximum number of subscriptions
+	 * @param threads number of dispatch threads
+	 */
+	public StreamMetricsPublisher(ApplicationMetricsService service, long interval, int bufferSize,
+			long sendTimeout, int maxSubscribers, int threads) {
+		Assert.isTrue(interval >= 0, "The push interval must not be negative");
+		Assert.isTrue(bufferSize > 0, "The buffer size must be positive");
+		Assert.isTrue(sendTimeout > 0, "The send timeout must be positive");
+		Assert.isTrue(maxSubscribers > 0, "The maximum number of subscribers must be positive");
+		Assert.isTrue(threads > 0, "The number of dispatch threads must be positive");
+		this.service = service;
+		this.interval = interval;
+		this.bufferSize = bufferSize;
+		this.sendTimeout = sendTimeout;
+		this.maxSubscribers = maxSubscribers;
+		this.scheduler = Executors.newSingleThreadScheduledExecutor(runnable -> {
+			Thread thread = new Thread(runnable, "metrics-collector-publisher");
+			thread.setDaemon(true);
+			return thread;
+		});
+		this.dispatcher = Executors.newFixedThreadPool(threads, threadFactory("metrics-collector-publisher-"));
+		this.timeouts = Executors.newFixedThreadPool(threads, threadFactory("metrics-collector-publisher-timeout-"));
+	}
+
+	private static ThreadFactory threadFactory(String prefix) {
+		AtomicInteger threads = new AtomicInteger();
+		return runnable -> {
+			Thread thread = new Thread(runnable, prefix + threads.incrementAndGet());
+			thread.setDaemon(true);
+			return thread;
+		};
+	}
+
+	/**
+	 * Subscribes to the updates of the given streams.
+	 * @param streamNames the names of the streams
+	 * @param subscriber receives the updates, the subscription being cancelled if it fails
+	 * @return the subscription, null if the maximum number of subscriptions is reached
+	 */
+	public Subscription subscribe(Collection<String> streamNames, Subscriber subscriber) {
+		Assert.notEmpty(streamNames, "At least one stream name is required");
+		if (this.subscribers.incrementAndGet() > this.maxSubscribers) {
+			this.subscribers.decrementAndGet();
+			return null;
+		}
+		Subscription subscription = new Subscription(new ArrayList<>(streamNames), subscriber);
+		for (String streamName : subscription.streamNames) {
+			this.subscriptions.computeIfAbsent(streamName, name -> ConcurrentHashMap.newKeySet()).add(subscription);
+		}
+		return subscription;
+	}
+
+	@Override
+	public void onUpdate(ApplicationMetricsHistory history) {
+		Set<Subscription> subscribers = this.subscriptions
+				.get(String.valueOf(history.getProperties().get(ApplicationMetrics.STREAM_NAME)));
+		if (subscribers != null) {
+			for (Subscription subscription : subscribers) {
+				subscription.offer(history);
+			}
+		}
+	}
+
+	@Override
+	public void destroy() {
+		this.scheduler.shutdownNow();
+		this.dispatcher.shutdownNow();
+		this.timeouts.shutdownNow();
+		for (Set<Subscription> subscribers : this.subscriptions.values()) {
+			for (Subscription subscription : subscribers) {
+				subscription.cancel();
+			}
+		}
+	}
+
+	/**
+	 * Groups the updated histories per stream and application.
+	 */
+	private List<StreamMetrics> toStreamMetrics(Collection<ApplicationMetricsHistory> histories) {
+		Map<String, StreamMetrics> streams = new LinkedHashMap<>();
+		Map<String, Application> applications = new LinkedHashMap<>();
+		for (ApplicationMetricsHistory history : histories) {
+			String streamName = String.valueOf(history.getProperties().get(ApplicationMetrics.STREAM_NAME));
+			String applicationName = String.valueOf(history.getProperties().get(ApplicationMetrics.APPLICATION_NAME));
+			StreamMetrics streamMetrics = streams.computeIfAbsent(streamName, StreamMetrics::new);
+			Application application = applications.computeIfAbsent(streamName + "." + applicationName, key -> {
+				Application created = new Application(applicationName);
+				streamMetrics.getApplications().add(created);
+				return created;
+			});
+			application.getInstances().add(this.service.toInstance(history));
+		}
+		return new ArrayList<>(streams.values());
+	}
+
+	/**
+	 * Receives the updated instances of the subscribed streams.
+	 */
+	@FunctionalInterface
+	public interface Subscriber {
+
+		/**
+		 * @param streamMetrics the updated instances of a stream
+		 * @throws IOException if the update could not be delivered, cancelling the
+		 * subscription
+		 */
+		void send(StreamMetrics streamMetrics) throws IOException;
+
+		/**
+		 * Called from another thread when a push did not complete within the send timeout,
+		 * once the subscription is cancelled. The push may still be blocked in
+		 * {@link #send(StreamMetrics)}.
+		 */
+		default void sendTimedOut() {
+		}
+	}
+
+	public final class Subscription {
+
+		private final List<String> streamNames;
+
+		private final Subscriber subscriber;
+
+		private LinkedHashMap<String, ApplicationMetricsHistory> pending = new LinkedHashMap<>();
+
+		private boolean scheduled;
+
+		private boolean cancelled;
+
+		private long lastPush;
+
+		private long completedPushes;
+
+		private long dropped;
+
+		private Subscription(List<String> streamNames, Subscriber subscriber) {
+			this.streamNames = streamNames;
+			this.subscriber = subscriber;
+		}
+
+		private synchronized void offer(ApplicationMetricsHistory history) {
+			if (this.cancelled) {
+				return;
+			}
+			if (!this.pending.containsKey(history.getName()) && this.pending.size() >= bufferSize) {
+				Iterator<ApplicationMetricsHistory> oldest = this.pending.values().iterator();
+				oldest.next();
+				oldest.remove();
+				this.dropped++;
+			}
+			this.pending.put(history.getName(), history);
+			if (!this.scheduled) {
+				this.scheduled = true;
+				schedule();
+			}
+		}
+
+		/**
+		 * Schedules the next push, the lock being held.
+		 */
+		private void schedule() {
+			long delay = Math.max(0, this.lastPush + interval - System.currentTimeMillis());
+			try {
+				scheduler.schedule(this::dispatch, delay, TimeUnit.MILLISECONDS);
+			}
+			catch (RejectedExecutionException e) {
+				// shut down
+				cancel();
+			}
+		}
+
+		private void dispatch() {
+			try {
+				dispatcher.execute(this::push);
+			}
+			catch (RejectedExecutionException e) {
+				// shut down
+				cancel();
+			}
+		}
+
+		private void push() {
+			Collection<ApplicationMetricsHistory> histories;
+			long push;
+			synchronized (this) {
+				if (this.cancelled) {
+					return;
+				}
+				push = this.completedPushes + 1;
+				histories = this.pending.values();
+				this.pending = new LinkedHashMap<>();
+				this.lastPush = System.currentTimeMillis();
+			}
+			ScheduledFuture<?> timeout = null;
+			try {
+				timeout = scheduler.schedule(() -> timeouts.execute(() -> timeout(push)), sendTimeout,
+						TimeUnit.MILLISECONDS);
+				for (StreamMetrics streamMetrics : toStreamMetrics(histories)) {
+					this.subscriber.send(streamMetrics);
+				}
+			}
+			catch (IOException | RuntimeException e) {
+				logger.debug("Cancelling the subscription to " + this.streamNames, e);
+				cancel();
+			}
+			finally {
+				if (timeout != null) {
+					timeout.cancel(false);
+				}
+			}
+			synchronized (this) {
+				this.completedPushes = push;
+				// the updates received during the push
+				if (!this.cancelled && !this.pending.isEmpty()) {
+					schedule();
+				}
+				else {
+					this.scheduled = false;
+				}
+			}
+		}
+
+		private void timeout(long push) {
+			synchronized (this) {
+				if (this.cancelled || this.completedPushes >= push) {
+					return;
+				}
+			}
+			logger.debug("Cancelling the subscription to {}, a push took more than {} ms", this.streamNames,
+					sendTimeout);
+			cancel();
+			this.subscriber.sendTimedOut();
+		}
+
+		/**
+		 * Stops the updates and releases the buffered ones.
+		 */
+		public void cancel() {
+			synchronized (this) {
+				if (this.cancelled) {
+					return;
+				}
+				this.cancelled = true;
+				this.pending.clear();
+			}
+			subscribers.decrementAndGet();
+			for (String streamName : this.streamNames) {
+				subscriptions.computeIfPresent(streamName, (name, subscribers) -> {
+					subscribers.remove(this);
+					return subscribers.isEmpty() ? null : subscribers;
+				});
+			}
+		}
+
+		public synchronized boolean isCancelled() {
+			return this.cancelled;
+		}
+
+		/**
+		 * @return the number of instance updates dropped because the buffer was full
+		 */
+		public synchronized long getDropped() {
+			return this.dropped;
+		}
+	}
+}
@@ -0,0 +1,64 @@
+/*
+ * Copyright 2018 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.springframework.cloud.dataflow.metrics.collector.services;
+
+import java.util.Map;
+
+import org.springframework.cloud.dataflow.metrics.collector.model.StreamMetrics;
+
+/**
+ * A {@link StreamMetrics} view built at a given generation of an indexed stream, along
+ * with the histories it was built from.
+ *
+ * @author Christian Tzolov
+ */
+final class StreamMetricsSnapshot {
+
+	private final long generation;
+
+	private final StreamMetrics streamMetrics;
+
+	private final ApplicationMetricsHistory[] members;
+
+	StreamMetricsSnapshot(long generation, StreamMetrics streamMetrics, ApplicationMetricsHistory[] members) {
+		this.generation = generation;
+		this.streamMetrics = streamMetrics;
+		this.members = members;
+	}
+
+	long getGeneration() {
+		return generation;
+	}
+
+	StreamMetrics getStreamMetrics() {
+		return streamMetrics;
+	}
+
+	/**
+	 * @param storage the live histories
+	 * @return true if every history of the snapshot is still the live one for its name, an
+	 * expired history being reported as absent by the storage even before its eviction
+	 */
+	boolean isLive(Map<String, ApplicationMetricsHistory> storage) {
+		for (ApplicationMetricsHistory member : this.members) {
+			if (storage.get(member.getName()) != member) {
+				return false;
+			}
+		}
+		return true;
+	}
+}
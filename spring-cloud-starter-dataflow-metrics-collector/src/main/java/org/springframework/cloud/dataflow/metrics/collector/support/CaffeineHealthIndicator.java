@@ -23,13 +23,16 @@ import org.springframework.boot.actuate.health.AbstractHealthIndicator;
 import org.springframework.boot.actuate.health.Health;
 
 /**
+ * Reports the storage statistics and, when it is bounded, its estimated size and maximum.
+ *
  * @author Vinicius Carvalho
+ * @author Christian Tzolov
  */
 public class CaffeineHealthIndicator extends AbstractHealthIndicator {
 
-	private Cache cache;
+	private Cache<?, ?> cache;
 
-	public CaffeineHealthIndicator(Cache cache) {
+	public CaffeineHealthIndicator(Cache<?, ?> cache) {
 		this.cache = cache;
 	}
 
@@ -40,5 +43,10 @@ public class CaffeineHealthIndicator extends AbstractHealthIndicator {
 		builder.up().withDetail("hitRate", stats.hitRate());
 		builder.up().withDetail("missRate", stats.missRate());
 		builder.up().withDetail("hitCount", stats.hitCount());
+		this.cache.policy().eviction().ifPresent(eviction -> {
+			builder.withDetail("evictionWeight", stats.evictionWeight());
+			builder.withDetail("maximumWeight", eviction.getMaximum());
+			eviction.weightedSize().ifPresent(weightedSize -> builder.withDetail("weightedSize", weightedSize));
+		});
 	}
 }
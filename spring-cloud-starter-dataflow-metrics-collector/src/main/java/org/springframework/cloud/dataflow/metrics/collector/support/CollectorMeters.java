@@ -0,0 +1,186 @@
+/*
+ * Copyright 2018 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.springframework.cloud.dataflow.metrics.collector.support;
+
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.TimeUnit;
+
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.DistributionSummary;
+import io.micrometer.core.instrument.FunctionCounter;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Timer;
+import io.micrometer.core.instrument.composite.CompositeMeterRegistry;
+
+import org.springframework.cloud.dataflow.metrics.collector.model.ApplicationMetrics;
+import org.springframework.cloud.dataflow.metrics.collector.services.ApplicationMetricsJournal;
+import org.springframework.cloud.dataflow.metrics.collector.utils.StringDictionary;
+
+/**
+ * Meters of the collector own hot paths, registered once so recording costs a lookup-free
+ * update of a pre-bound meter. The durations are measured by the callers with
+ * {@link System#nanoTime()}.
+ *
+ * <ul>
+ * <li>{@code collector.payload.parse}: payload decoding time</li>
+ * <li>{@code collector.payload.size}: payload size, in bytes or chars for String payloads</li>
+ * <li>{@code collector.payload.decoded}: decoded payloads, tagged by metrics version</li>
+ * <li>{@code collector.payload.invalid}: payloads that are not valid metrics Json</li>
+ * <li>{@code collector.storage.add}: update time of an instance history</li>
+ * <li>{@code collector.storage.wait}: time spent waiting for the instance entry lock</li>
+ * <li>{@code collector.query}: stream metrics query time</li>
+ * <li>{@code collector.query.instances}: instances returned per query</li>
+ * <li>{@code collector.response.write}: response serialization time, from the first
+ * written byte</li>
+ * <li>{@code collector.response.size}: response size in bytes</li>
+ * <li>{@code collector.meters.dictionary.size}: strings of the stored meters, when
+ * monitored</li>
+ * <li>{@code collector.meters.dictionary.refused}: meter strings refused by the full
+ * dictionary, when monitored</li>
+ * <li>{@code collector.journal.dropped}: readings dropped by the journal as its writer
+ * fell behind, when monitored</li>
+ * </ul>
+ *
+ * @author Christian Tzolov
+ */
+public class CollectorMeters {
+
+	/**
+	 * Records nothing, for components created without a {@link MeterRegistry}.
+	 */
+	public static final CollectorMeters NOOP = new CollectorMeters(new CompositeMeterRegistry());
+
+	private final MeterRegistry registry;
+
+	private final Timer parse;
+
+	private final DistributionSummary payloadSize;
+
+	private final ConcurrentMap<String, Counter> decoded = new ConcurrentHashMap<>();
+
+	private final Counter invalid;
+
+	private final Timer storageAdd;
+
+	private final Timer storageWait;
+
+	private final Timer query;
+
+	private final DistributionSummary queryInstances;
+
+	private final Timer responseWrite;
+
+	private final DistributionSummary responseSize;
+
+	public CollectorMeters(MeterRegistry registry) {
+		this.registry = registry;
+		this.parse = Timer.builder("collector.payload.parse").description("Payload decoding time")
+				.register(registry);
+		this.payloadSize = DistributionSummary.builder("collector.payload.size").baseUnit("bytes")
+				.description("Payload size").register(registry);
+		this.invalid = Counter.builder("collector.payload.invalid").description("Invalid metrics payloads")
+				.register(registry);
+		this.storageAdd = Timer.builder("collector.storage.add").description("Instance history update time")
+				.register(registry);
+		this.storageWait = Timer.builder("collector.storage.wait")
+				.description("Time spent waiting for the instance entry lock").register(registry);
+		this.query = Timer.builder("collector.query").description("Stream metrics query time").register(registry);
+		this.queryInstances = DistributionSummary.builder("collector.query.instances")
+				.description("Instances returned per stream metrics query").register(registry);
+		this.responseWrite = Timer.builder("collector.response.write").description("Response serialization time")
+				.register(registry);
+		this.responseSize = DistributionSummary.builder("collector.response.size").baseUnit("bytes")
+				.description("Response size").register(registry);
+		decoded(ApplicationMetrics.METRICS_VERSION_1);
+		decoded(ApplicationMetrics.METRICS_VERSION_2);
+	}
+
+	/**
+	 * @param nanos the decoding time
+	 * @param size the payload size
+	 * @param metricsVersion the decoded metrics version
+	 */
+	public void recordPayload(long nanos, int size, String metricsVersion) {
+		this.parse.record(nanos, TimeUnit.NANOSECONDS);
+		this.payloadSize.record(size);
+		decoded(String.valueOf(metricsVersion)).increment();
+	}
+
+	public void recordInvalidPayload() {
+		this.invalid.increment();
+	}
+
+	/**
+	 * @param nanos the time before the entry lock was acquired
+	 */
+	public void recordStorageWait(long nanos) {
+		this.storageWait.record(nanos, TimeUnit.NANOSECONDS);
+	}
+
+	/**
+	 * @param nanos the whole update time, lock wait included
+	 */
+	public void recordStorageAdd(long nanos) {
+		this.storageAdd.record(nanos, TimeUnit.NANOSECONDS);
+	}
+
+	/**
+	 * @param nanos the query time
+	 * @param instances the number of instances returned
+	 */
+	public void recordQuery(long nanos, int instances) {
+		this.query.record(nanos, TimeUnit.NANOSECONDS);
+		this.queryInstances.record(instances);
+	}
+
+	/**
+	 * @param nanos the time from the first written byte to the end of the response
+	 * @param bytes the response size
+	 */
+	public void recordResponse(long nanos, long bytes) {
+		this.responseWrite.record(nanos, TimeUnit.NANOSECONDS);
+		this.responseSize.record(bytes);
+	}
+
+	/**
+	 * Registers the size and the refused strings of the dictionary of the stored meters.
+	 * @param dictionary the meters dictionary
+	 */
+	public void monitor(StringDictionary dictionary) {
+		Gauge.builder("collector.meters.dictionary.size", dictionary, StringDictionary::size)
+				.description("Distinct strings of the stored meters").register(this.registry);
+		FunctionCounter.builder("collector.meters.dictionary.refused", dictionary, StringDictionary::getRefused)
+				.description("Meter strings refused by the full dictionary").register(this.registry);
+	}
+
+	public void monitor(ApplicationMetricsJournal journal) {
+		FunctionCounter.builder("collector.journal.dropped", journal, ApplicationMetricsJournal::getDropped)
+				.description("Readings dropped as the journal writer fell behind").register(this.registry);
+	}
+
+	private Counter decoded(String metricsVersion) {
+		Counter counter = this.decoded.get(metricsVersion);
+		if (counter == null) {
+			counter = this.decoded.computeIfAbsent(metricsVersion, version -> Counter
+					.builder("collector.payload.decoded").tag("version", version)
+					.description("Decoded payloads per metrics version").register(this.registry));
+		}
+		return counter;
+	}
+}
@@ -1,5 +1,5 @@
 /*
- * Copyright 2017 the original author or authors.
+ * Copyright 2017-2018 the original author or authors.
  *
  * Licensed under the Apache License, Version 2.0 (the "License");
  * you may not use this file except in compliance with the License.
@@ -17,14 +17,13 @@
 package org.springframework.cloud.dataflow.metrics.collector.support;
 
 import java.io.IOException;
-import java.text.DateFormat;
-import java.text.DecimalFormat;
-import java.text.ParseException;
-import java.text.SimpleDateFormat;
+import java.math.BigDecimal;
+import java.math.RoundingMode;
+import java.time.Instant;
+import java.time.ZoneOffset;
+import java.time.format.DateTimeFormatter;
+import java.time.format.DateTimeParseException;
 import java.util.Date;
-import java.util.TimeZone;
-import java.util.concurrent.BlockingQueue;
-import java.util.concurrent.LinkedBlockingQueue;
 
 import com.fasterxml.jackson.core.JsonGenerator;
 import com.fasterxml.jackson.core.JsonParser;
@@ -40,12 +39,33 @@ import org.springframework.boot.jackson.JsonComponent;
 import org.springframework.cloud.dataflow.metrics.collector.model.Metric;
 
 /**
+ * Writes the {@link Metric} values rounded to {@link #PRECISION} decimals and the
+ * timestamps as ISO-8601 UTC strings with milliseconds, e.g. 2018-03-01T10:15:30.042Z.
+ *
  * @author Vinicius Carvalho
+ * @author Christian Tzolov
  */
 @JsonComponent
 public class MetricJsonSerializer {
 
-	private static final BlockingQueue<InternalFormatters> formattersQueue = new LinkedBlockingQueue<InternalFormatters>();
+	/**
+	 * Number of decimals of the serialized metric values.
+	 */
+	public static final int PRECISION = 2;
+
+	private static final double SCALE = Math.pow(10, PRECISION);
+
+	/**
+	 * Values at or above this magnitude have no fraction digits left to round.
+	 */
+	private static final double MAX_ROUNDED = (1L << 52) / SCALE;
+
+	private static final double TIE_TOLERANCE = 1e-6;
+
+	private static final DateTimeFormatter TIMESTAMP_FORMAT = DateTimeFormatter
+			.ofPattern("yyyy-MM-dd'T'HH:mm:ss.SSSX").withZone(ZoneOffset.UTC);
+
+	private static final ThreadLocal<char[]> timestampBuffer = ThreadLocal.withInitial(() -> new char[24]);
 
 	public static class Serializer extends JsonSerializer<Metric> {
 
@@ -53,21 +73,22 @@ public class MetricJsonSerializer {
 		public void serialize(Metric metric, JsonGenerator json, SerializerProvider serializerProvider)
 				throws IOException {
 			json.writeStartObject();
-			InternalFormatters formatters = formattersQueue.poll();
-			if (formatters == null) {
-				formatters = new InternalFormatters();
-			}
 			json.writeStringField("name", metric.getName());
-			try {
-				json.writeNumberField("value", formatters.getDecimalFormat()
-						.parse(formatters.getDecimalFormat().format(metric.getValue().doubleValue())).doubleValue());
+			json.writeFieldName("value");
+			if (metric.getValue() == null || !Double.isFinite(metric.getValue().doubleValue())) {
+				json.writeNull();
+			}
+			else {
+				json.writeNumber(round(metric.getValue().doubleValue()));
+			}
+			json.writeFieldName("timestamp");
+			if (metric.getTimestamp() == null) {
+				json.writeNull();
 			}
-			catch (ParseException e) {
-				e.printStackTrace();
+			else {
+				writeTimestamp(metric.getTimestamp().getTime(), json);
 			}
-			json.writeStringField("timestamp", formatters.getDateFormat().format(metric.getTimestamp()));
 			json.writeEndObject();
-			formattersQueue.offer(formatters);
 		}
 	}
 
@@ -79,19 +100,7 @@ public class MetricJsonSerializer {
 			JsonNode node = p.getCodec().readTree(p);
 			String name = node.get("name").asText();
 			Number value = node.get("value").asDouble();
-			Date timestamp = null;
-			InternalFormatters formatters = formattersQueue.poll();
-			if (formatters == null) {
-				formatters = new InternalFormatters();
-			}
-			try {
-				timestamp = formatters.getDateFormat().parse(node.get("timestamp").asText());
-			}
-			catch (ParseException e) {
-			}
-			finally {
-				formattersQueue.offer(formatters);
-			}
+			Date timestamp = parseTimestamp(node.get("timestamp"));
 			Metric<Number> metric = new Metric(name, value, timestamp);
 
 			return metric;
@@ -99,25 +108,87 @@ public class MetricJsonSerializer {
 
 	}
 
-	static class InternalFormatters {
-
-		final DateFormat dateFormat;
-
-		final DecimalFormat decimalFormat;
-
-		public InternalFormatters() {
-			this.dateFormat = new SimpleDateFormat("yyyy-MM-dd'T'HH:mm:ss.SSSX");
-			this.dateFormat.setTimeZone(TimeZone.getTimeZone("GMT"));
-			this.decimalFormat = new DecimalFormat("#.##");
+	/**
+	 * Rounds half to even to {@link #PRECISION} decimals, as the DecimalFormat previously used.
+	 * The scaling may round the product, so values close to a tie are rounded from their
+	 * exact decimal expansion instead.
+	 */
+	static double round(double value) {
+		if (Math.abs(value) >= MAX_ROUNDED) {
+			return value;
+		}
+		double scaled = value * SCALE;
+		double fraction = Math.abs(scaled - Math.floor(scaled) - 0.5);
+		if (fraction < TIE_TOLERANCE) {
+			return new BigDecimal(value).setScale(PRECISION, RoundingMode.HALF_EVEN).doubleValue();
 		}
+		return Math.rint(scaled) / SCALE;
+	}
 
-		public DateFormat getDateFormat() {
-			return dateFormat;
+	/**
+	 * Writes the timestamp from a per thread buffer, years outside 0000-9999 falling back to
+	 * the formatter.
+	 */
+	static void writeTimestamp(long epochMillis, JsonGenerator json) throws IOException {
+		long epochDay = Math.floorDiv(epochMillis, 86400000L);
+		int millisOfDay = (int) Math.floorMod(epochMillis, 86400000L);
+
+		// civil date from days since 1970-01-01, in 400 years eras starting on March 1st
+		long days = epochDay + 719468;
+		long era = Math.floorDiv(days, 146097);
+		int dayOfEra = (int) (days - era * 146097);
+		int yearOfEra = (dayOfEra - dayOfEra / 1460 + dayOfEra / 36524 - dayOfEra / 146096) / 365;
+		int dayOfYear = dayOfEra - (365 * yearOfEra + yearOfEra / 4 - yearOfEra / 100);
+		int shiftedMonth = (5 * dayOfYear + 2) / 153;
+		int day = dayOfYear - (153 * shiftedMonth + 2) / 5 + 1;
+		int month = shiftedMonth < 10 ? shiftedMonth + 3 : shiftedMonth - 9;
+		long year = yearOfEra + era * 400 + (month <= 2 ? 1 : 0);
+
+		if (year < 0 || year > 9999) {
+			json.writeString(TIMESTAMP_FORMAT.format(Instant.ofEpochMilli(epochMillis)));
+			return;
 		}
+		char[] buffer = timestampBuffer.get();
+		digits(buffer, 0, (int) year, 4);
+		buffer[4] = '-';
+		digits(buffer, 5, month, 2);
+		buffer[7] = '-';
+		digits(buffer, 8, day, 2);
+		buffer[10] = 'T';
+		digits(buffer, 11, millisOfDay / 3600000, 2);
+		buffer[13] = ':';
+		digits(buffer, 14, millisOfDay / 60000 % 60, 2);
+		buffer[16] = ':';
+		digits(buffer, 17, millisOfDay / 1000 % 60, 2);
+		buffer[19] = '.';
+		digits(buffer, 20, millisOfDay % 1000, 3);
+		buffer[23] = 'Z';
+		json.writeString(buffer, 0, buffer.length);
+	}
 
-		public DecimalFormat getDecimalFormat() {
-			return decimalFormat;
+	private static void digits(char[] buffer, int offset, int value, int length) {
+		for (int i = offset + length - 1; i >= offset; i--) {
+			buffer[i] = (char) ('0' + value % 10);
+			value /= 10;
 		}
 	}
 
+	/**
+	 * Reads an ISO-8601 timestamp, with any offset, or epoch milliseconds.
+	 * @return the timestamp, null if missing or invalid
+	 */
+	static Date parseTimestamp(JsonNode node) {
+		if (node == null || node.isNull()) {
+			return null;
+		}
+		if (node.isIntegralNumber()) {
+			return new Date(node.asLong());
+		}
+		try {
+			return Date.from(DateTimeFormatter.ISO_OFFSET_DATE_TIME.parse(node.asText(), Instant::from));
+		}
+		catch (DateTimeParseException e) {
+			return null;
+		}
+	}
 }
@@ -0,0 +1,126 @@
+/*
+ * Copyright 2018 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package org.springframework.cloud.dataflow.metrics.collector.support;
+
+import java.io.IOException;
+
+import javax.servlet.FilterChain;
+import javax.servlet.ServletException;
+import javax.servlet.ServletOutputStream;
+import javax.servlet.WriteListener;
+import javax.servlet.http.HttpServletRequest;
+import javax.servlet.http.HttpServletResponse;
+import javax.servlet.http.HttpServletResponseWrapper;
+
+import org.springframework.web.filter.OncePerRequestFilter;
+
+/**
+ * Records the size and the serialization time of the responses. The serialization is
+ * timed from the first byte written to the end of the request, so the time spent
+ * querying the metrics before the body is written is not included.
+ *
+ * @author Christian Tzolov
+ */
+public class ResponseMetricsFilter extends OncePerRequestFilter {
+
+	private final CollectorMeters meters;
+
+	public ResponseMetricsFilter(CollectorMeters meters) {
+		this.meters = meters;
+	}
+
+	@Override
+	protected void doFilterInternal(HttpServletRequest request, HttpServletResponse response, FilterChain chain)
+			throws ServletException, IOException {
+		CountingResponse countingResponse = new CountingResponse(response);
+		chain.doFilter(request, countingResponse);
+		CountingOutputStream out = countingResponse.out;
+		if (out != null && out.count > 0) {
+			this.meters.recordResponse(System.nanoTime() - out.firstWrite, out.count);
+		}
+	}
+
+	private static class CountingResponse extends HttpServletResponseWrapper {
+
+		private CountingOutputStream out;
+
+		CountingResponse(HttpServletResponse response) {
+			super(response);
+		}
+
+		@Override
+		public ServletOutputStream getOutputStream() throws IOException {
+			if (this.out == null) {
+				this.out = new CountingOutputStream(super.getOutputStream());
+			}
+			return this.out;
+		}
+	}
+
+	private static class CountingOutputStream extends ServletOutputStream {
+
+		private final ServletOutputStream delegate;
+
+		private long firstWrite;
+
+		private long count;
+
+		CountingOutputStream(ServletOutputStream delegate) {
+			this.delegate = delegate;
+		}
+
+		@Override
+		public void write(int b) throws IOException {
+			written(1);
+			this.delegate.write(b);
+		}
+
+		@Override
+		public void write(byte[] b, int off, int len) throws IOException {
+			written(len);
+			this.delegate.write(b, off, len);
+		}
+
+		@Override
+		public void flush() throws IOException {
+			this.delegate.flush();
+		}
+
+		@Override
+		public void close() throws IOException {
+			this.delegate.close();
+		}
+
+		@Override
+		public boolean isReady() {
+			return this.delegate.isReady();
+		}
+
+		@Override
+		public void setWriteListener(WriteListener writeListener) {
+			this.delegate.setWriteListener(writeListener);
+		}
+
+		private void written(int len) {
+			if (this.count == 0) {
+				this.firstWrite = System.nanoTime();
+			}
+			this.count += len;
+		}
+	}
+}
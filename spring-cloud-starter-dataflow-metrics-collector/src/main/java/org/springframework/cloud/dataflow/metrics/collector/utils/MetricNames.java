@@ -0,0 +1,173 @@
+/*
+ * Copyright 2018 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.springframework.cloud.dataflow.metrics.collector.utils;
+
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+
+/**
+ * Classifies the Spring Integration channel metric names without regular expressions.
+ *
+ * A channel metric name is {@code integration.channel.<channel>.<suffix>}, where the
+ * channel name is made of word characters ({@code [a-zA-Z_0-9]*}). The names derived from
+ * another name are cached, the cache being cleared once it holds too many names.
+ *
+ * @author Christian Tzolov
+ */
+public final class MetricNames {
+
+	public static final String CHANNEL_PREFIX = "integration.channel.";
+
+	public static final String SEND_MEAN_SUFFIX = ".send.mean";
+
+	public static final String SEND_COUNT_SUFFIX = ".sendCount";
+
+	public static final String SEND_DURATION_MEAN_SUFFIX = ".send.duration.mean";
+
+	public static final String SEND_DURATION_MAX_SUFFIX = ".send.duration.max";
+
+	static final int MAX_CACHED_NAMES = 10000;
+
+	private static final ConcurrentMap<String, String> channelSendMeanNames = new ConcurrentHashMap<>();
+
+	private static final ConcurrentMap<String, String> sendCountSendMeanNames = new ConcurrentHashMap<>();
+
+	private static final ConcurrentMap<String, String> channelSendDurationMeanNames = new ConcurrentHashMap<>();
+
+	private static final ConcurrentMap<String, String> channelSendDurationMaxNames = new ConcurrentHashMap<>();
+
+	private MetricNames() {
+	}
+
+	/**
+	 * @param name a metric name
+	 * @return true if the name is a channel send rate, e.g. integration.channel.output.send.mean
+	 */
+	public static boolean isChannelSendMean(String name) {
+		return isChannelMetric(name, SEND_MEAN_SUFFIX);
+	}
+
+	/**
+	 * @param name a metric name
+	 * @return true if the name is a channel send count, e.g. integration.channel.output.sendCount
+	 */
+	public static boolean isChannelSendCount(String name) {
+		return isChannelMetric(name, SEND_COUNT_SUFFIX);
+	}
+
+	/**
+	 * @param name a metric name
+	 * @return true if the name is a channel send latency, i.e. its mean or maximum
+	 */
+	public static boolean isChannelSendDuration(String name) {
+		return isChannelMetric(name, SEND_DURATION_MEAN_SUFFIX) || isChannelMetric(name, SEND_DURATION_MAX_SUFFIX);
+	}
+
+	/**
+	 * @param name a metric name
+	 * @param suffix the suffix of the metric, e.g. {@link #SEND_MEAN_SUFFIX}
+	 * @return the channel name of the metric, null if the name is not a channel metric with
+	 * that suffix
+	 */
+	public static String channelOf(String name, String suffix) {
+		if (!isChannelMetric(name, suffix)) {
+			return null;
+		}
+		return name.substring(CHANNEL_PREFIX.length(), name.length() - suffix.length());
+	}
+
+	/**
+	 * @param channelName the channel name
+	 * @return the mean send latency metric name of the channel
+	 */
+	public static String channelSendDurationMean(String channelName) {
+		String name = channelSendDurationMeanNames.get(channelName);
+		if (name == null) {
+			name = cache(channelSendDurationMeanNames, channelName,
+					CHANNEL_PREFIX + channelName + SEND_DURATION_MEAN_SUFFIX);
+		}
+		return name;
+	}
+
+	/**
+	 * @param channelName the channel name
+	 * @return the maximum send latency metric name of the channel
+	 */
+	public static String channelSendDurationMax(String channelName) {
+		String name = channelSendDurationMaxNames.get(channelName);
+		if (name == null) {
+			name = cache(channelSendDurationMaxNames, channelName,
+					CHANNEL_PREFIX + channelName + SEND_DURATION_MAX_SUFFIX);
+		}
+		return name;
+	}
+
+	/**
+	 * @param channelName the channel name
+	 * @return the send rate metric name of the channel
+	 */
+	public static String channelSendMean(String channelName) {
+		String name = channelSendMeanNames.get(channelName);
+		if (name == null) {
+			name = cache(channelSendMeanNames, channelName, CHANNEL_PREFIX + channelName + SEND_MEAN_SUFFIX);
+		}
+		return name;
+	}
+
+	/**
+	 * @param sendCountName a channel send count metric name
+	 * @return the send rate metric name of the same channel, null if the name is not a
+	 * channel send count
+	 */
+	public static String sendMeanOf(String sendCountName) {
+		String name = sendCountSendMeanNames.get(sendCountName);
+		if (name == null) {
+			if (!isChannelSendCount(sendCountName)) {
+				return null;
+			}
+			name = cache(sendCountSendMeanNames, sendCountName, CHANNEL_PREFIX
+					+ sendCountName.substring(CHANNEL_PREFIX.length(), sendCountName.length() - SEND_COUNT_SUFFIX.length())
+					+ SEND_MEAN_SUFFIX);
+		}
+		return name;
+	}
+
+	private static String cache(ConcurrentMap<String, String> names, String key, String name) {
+		if (names.size() >= MAX_CACHED_NAMES) {
+			names.clear();
+		}
+		names.put(key, name);
+		return name;
+	}
+
+	private static boolean isChannelMetric(String name, String suffix) {
+		int end = name.length() - suffix.length();
+		if (end < CHANNEL_PREFIX.length() || !name.startsWith(CHANNEL_PREFIX) || !name.endsWith(suffix)) {
+			return false;
+		}
+		for (int i = CHANNEL_PREFIX.length(); i < end; i++) {
+			if (!isWordChar(name.charAt(i))) {
+				return false;
+			}
+		}
+		return true;
+	}
+
+	private static boolean isWordChar(char c) {
+		return (c >= 'a' && c <= 'z') || (c >= 'A' && c <= 'Z') || (c >= '0' && c <= '9') || c == '_';
+	}
+}
@@ -0,0 +1,213 @@
+/*
+ * Copyright 2018 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package org.springframework.cloud.dataflow.metrics.collector.utils;
+
+import java.time.Clock;
+import java.util.Iterator;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.springframework.util.Assert;
+
+/**
+ * Dictionary encoding of strings, e.g. meter names and tag keys and values, into int ids.
+ *
+ * The strings are reference counted by their users, a string being released with its last
+ * reference. The strings encoded but never retained, e.g. those of a payload discarded
+ * before being stored, are released by {@link #reclaim(long)}. Ids are never reused, so an
+ * id read before its string was released can not be retained anymore rather than standing
+ * for another string. The number of strings is bounded, new strings being refused once
+ * the dictionary is full.
+ *
+ * Lookups are lock free, only the encoding of a new string and the reference counts are
+ * synchronized.
+ *
+ * @author Christian Tzolov
+ */
+public final class StringDictionary {
+
+	/**
+	 * Id returned by {@link #find(String)} for strings not encoded and by
+	 * {@link #encode(String)} for refused strings.
+	 */
+	public static final int NONE = -1;
+
+	/**
+	 * Default maximum number of encoded strings.
+	 */
+	public static final int DEFAULT_MAXIMUM_SIZE = 100000;
+
+	private final ConcurrentMap<String, Entry> entries = new ConcurrentHashMap<>();
+
+	private final ConcurrentMap<Integer, Entry> strings = new ConcurrentHashMap<>();
+
+	private final int maximumSize;
+
+	private final Clock clock;
+
+	private final AtomicLong refused = new AtomicLong();
+
+	private int nextId;
+
+	public StringDictionary() {
+		this(DEFAULT_MAXIMUM_SIZE);
+	}
+
+	/**
+	 * @param maximumSize the maximum number of encoded strings
+	 */
+	public StringDictionary(int maximumSize) {
+		this(maximumSize, Clock.systemUTC());
+	}
+
+	public StringDictionary(int maximumSize, Clock clock) {
+		Assert.isTrue(maximumSize > 0, "The maximum size must be positive");
+		this.maximumSize = maximumSize;
+		this.clock = clock;
+	}
+
+	/**
+	 * @param string the string to encode
+	 * @return the id of the string, a new one if the string is not encoded, {@link #NONE} if
+	 * the dictionary is full
+	 */
+	public int encode(String string) {
+		Entry entry = this.entries.get(string);
+		if (entry != null) {
+			return entry.id;
+		}
+		synchronized (this) {
+			entry = this.entries.get(string);
+			if (entry == null) {
+				if (this.entries.size() >= this.maximumSize || this.nextId == Integer.MAX_VALUE) {
+					this.refused.incrementAndGet();
+					return NONE;
+				}
+				entry = new Entry(this.nextId++, string, this.clock.millis());
+				// published before the id, so decode() sees the string of any id it is given
+				this.strings.put(entry.id, entry);
+				this.entries.put(string, entry);
+			}
+			return entry.id;
+		}
+	}
+
+	/**
+	 * @param string the string to look up
+	 * @return the id of the string, {@link #NONE} if it is not encoded
+	 */
+	public int find(String string) {
+		Entry entry = this.entries.get(string);
+		return (entry != null) ? entry.id : NONE;
+	}
+
+	/**
+	 * @param id an id returned by {@link #encode(String)}
+	 * @return the encoded string, null once released
+	 */
+	public String decode(int id) {
+		Entry entry = this.strings.get(id);
+		return (entry != null) ? entry.string : null;
+	}
+
+	/**
+	 * Adds a reference to a string, kept until all its references are released.
+	 * @param id an id returned by {@link #encode(String)}
+	 * @return false if the string has been released meanwhile
+	 */
+	public synchronized boolean retain(int id) {
+		Entry entry = this.strings.get(id);
+		if (entry == null) {
+			return false;
+		}
+		entry.references++;
+		return true;
+	}
+
+	/**
+	 * Removes a reference to a string, the string being released with its last reference.
+	 * @param id a retained id
+	 */
+	public synchronized void release(int id) {
+		Entry entry = this.strings.get(id);
+		if (entry != null && --entry.references <= 0) {
+			remove(entry);
+		}
+	}
+
+	/**
+	 * Releases the strings never retained since they were encoded.
+	 * @param age the minimum time (in milliseconds) since the strings were encoded, longer
+	 * than it takes to retain the strings of a reading
+	 * @return the number of released strings
+	 */
+	public synchronized int reclaim(long age) {
+		long encodedBefore = this.clock.millis() - age;
+		int released = 0;
+		for (Iterator<Entry> it = this.strings.values().iterator(); it.hasNext();) {
+			Entry entry = it.next();
+			if (entry.references == 0 && entry.encoded < encodedBefore) {
+				it.remove();
+				this.entries.remove(entry.string, entry);
+				released++;
+			}
+		}
+		return released;
+	}
+
+	/**
+	 * @return the number of encoded strings
+	 */
+	public int size() {
+		return this.entries.size();
+	}
+
+	/**
+	 * @return the number of strings refused since the creation of the dictionary, the
+	 * dictionary being full
+	 */
+	public long getRefused() {
+		return this.refused.get();
+	}
+
+	private void remove(Entry entry) {
+		this.entries.remove(entry.string, entry);
+		this.strings.remove(entry.id, entry);
+	}
+
+	private static final class Entry {
+
+		private final int id;
+
+		private final String string;
+
+		private final long encoded;
+
+		/**
+		 * Guarded by the dictionary monitor.
+		 */
+		private int references;
+
+		Entry(int id, String string, long encoded) {
+			this.id = id;
+			this.string = string;
+			this.encoded = encoded;
+		}
+	}
+}
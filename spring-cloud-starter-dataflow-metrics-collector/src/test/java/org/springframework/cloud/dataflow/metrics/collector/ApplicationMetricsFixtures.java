@@ -0,0 +1,76 @@
+/*
+ * Copyright 2018 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.springframework.cloud.dataflow.metrics.collector;
+
+import java.util.ArrayList;
+import java.util.Date;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import org.springframework.cloud.dataflow.metrics.collector.model.ApplicationMetrics;
+import org.springframework.cloud.dataflow.metrics.collector.model.Metric;
+
+/**
+ * Readings of the output channel of an instance, shared by the tests.
+ *
+ * @author Christian Tzolov
+ */
+final class ApplicationMetricsFixtures {
+
+	private ApplicationMetricsFixtures() {
+	}
+
+	/**
+	 * A 2.x reading of the output channel send rate.
+	 */
+	static ApplicationMetrics<Metric<Double>> createSendRate(String streamName, String applicationName,
+			String appGuid, double rate) {
+		return createApplicationMetrics(streamName, applicationName, appGuid, ApplicationMetrics.METRICS_VERSION_2,
+				new Metric<>("integration.channel.output.send.mean", rate, new Date()));
+	}
+
+	/**
+	 * A 1.x reading of the output channel send count, of instance index 0.
+	 */
+	static ApplicationMetrics<Metric<Double>> createSendCount(String streamName, String applicationName,
+			String appGuid, double sendCount, long timestamp) {
+		ApplicationMetrics<Metric<Double>> applicationMetrics = createApplicationMetrics(streamName,
+				applicationName, appGuid, ApplicationMetrics.METRICS_VERSION_1,
+				new Metric<>("integration.channel.output.sendCount", sendCount, new Date(timestamp)));
+		applicationMetrics.getProperties().put(ApplicationMetrics.INSTANCE_INDEX, 0);
+		return applicationMetrics;
+	}
+
+	/**
+	 * A reading holding a single metric, whose metrics and properties can be added to.
+	 */
+	static ApplicationMetrics<Metric<Double>> createApplicationMetrics(String streamName, String applicationName,
+			String appGuid, String metricsVersion, Metric<Double> metric) {
+		List<Metric<Double>> metrics = new ArrayList<>();
+		metrics.add(metric);
+		ApplicationMetrics<Metric<Double>> applicationMetrics = new ApplicationMetrics<>(
+				streamName + "." + applicationName + "." + appGuid, metrics);
+		Map<String, Object> properties = new HashMap<>();
+		properties.put(ApplicationMetrics.STREAM_NAME, streamName);
+		properties.put(ApplicationMetrics.APPLICATION_NAME, applicationName);
+		properties.put(ApplicationMetrics.APPLICATION_GUID, appGuid);
+		properties.put(ApplicationMetrics.STREAM_METRICS_VERSION, metricsVersion);
+		applicationMetrics.setProperties(properties);
+		return applicationMetrics;
+	}
+}
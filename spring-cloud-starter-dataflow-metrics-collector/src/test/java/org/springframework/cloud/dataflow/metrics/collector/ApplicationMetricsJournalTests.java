@@ -0,0 +1,191 @@
+/*
+ * Copyright 2018 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package org.springframework.cloud.dataflow.metrics.collector;
+
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.time.Clock;
+import java.time.Instant;
+import java.time.ZoneOffset;
+import java.util.ArrayList;
+import java.util.List;
+
+import com.github.benmanes.caffeine.cache.Cache;
+import com.github.benmanes.caffeine.cache.Caffeine;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.junit.After;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+
+import org.springframework.cloud.dataflow.metrics.collector.model.ApplicationMetrics;
+import org.springframework.cloud.dataflow.metrics.collector.model.ApplicationMetricsReading;
+import org.springframework.cloud.dataflow.metrics.collector.services.ApplicationMetricsHistory;
+import org.springframework.cloud.dataflow.metrics.collector.services.ApplicationMetricsJournal;
+import org.springframework.cloud.dataflow.metrics.collector.services.ApplicationMetricsService;
+import org.springframework.cloud.dataflow.metrics.collector.support.CollectorMeters;
+
+/**
+ * @author Christian Tzolov
+ */
+public class ApplicationMetricsJournalTests {
+
+	private Path directory;
+
+	@Before
+	public void setup() throws Exception {
+		this.directory = Files.createTempDirectory("journal");
+	}
+
+	@After
+	public void cleanup() throws Exception {
+		for (Path segment : segments()) {
+			Files.delete(segment);
+		}
+		Files.delete(this.directory);
+	}
+
+	@Test
+	public void appendAndReplay() throws Exception {
+		ApplicationMetricsJournal journal = journal(Caffeine.newBuilder().build(), 4096, Clock.systemUTC());
+		journal.start();
+		journal.append(reading("foo", 10.0, 1000));
+		journal.append(reading("bar", 5.0, 2000));
+		journal.append(reading("foo", 30.0, 6000));
+		journal.stop();
+		Assert.assertEquals(0, journal.getDropped());
+		Assert.assertEquals(1, segments().size());
+
+		Cache<String, ApplicationMetricsHistory> restored = Caffeine.newBuilder().build();
+		ApplicationMetricsJournal replayed = journal(restored, 4096, Clock.systemUTC());
+		replayed.start();
+		replayed.stop();
+		Assert.assertEquals(2, restored.estimatedSize());
+		ApplicationMetricsHistory foo = restored.getIfPresent("ticktock.time.foo");
+		Assert.assertEquals(2, foo.size());
+		Assert.assertEquals(30.0, foo.getValue(0, 0), 0.0);
+		Assert.assertEquals(10.0, foo.getValue(0, 1), 0.0);
+		Assert.assertEquals(6000, foo.getTimestamp(0, 0));
+		Assert.assertEquals("ticktock", foo.getProperties().get(ApplicationMetrics.STREAM_NAME));
+		Assert.assertEquals(0, foo.getProperties().get(ApplicationMetrics.INSTANCE_INDEX));
+		// the next segment is only created on the next append
+		Assert.assertEquals(1, segments().size());
+
+		// the readings already stored are not replayed again
+		Assert.assertEquals(0, journal(restored, 4096, Clock.systemUTC()).replay());
+	}
+
+	@Test
+	public void rollingAndRetention() throws Exception {
+		ApplicationMetricsJournal journal = journal(Caffeine.newBuilder().build(), 1024, Clock.systemUTC());
+		journal.start();
+		for (int i = 1; i <= 100; i++) {
+			journal.append(reading("guid" + (i % 10), i, i * 1000));
+		}
+		journal.stop();
+		Assert.assertEquals(4, segments().size());
+
+		// the readings of the retained segments are replayed
+		Cache<String, ApplicationMetricsHistory> restored = Caffeine.newBuilder().build();
+		Assert.assertTrue(journal(restored, 1024, Clock.systemUTC()).replay() > 0);
+		Assert.assertEquals(100.0, restored.getIfPresent("ticktock.time.guid0").getValue(0, 0), 0.0);
+	}
+
+	@Test
+	public void replayStopsAtTornRecord() throws Exception {
+		ApplicationMetricsJournal journal = journal(Caffeine.newBuilder().build(), 4096, Clock.systemUTC());
+		journal.start();
+		journal.append(reading("foo", 10.0, 1000));
+		journal.append(reading("bar", 5.0, 2000));
+		journal.stop();
+		Path segment = segments().get(0);
+		byte[] bytes = Files.readAllBytes(segment);
+		int end = bytes.length;
+		while (bytes[end - 1] == 0) {
+			end--;
+		}
+		bytes[end - 1] ^= 1;
+		Files.write(segment, bytes);
+
+		Cache<String, ApplicationMetricsHistory> restored = Caffeine.newBuilder().build();
+		Assert.assertEquals(1, journal(restored, 4096, Clock.systemUTC()).replay());
+		Assert.assertNotNull(restored.getIfPresent("ticktock.time.foo"));
+	}
+
+	@Test
+	public void dropReadingsOfFullQueue() throws Exception {
+		Clock clock = Clock.fixed(Instant.now().minusSeconds(30), ZoneOffset.UTC);
+		Cache<String, ApplicationMetricsHistory> storage = Caffeine.newBuilder().build();
+		ApplicationMetricsJournal journal = new ApplicationMetricsJournal(storage,
+				new ApplicationMetricsService(storage), this.directory, 4096, 4096, 90000, 4, clock);
+		MeterRegistry registry = new SimpleMeterRegistry();
+		new CollectorMeters(registry).monitor(journal);
+
+		// the writer is not started yet, the queue holds the first readings
+		for (int i = 0; i < 10; i++) {
+			journal.append(reading("guid" + i, i, 1000));
+		}
+		Assert.assertEquals(6, journal.getDropped());
+		Assert.assertEquals(6.0, registry.find("collector.journal.dropped").functionCounter().count(), 0.0);
+		journal.start();
+		journal.stop();
+		Assert.assertEquals(6, journal.getDropped());
+
+		// the replayed readings keep the time they were received
+		Cache<String, ApplicationMetricsHistory> restored = Caffeine.newBuilder().build();
+		Assert.assertEquals(4, journal(restored, 4096, Clock.systemUTC()).replay());
+		Assert.assertEquals(clock.millis(), restored.getIfPresent("ticktock.time.guid0").getUpdated());
+	}
+
+	@Test
+	public void skipExpiredReadings() throws Exception {
+		ApplicationMetricsJournal journal = journal(Caffeine.newBuilder().build(), 4096, Clock.systemUTC());
+		journal.start();
+		journal.append(reading("foo", 10.0, 1000));
+		journal.stop();
+
+		Clock later = Clock.fixed(Instant.now().plusSeconds(120), ZoneOffset.UTC);
+		Cache<String, ApplicationMetricsHistory> restored = Caffeine.newBuilder().build();
+		Assert.assertEquals(0, journal(restored, 4096, later).replay());
+	}
+
+	private ApplicationMetricsJournal journal(Cache<String, ApplicationMetricsHistory> storage, int segmentSize,
+			Clock clock) {
+		return new ApplicationMetricsJournal(storage, new ApplicationMetricsService(storage), this.directory,
+				segmentSize, 4L * segmentSize, 90000, clock);
+	}
+
+	private List<Path> segments() throws Exception {
+		List<Path> segments = new ArrayList<>();
+		try (DirectoryStream<Path> files = Files.newDirectoryStream(this.directory)) {
+			files.forEach(segments::add);
+		}
+		segments.sort(null);
+		return segments;
+	}
+
+	/**
+	 * A 1.x reading of the output channel send count.
+	 */
+	private static ApplicationMetricsReading reading(String guid, double sendCount, long timestamp) {
+		return ApplicationMetricsReading.of(
+				ApplicationMetricsFixtures.createSendCount("ticktock", "time", guid, sendCount, timestamp));
+	}
+}
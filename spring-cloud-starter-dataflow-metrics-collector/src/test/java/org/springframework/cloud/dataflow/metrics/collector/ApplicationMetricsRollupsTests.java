@@ -0,0 +1,179 @@
+/*
+ * Copyright 2018 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.springframework.cloud.dataflow.metrics.collector;
+
+import java.time.Clock;
+import java.time.Instant;
+import java.time.ZoneId;
+import java.time.ZoneOffset;
+import java.util.Arrays;
+import java.util.Date;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicLong;
+
+import com.github.benmanes.caffeine.cache.Cache;
+import com.github.benmanes.caffeine.cache.Caffeine;
+import org.junit.Assert;
+import org.junit.Test;
+
+import org.springframework.cloud.dataflow.metrics.collector.model.ApplicationMetrics;
+import org.springframework.cloud.dataflow.metrics.collector.model.Metric;
+import org.springframework.cloud.dataflow.metrics.collector.model.MetricSeries;
+import org.springframework.cloud.dataflow.metrics.collector.services.ApplicationMetricsHistory;
+import org.springframework.cloud.dataflow.metrics.collector.services.ApplicationMetricsIndex;
+import org.springframework.cloud.dataflow.metrics.collector.services.ApplicationMetricsRollups;
+import org.springframework.cloud.dataflow.metrics.collector.services.ApplicationMetricsService;
+import org.springframework.cloud.dataflow.metrics.collector.services.MetricRollup;
+
+/**
+ * @author Christian Tzolov
+ */
+public class ApplicationMetricsRollupsTests {
+
+	private static final List<MetricRollup.Level> LEVELS = Arrays.asList(new MetricRollup.Level(1000, 5000),
+			new MetricRollup.Level(10000, 60000));
+
+	@Test
+	public void levels() {
+		MetricRollup rollup = new MetricRollup("integration.channel.output.send.mean",
+				LEVELS.toArray(new MetricRollup.Level[0]));
+		Assert.assertEquals(0, rollup.query(0, 10000).getTimestamps().length);
+
+		rollup.add(1000, 1.0);
+		rollup.add(1500, 3.0);
+		rollup.add(3000, 5.0);
+		rollup.add(4000, Double.NaN);
+
+		MetricSeries fine = rollup.query(0, 4000);
+		Assert.assertEquals(1000, fine.getResolution());
+		Assert.assertArrayEquals(new long[] { 1000, 3000 }, fine.getTimestamps());
+		Assert.assertArrayEquals(new double[] { 2.0, 5.0 }, fine.getMean(), 0.0);
+		Assert.assertArrayEquals(new double[] { 3.0, 5.0 }, fine.getMax(), 0.0);
+
+		// windows longer than the finest retention are served by the next level
+		MetricSeries coarse = rollup.query(0, 10000);
+		Assert.assertEquals(10000, coarse.getResolution());
+		Assert.assertArrayEquals(new long[] { 0 }, coarse.getTimestamps());
+		Assert.assertArrayEquals(new double[] { 3.0 }, coarse.getMean(), 0.0);
+
+		// the skipped buckets are cleared, the buckets older than the retention are dropped
+		rollup.add(8000, 7.0);
+		Assert.assertArrayEquals(new long[] { 8000 }, rollup.query(3000, 8000).getTimestamps());
+		rollup.add(3000, 9.0);
+		Assert.assertArrayEquals(new double[] { 7.0 }, rollup.query(3000, 8000).getMean(), 0.0);
+		rollup.add(25000, 2.0);
+		Assert.assertArrayEquals(new long[] { 25000 }, rollup.query(20000, 25000).getTimestamps());
+		Assert.assertArrayEquals(new long[] { 0, 20000 }, rollup.query(0, 25000).getTimestamps());
+		Assert.assertArrayEquals(new double[] { 5.0, 2.0 }, rollup.query(0, 25000).getMean(), 0.0);
+	}
+
+	@Test
+	public void instances() {
+		Cache<String, ApplicationMetricsHistory> rawCache = Caffeine.newBuilder().build();
+		ApplicationMetricsService service = new ApplicationMetricsService(rawCache);
+		MutableClock clock = new MutableClock();
+		ApplicationMetricsRollups rollups = new ApplicationMetricsRollups(service, LEVELS, clock);
+		service.addListener(rollups);
+		Assert.assertEquals(MetricRollup.BUCKET_SIZE * 11, rollups.getSeriesSize());
+
+		for (int i = 1; i <= 3; i++) {
+			clock.set(i * 1000);
+			service.add(reading("ticktock", "log", "a", i));
+			service.add(reading("http", "http", "b", i * 10));
+		}
+
+		List<MetricSeries> all = rollups.query("", 5000);
+		Assert.assertEquals(2, all.size());
+		Assert.assertEquals("http", all.get(0).getStream());
+		Assert.assertEquals("ticktock", all.get(1).getStream());
+		Assert.assertEquals("log", all.get(1).getApplication());
+		Assert.assertEquals("a", all.get(1).getInstance());
+		Assert.assertEquals("integration.channel.output.send.mean", all.get(1).getName());
+		Assert.assertArrayEquals(new double[] { 1.0, 2.0, 3.0 }, all.get(1).getMean(), 0.0);
+
+		List<MetricSeries> ticktock = rollups.query("ticktock", 1000);
+		Assert.assertEquals(1, ticktock.size());
+		Assert.assertArrayEquals(new long[] { 2000, 3000 }, ticktock.get(0).getTimestamps());
+
+		// evicted instances are dropped
+		rawCache.invalidate("http.http.b");
+		Assert.assertEquals(1, rollups.query("", 5000).size());
+		Assert.assertEquals(1, rollups.size());
+	}
+
+	@Test
+	public void evictedInstances() {
+		ApplicationMetricsIndex index = new ApplicationMetricsIndex();
+		Cache<String, ApplicationMetricsHistory> rawCache = Caffeine.newBuilder().executor(Runnable::run)
+				.removalListener(index).build();
+		ApplicationMetricsService service = new ApplicationMetricsService(rawCache,
+				ApplicationMetricsService.DEFAULT_HISTORY_DEPTH, index);
+		ApplicationMetricsRollups rollups = new ApplicationMetricsRollups(service, LEVELS, new MutableClock());
+		service.addListener(rollups);
+
+		service.add(reading("ticktock", "log", "a", 1));
+		service.add(reading("http", "http", "b", 1));
+		Assert.assertEquals(2, rollups.size());
+
+		// dropped on eviction, without any query
+		rawCache.invalidate("http.http.b");
+		Assert.assertEquals(1, rollups.size());
+
+		// a new instance under the same name starts new rollups
+		rawCache.invalidate("ticktock.log.a");
+		service.add(reading("ticktock", "log", "a", 2));
+		Assert.assertEquals(1, rollups.size());
+		Assert.assertArrayEquals(new double[] { 2.0 }, rollups.query("", 5000).get(0).getMean(), 0.0);
+	}
+
+	private static ApplicationMetrics<Metric<Double>> reading(String streamName, String applicationName, String guid,
+			double rate) {
+		ApplicationMetrics<Metric<Double>> applicationMetrics = ApplicationMetricsFixtures.createSendRate(streamName,
+				applicationName, guid, rate);
+		applicationMetrics.getMetrics().add(new Metric<>("integration.channel.output.send.max", rate, new Date()));
+		return applicationMetrics;
+	}
+
+	private static class MutableClock extends Clock {
+
+		private final AtomicLong millis = new AtomicLong();
+
+		void set(long millis) {
+			this.millis.set(millis);
+		}
+
+		@Override
+		public long millis() {
+			return this.millis.get();
+		}
+
+		@Override
+		public Instant instant() {
+			return Instant.ofEpochMilli(millis());
+		}
+
+		@Override
+		public ZoneId getZone() {
+			return ZoneOffset.UTC;
+		}
+
+		@Override
+		public Clock withZone(ZoneId zone) {
+			return this;
+		}
+	}
+}
@@ -0,0 +1,473 @@
+/*
+ * Copyright 2018 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.springframework.cloud.dataflow.metrics.collector;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.Date;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+import com.github.benmanes.caffeine.cache.Cache;
+import com.github.benmanes.caffeine.cache.Caffeine;
+import com.github.benmanes.caffeine.cache.RemovalCause;
+import org.junit.Assert;
+import org.junit.Test;
+
+import org.springframework.cloud.dataflow.metrics.collector.model.Application;
+import org.springframework.cloud.dataflow.metrics.collector.model.ApplicationMetrics;
+import org.springframework.cloud.dataflow.metrics.collector.model.ApplicationMetricsReading;
+import org.springframework.cloud.dataflow.metrics.collector.model.Instance;
+import org.springframework.cloud.dataflow.metrics.collector.model.Metric;
+import org.springframework.cloud.dataflow.metrics.collector.model.StreamMetrics;
+import org.springframework.cloud.dataflow.metrics.collector.services.ApplicationMetricsHistory;
+import org.springframework.cloud.dataflow.metrics.collector.services.ApplicationMetricsIndex;
+import org.springframework.cloud.dataflow.metrics.collector.services.ApplicationMetricsService;
+
+/**
+ * @author Christian Tzolov
+ */
+public class ApplicationMetricsServiceTests {
+
+	private static final int WRITERS = 8;
+
+	private static final int READERS = 4;
+
+	private static final int INSTANCES = 16;
+
+	private static final int READINGS_PER_WRITER = 2000;
+
+	private static final String READING = "reading";
+
+	@Test
+	public void concurrentUpdates() throws Exception {
+		Cache<String, ApplicationMetricsHistory> rawCache = Caffeine.newBuilder().build();
+		ApplicationMetricsService service = new ApplicationMetricsService(rawCache);
+		ExecutorService executor = Executors.newFixedThreadPool(WRITERS + READERS);
+		CountDownLatch start = new CountDownLatch(1);
+		AtomicBoolean writing = new AtomicBoolean(true);
+		List<String> tornReads = Collections.synchronizedList(new ArrayList<>());
+
+		List<Future<?>> writers = new ArrayList<>();
+		for (int w = 0; w < WRITERS; w++) {
+			int writer = w;
+			writers.add(executor.submit(() -> {
+				start.await();
+				for (int i = 0; i < READINGS_PER_WRITER; i++) {
+					// every writer updates every instance, so the same keys are contended
+					service.add(reading("instance" + (i % INSTANCES), writer * READINGS_PER_WRITER + i));
+				}
+				return null;
+			}));
+		}
+		List<Future<?>> readers = new ArrayList<>();
+		for (int r = 0; r < READERS; r++) {
+			readers.add(executor.submit(() -> {
+				start.await();
+				while (writing.get()) {
+					for (StreamMetrics streamMetrics : service.toStreamMetrics("")) {
+						for (Application application : streamMetrics.getApplications()) {
+							for (Instance instance : application.getInstances()) {
+								Object reading = instance.getProperties().get(READING);
+								double value = instance.getMetrics().iterator().next().getValue();
+								if (((Number) reading).doubleValue() != value) {
+									tornReads.add(instance.getKey() + ": " + reading + " != " + value);
+								}
+							}
+						}
+					}
+				}
+				return null;
+			}));
+		}
+
+		start.countDown();
+		for (Future<?> writer : writers) {
+			writer.get(60, TimeUnit.SECONDS);
+		}
+		writing.set(false);
+		for (Future<?> reader : readers) {
+			reader.get(60, TimeUnit.SECONDS);
+		}
+		executor.shutdown();
+
+		Assert.assertEquals(INSTANCES, rawCache.estimatedSize());
+		long total = 0;
+		for (ApplicationMetricsHistory history : rawCache.asMap().values()) {
+			total += history.getCount();
+			Assert.assertEquals(((Number) history.getProperties().get(READING)).doubleValue(),
+					history.getValue(0, 0), 0.0);
+			Assert.assertNotEquals(history.getValue(0, 0), history.getValue(0, 1), 0.0);
+		}
+		Assert.assertEquals("lost updates", WRITERS * READINGS_PER_WRITER, total);
+		Assert.assertTrue(tornReads.toString(), tornReads.isEmpty());
+	}
+
+	@Test
+	public void updatesProgressDuringQueries() throws Exception {
+		ApplicationMetricsService service = new ApplicationMetricsService(Caffeine.newBuilder().build());
+		CountDownLatch converting = new CountDownLatch(1);
+		CountDownLatch release = new CountDownLatch(1);
+		ApplicationMetrics<Metric<Double>> stalled = reading("foo", 1);
+		// the instance index is read while the reading is converted
+		stalled.getProperties().put(ApplicationMetrics.INSTANCE_INDEX, new Object() {
+
+			@Override
+			public String toString() {
+				converting.countDown();
+				try {
+					release.await(10, TimeUnit.SECONDS);
+				}
+				catch (InterruptedException e) {
+					Thread.currentThread().interrupt();
+				}
+				return "0";
+			}
+		});
+		service.add(stalled);
+
+		ExecutorService executor = Executors.newFixedThreadPool(2);
+		try {
+			Future<Collection<StreamMetrics>> query = executor.submit(() -> service.toStreamMetrics(""));
+			Assert.assertTrue(converting.await(10, TimeUnit.SECONDS));
+			Future<?> update = executor.submit(() -> service.add(reading("foo", 2)));
+			update.get(5, TimeUnit.SECONDS);
+			Assert.assertFalse(query.isDone());
+
+			release.countDown();
+			Assert.assertEquals(1.0, query.get(5, TimeUnit.SECONDS).iterator().next().getApplications().get(0)
+					.getInstances().get(0).getMetrics().iterator().next().getValue(), 0.0);
+		}
+		finally {
+			release.countDown();
+			executor.shutdownNow();
+		}
+	}
+
+	@Test
+	public void historyDepth() {
+		Cache<String, ApplicationMetricsHistory> rawCache = Caffeine.newBuilder().build();
+		ApplicationMetricsService service = new ApplicationMetricsService(rawCache, 3);
+
+		for (int i = 1; i <= 5; i++) {
+			service.add(reading("foo", i));
+		}
+
+		ApplicationMetricsHistory history = rawCache.getIfPresent("stress.app.foo");
+		Assert.assertEquals(5, history.getCount());
+		Assert.assertEquals(3, history.size());
+		Assert.assertEquals(5.0, history.getValue(0, 0), 0.0);
+		Assert.assertEquals(4.0, history.getValue(0, 1), 0.0);
+		Assert.assertEquals(3.0, history.getValue(0, 2), 0.0);
+		Assert.assertEquals(5, history.getLatest().getProperties().get(READING));
+		Assert.assertEquals(3.0, history.getReading(2).getMetrics().iterator().next().getValue(), 0.0);
+	}
+
+	@Test
+	public void historyMissingMetrics() {
+		ApplicationMetricsHistory history = new ApplicationMetricsHistory("foo", 2);
+		ApplicationMetrics<Metric<Double>> first = reading("foo", 1);
+		first.getMetrics().add(new Metric<>("integration.channel.input.sendCount", 10.0, new Date(1000)));
+		history.add(ApplicationMetricsReading.of(first));
+		history.add(ApplicationMetricsReading.of(reading("foo", 2)));
+
+		Assert.assertEquals(2, history.getSlotCount());
+		Assert.assertTrue(Double.isNaN(history.getValue(1, 0)));
+		Assert.assertEquals(10.0, history.getValue(1, 1), 0.0);
+		Assert.assertEquals(1, history.getLatest().getMetrics().size());
+		Assert.assertEquals(2, history.getPrevious().getMetrics().size());
+		Assert.assertTrue(history.getPrevious().getProperties().isEmpty());
+
+		// the slot of a metric absent from the whole history is reused
+		ApplicationMetrics<Metric<Double>> third = reading("foo", 3);
+		third.getMetrics().add(new Metric<>("integration.channel.output.sendCount", 20.0, new Date(3000)));
+		history.add(ApplicationMetricsReading.of(third));
+		Assert.assertEquals(2, history.getSlotCount());
+		Assert.assertEquals("integration.channel.output.sendCount", history.getSlotName(1));
+		Assert.assertEquals(20.0, history.getValue(1, 0), 0.0);
+		Assert.assertTrue(Double.isNaN(history.getValue(1, 1)));
+	}
+
+	@Test
+	public void historyWeight() {
+		Cache<String, ApplicationMetricsHistory> rawCache = Caffeine.newBuilder().maximumWeight(1024 * 1024)
+				.weigher((String name, ApplicationMetricsHistory history) -> history.getEstimatedSize()).build();
+		ApplicationMetricsService service = new ApplicationMetricsService(rawCache, 4);
+
+		service.add(reading("foo", 1));
+		ApplicationMetricsHistory history = rawCache.getIfPresent("stress.app.foo");
+		int single = history.getEstimatedSize();
+		Assert.assertEquals(single, rawCache.policy().eviction().get().weightedSize().getAsLong());
+
+		// a new metric grows the history by a slot of the history depth
+		ApplicationMetrics<Metric<Double>> second = reading("foo", 2);
+		second.getMetrics().add(new Metric<>("integration.channel.input.sendCount", 10.0, new Date(1000)));
+		service.add(second);
+		int nameSize = 40 + "integration.channel.input.sendCount".length() * Character.BYTES + 2;
+		Assert.assertEquals(single + nameSize + 4 + 4 * (Long.BYTES + Double.BYTES), history.getEstimatedSize());
+		Assert.assertEquals(history.getEstimatedSize(), rawCache.policy().eviction().get().weightedSize().getAsLong());
+
+		service.add(reading("bar", 1));
+		Assert.assertEquals(history.getEstimatedSize() + single,
+				rawCache.policy().eviction().get().weightedSize().getAsLong());
+	}
+
+	@Test
+	public void estimatedHistorySize() {
+		ApplicationMetricsHistory history = new ApplicationMetricsHistory("ticktock.time.foo", 2);
+		int empty = history.getEstimatedSize();
+		// a String costs 40 bytes and 2 bytes per char, rounded to 8 bytes
+		Assert.assertEquals(empty + 8, new ApplicationMetricsHistory("ticktock.time.foobarbaz", 2).getEstimatedSize());
+
+		// a metric costs its slot reference, its timestamps and values, and its name
+		ApplicationMetricsReading reading = new ApplicationMetricsReading("ticktock.time.foo");
+		reading.addMetric("integration.channel.output.sendCount", 1.0, 1000);
+		reading.setProperties(Collections.emptyMap());
+		history.add(reading);
+		int metric = 4 + 2 * (Long.BYTES + Double.BYTES) + 40 + 72;
+		Assert.assertEquals(empty + metric, history.getEstimatedSize());
+		history.add(reading);
+		Assert.assertEquals(empty + metric, history.getEstimatedSize());
+
+		// the properties cost their map, their entries and their values, the booleans being shared
+		ApplicationMetricsReading withProperties = new ApplicationMetricsReading("ticktock.time.foo");
+		withProperties.addMetric("integration.channel.output.sendCount", 2.0, 2000);
+		Map<String, Object> properties = new LinkedHashMap<>();
+		properties.put(ApplicationMetrics.STREAM_NAME, "ticktock");
+		properties.put(ApplicationMetrics.INSTANCE_INDEX, 0);
+		properties.put("enabled", true);
+		withProperties.setProperties(properties);
+		history.add(withProperties);
+		Assert.assertEquals(empty + metric + 72 + 3 * 48 + (40 + 16) + 16, history.getEstimatedSize());
+	}
+
+	@Test
+	public void weightEviction() {
+		ApplicationMetricsHistory sample = new ApplicationMetricsHistory("stress.app.foo", 4);
+		sample.add(ApplicationMetricsReading.of(reading("foo", 1)));
+		long maximum = sample.getEstimatedSize() * 5 / 2;
+		Cache<String, ApplicationMetricsHistory> rawCache = Caffeine.newBuilder().executor(Runnable::run)
+				.maximumWeight(maximum)
+				.weigher((String name, ApplicationMetricsHistory history) -> history.getEstimatedSize()).build();
+		ApplicationMetricsService service = new ApplicationMetricsService(rawCache, 4);
+
+		service.add(reading("foo", 1));
+		service.add(reading("bar", 1));
+		rawCache.cleanUp();
+		Assert.assertEquals(2, rawCache.estimatedSize());
+
+		// a third instance of the same size exceeds the maximum weight
+		service.add(reading("baz", 1));
+		rawCache.cleanUp();
+		Assert.assertEquals(2, rawCache.estimatedSize());
+		Assert.assertTrue(rawCache.policy().eviction().get().weightedSize().getAsLong() <= maximum);
+	}
+
+	@Test
+	public void sendLatency() {
+		ApplicationMetricsService service = new ApplicationMetricsService(Caffeine.newBuilder().build());
+		service.add(latency(reading("a", "ticktock", "time", 10), 1.0, 2.0));
+		service.add(latency(reading("b", "ticktock", "time", 30), 3.0, 5.0));
+		service.add(latency(reading("c", "ticktock", "log", 10), 4.0, 1.0));
+
+		StreamMetrics ticktock = service.toStreamMetrics("ticktock").iterator().next();
+		Application time = ticktock.getApplications().stream().filter(app -> app.getName().equals("time"))
+				.findFirst().get();
+		Map<String, Double> timeAggregates = toMap(time.getAggregateMetrics());
+		Assert.assertEquals(40.0, timeAggregates.get("integration.channel.output.send.mean"), 0.0);
+		Assert.assertEquals(2.5, timeAggregates.get("integration.channel.output.send.duration.mean"), 1e-9);
+		Assert.assertEquals(5.0, timeAggregates.get("integration.channel.output.send.duration.max"), 0.0);
+
+		// the applications are merged with the weights of their instances
+		Map<String, Double> streamAggregates = toMap(ticktock.getAggregateMetrics());
+		Assert.assertEquals(3, streamAggregates.size());
+		Assert.assertEquals(50.0, streamAggregates.get("integration.channel.output.send.mean"), 0.0);
+		Assert.assertEquals(2.8, streamAggregates.get("integration.channel.output.send.duration.mean"), 1e-9);
+		Assert.assertEquals(5.0, streamAggregates.get("integration.channel.output.send.duration.max"), 0.0);
+	}
+
+	private static ApplicationMetrics<Metric<Double>> latency(ApplicationMetrics<Metric<Double>> reading, double mean,
+			double max) {
+		reading.getMetrics().add(new Metric<>("integration.channel.output.send.duration.mean", mean, new Date()));
+		reading.getMetrics().add(new Metric<>("integration.channel.output.send.duration.max", max, new Date()));
+		return reading;
+	}
+
+	private static Map<String, Double> toMap(Collection<Metric<Double>> metrics) {
+		Map<String, Double> values = new HashMap<>();
+		for (Metric<Double> metric : metrics) {
+			values.put(metric.getName(), metric.getValue());
+		}
+		return values;
+	}
+
+	@Test
+	public void streamIndex() {
+		ApplicationMetricsIndex index = new ApplicationMetricsIndex();
+		Cache<String, ApplicationMetricsHistory> rawCache = Caffeine.newBuilder().removalListener(index).build();
+		ApplicationMetricsService service = new ApplicationMetricsService(rawCache, 2, index);
+		service.add(reading("foo", "s1", "app1", 1));
+		service.add(reading("bar", "s1", "app2", 1));
+		service.add(reading("baz", "s2", "app1", 1));
+
+		Assert.assertEquals(2, index.getStreamNames().size());
+		Assert.assertEquals(2, index.getApplications("s1").size());
+		Assert.assertEquals(1, service.toStreamMetrics("s2").size());
+		Assert.assertTrue(service.toStreamMetrics("s3").isEmpty());
+
+		ApplicationMetricsHistory evicted = rawCache.getIfPresent("s2.app1.baz");
+		rawCache.invalidate("s2.app1.baz");
+		Assert.assertEquals(Collections.singleton("s1"), index.getStreamNames());
+		Assert.assertTrue(service.toStreamMetrics("s2").isEmpty());
+
+		// the late notification of an evicted history keeps its replacement
+		service.add(reading("baz", "s2", "app1", 2));
+		index.onRemoval("s2.app1.baz", evicted, RemovalCause.EXPIRED);
+		Assert.assertEquals(1, service.toStreamMetrics("s2").size());
+		Assert.assertEquals(2, service.toStreamMetrics("").size());
+	}
+
+	@Test
+	public void incrementalAggregates() {
+		ApplicationMetricsIndex index = new ApplicationMetricsIndex();
+		Cache<String, ApplicationMetricsHistory> rawCache = Caffeine.newBuilder().removalListener(index).build();
+		ApplicationMetricsService service = new ApplicationMetricsService(rawCache, 2, index);
+		service.add(reading("foo", "s1", "app1", 1));
+		service.add(reading("bar", "s1", "app1", 2));
+		service.add(reading("baz", "s1", "app2", 4));
+		Assert.assertEquals(7.0, streamRate(service, "s1"), 0.0);
+		Assert.assertEquals(3.0, applicationRate(service, "s1", "app1"), 0.0);
+
+		// adjusted by the difference with the previous reading of the instance
+		service.add(reading("foo", "s1", "app1", 5));
+		Assert.assertEquals(11.0, streamRate(service, "s1"), 0.0);
+		Assert.assertEquals(7.0, applicationRate(service, "s1", "app1"), 0.0);
+
+		// and withdrawn once the instance is evicted
+		rawCache.invalidate("s1.app1.bar");
+		Assert.assertEquals(9.0, streamRate(service, "s1"), 0.0);
+		rawCache.invalidate("s1.app2.baz");
+		Assert.assertEquals(5.0, streamRate(service, "s1"), 0.0);
+		Assert.assertEquals(5.0, applicationRate(service, "s1", "app1"), 0.0);
+		Assert.assertEquals(1, service.toStreamMetrics("s1").iterator().next().getApplications().size());
+	}
+
+	private static double streamRate(ApplicationMetricsService service, String streamName) {
+		StreamMetrics stream = service.toStreamMetrics(streamName).iterator().next();
+		return toMap(stream.getAggregateMetrics()).get("integration.channel.output.send.mean");
+	}
+
+	private static double applicationRate(ApplicationMetricsService service, String streamName,
+			String applicationName) {
+		Application application = service.toStreamMetrics(streamName).iterator().next().getApplications().stream()
+				.filter(app -> app.getName().equals(applicationName)).findFirst().get();
+		return toMap(application.getAggregateMetrics()).get("integration.channel.output.send.mean");
+	}
+
+	@Test
+	public void streamIndexWithoutRemovalListener() {
+		Cache<String, ApplicationMetricsHistory> rawCache = Caffeine.newBuilder().build();
+		ApplicationMetricsService service = new ApplicationMetricsService(rawCache);
+		service.add(reading("foo", "s1", "app1", 1));
+		service.add(reading("bar", "s2", "app1", 1));
+
+		rawCache.invalidate("s2.app1.bar");
+
+		Collection<StreamMetrics> streams = service.toStreamMetrics("");
+		Assert.assertEquals(1, streams.size());
+		Assert.assertEquals("s1", streams.iterator().next().getName());
+	}
+
+	@Test
+	public void streamMetricsView() {
+		Cache<String, ApplicationMetricsHistory> rawCache = Caffeine.newBuilder().build();
+		ApplicationMetricsService service = new ApplicationMetricsService(rawCache);
+		service.add(reading("foo", "s1", "app1", 1));
+		service.add(reading("bar", "s2", "app1", 1));
+
+		StreamMetrics s1 = service.toStreamMetrics("s1").iterator().next();
+		StreamMetrics s2 = service.toStreamMetrics("s2").iterator().next();
+		Assert.assertSame(s1, service.toStreamMetrics("s1").iterator().next());
+
+		// only the updated stream is rebuilt
+		service.add(reading("foo", "s1", "app1", 2));
+		StreamMetrics updated = service.toStreamMetrics("s1").iterator().next();
+		Assert.assertNotSame(s1, updated);
+		Assert.assertEquals(2.0, updated.getApplications().get(0).getInstances().get(0).getMetrics().iterator()
+				.next().getValue(), 0.0);
+		Assert.assertSame(s2, service.toStreamMetrics("s2").iterator().next());
+
+		// a new instance and an eviction unknown to the index are picked up
+		service.add(reading("baz", "s1", "app2", 1));
+		Assert.assertEquals(2, service.toStreamMetrics("s1").iterator().next().getApplications().size());
+		rawCache.invalidate("s1.app2.baz");
+		Assert.assertEquals(1, service.toStreamMetrics("s1").iterator().next().getApplications().size());
+		rawCache.invalidate("s2.app1.bar");
+		Assert.assertTrue(service.toStreamMetrics("s2").isEmpty());
+	}
+
+	@Test(expected = UnsupportedOperationException.class)
+	public void streamMetricsViewIsReadOnly() {
+		ApplicationMetricsService service = new ApplicationMetricsService(Caffeine.newBuilder().build());
+		service.add(reading("foo", "s1", "app1", 1));
+
+		service.toStreamMetrics("s1").iterator().next().getApplications().get(0).getInstances().clear();
+	}
+
+	@Test
+	public void readingRoundTrip() {
+		ApplicationMetrics<Metric<Double>> applicationMetrics = reading("foo", 1);
+		for (int i = 0; i < 20; i++) {
+			applicationMetrics.getMetrics().add(new Metric<>("integration.channel.c" + i + ".sendCount", (double) i,
+					new Date(1000 + i)));
+		}
+
+		ApplicationMetricsReading reading = ApplicationMetricsReading.of(applicationMetrics);
+		Assert.assertEquals(21, reading.size());
+		Assert.assertEquals(19.0, reading.getValue(20), 0.0);
+		Assert.assertEquals(1019, reading.getTimestamp(20));
+
+		ApplicationMetrics<Metric<Double>> converted = reading.toApplicationMetrics();
+		Assert.assertEquals(applicationMetrics.getName(), converted.getName());
+		Assert.assertEquals(applicationMetrics.getProperties(), converted.getProperties());
+		Assert.assertEquals(new ArrayList<>(applicationMetrics.getMetrics()), converted.getMetrics());
+	}
+
+	private ApplicationMetrics<Metric<Double>> reading(String guid, int reading) {
+		return reading(guid, "stress", "app", reading);
+	}
+
+	/**
+	 * A 2.x reading whose single rate metric carries the same value as its "reading" property.
+	 */
+	private ApplicationMetrics<Metric<Double>> reading(String guid, String streamName, String applicationName,
+			int reading) {
+		ApplicationMetrics<Metric<Double>> applicationMetrics = ApplicationMetricsFixtures.createSendRate(streamName,
+				applicationName, guid, reading);
+		applicationMetrics.getProperties().put(READING, reading);
+		return applicationMetrics;
+	}
+}
@@ -0,0 +1,205 @@
+/*
+ * Copyright 2018 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package org.springframework.cloud.dataflow.metrics.collector;
+
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.time.Clock;
+import java.time.Instant;
+import java.time.ZoneOffset;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+import com.github.benmanes.caffeine.cache.Cache;
+import com.github.benmanes.caffeine.cache.Caffeine;
+import org.junit.After;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+
+import org.springframework.cloud.dataflow.metrics.collector.model.ApplicationMetrics;
+import org.springframework.cloud.dataflow.metrics.collector.model.ApplicationMetricsReading;
+import org.springframework.cloud.dataflow.metrics.collector.model.Instance;
+import org.springframework.cloud.dataflow.metrics.collector.model.Metric;
+import org.springframework.cloud.dataflow.metrics.collector.model.StreamMetrics;
+import org.springframework.cloud.dataflow.metrics.collector.services.ApplicationMetricsExpiry;
+import org.springframework.cloud.dataflow.metrics.collector.services.ApplicationMetricsHistory;
+import org.springframework.cloud.dataflow.metrics.collector.services.ApplicationMetricsService;
+import org.springframework.cloud.dataflow.metrics.collector.services.ApplicationMetricsSnapshots;
+
+/**
+ * @author Christian Tzolov
+ */
+public class ApplicationMetricsSnapshotsTests {
+
+	private Path directory;
+
+	private Path file;
+
+	@Before
+	public void setup() throws Exception {
+		this.directory = Files.createTempDirectory("snapshots");
+		this.file = this.directory.resolve("metrics.snapshot");
+	}
+
+	@After
+	public void cleanup() throws Exception {
+		Files.deleteIfExists(this.file);
+		Files.deleteIfExists(this.directory);
+	}
+
+	@Test
+	public void writeAndLoad() throws Exception {
+		Cache<String, ApplicationMetricsHistory> storage = Caffeine.newBuilder().build();
+		ApplicationMetricsService service = new ApplicationMetricsService(storage);
+		service.add(reading("foo", "time", 10.0, 1000));
+		service.add(reading("foo", "time", 30.0, 6000));
+		service.add(reading("bar", "log", 5.0, 2000));
+		Assert.assertEquals(2, snapshots(storage, service, Clock.systemUTC()).write());
+
+		Cache<String, ApplicationMetricsHistory> restored = Caffeine.newBuilder().build();
+		ApplicationMetricsService restoredService = new ApplicationMetricsService(restored);
+		Assert.assertEquals(2, snapshots(restored, restoredService, Clock.systemUTC()).load());
+
+		ApplicationMetricsHistory foo = restored.getIfPresent("ticktock.time.foo");
+		Assert.assertEquals(2, foo.size());
+		Assert.assertEquals(30.0, foo.getValue(0, 0), 0.0);
+		Assert.assertEquals(10.0, foo.getValue(0, 1), 0.0);
+		Assert.assertEquals(6000, foo.getTimestamp(0, 0));
+		Map<String, Object> properties = foo.getProperties();
+		Assert.assertEquals("ticktock", properties.get(ApplicationMetrics.STREAM_NAME));
+		Assert.assertEquals(0, properties.get(ApplicationMetrics.INSTANCE_INDEX));
+		Assert.assertEquals(true, properties.get("enabled"));
+		Assert.assertEquals(1.5, properties.get("ratio"));
+		Assert.assertTrue(properties.containsKey("missing"));
+		Assert.assertNull(properties.get("missing"));
+		Assert.assertEquals(new ArrayList<>(storage.getIfPresent("ticktock.time.foo").getProperties().keySet()),
+				new ArrayList<>(properties.keySet()));
+
+		// the 1.x rates are available without waiting for new readings
+		StreamMetrics ticktock = restoredService.toStreamMetrics("ticktock").iterator().next();
+		Instance instance = ticktock.getApplications().stream().filter(app -> app.getName().equals("time"))
+				.findFirst().get().getInstances().get(0);
+		Metric<Double> rate = instance.getMetrics().stream()
+				.filter(metric -> metric.getName().equals("integration.channel.output.send.mean")).findFirst().get();
+		Assert.assertEquals(4.0, rate.getValue(), 0.0);
+	}
+
+	@Test
+	public void writeAndLoadAcrossChunks() throws Exception {
+		long now = System.currentTimeMillis();
+		// a string larger than the buffer the snapshot is written and read through
+		char[] description = new char[100000];
+		Arrays.fill(description, 'x');
+		Cache<String, ApplicationMetricsHistory> storage = Caffeine.newBuilder().build();
+		ApplicationMetricsService service = new ApplicationMetricsService(storage);
+		for (int i = 0; i < 2000; i++) {
+			ApplicationMetrics<Metric<Double>> reading = reading("guid" + i, "time", i, 1000);
+			if (i == 1998) {
+				reading.getProperties().put("description", new String(description));
+			}
+			// every other history is expired by the time it is loaded
+			service.add(ApplicationMetricsReading.of(reading), (i % 2 == 0) ? now : now - 120000);
+		}
+		Assert.assertEquals(2000, snapshots(storage, service, Clock.systemUTC()).write());
+		Assert.assertTrue(Files.size(this.file) > 2 * 100000);
+
+		Cache<String, ApplicationMetricsHistory> restored = Caffeine.newBuilder().build();
+		Assert.assertEquals(1000,
+				snapshots(restored, new ApplicationMetricsService(restored), Clock.systemUTC()).load());
+		ApplicationMetricsHistory last = restored.getIfPresent("ticktock.time.guid1998");
+		Assert.assertEquals(1998.0, last.getValue(0, 0), 0.0);
+		Assert.assertEquals(new String(description), last.getProperties().get("description"));
+		Assert.assertNull(restored.getIfPresent("ticktock.time.guid1999"));
+	}
+
+	@Test
+	public void skipExpiredHistories() throws Exception {
+		Cache<String, ApplicationMetricsHistory> storage = Caffeine.newBuilder().build();
+		ApplicationMetricsService service = new ApplicationMetricsService(storage);
+		service.add(reading("foo", "time", 10.0, 1000));
+		snapshots(storage, service, Clock.systemUTC()).write();
+
+		Clock later = Clock.fixed(Instant.now().plusSeconds(120), ZoneOffset.UTC);
+		Cache<String, ApplicationMetricsHistory> restored = Caffeine.newBuilder().build();
+		Assert.assertEquals(0,
+				snapshots(restored, new ApplicationMetricsService(restored), later).load());
+		Assert.assertEquals(0, restored.estimatedSize());
+	}
+
+	@Test
+	public void keepOriginalAge() throws Exception {
+		long now = System.currentTimeMillis();
+		Cache<String, ApplicationMetricsHistory> storage = Caffeine.newBuilder().build();
+		ApplicationMetricsService service = new ApplicationMetricsService(storage);
+		service.add(ApplicationMetricsReading.of(reading("foo", "time", 10.0, 1000)), now - 60000);
+		snapshots(storage, service, Clock.systemUTC()).write();
+
+		Cache<String, ApplicationMetricsHistory> restored = Caffeine.newBuilder().build();
+		snapshots(restored, new ApplicationMetricsService(restored), Clock.systemUTC()).load();
+		ApplicationMetricsHistory foo = restored.getIfPresent("ticktock.time.foo");
+		Assert.assertEquals(now - 60000, foo.getUpdated());
+
+		// the replayed history expires when it would have without the restart
+		ApplicationMetricsExpiry expiry = new ApplicationMetricsExpiry(90000,
+				Clock.fixed(Instant.ofEpochMilli(now), ZoneOffset.UTC));
+		Assert.assertEquals(TimeUnit.SECONDS.toNanos(30), expiry.expireAfterCreate(foo.getName(), foo, 0));
+		Assert.assertEquals(TimeUnit.SECONDS.toNanos(30), expiry.expireAfterRead(foo.getName(), foo, 0,
+				TimeUnit.SECONDS.toNanos(30)));
+		foo.add(ApplicationMetricsReading.of(reading("foo", "time", 20.0, 6000)), now);
+		Assert.assertEquals(TimeUnit.SECONDS.toNanos(90), expiry.expireAfterUpdate(foo.getName(), foo, 0,
+				TimeUnit.SECONDS.toNanos(30)));
+	}
+
+	@Test
+	public void ignoreInvalidSnapshots() throws Exception {
+		Cache<String, ApplicationMetricsHistory> storage = Caffeine.newBuilder().build();
+		ApplicationMetricsService service = new ApplicationMetricsService(storage);
+		ApplicationMetricsSnapshots snapshots = snapshots(storage, service, Clock.systemUTC());
+		Assert.assertEquals(0, snapshots.load());
+
+		service.add(reading("foo", "time", 10.0, 1000));
+		snapshots.write();
+		byte[] bytes = Files.readAllBytes(this.file);
+		bytes[bytes.length - 1] ^= 1;
+		Files.write(this.file, bytes);
+		storage.invalidateAll();
+		Assert.assertEquals(0, snapshots.load());
+		Assert.assertEquals(0, storage.estimatedSize());
+	}
+
+	private ApplicationMetricsSnapshots snapshots(Cache<String, ApplicationMetricsHistory> storage,
+			ApplicationMetricsService service, Clock clock) {
+		return new ApplicationMetricsSnapshots(storage, service, this.file, 0, 90000, clock);
+	}
+
+	/**
+	 * A 1.x reading of the output channel send count, with properties of each type.
+	 */
+	private static ApplicationMetrics<Metric<Double>> reading(String guid, String applicationName, double sendCount,
+			long timestamp) {
+		ApplicationMetrics<Metric<Double>> applicationMetrics = ApplicationMetricsFixtures.createSendCount("ticktock",
+				applicationName, guid, sendCount, timestamp);
+		applicationMetrics.getProperties().put("enabled", true);
+		applicationMetrics.getProperties().put("ratio", 1.5);
+		applicationMetrics.getProperties().put("missing", null);
+		return applicationMetrics;
+	}
+}
@@ -0,0 +1,122 @@
+/*
+ * Copyright 2018 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.springframework.cloud.dataflow.metrics.collector;
+
+import java.util.ArrayList;
+import java.util.Date;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.github.benmanes.caffeine.cache.Caffeine;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.junit.Assert;
+import org.junit.Test;
+
+import org.springframework.cloud.dataflow.metrics.collector.model.ApplicationMetrics;
+import org.springframework.cloud.dataflow.metrics.collector.model.Metric;
+import org.springframework.cloud.dataflow.metrics.collector.services.ApplicationMetricsService;
+import org.springframework.cloud.dataflow.metrics.collector.support.CollectorMeters;
+import org.springframework.cloud.dataflow.metrics.collector.support.ResponseMetricsFilter;
+import org.springframework.mock.web.MockHttpServletRequest;
+import org.springframework.mock.web.MockHttpServletResponse;
+
+/**
+ * @author Christian Tzolov
+ */
+public class CollectorMetersTests {
+
+	private static final ObjectMapper mapper = new ObjectMapper();
+
+	private final MeterRegistry registry = new SimpleMeterRegistry();
+
+	private final CollectorMeters meters = new CollectorMeters(registry);
+
+	@Test
+	public void payloadAndStorage() throws Exception {
+		ApplicationMetricsService service = new ApplicationMetricsService(Caffeine.newBuilder().build());
+		service.setMeters(meters);
+		MetricsAggregator aggregator = new MetricsAggregator(service);
+		aggregator.setMeters(meters);
+
+		String payload = mapper.writeValueAsString(applicationMetrics("ticktock", "log", "a"));
+		aggregator.receive(payload);
+		aggregator.receive(payload);
+		aggregator.receive("not metrics");
+
+		Assert.assertEquals(2, registry.find("collector.payload.parse").timer().count());
+		Assert.assertEquals(2 * payload.length(), registry.find("collector.payload.size").summary().totalAmount(),
+				0.0);
+		Assert.assertEquals(2.0, registry.find("collector.payload.decoded")
+				.tag("version", ApplicationMetrics.METRICS_VERSION_1).counter().count(), 0.0);
+		Assert.assertEquals(0.0, registry.find("collector.payload.decoded")
+				.tag("version", ApplicationMetrics.METRICS_VERSION_2).counter().count(), 0.0);
+		Assert.assertEquals(1.0, registry.find("collector.payload.invalid").counter().count(), 0.0);
+		Assert.assertEquals(2, registry.find("collector.storage.add").timer().count());
+		Assert.assertEquals(2, registry.find("collector.storage.wait").timer().count());
+	}
+
+	@Test
+	public void query() throws Exception {
+		ApplicationMetricsService service = new ApplicationMetricsService(Caffeine.newBuilder().build());
+		service.setMeters(meters);
+		service.add(applicationMetrics("ticktock", "time", "a"));
+		service.add(applicationMetrics("ticktock", "log", "b"));
+		service.add(applicationMetrics("ticktock", "log", "c"));
+		service.add(applicationMetrics("http", "http", "d"));
+
+		Assert.assertEquals(2, service.toStreamMetrics((String) null).size());
+		Assert.assertEquals(1, service.toStreamMetrics("http").size());
+
+		Assert.assertEquals(2, registry.find("collector.query").timer().count());
+		Assert.assertEquals(5.0, registry.find("collector.query.instances").summary().totalAmount(), 0.0);
+	}
+
+	@Test
+	public void response() throws Exception {
+		ResponseMetricsFilter filter = new ResponseMetricsFilter(meters);
+		MockHttpServletResponse response = new MockHttpServletResponse();
+		byte[] body = "{\"content\":[]}".getBytes("UTF-8");
+		filter.doFilter(new MockHttpServletRequest(), response, (req, res) -> {
+			res.getOutputStream().write(body, 0, 4);
+			res.getOutputStream().write(body, 4, body.length - 4);
+		});
+		filter.doFilter(new MockHttpServletRequest(), new MockHttpServletResponse(), (req, res) -> {
+		});
+
+		Assert.assertArrayEquals(body, response.getContentAsByteArray());
+		Assert.assertEquals(1, registry.find("collector.response.write").timer().count());
+		Assert.assertEquals(body.length, registry.find("collector.response.size").summary().totalAmount(), 0.0);
+	}
+
+	private static ApplicationMetrics<Metric<Double>> applicationMetrics(String streamName, String applicationName,
+			String guid) {
+		List<Metric<Double>> metrics = new ArrayList<>();
+		metrics.add(new Metric<>("integration.channel.output.send.mean", 1.0, new Date()));
+		ApplicationMetrics<Metric<Double>> applicationMetrics = new ApplicationMetrics<>(
+				streamName + "." + applicationName + "." + guid, metrics);
+		Map<String, Object> properties = new HashMap<>();
+		properties.put(ApplicationMetrics.STREAM_NAME, streamName);
+		properties.put(ApplicationMetrics.APPLICATION_NAME, applicationName);
+		properties.put(ApplicationMetrics.APPLICATION_GUID, guid);
+		properties.put(ApplicationMetrics.STREAM_METRICS_VERSION, ApplicationMetrics.METRICS_VERSION_2);
+		applicationMetrics.setProperties(properties);
+		return applicationMetrics;
+	}
+}
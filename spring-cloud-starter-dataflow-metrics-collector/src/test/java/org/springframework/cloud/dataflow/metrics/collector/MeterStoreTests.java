@@ -0,0 +1,255 @@
+/*
+ * Copyright 2018 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package org.springframework.cloud.dataflow.metrics.collector;
+
+import java.time.Clock;
+import java.time.Instant;
+import java.time.ZoneId;
+import java.time.ZoneOffset;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+import org.springframework.cloud.dataflow.metrics.collector.decoder.ApplicationMetricsReader;
+import org.springframework.cloud.dataflow.metrics.collector.decoder.MicrometerMetricsDecoder;
+import org.springframework.cloud.dataflow.metrics.collector.decoder.SpringBootMetricsDecoder;
+import org.springframework.cloud.dataflow.metrics.collector.model.ApplicationMetrics;
+import org.springframework.cloud.dataflow.metrics.collector.model.ApplicationMetricsReading;
+import org.springframework.cloud.dataflow.metrics.collector.model.MeterSample;
+import org.springframework.cloud.dataflow.metrics.collector.services.MeterStore;
+import org.springframework.cloud.dataflow.metrics.collector.utils.StringDictionary;
+
+/**
+ * @author Christian Tzolov
+ */
+public class MeterStoreTests {
+
+	private final StringDictionary dictionary = new StringDictionary();
+
+	private final ApplicationMetricsReader reader = new ApplicationMetricsReader(
+			Arrays.asList(new SpringBootMetricsDecoder(), new MicrometerMetricsDecoder(this.dictionary)));
+
+	@Test
+	public void queryByNameAndTags() throws Exception {
+		MeterStore store = new MeterStore(this.dictionary, 60000);
+		store.add(read("ticktock", "time", "a", 1.0));
+		store.add(read("ticktock", "log", "b", 2.0));
+		store.add(read("httpclient", "log", "c", 3.0));
+
+		Assert.assertEquals(9, store.size());
+		Assert.assertEquals(6, store.query("jvm.memory.used", null, null, null).size());
+		Assert.assertEquals(6, store.query("", "ticktock", null, null).size());
+		Assert.assertTrue(store.query("unknown", null, null, null).isEmpty());
+
+		List<MeterSample> heap = store.query("jvm.memory.used", "ticktock", "log",
+				Collections.singletonMap("area", "heap"));
+		Assert.assertEquals(1, heap.size());
+		MeterSample sample = heap.get(0);
+		Assert.assertEquals("ticktock", sample.getStream());
+		Assert.assertEquals("log", sample.getApplication());
+		Assert.assertEquals("b", sample.getInstance());
+		Assert.assertEquals("heap", sample.getTags().get("area"));
+		Assert.assertEquals("PS Eden Space", sample.getTags().get("id"));
+		Assert.assertEquals(2.0, sample.getTotal(), 0.0);
+
+		Map<String, String> tags = new HashMap<>();
+		tags.put("type", "channel");
+		tags.put("name", "output");
+		List<MeterSample> sends = store.query("", null, "time", tags);
+		Assert.assertEquals(1, sends.size());
+		Assert.assertEquals("spring.integration.send", sends.get(0).getName());
+		Assert.assertEquals(30.0, sends.get(0).getCount(), 0.0);
+		Assert.assertEquals(0.5, sends.get(0).getMean(), 0.0);
+		Assert.assertTrue(store.query("", null, null, Collections.singletonMap("area", "unknown")).isEmpty());
+
+		// a new reading replaces the statistics of the series
+		store.add(read("ticktock", "log", "b", 4.0));
+		Assert.assertEquals(9, store.size());
+		Assert.assertEquals(4.0, store.query("jvm.memory.used", "ticktock", "log", null).get(0).getTotal(), 0.0);
+	}
+
+	@Test
+	public void expiredInstances() throws Exception {
+		MutableClock clock = new MutableClock();
+		MeterStore store = new MeterStore(this.dictionary, 60000, clock);
+		store.add(read("ticktock", "time", "a", 1.0));
+		clock.set(30000);
+		store.add(read("ticktock", "log", "b", 2.0));
+		Assert.assertEquals(6, store.size());
+
+		clock.set(70000);
+		Assert.assertEquals(2, store.query("jvm.memory.used", null, null, null).size());
+		Assert.assertEquals(3, store.size());
+
+		// the identifiers of the expired series are reused
+		store.add(read("httpclient", "log", "c", 3.0));
+		Assert.assertEquals(6, store.size());
+		Assert.assertEquals("c", store.query("", "httpclient", null, null).get(0).getInstance());
+	}
+
+	@Test
+	public void releasedStrings() throws Exception {
+		MutableClock clock = new MutableClock();
+		MeterStore store = new MeterStore(this.dictionary, 60000, clock);
+		store.add(read("ticktock", "time", "a", 1.0));
+		store.add(read("ticktock", "log", "b", 2.0));
+		Assert.assertEquals(13, this.dictionary.size());
+
+		// the strings of an expired instance still used by another one are kept
+		clock.set(30000);
+		store.add(read("ticktock", "log", "b", 2.0));
+		clock.set(70000);
+		Assert.assertEquals(3, store.query("", null, null, null).size());
+		Assert.assertEquals(13, this.dictionary.size());
+
+		clock.set(100000);
+		Assert.assertTrue(store.query("", null, null, null).isEmpty());
+		Assert.assertEquals(0, store.size());
+		Assert.assertEquals(0, this.dictionary.size());
+
+		// encoded again under new ids
+		store.add(read("httpclient", "log", "c", 3.0));
+		Assert.assertEquals(3, store.size());
+		Assert.assertEquals(3.0, store.query("jvm.memory.used", null, null, Collections.singletonMap("area", "heap"))
+				.get(0).getTotal(), 0.0);
+	}
+
+	@Test
+	public void concurrentPurgeAndAdd() throws Exception {
+		MutableClock clock = new MutableClock();
+		MeterStore store = new MeterStore(this.dictionary, 1000, clock);
+		ExecutorService executor = Executors.newFixedThreadPool(4);
+		try {
+			List<Future<?>> futures = new ArrayList<>();
+			for (int thread = 0; thread < 4; thread++) {
+				int ticker = thread;
+				futures.add(executor.submit(() -> {
+					for (int i = 0; i < 500; i++) {
+						// the instances keep expiring and registering again under the same names
+						if (ticker == 0) {
+							clock.set(clock.millis() + 300);
+						}
+						store.add(read("ticktock", "time", "guid" + (i % 5), i));
+						store.query("jvm.memory.used", "ticktock", null, null);
+					}
+					return null;
+				}));
+			}
+			for (Future<?> future : futures) {
+				future.get(30, TimeUnit.SECONDS);
+			}
+		}
+		finally {
+			executor.shutdownNow();
+		}
+
+		clock.set(clock.millis() + 2000);
+		Assert.assertTrue(store.query("", null, null, null).isEmpty());
+		Assert.assertEquals(0, store.size());
+		for (int i = 0; i < 5; i++) {
+			store.add(read("ticktock", "time", "guid" + i, i));
+		}
+		Assert.assertEquals(15, store.size());
+		Assert.assertEquals(5, store.query("jvm.memory.used", "ticktock", "time",
+				Collections.singletonMap("area", "heap")).size());
+	}
+
+	@Test
+	public void fullDictionary() throws Exception {
+		StringDictionary dictionary = new StringDictionary(5);
+		ApplicationMetricsReader reader = new ApplicationMetricsReader(
+				Arrays.asList(new SpringBootMetricsDecoder(), new MicrometerMetricsDecoder(dictionary)));
+		MeterStore store = new MeterStore(dictionary, 60000);
+		ApplicationMetricsReading reading = read(reader, "ticktock", "time", "a", 1.0);
+		store.add(reading);
+
+		// only the first meter fits, the channel send is still retained
+		Assert.assertEquals(5, dictionary.size());
+		Assert.assertTrue(dictionary.getRefused() > 0);
+		Assert.assertEquals(1, store.size());
+		Assert.assertEquals("PS Eden Space", store.query("", null, null, null).get(0).getTags().get("id"));
+		Assert.assertEquals(3, reading.size());
+	}
+
+	private ApplicationMetricsReading read(String stream, String application, String guid, double total)
+			throws Exception {
+		return read(this.reader, stream, application, guid, total);
+	}
+
+	private ApplicationMetricsReading read(ApplicationMetricsReader reader, String stream, String application, String guid, double total)
+			throws Exception {
+		String json = "{\"name\":\"" + stream + "." + application + "." + guid + "\",\"interval\":30000,"
+				+ "\"properties\":{\"" + ApplicationMetrics.STREAM_NAME + "\":\"" + stream + "\",\""
+				+ ApplicationMetrics.APPLICATION_NAME + "\":\"" + application + "\",\""
+				+ ApplicationMetrics.APPLICATION_GUID + "\":\"" + guid + "\",\""
+				+ ApplicationMetrics.STREAM_METRICS_VERSION + "\":\"2.0\"},\"metrics\":["
+				+ meter("jvm.memory.used", "{\"key\":\"id\",\"value\":\"PS Eden Space\"},"
+						+ "{\"key\":\"area\",\"value\":\"heap\"}", "\"total\":" + total)
+				+ "," + meter("jvm.memory.used", "{\"key\":\"area\",\"value\":\"nonheap\"}", "\"total\":1.0")
+				+ "," + meter("spring.integration.send", "{\"key\":\"type\",\"value\":\"channel\"},"
+						+ "{\"key\":\"name\",\"value\":\"output\"},{\"key\":\"result\",\"value\":\"success\"}",
+						"\"count\":30,\"mean\":0.5,\"upper\":2.0")
+				+ "]}";
+		return reader.read(json, ApplicationMetrics.METRICS_VERSION_2);
+	}
+
+	private String meter(String name, String tags, String statistics) {
+		return "{\"timestamp\":1527069600000,\"id\":{\"name\":\"" + name + "\",\"tags\":[" + tags + "]},"
+				+ statistics + "}";
+	}
+
+	private static class MutableClock extends Clock {
+
+		private final AtomicLong millis = new AtomicLong();
+
+		void set(long millis) {
+			this.millis.set(millis);
+		}
+
+		@Override
+		public long millis() {
+			return this.millis.get();
+		}
+
+		@Override
+		public Instant instant() {
+			return Instant.ofEpochMilli(millis());
+		}
+
+		@Override
+		public ZoneId getZone() {
+			return ZoneOffset.UTC;
+		}
+
+		@Override
+		public Clock withZone(ZoneId zone) {
+			return this;
+		}
+	}
+}
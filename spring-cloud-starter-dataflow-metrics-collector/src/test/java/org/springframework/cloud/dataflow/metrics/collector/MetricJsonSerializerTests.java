@@ -16,9 +16,15 @@
 
 package org.springframework.cloud.dataflow.metrics.collector;
 
+import java.text.DecimalFormat;
+import java.text.DecimalFormatSymbols;
+import java.text.SimpleDateFormat;
 import java.util.Date;
 import java.util.Locale;
+import java.util.Random;
+import java.util.TimeZone;
 
+import com.fasterxml.jackson.databind.JsonNode;
 import com.fasterxml.jackson.databind.ObjectMapper;
 import com.fasterxml.jackson.databind.module.SimpleModule;
 import org.junit.Assert;
@@ -46,4 +52,49 @@ public class MetricJsonSerializerTests {
 		Metric m = mapper.readValue(json,Metric.class);
 		Assert.assertEquals(3.14, m.getValue().doubleValue(),0.0);
 	}
+
+	@Test
+	public void sameOutputAsFormatters() throws Exception {
+		ObjectMapper mapper = new ObjectMapper();
+		SimpleModule module = new SimpleModule();
+		module.addSerializer(Metric.class, new MetricJsonSerializer.Serializer());
+		mapper.registerModule(module);
+		DecimalFormat decimalFormat = new DecimalFormat("#.##", DecimalFormatSymbols.getInstance(Locale.ROOT));
+		SimpleDateFormat dateFormat = new SimpleDateFormat("yyyy-MM-dd'T'HH:mm:ss.SSSX");
+		dateFormat.setTimeZone(TimeZone.getTimeZone("GMT"));
+		Random random = new Random(42);
+		double[] values = { 0.0, 0.125, 0.135, 1.005, -2.675, 12345.675, 1e20, -0.001 };
+		long[] timestamps = { 0L, 951782400000L, 4107542399999L, -1L, 1520001330042L };
+
+		for (int i = 0; i < 10000; i++) {
+			double value = i < values.length ? values[i] : (random.nextDouble() - 0.5) * Math.pow(10, random.nextInt(12));
+			long timestamp = i < timestamps.length ? timestamps[i] : random.nextLong() % 253402300799999L;
+			if (timestamp < 0 && i >= timestamps.length) {
+				timestamp = -timestamp;
+			}
+			Date date = new Date(timestamp);
+			JsonNode json = mapper.readTree(mapper.writeValueAsString(new Metric<>("sample", value, date)));
+
+			Assert.assertEquals(String.valueOf(value), decimalFormat.parse(decimalFormat.format(value)).doubleValue(),
+					json.get("value").asDouble(), 0.0);
+			Assert.assertEquals(dateFormat.format(date), json.get("timestamp").asText());
+		}
+	}
+
+	@Test
+	public void parseTimestamps() throws Exception {
+		ObjectMapper mapper = new ObjectMapper();
+		SimpleModule module = new SimpleModule();
+		module.addDeserializer(Metric.class, new MetricJsonSerializer.Deserializer());
+		mapper.registerModule(module);
+
+		Metric m = mapper.readValue("{\"name\":\"a\",\"value\":1,\"timestamp\":\"2018-03-01T10:15:30.042Z\"}",
+				Metric.class);
+		Assert.assertEquals(1519899330042L, m.getTimestamp().getTime());
+		m = mapper.readValue("{\"name\":\"a\",\"value\":1,\"timestamp\":\"2018-03-01T11:15:30.042+01:00\"}",
+				Metric.class);
+		Assert.assertEquals(1519899330042L, m.getTimestamp().getTime());
+		m = mapper.readValue("{\"name\":\"a\",\"value\":1,\"timestamp\":\"invalid\"}", Metric.class);
+		Assert.assertNull(m.getTimestamp());
+	}
 }
@@ -0,0 +1,56 @@
+/*
+ * Copyright 2018 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.springframework.cloud.dataflow.metrics.collector;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+import org.springframework.cloud.dataflow.metrics.collector.utils.MetricNames;
+
+/**
+ * @author Christian Tzolov
+ */
+public class MetricNamesTests {
+
+	private static final String[] NAMES = { "integration.channel.output.send.mean",
+			"integration.channel.output.sendCount", "integration.channel.input_1.send.mean",
+			"integration.channel..send.mean", "integration.channel..sendCount", "integration.channel.send.mean",
+			"integration.channel.foo-bar.send.mean", "integration.channel.foo.bar.sendCount",
+			"integration.channel.output.send.max", "integration.channel.output.sendCountX",
+			"integration.channel.output.send.mean ", "integration.handler.output.send.mean", "jvm.memory.used", "",
+			"integration.channel.", "integration.channel.\u00e9.send.mean" };
+
+	@Test
+	public void sameClassificationAsRegex() {
+		for (String name : NAMES) {
+			Assert.assertEquals(name, name.matches("integration\\.channel\\.(\\w*)\\.send\\.mean"),
+					MetricNames.isChannelSendMean(name));
+			Assert.assertEquals(name, name.matches("integration\\.channel\\.(\\w*)\\.sendCount"),
+					MetricNames.isChannelSendCount(name));
+		}
+	}
+
+	@Test
+	public void derivedNames() {
+		Assert.assertEquals("integration.channel.output.send.mean",
+				MetricNames.sendMeanOf("integration.channel.output.sendCount"));
+		Assert.assertSame(MetricNames.sendMeanOf("integration.channel.output.sendCount"),
+				MetricNames.sendMeanOf("integration.channel.output.sendCount"));
+		Assert.assertNull(MetricNames.sendMeanOf("integration.channel.output.send.mean"));
+		Assert.assertEquals("integration.channel.input.send.mean", MetricNames.channelSendMean("input"));
+	}
+}
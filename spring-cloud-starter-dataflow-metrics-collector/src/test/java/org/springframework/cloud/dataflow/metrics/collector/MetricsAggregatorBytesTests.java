@@ -0,0 +1,34 @@
+/*
+ * Copyright 2018 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.springframework.cloud.dataflow.metrics.collector;
+
+import com.fasterxml.jackson.core.JsonProcessingException;
+
+import org.springframework.cloud.dataflow.metrics.collector.model.ApplicationMetrics;
+
+/**
+ * Runs the {@link MetricsAggregatorTests} scenarios with raw byte[] payloads.
+ *
+ * @author Christian Tzolov
+ */
+public class MetricsAggregatorBytesTests extends MetricsAggregatorTests {
+
+	@Override
+	protected void receive(MetricsAggregator aggregator, ApplicationMetrics<?> applicationMetrics) throws JsonProcessingException {
+		aggregator.receive(mapper.writeValueAsBytes(applicationMetrics));
+	}
+}
@@ -16,9 +16,13 @@
 
 package org.springframework.cloud.dataflow.metrics.collector;
 
+import java.nio.charset.StandardCharsets;
 import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
 import java.util.Date;
 import java.util.HashMap;
+import java.util.Iterator;
 import java.util.LinkedList;
 import java.util.List;
 import java.util.Map;
@@ -34,6 +38,9 @@ import org.junit.Assert;
 import org.junit.Before;
 import org.junit.Test;
 
+import org.springframework.cloud.dataflow.metrics.collector.decoder.ApplicationMetricsReader;
+import org.springframework.cloud.dataflow.metrics.collector.decoder.MicrometerMetricsDecoder;
+import org.springframework.cloud.dataflow.metrics.collector.decoder.SpringBootMetricsDecoder;
 import org.springframework.cloud.dataflow.metrics.collector.endpoint.MetricsCollectorEndpoint;
 import org.springframework.cloud.dataflow.metrics.collector.model.Application;
 import org.springframework.cloud.dataflow.metrics.collector.model.ApplicationMetrics;
@@ -41,7 +48,13 @@ import org.springframework.cloud.dataflow.metrics.collector.model.Instance;
 import org.springframework.cloud.dataflow.metrics.collector.model.Metric;
 import org.springframework.cloud.dataflow.metrics.collector.model.MicrometerMetric;
 import org.springframework.cloud.dataflow.metrics.collector.model.StreamMetrics;
+import org.springframework.cloud.dataflow.metrics.collector.services.ApplicationMetricsBatcher;
+import org.springframework.cloud.dataflow.metrics.collector.services.ApplicationMetricsHistory;
 import org.springframework.cloud.dataflow.metrics.collector.services.ApplicationMetricsService;
+import org.springframework.hateoas.PagedResources;
+import org.springframework.http.HttpStatus;
+import org.springframework.http.ResponseEntity;
+import org.springframework.messaging.MessageHeaders;
 import org.springframework.mock.web.MockHttpServletRequest;
 import org.springframework.web.context.request.RequestContextHolder;
 import org.springframework.web.context.request.ServletRequestAttributes;
@@ -64,7 +77,7 @@ public class MetricsAggregatorTests extends BaseCacheTests {
 		RequestContextHolder.resetRequestAttributes();
 	}
 
-	private static final ObjectMapper mapper = new ObjectMapper();
+	protected static final ObjectMapper mapper = new ObjectMapper();
 
 	@Test
 	public void includeOneMetric() throws JsonProcessingException {
@@ -72,12 +85,12 @@ public class MetricsAggregatorTests extends BaseCacheTests {
 		Metric<Double> inputSendCount = new Metric<>("integration.channel.input.sendCount", 10.0, new Date(now));
 		ApplicationMetrics<Metric<Double>> app = createApplicationMetrics("httpIngest", "http", "foo", 0);
 		app.getMetrics().add(inputSendCount);
-		Cache<String, LinkedList<ApplicationMetrics<Metric<Double>>>> rawCache = Caffeine.newBuilder().build();
+		Cache<String, ApplicationMetricsHistory> rawCache = Caffeine.newBuilder().build();
 		ApplicationMetricsService service = new ApplicationMetricsService(rawCache);
 		MetricsAggregator aggregator = new MetricsAggregator(service);
 		MetricsCollectorEndpoint endpoint = new MetricsCollectorEndpoint(service);
 
-		aggregator.receive(mapper.writeValueAsString(app));
+		receive(aggregator, app);
 
 		Assert.assertEquals(1, rawCache.estimatedSize());
 		StreamMetrics streamMetrics = endpoint.fetchMetrics("").getBody().iterator().next();
@@ -91,18 +104,114 @@ public class MetricsAggregatorTests extends BaseCacheTests {
 		Assert.assertEquals(0, computed.getValue(), 0.0);
 	}
 
+	@Test
+	public void conditionalFetch() throws JsonProcessingException {
+		Cache<String, ApplicationMetricsHistory> rawCache = Caffeine.newBuilder().build();
+		ApplicationMetricsService service = new ApplicationMetricsService(rawCache);
+		MetricsAggregator aggregator = new MetricsAggregator(service);
+		MetricsCollectorEndpoint endpoint = new MetricsCollectorEndpoint(service);
+
+		receive(aggregator, createApplicationMetrics("httpIngest", "http", "foo", 0));
+		receive(aggregator, createApplicationMetrics("ticktock", "time", "bar", 0));
+
+		ResponseEntity<PagedResources<StreamMetrics>> response = endpoint.fetchMetrics("", null);
+		String eTag = response.getHeaders().getETag();
+		Assert.assertEquals(HttpStatus.OK, response.getStatusCode());
+		Assert.assertNotNull(eTag);
+		Assert.assertEquals(eTag, endpoint.fetchMetrics("").getHeaders().getETag());
+
+		Assert.assertEquals(HttpStatus.NOT_MODIFIED, endpoint.fetchMetrics("", eTag).getStatusCode());
+		Assert.assertNull(endpoint.fetchMetrics("", eTag).getBody());
+		Assert.assertEquals(HttpStatus.NOT_MODIFIED, endpoint.fetchMetrics("", "\"0\", W/" + eTag).getStatusCode());
+		Assert.assertEquals(HttpStatus.NOT_MODIFIED, endpoint.fetchMetrics("", "*").getStatusCode());
+		Assert.assertEquals(HttpStatus.OK, endpoint.fetchMetrics("", "\"0\"").getStatusCode());
+
+		String ticktockETag = endpoint.fetchMetrics("ticktock", null).getHeaders().getETag();
+		receive(aggregator, createApplicationMetrics("httpIngest", "http", "foo", 0));
+		Assert.assertEquals(HttpStatus.OK, endpoint.fetchMetrics("", eTag).getStatusCode());
+		Assert.assertEquals(HttpStatus.NOT_MODIFIED, endpoint.fetchMetrics("ticktock", ticktockETag).getStatusCode());
+
+		eTag = endpoint.fetchMetrics("", null).getHeaders().getETag();
+		rawCache.invalidate("ticktock.time.bar");
+		Assert.assertNotEquals(eTag, endpoint.fetchMetrics("", null).getHeaders().getETag());
+		Assert.assertEquals(HttpStatus.OK, endpoint.fetchMetrics("ticktock", ticktockETag).getStatusCode());
+
+		receive(aggregator, createApplicationMetrics("ticktock", "time", "bar", 0));
+		Assert.assertNotEquals(ticktockETag, endpoint.fetchMetrics("ticktock", null).getHeaders().getETag());
+	}
+
+	@Test
+	public void pagination() throws JsonProcessingException {
+		Cache<String, ApplicationMetricsHistory> rawCache = Caffeine.newBuilder().build();
+		ApplicationMetricsService service = new ApplicationMetricsService(rawCache);
+		MetricsAggregator aggregator = new MetricsAggregator(service);
+		MetricsCollectorEndpoint endpoint = new MetricsCollectorEndpoint(service);
+
+		for (String streamName : new String[] { "d", "b", "e", "a", "c" }) {
+			receive(aggregator, createApplicationMetrics(streamName, "http", "foo", 0));
+		}
+
+		PagedResources<StreamMetrics> resources = endpoint.fetchMetrics("", 0, 2, null, null).getBody();
+		Assert.assertEquals(Arrays.asList("a", "b"), streamNames(resources));
+		Assert.assertEquals(2, resources.getMetadata().getSize());
+		Assert.assertEquals(5, resources.getMetadata().getTotalElements());
+		Assert.assertEquals(3, resources.getMetadata().getTotalPages());
+		Assert.assertNull(resources.getPreviousLink());
+		Assert.assertTrue(resources.getNextLink().getHref().contains("page=1"));
+		Assert.assertTrue(resources.getNextLink().getHref().contains("size=2"));
+
+		resources = endpoint.fetchMetrics("", 2, 2, null, null).getBody();
+		Assert.assertEquals(Arrays.asList("e"), streamNames(resources));
+		Assert.assertNull(resources.getNextLink());
+		Assert.assertTrue(resources.getPreviousLink().getHref().contains("page=1"));
+
+		resources = endpoint.fetchMetrics("", 1, 2, "name,desc", null).getBody();
+		Assert.assertEquals(Arrays.asList("c", "b"), streamNames(resources));
+		Assert.assertTrue(resources.getNextLink().getHref().contains("sort=name,desc"));
+
+		resources = endpoint.fetchMetrics("e,a,c", 0, 2, null, null).getBody();
+		Assert.assertEquals(Arrays.asList("a", "c"), streamNames(resources));
+		Assert.assertEquals(3, resources.getMetadata().getTotalElements());
+
+		resources = endpoint.fetchMetrics("", 5, 2, null, null).getBody();
+		Assert.assertTrue(resources.getContent().isEmpty());
+		Assert.assertTrue(resources.getPreviousLink().getHref().contains("page=2"));
+
+		resources = endpoint.fetchMetrics("").getBody();
+		Assert.assertEquals(Arrays.asList("a", "b", "c", "d", "e"), streamNames(resources));
+		Assert.assertEquals(1, resources.getMetadata().getTotalPages());
+
+		rawCache.invalidate("b.http.foo");
+		resources = endpoint.fetchMetrics("", 0, 2, null, null).getBody();
+		Assert.assertEquals(Arrays.asList("a", "c"), streamNames(resources));
+		Assert.assertEquals(4, resources.getMetadata().getTotalElements());
+
+		Assert.assertEquals(HttpStatus.BAD_REQUEST, endpoint.fetchMetrics("", -1, 2, null, null).getStatusCode());
+		Assert.assertEquals(HttpStatus.BAD_REQUEST, endpoint.fetchMetrics("", 0, 0, null, null).getStatusCode());
+		Assert.assertEquals(HttpStatus.BAD_REQUEST, endpoint.fetchMetrics("", 0, 2, "guid", null).getStatusCode());
+		Assert.assertEquals(HttpStatus.BAD_REQUEST, endpoint.fetchMetrics("", 0, 2, "name,up", null).getStatusCode());
+	}
+
+	private static List<String> streamNames(PagedResources<StreamMetrics> resources) {
+		List<String> names = new ArrayList<>();
+		for (StreamMetrics streamMetrics : resources) {
+			names.add(streamMetrics.getName());
+		}
+		return names;
+	}
+
 	@Test
 	public void incrementMetric() throws Exception {
 		Long now = System.currentTimeMillis();
 		Metric<Double> inputSendCount = new Metric<Double>("integration.channel.input.sendCount", 10.0, new Date(now));
 		ApplicationMetrics<Metric<Double>> app = createApplicationMetrics("httpIngest", "http", "foo", 0);
 		app.getMetrics().add(inputSendCount);
-		Cache<String, LinkedList<ApplicationMetrics<Metric<Double>>>> rawCache = Caffeine.newBuilder().build();
+		Cache<String, ApplicationMetricsHistory> rawCache = Caffeine.newBuilder().build();
 		ApplicationMetricsService service = new ApplicationMetricsService(rawCache);
 		MetricsAggregator aggregator = new MetricsAggregator(service);
 		MetricsCollectorEndpoint endpoint = new MetricsCollectorEndpoint(service);
 
-		aggregator.receive(mapper.writeValueAsString(app));
+		receive(aggregator, app);
 
 		Assert.assertEquals(1, rawCache.estimatedSize());
 		StreamMetrics streamMetrics = endpoint.fetchMetrics("").getBody().iterator().next();
@@ -115,7 +224,7 @@ public class MetricsAggregatorTests extends BaseCacheTests {
 		Metric<Double> inputSendCount2 = new Metric<>("integration.channel.input.sendCount", 110.0, new Date(now + 5000));
 		ApplicationMetrics<Metric<Double>> app2 = createApplicationMetrics("httpIngest", "http", "foo", 0);
 		app2.getMetrics().add(inputSendCount2);
-		aggregator.receive(mapper.writeValueAsString(app2));
+		receive(aggregator, app2);
 
 		Assert.assertEquals(1, rawCache.estimatedSize());
 		streamMetrics = endpoint.fetchMetrics("").getBody().iterator().next();
@@ -131,12 +240,12 @@ public class MetricsAggregatorTests extends BaseCacheTests {
 	@Test
 	public void addInstance() throws Exception {
 		ApplicationMetrics<Metric<Double>> app = createApplicationMetrics("httpIngest", "http", "foo", 0);
-		Cache<String, LinkedList<ApplicationMetrics<Metric<Double>>>> rawCache = Caffeine.newBuilder().build();
+		Cache<String, ApplicationMetricsHistory> rawCache = Caffeine.newBuilder().build();
 		ApplicationMetricsService service = new ApplicationMetricsService(rawCache);
 		MetricsAggregator aggregator = new MetricsAggregator(service);
 		MetricsCollectorEndpoint endpoint = new MetricsCollectorEndpoint(service);
 
-		aggregator.receive(mapper.writeValueAsString(app));
+		receive(aggregator, app);
 
 		Assert.assertEquals(1, rawCache.estimatedSize());
 		StreamMetrics streamMetrics = endpoint.fetchMetrics("").getBody().iterator().next();
@@ -146,7 +255,7 @@ public class MetricsAggregatorTests extends BaseCacheTests {
 		Instance instance = application.getInstances().get(0);
 		Assert.assertEquals("foo", instance.getGuid());
 		ApplicationMetrics<Metric<Double>> app2 = createApplicationMetrics("httpIngest", "http", "bar", 1);
-		aggregator.receive(mapper.writeValueAsString(app2));
+		receive(aggregator, app2);
 
 		Assert.assertEquals(2, rawCache.estimatedSize());
 		streamMetrics = endpoint.fetchMetrics("").getBody().iterator().next();
@@ -166,13 +275,13 @@ public class MetricsAggregatorTests extends BaseCacheTests {
 	public void removeInstance() throws Exception {
 		ApplicationMetrics app = createApplicationMetrics("httpIngest", "http", "foo", 0);
 		ApplicationMetrics app2 = createApplicationMetrics("httpIngest", "http", "bar", 1);
-		Cache<String, LinkedList<ApplicationMetrics<Metric<Double>>>> rawCache = Caffeine.newBuilder().build();
+		Cache<String, ApplicationMetricsHistory> rawCache = Caffeine.newBuilder().build();
 		ApplicationMetricsService service = new ApplicationMetricsService(rawCache);
 		MetricsAggregator aggregator = new MetricsAggregator(service);
 		MetricsCollectorEndpoint endpoint = new MetricsCollectorEndpoint(service);
 
-		aggregator.receive(mapper.writeValueAsString(app));
-		aggregator.receive(mapper.writeValueAsString(app2));
+		receive(aggregator, app);
+		receive(aggregator, app2);
 
 		StreamMetrics streamMetrics = endpoint.fetchMetrics("").getBody().iterator().next();
 		Application application = streamMetrics.getApplications().get(0);
@@ -195,7 +304,7 @@ public class MetricsAggregatorTests extends BaseCacheTests {
 
 	@Test
 	public void addApplication() throws Exception {
-		Cache<String, LinkedList<ApplicationMetrics<Metric<Double>>>> rawCache = Caffeine.newBuilder().build();
+		Cache<String, ApplicationMetricsHistory> rawCache = Caffeine.newBuilder().build();
 		ApplicationMetricsService service = new ApplicationMetricsService(rawCache);
 		MetricsAggregator aggregator = new MetricsAggregator(service);
 		MetricsCollectorEndpoint endpoint = new MetricsCollectorEndpoint(service);
@@ -204,8 +313,8 @@ public class MetricsAggregatorTests extends BaseCacheTests {
 		ApplicationMetrics app = createApplicationMetrics("httpIngest", "http", "foo", 0);
 		ApplicationMetrics app2 = createApplicationMetrics("httpIngest", "log", "bar", 0);
 
-		aggregator.receive(mapper.writeValueAsString(app));
-		aggregator.receive(mapper.writeValueAsString(app2));
+		receive(aggregator, app);
+		receive(aggregator, app2);
 
 		Assert.assertEquals(2, rawCache.estimatedSize());
 		StreamMetrics streamMetrics = endpoint.fetchMetrics("").getBody().iterator().next();
@@ -214,7 +323,7 @@ public class MetricsAggregatorTests extends BaseCacheTests {
 
 	@Test
 	public void addStream() throws Exception {
-		Cache<String, LinkedList<ApplicationMetrics<Metric<Double>>>> rawCache = Caffeine.newBuilder().build();
+		Cache<String, ApplicationMetricsHistory> rawCache = Caffeine.newBuilder().build();
 		ApplicationMetricsService service = new ApplicationMetricsService(rawCache);
 		MetricsAggregator aggregator = new MetricsAggregator(service);
 		MetricsCollectorEndpoint endpoint = new MetricsCollectorEndpoint(service);
@@ -223,15 +332,15 @@ public class MetricsAggregatorTests extends BaseCacheTests {
 		ApplicationMetrics app = createApplicationMetrics("httpIngest", "http", "foo", 0);
 		ApplicationMetrics app2 = createApplicationMetrics("woodchuck", "time", "bar", 0);
 
-		aggregator.receive(mapper.writeValueAsString(app));
-		aggregator.receive(mapper.writeValueAsString(app2));
+		receive(aggregator, app);
+		receive(aggregator, app2);
 
 		Assert.assertEquals(2, endpoint.fetchMetrics("").getBody().getContent().size());
 	}
 
 	@Test
 	public void filterByStream() throws Exception {
-		Cache<String, LinkedList<ApplicationMetrics<Metric<Double>>>> rawCache = Caffeine.newBuilder().build();
+		Cache<String, ApplicationMetricsHistory> rawCache = Caffeine.newBuilder().build();
 		ApplicationMetricsService service = new ApplicationMetricsService(rawCache);
 		MetricsAggregator aggregator = new MetricsAggregator(service);
 		MetricsCollectorEndpoint endpoint = new MetricsCollectorEndpoint(service);
@@ -241,17 +350,17 @@ public class MetricsAggregatorTests extends BaseCacheTests {
 		ApplicationMetrics app2 = createApplicationMetrics("woodchuck", "time", "bar", 0);
 		ApplicationMetrics app3 = createApplicationMetrics("twitter", "twitterstream", "bar", 0);
 
-		aggregator.receive(mapper.writeValueAsString(app));
-		aggregator.receive(mapper.writeValueAsString(app1));
-		aggregator.receive(mapper.writeValueAsString(app2));
-		aggregator.receive(mapper.writeValueAsString(app3));
+		receive(aggregator, app);
+		receive(aggregator, app1);
+		receive(aggregator, app2);
+		receive(aggregator, app3);
 
 		Assert.assertEquals(2, endpoint.fetchMetrics("httpIngest,woodchuck").getBody().getContent().size());
 	}
 
 	@Test
 	public void filterUsingInvalidDelimiter() throws Exception {
-		Cache<String, LinkedList<ApplicationMetrics<Metric<Double>>>> rawCache = Caffeine.newBuilder().build();
+		Cache<String, ApplicationMetricsHistory> rawCache = Caffeine.newBuilder().build();
 		ApplicationMetricsService service = new ApplicationMetricsService(rawCache);
 		MetricsAggregator aggregator = new MetricsAggregator(service);
 		MetricsCollectorEndpoint endpoint = new MetricsCollectorEndpoint(service);
@@ -260,16 +369,16 @@ public class MetricsAggregatorTests extends BaseCacheTests {
 		ApplicationMetrics app2 = createApplicationMetrics("woodchuck", "time", "bar", 0);
 		ApplicationMetrics app3 = createApplicationMetrics("twitter", "twitterstream", "bar", 0);
 
-		aggregator.receive(mapper.writeValueAsString(app));
-		aggregator.receive(mapper.writeValueAsString(app2));
-		aggregator.receive(mapper.writeValueAsString(app3));
+		receive(aggregator, app);
+		receive(aggregator, app2);
+		receive(aggregator, app3);
 
 		Assert.assertEquals(0, endpoint.fetchMetrics("httpIngest;woodchuck").getBody().getContent().size());
 	}
 
 	@Test
 	public void aggregateMetricsTest() throws Exception {
-		Cache<String, LinkedList<ApplicationMetrics<Metric<Double>>>> rawCache = Caffeine.newBuilder().build();
+		Cache<String, ApplicationMetricsHistory> rawCache = Caffeine.newBuilder().build();
 		ApplicationMetricsService service = new ApplicationMetricsService(rawCache);
 		MetricsAggregator aggregator = new MetricsAggregator(service);
 		MetricsCollectorEndpoint endpoint = new MetricsCollectorEndpoint(service);
@@ -282,8 +391,8 @@ public class MetricsAggregatorTests extends BaseCacheTests {
 		ApplicationMetrics app2 = createApplicationMetrics("httpIngest", "http", "bar", 1);
 		app2.getMetrics().add(inputSendCount);
 
-		aggregator.receive(mapper.writeValueAsString(app));
-		aggregator.receive(mapper.writeValueAsString(app2));
+		receive(aggregator, app);
+		receive(aggregator, app2);
 
 		Metric<Double> inputSendCount2 = new Metric<>("integration.channel.input.sendCount", 10.0, new Date(now + 5000));
 
@@ -293,8 +402,8 @@ public class MetricsAggregatorTests extends BaseCacheTests {
 		ApplicationMetrics app4 = createApplicationMetrics("httpIngest", "http", "bar", 1);
 		app4.getMetrics().add(inputSendCount2);
 
-		aggregator.receive(mapper.writeValueAsString(app3));
-		aggregator.receive(mapper.writeValueAsString(app4));
+		receive(aggregator, app3);
+		receive(aggregator, app4);
 
 		StreamMetrics streamMetrics = endpoint.fetchMetrics("").getBody().iterator().next();
 		Metric<Double> aggregate = streamMetrics.getApplications().get(0).getAggregateMetrics().iterator().next();
@@ -303,13 +412,13 @@ public class MetricsAggregatorTests extends BaseCacheTests {
 
 	@Test
 	public void poisonMetricTest() throws Exception {
-		Cache<String, LinkedList<ApplicationMetrics<Metric<Double>>>> rawCache = Caffeine.newBuilder().build();
+		Cache<String, ApplicationMetricsHistory> rawCache = Caffeine.newBuilder().build();
 		ApplicationMetricsService service = new ApplicationMetricsService(rawCache);
 		MetricsAggregator aggregator = new MetricsAggregator(service);
 		MetricsCollectorEndpoint endpoint = new MetricsCollectorEndpoint(service);
 
 		ApplicationMetrics app = createApplicationMetrics("httpIngest", "http", "foo", 0);
-		aggregator.receive(mapper.writeValueAsString(app));
+		receive(aggregator, app);
 		StreamMetrics streamMetrics = endpoint.fetchMetrics("").getBody().iterator().next();
 
 		Application application = streamMetrics.getApplications().get(0);
@@ -319,7 +428,7 @@ public class MetricsAggregatorTests extends BaseCacheTests {
 		ApplicationMetrics app2 = createApplicationMetrics("httpIngest", "log", "foo", 0);
 		app2.setProperties(new HashMap<>());
 
-		aggregator.receive(mapper.writeValueAsString(app2));
+		receive(aggregator, app2);
 		streamMetrics = endpoint.fetchMetrics("").getBody().iterator().next();
 		Assert.assertNotNull(streamMetrics);
 	}
@@ -330,12 +439,12 @@ public class MetricsAggregatorTests extends BaseCacheTests {
 		MicrometerMetric<Number> inputSendCount = createMetric2("spring.integration.send", "input", 10.0, new Date(now));
 		ApplicationMetrics<MicrometerMetric<Number>> app = createApplicationMetrics2("httpIngest", "http", "foo", 0);
 		app.getMetrics().add(inputSendCount);
-		Cache<String, LinkedList<ApplicationMetrics<Metric<Double>>>> rawCache = Caffeine.newBuilder().build();
+		Cache<String, ApplicationMetricsHistory> rawCache = Caffeine.newBuilder().build();
 		ApplicationMetricsService service = new ApplicationMetricsService(rawCache);
 		MetricsAggregator aggregator = new MetricsAggregator(service);
 		MetricsCollectorEndpoint endpoint = new MetricsCollectorEndpoint(service);
 
-		aggregator.receive(mapper.writeValueAsString(app));
+		receive(aggregator, app);
 
 		Assert.assertEquals(1, rawCache.estimatedSize());
 		StreamMetrics streamMetrics = endpoint.fetchMetrics("").getBody().iterator().next();
@@ -349,9 +458,178 @@ public class MetricsAggregatorTests extends BaseCacheTests {
 		Assert.assertEquals(0, computed.getValue(), 10.0);
 	}
 
+	@Test
+	public void filterMetric2() throws JsonProcessingException {
+		Long now = System.currentTimeMillis();
+		ApplicationMetrics<MicrometerMetric<Number>> app = createApplicationMetrics2("httpIngest", "http", "foo", 0);
+		app.getMetrics().add(createMetric2("jvm.memory.used", "heap", 1024.0, new Date(now)));
+		MicrometerMetric<Number> send = createMetric2("spring.integration.send", "output", 10.0, new Date(now));
+		send.setMean(0.5);
+		send.setUpper(2.0);
+		app.getMetrics().add(send);
+		MicrometerMetric<Number> failedSend = createMetric2("spring.integration.send", "errorChannel", 5.0, new Date(now));
+		failedSend.getId().getTags().get(2).setValue("failure");
+		app.getMetrics().add(failedSend);
+		Cache<String, ApplicationMetricsHistory> rawCache = Caffeine.newBuilder().build();
+		ApplicationMetricsService service = new ApplicationMetricsService(rawCache);
+		MetricsAggregator aggregator = new MetricsAggregator(service);
+
+		receive(aggregator, app);
+
+		ApplicationMetrics<Metric<Double>> stored = rawCache.getIfPresent(app.getName()).getLatest();
+		Assert.assertEquals(3, stored.getMetrics().size());
+		Iterator<Metric<Double>> metrics = stored.getMetrics().iterator();
+		Metric<Double> metric = metrics.next();
+		Assert.assertEquals("integration.channel.output.send.mean", metric.getName());
+		Assert.assertEquals(10.0, metric.getValue(), 0.0);
+		Assert.assertEquals(now.longValue(), metric.getTimestamp().getTime());
+		Metric<Double> mean = metrics.next();
+		Assert.assertEquals("integration.channel.output.send.duration.mean", mean.getName());
+		Assert.assertEquals(0.5, mean.getValue(), 0.0);
+		Metric<Double> max = metrics.next();
+		Assert.assertEquals("integration.channel.output.send.duration.max", max.getName());
+		Assert.assertEquals(2.0, max.getValue(), 0.0);
+		Assert.assertEquals("foo", stored.getProperties().get(ApplicationMetrics.APPLICATION_GUID));
+		Assert.assertEquals(ApplicationMetrics.METRICS_VERSION_2, service.getMetricsVersion(stored));
+	}
+
+	@Test
+	public void micrometerMetricTags() {
+		MicrometerMetric.Id id = createMetric2("spring.integration.send", "output", 10.0, new Date()).getId();
+		Assert.assertEquals("output", id.getTag("name"));
+		Assert.assertEquals("channel", id.getTag("type"));
+		Assert.assertEquals("success", id.getTag("result"));
+		Assert.assertNull(id.getTag("exception"));
+
+		id.getTags().get(2).setValue("failure");
+		id.getTags().add(tag("exception", "none"));
+		id.getTags().add(tag("name", "duplicate"));
+		Assert.assertEquals("failure", id.getTag("result"));
+		Assert.assertEquals("none", id.getTag("exception"));
+		Assert.assertEquals("output", id.getTag("name"));
+
+		id.setTags(new ArrayList<>());
+		Assert.assertNull(id.getTag("name"));
+	}
+
+	@Test
+	public void detectMetric2WithoutChannelMetrics() throws JsonProcessingException {
+		ApplicationMetrics<MicrometerMetric<Number>> app = createApplicationMetrics2("httpIngest", "http", "foo", 0);
+		app.getMetrics().add(createMetric2("jvm.memory.used", "heap", 1024.0, new Date()));
+		Cache<String, ApplicationMetricsHistory> rawCache = Caffeine.newBuilder().build();
+		ApplicationMetricsService service = new ApplicationMetricsService(rawCache);
+		MetricsAggregator aggregator = new MetricsAggregator(service);
+
+		receive(aggregator, app);
+
+		ApplicationMetrics<Metric<Double>> stored = rawCache.getIfPresent(app.getName()).getLatest();
+		Assert.assertTrue(stored.getMetrics().isEmpty());
+		Assert.assertEquals(ApplicationMetrics.METRICS_VERSION_2, service.getMetricsVersion(stored));
+	}
+
+	@Test
+	public void detectEmptyMetric2FromProperties() throws JsonProcessingException {
+		ApplicationMetrics<MicrometerMetric<Number>> app = createApplicationMetrics2("httpIngest", "http", "foo", 0);
+		Cache<String, ApplicationMetricsHistory> rawCache = Caffeine.newBuilder().build();
+		ApplicationMetricsService service = new ApplicationMetricsService(rawCache);
+		MetricsAggregator aggregator = new MetricsAggregator(service);
+
+		receive(aggregator, app);
+
+		ApplicationMetrics<Metric<Double>> stored = rawCache.getIfPresent(app.getName()).getLatest();
+		Assert.assertEquals(ApplicationMetrics.METRICS_VERSION_2, service.getMetricsVersion(stored));
+	}
+
+	@Test
+	public void defaultDecoderOrder() throws JsonProcessingException {
+		ApplicationMetrics<Metric<Double>> app = createApplicationMetrics("httpIngest", "http", "foo", 0);
+		app.getProperties().remove(ApplicationMetrics.STREAM_METRICS_VERSION);
+		Cache<String, ApplicationMetricsHistory> rawCache = Caffeine.newBuilder().build();
+		ApplicationMetricsService service = new ApplicationMetricsService(rawCache);
+		MetricsAggregator aggregator = new MetricsAggregator(service, new ApplicationMetricsReader(
+				Arrays.asList(new MicrometerMetricsDecoder(), new SpringBootMetricsDecoder())));
+
+		receive(aggregator, app);
+
+		ApplicationMetrics<Metric<Double>> stored = rawCache.getIfPresent(app.getName()).getLatest();
+		Assert.assertEquals(ApplicationMetrics.METRICS_VERSION_1, service.getMetricsVersion(stored));
+	}
+
+	@Test
+	public void metricsVersionHeader() throws JsonProcessingException {
+		ApplicationMetrics<Metric<Double>> app = createApplicationMetrics("httpIngest", "http", "foo", 0);
+		Cache<String, ApplicationMetricsHistory> rawCache = Caffeine.newBuilder().build();
+		ApplicationMetricsService service = new ApplicationMetricsService(rawCache);
+		MetricsAggregator aggregator = new MetricsAggregator(service);
+
+		aggregator.receive(mapper.writeValueAsString(app), ApplicationMetrics.METRICS_VERSION_2);
+
+		ApplicationMetrics<Metric<Double>> stored = rawCache.getIfPresent(app.getName()).getLatest();
+		Assert.assertEquals(ApplicationMetrics.METRICS_VERSION_2, service.getMetricsVersion(stored));
+	}
+
+	@Test
+	public void bytesMetricsVersionHeader() {
+		Assert.assertEquals(ApplicationMetrics.METRICS_VERSION_2,
+				MetricsCollectorConfiguration.metricsVersion(new MessageHeaders(Collections.singletonMap(
+						ApplicationMetrics.STREAM_METRICS_VERSION,
+						ApplicationMetrics.METRICS_VERSION_2.getBytes(StandardCharsets.UTF_8)))));
+		Assert.assertEquals(ApplicationMetrics.METRICS_VERSION_1,
+				MetricsCollectorConfiguration.metricsVersion(new MessageHeaders(Collections.singletonMap(
+						ApplicationMetrics.STREAM_METRICS_VERSION, ApplicationMetrics.METRICS_VERSION_1))));
+		Assert.assertNull(MetricsCollectorConfiguration.metricsVersion(new MessageHeaders(Collections.emptyMap())));
+	}
+
+	@Test
+	public void batchIngestion() throws Exception {
+		Long now = System.currentTimeMillis();
+		Cache<String, ApplicationMetricsHistory> rawCache = Caffeine.newBuilder().build();
+		ApplicationMetricsService service = new ApplicationMetricsService(rawCache);
+		ApplicationMetricsBatcher batcher = new ApplicationMetricsBatcher(service, 10, 50);
+		MetricsAggregator aggregator = new MetricsAggregator(service, new ApplicationMetricsReader(), batcher);
+		MetricsCollectorEndpoint endpoint = new MetricsCollectorEndpoint(service);
+		batcher.start();
+
+		for (int i = 0; i < 3; i++) {
+			ApplicationMetrics<Metric<Double>> app = createApplicationMetrics("httpIngest", "http", "foo", 0);
+			app.getMetrics().add(new Metric<>("integration.channel.input.sendCount", i * 100.0, new Date(now + i * 5000)));
+			receive(aggregator, app);
+		}
+		receive(aggregator, createApplicationMetrics("httpIngest", "log", "bar", 0));
+		batcher.stop();
+
+		Assert.assertEquals(2, rawCache.estimatedSize());
+		ApplicationMetricsHistory readings = rawCache.getIfPresent("httpIngest.http.foo");
+		Assert.assertEquals(2, readings.getCount());
+		Assert.assertEquals(200.0, readings.getLatest().getMetrics().iterator().next().getValue(), 0.0);
+		Assert.assertEquals(100.0, readings.getPrevious().getMetrics().iterator().next().getValue(), 0.0);
+		StreamMetrics streamMetrics = endpoint.fetchMetrics("").getBody().iterator().next();
+		Instance instance = streamMetrics.getApplications().stream().filter(a -> a.getName().equals("http"))
+				.findFirst().get().getInstances().get(0);
+		Metric<Double> computed = instance.getMetrics().stream().filter(metric -> metric.getName().equals("integration.channel.input.send.mean")).findFirst().get();
+		Assert.assertEquals(20.0, computed.getValue(), 0.0);
+	}
+
+	@Test(timeout = 10000)
+	public void receiveAfterBatcherStop() throws Exception {
+		Cache<String, ApplicationMetricsHistory> rawCache = Caffeine.newBuilder().build();
+		ApplicationMetricsService service = new ApplicationMetricsService(rawCache);
+		ApplicationMetricsBatcher batcher = new ApplicationMetricsBatcher(service, 1, 50);
+		MetricsAggregator aggregator = new MetricsAggregator(service, new ApplicationMetricsReader(), batcher);
+		batcher.start();
+		batcher.stop();
+
+		// more readings than the batcher buffer holds
+		for (int i = 0; i < 10; i++) {
+			receive(aggregator, createApplicationMetrics("httpIngest", "http", "foo" + i, 0));
+		}
+
+		Assert.assertEquals(10, rawCache.estimatedSize());
+	}
+
 	@Test
 	public void aggregateMixedMetricsTest() throws Exception {
-		Cache<String, LinkedList<ApplicationMetrics<Metric<Double>>>> rawCache = Caffeine.newBuilder().build();
+		Cache<String, ApplicationMetricsHistory> rawCache = Caffeine.newBuilder().build();
 		ApplicationMetricsService service = new ApplicationMetricsService(rawCache);
 		MetricsAggregator aggregator = new MetricsAggregator(service);
 		MetricsCollectorEndpoint endpoint = new MetricsCollectorEndpoint(service);
@@ -364,8 +642,8 @@ public class MetricsAggregatorTests extends BaseCacheTests {
 		ApplicationMetrics app2 = createApplicationMetrics("httpIngest", "time", "bar", 1);
 		app2.getMetrics().add(inputSendCount);
 
-		aggregator.receive(mapper.writeValueAsString(app));
-		aggregator.receive(mapper.writeValueAsString(app2));
+		receive(aggregator, app);
+		receive(aggregator, app2);
 
 
 		ApplicationMetrics app3 = createApplicationMetrics("httpIngest", "time", "foo", 0);
@@ -377,9 +655,9 @@ public class MetricsAggregatorTests extends BaseCacheTests {
 		ApplicationMetrics app5 = createApplicationMetrics2("httpIngest", "log2", "bar2", 1);
 		app5.getMetrics().add(createMetric2("spring.integration.send", "output", 20.0, new Date(now + 2 * 5000)));
 
-		aggregator.receive(mapper.writeValueAsString(app3));
-		aggregator.receive(mapper.writeValueAsString(app4));
-		aggregator.receive(mapper.writeValueAsString(app5));
+		receive(aggregator, app3);
+		receive(aggregator, app4);
+		receive(aggregator, app5);
 
 		StreamMetrics streamMetrics = endpoint.fetchMetrics("").getBody().iterator().next();
 		Metric<Double> aggregate = streamMetrics.getApplications().get(0).getAggregateMetrics().iterator().next();
@@ -388,6 +666,13 @@ public class MetricsAggregatorTests extends BaseCacheTests {
 		Assert.assertEquals(30.0, aggregate2.getValue(), 0.0);
 	}
 
+	/**
+	 * Hands the serialized metrics over to the aggregator the way the String payload listener does.
+	 */
+	protected void receive(MetricsAggregator aggregator, ApplicationMetrics<?> applicationMetrics) throws JsonProcessingException {
+		aggregator.receive(mapper.writeValueAsString(applicationMetrics));
+	}
+
 	private ApplicationMetrics<Metric<Double>> createApplicationMetrics(String streamName, String applicationName, String appGuid, Integer index) {
 		return createApplicationMetrics(streamName, applicationName, appGuid, index, new LinkedList<>());
 	}
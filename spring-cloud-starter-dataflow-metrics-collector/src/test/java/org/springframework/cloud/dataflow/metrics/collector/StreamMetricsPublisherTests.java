@@ -0,0 +1,211 @@
+/*
+ * Copyright 2018 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.springframework.cloud.dataflow.metrics.collector;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+
+import com.github.benmanes.caffeine.cache.Caffeine;
+import org.junit.After;
+import org.junit.Assert;
+import org.junit.Test;
+
+import org.springframework.cloud.dataflow.metrics.collector.model.Application;
+import org.springframework.cloud.dataflow.metrics.collector.model.Instance;
+import org.springframework.cloud.dataflow.metrics.collector.model.StreamMetrics;
+import org.springframework.cloud.dataflow.metrics.collector.services.ApplicationMetricsService;
+import org.springframework.cloud.dataflow.metrics.collector.services.StreamMetricsPublisher;
+
+/**
+ * @author Christian Tzolov
+ */
+public class StreamMetricsPublisherTests {
+
+	private final ApplicationMetricsService service = new ApplicationMetricsService(Caffeine.newBuilder().build());
+
+	private StreamMetricsPublisher publisher;
+
+	@After
+	public void teardown() {
+		publisher.destroy();
+	}
+
+	@Test
+	public void coalescedUpdates() throws Exception {
+		publisher = publisher(300, 100);
+		BlockingQueue<StreamMetrics> received = new LinkedBlockingQueue<>();
+		publisher.subscribe(Collections.singleton("ticktock"), received::add);
+
+		service.add(ApplicationMetricsFixtures.createSendRate("ticktock", "time", "a", 1));
+		StreamMetrics first = received.poll(5, TimeUnit.SECONDS);
+		Assert.assertEquals("ticktock", first.getName());
+		Assert.assertEquals(Arrays.asList("a"), guids(first));
+
+		service.add(ApplicationMetricsFixtures.createSendRate("ticktock", "time", "a", 2));
+		service.add(ApplicationMetricsFixtures.createSendRate("ticktock", "time", "a", 3));
+		service.add(ApplicationMetricsFixtures.createSendRate("ticktock", "log", "b", 1));
+		service.add(ApplicationMetricsFixtures.createSendRate("http", "http", "c", 1));
+		Assert.assertNull(received.poll(100, TimeUnit.MILLISECONDS));
+
+		StreamMetrics second = received.poll(5, TimeUnit.SECONDS);
+		Assert.assertEquals(Arrays.asList("a", "b"), guids(second));
+		Assert.assertEquals(2, second.getApplications().size());
+		Instance a = second.getApplications().get(0).getInstances().get(0);
+		Assert.assertEquals(3.0, a.getMetrics().iterator().next().getValue(), 0.0);
+		Assert.assertNull(received.poll(500, TimeUnit.MILLISECONDS));
+	}
+
+	@Test
+	public void boundedBuffer() throws Exception {
+		publisher = publisher(300, 2);
+		BlockingQueue<StreamMetrics> received = new LinkedBlockingQueue<>();
+		StreamMetricsPublisher.Subscription subscription = publisher
+				.subscribe(Arrays.asList("ticktock", "http"), received::add);
+
+		service.add(ApplicationMetricsFixtures.createSendRate("ticktock", "time", "a", 1));
+		Assert.assertNotNull(received.poll(5, TimeUnit.SECONDS));
+
+		service.add(ApplicationMetricsFixtures.createSendRate("ticktock", "time", "a", 2));
+		service.add(ApplicationMetricsFixtures.createSendRate("http", "http", "b", 1));
+		service.add(ApplicationMetricsFixtures.createSendRate("http", "http", "c", 1));
+		service.add(ApplicationMetricsFixtures.createSendRate("http", "http", "c", 2));
+
+		StreamMetrics http = received.poll(5, TimeUnit.SECONDS);
+		Assert.assertEquals("http", http.getName());
+		Assert.assertEquals(Arrays.asList("b", "c"), guids(http));
+		Assert.assertEquals(1, subscription.getDropped());
+		Assert.assertNull(received.poll(100, TimeUnit.MILLISECONDS));
+	}
+
+	@Test
+	public void failingSubscriberIsCancelled() throws Exception {
+		publisher = publisher(0, 100);
+		BlockingQueue<StreamMetrics> received = new LinkedBlockingQueue<>();
+		StreamMetricsPublisher.Subscription subscription = publisher.subscribe(Collections.singleton("ticktock"),
+				streamMetrics -> {
+					received.add(streamMetrics);
+					throw new IOException("disconnected");
+				});
+
+		service.add(ApplicationMetricsFixtures.createSendRate("ticktock", "time", "a", 1));
+		Assert.assertNotNull(received.poll(5, TimeUnit.SECONDS));
+
+		// dropped whether it is buffered before the cancellation or offered after it
+		service.add(ApplicationMetricsFixtures.createSendRate("ticktock", "time", "a", 2));
+		Assert.assertNull(received.poll(100, TimeUnit.MILLISECONDS));
+		Assert.assertTrue(subscription.isCancelled());
+	}
+
+	@Test
+	public void blockedSubscriberTimesOut() throws Exception {
+		publisher = new StreamMetricsPublisher(service, 0, 100, 300, 10, 2);
+		service.addListener(publisher);
+		CountDownLatch blocked = new CountDownLatch(1);
+		CountDownLatch timedOut = new CountDownLatch(1);
+		StreamMetricsPublisher.Subscription stalled = publisher.subscribe(Collections.singleton("ticktock"),
+				new StreamMetricsPublisher.Subscriber() {
+
+					@Override
+					public void send(StreamMetrics streamMetrics) {
+						try {
+							blocked.await();
+						}
+						catch (InterruptedException e) {
+							Thread.currentThread().interrupt();
+						}
+					}
+
+					@Override
+					public void sendTimedOut() {
+						timedOut.countDown();
+					}
+				});
+		BlockingQueue<StreamMetrics> received = new LinkedBlockingQueue<>();
+		publisher.subscribe(Collections.singleton("ticktock"), received::add);
+
+		try {
+			service.add(ApplicationMetricsFixtures.createSendRate("ticktock", "time", "a", 1));
+			Assert.assertNotNull(received.poll(5, TimeUnit.SECONDS));
+			service.add(ApplicationMetricsFixtures.createSendRate("ticktock", "time", "a", 2));
+			Assert.assertNotNull(received.poll(5, TimeUnit.SECONDS));
+
+			Assert.assertTrue(timedOut.await(5, TimeUnit.SECONDS));
+			Assert.assertTrue(stalled.isCancelled());
+			service.add(ApplicationMetricsFixtures.createSendRate("ticktock", "time", "a", 3));
+			Assert.assertNotNull(received.poll(5, TimeUnit.SECONDS));
+		}
+		finally {
+			blocked.countDown();
+		}
+	}
+
+	@Test
+	public void cancelledSubscription() throws Exception {
+		publisher = publisher(0, 100);
+		BlockingQueue<StreamMetrics> received = new LinkedBlockingQueue<>();
+		StreamMetricsPublisher.Subscription subscription = publisher.subscribe(Collections.singleton("ticktock"),
+				received::add);
+		subscription.cancel();
+
+		service.add(ApplicationMetricsFixtures.createSendRate("ticktock", "time", "a", 1));
+		Assert.assertNull(received.poll(200, TimeUnit.MILLISECONDS));
+	}
+
+	@Test
+	public void boundedSubscribers() throws Exception {
+		publisher = new StreamMetricsPublisher(service, 0, 100, 10000, 2, 1);
+		service.addListener(publisher);
+		BlockingQueue<StreamMetrics> received = new LinkedBlockingQueue<>();
+		StreamMetricsPublisher.Subscription first = publisher.subscribe(Collections.singleton("ticktock"),
+				received::add);
+		Assert.assertNotNull(publisher.subscribe(Collections.singleton("ticktock"), received::add));
+		Assert.assertNull(publisher.subscribe(Collections.singleton("ticktock"), received::add));
+
+		first.cancel();
+		first.cancel();
+		Assert.assertNotNull(publisher.subscribe(Collections.singleton("ticktock"), received::add));
+		Assert.assertNull(publisher.subscribe(Collections.singleton("ticktock"), received::add));
+
+		service.add(ApplicationMetricsFixtures.createSendRate("ticktock", "time", "a", 1));
+		Assert.assertNotNull(received.poll(5, TimeUnit.SECONDS));
+		Assert.assertNotNull(received.poll(5, TimeUnit.SECONDS));
+		Assert.assertNull(received.poll(100, TimeUnit.MILLISECONDS));
+	}
+
+	private StreamMetricsPublisher publisher(long interval, int bufferSize) {
+		StreamMetricsPublisher publisher = new StreamMetricsPublisher(service, interval, bufferSize);
+		service.addListener(publisher);
+		return publisher;
+	}
+
+	private static List<String> guids(StreamMetrics streamMetrics) {
+		List<String> guids = new ArrayList<>();
+		for (Application application : streamMetrics.getApplications()) {
+			for (Instance instance : application.getInstances()) {
+				guids.add(instance.getGuid());
+			}
+		}
+		return guids;
+	}
+}